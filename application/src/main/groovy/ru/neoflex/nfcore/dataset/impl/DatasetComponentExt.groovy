@@ -3,6 +3,7 @@ package ru.neoflex.nfcore.dataset.impl
 import com.orientechnologies.orient.core.db.ODatabaseRecordThreadLocal
 import com.sun.jmx.remote.util.ClassLogger
 import groovy.json.JsonOutput
+import groovy.json.JsonSlurper
 import org.eclipse.emf.common.util.ECollections
 import org.eclipse.emf.common.util.EList
 import org.eclipse.emf.ecore.resource.ResourceSet
@@ -10,6 +11,7 @@ import ru.neoflex.nfcore.base.services.Context
 import ru.neoflex.nfcore.base.services.providers.StoreSPI
 import ru.neoflex.nfcore.base.services.providers.TransactionSPI
 import ru.neoflex.nfcore.base.util.DocFinder
+import ru.neoflex.nfcore.base.util.EmfJson
 import ru.neoflex.nfcore.dataset.*
 import ru.neoflex.nfcore.dataset.impl.adapters.CalculatorAdapter
 import ru.neoflex.nfcore.jdbcLoader.NamedParameterStatement
@@ -17,6 +19,7 @@ import ru.neoflex.nfcore.utils.JdbcUtils
 
 import java.sql.Connection
 import java.sql.ResultSet
+import java.sql.SQLException
 
 enum DMLQueryType {
     INSERT,
@@ -26,6 +29,14 @@ enum DMLQueryType {
 
 class DatasetComponentExt extends DatasetComponentImpl {
     static final defaultDateFormat = "YYYY-MM-DD"
+    static final long TOTAL_COUNT_TTL = 60000
+    static final int TOTAL_COUNT_CACHE_SIZE = 1000
+    static final Map<String, Map> totalCountCache = Collections.synchronizedMap(new LinkedHashMap<String, Map>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Map> eldest) {
+            return size() > TOTAL_COUNT_CACHE_SIZE
+        }
+    })
 
     @Override
     String createAllColumns() {
@@ -140,6 +151,77 @@ class DatasetComponentExt extends DatasetComponentImpl {
     }
 
 
+    @Override
+    String runQueryPage(
+            EList<QueryParameter> parameters,
+            EList<QueryFilterDTO> filters,
+            EList<QueryConditionDTO> aggregations,
+            EList<QueryConditionDTO> sorts,
+            EList<QueryFilterDTO> groupBy,
+            EList<QueryConditionDTO> calculatedExpression,
+            EList<QueryConditionDTO> groupByColumn,
+            Integer offset,
+            Integer limit,
+            Boolean withTotal
+    ) {
+        if (!column) {
+            throw new IllegalArgumentException("Please created columns in this object.")
+        }
+        int from = offset ?: 0
+        def resource = DocFinder.create(Context.current.store, DatasetPackage.Literals.DATASET_COMPONENT, [name: this.name])
+                .execute().resourceSet
+        def datasetComponent = (resource.resources[0].contents[0] as DatasetComponent)
+        if (datasetComponent.dataset instanceof JdbcDataset &&
+                datasetComponent.dataset.connection.driver.driverClassName != JdbcConnectionExt.ORIENTDB_DRIVER) {
+            def rows = []
+            def total = queryToDB(parameters, filters, aggregations, sorts, groupBy, calculatedExpression, groupByColumn, resource, from, limit, withTotal == Boolean.TRUE, { Map row ->
+                rows.add(row)
+            })
+            return JsonOutput.toJson([rows: rows, offset: from, limit: limit, total: total])
+        }
+        // groovy and OrientDB datasets are paged in memory
+        def allRows = new JsonSlurper().parseText(runQuery(parameters, filters, aggregations, sorts, groupBy, calculatedExpression, groupByColumn)) as List
+        def rows = allRows.drop(from)
+        if (limit != null) {
+            rows = rows.take(limit)
+        }
+        return JsonOutput.toJson([rows: rows, offset: from, limit: limit, total: withTotal ? (long) allRows.size() : null])
+    }
+
+    /**
+     * Same as runQuery, but jdbc rows are written to the output stream as a JSON array as they are fetched.
+     */
+    void runQueryToStream(
+            EList<QueryParameter> parameters,
+            EList<QueryFilterDTO> filters,
+            EList<QueryConditionDTO> aggregations,
+            EList<QueryConditionDTO> sorts,
+            EList<QueryFilterDTO> groupBy,
+            EList<QueryConditionDTO> calculatedExpression,
+            EList<QueryConditionDTO> groupByColumn,
+            OutputStream out
+    ) {
+        if (!column) {
+            throw new IllegalArgumentException("Please created columns in this object.")
+        }
+        def resource = DocFinder.create(Context.current.store, DatasetPackage.Literals.DATASET_COMPONENT, [name: this.name])
+                .execute().resourceSet
+        def datasetComponent = (resource.resources[0].contents[0] as DatasetComponent)
+        if (datasetComponent.dataset instanceof JdbcDataset &&
+                datasetComponent.dataset.connection.driver.driverClassName != JdbcConnectionExt.ORIENTDB_DRIVER) {
+            def generator = EmfJson.mapper.factory.createGenerator(out)
+            generator.writeStartArray()
+            queryToDB(parameters, filters, aggregations, sorts, groupBy, calculatedExpression, groupByColumn, resource, null, null, false, { Map row ->
+                generator.writeObject(row)
+            })
+            generator.writeEndArray()
+            generator.flush()
+        }
+        else {
+            out.write(runQuery(parameters, filters, aggregations, sorts, groupBy, calculatedExpression, groupByColumn).getBytes("UTF-8"))
+        }
+    }
+
     List<DatasetColumnView> getLeafColumns(EList<DatasetColumnView> column, List<DatasetColumnView> leafColumns) {
         for (col in column) {
             if (col instanceof ColumnGroup && col.column != null) {
@@ -151,13 +233,37 @@ class DatasetComponentExt extends DatasetComponentImpl {
         return leafColumns
     }
 
+    /**
+     * Offset paging is stable only in a total order, so the user sorts of a page are completed by the columns
+     * marked as the primary key. Without a key the pages follow the order of the query.
+     */
+    static List<String> getKeySorts(List<DatasetColumnView> leafColumns, List<Map> serverSorts) {
+        return leafColumns
+                .findAll { it instanceof RdbmsColumn && it.isPrimaryKey && it.datasetColumn != null }
+                .findAll { !serverSorts.column.contains(it.name) }
+                .collect { "t.\"${it.name}\" ASC".toString() }
+    }
+
     List<Map> connectionToDB(EList<QueryParameter> parameters, EList<QueryFilterDTO> filters, EList<QueryConditionDTO> aggregations, EList<QueryConditionDTO> sorts, EList<QueryFilterDTO> groupBy, EList<QueryConditionDTO> calculatedExpression, EList<QueryConditionDTO> groupByColumn, ResourceSet resource) {
+        def rowData = []
+        queryToDB(parameters, filters, aggregations, sorts, groupBy, calculatedExpression, groupByColumn, resource, null, null, false, { Map row -> rowData.add(row) })
+        return rowData
+    }
+
+    Long queryToDB(EList<QueryParameter> parameters, EList<QueryFilterDTO> filters, EList<QueryConditionDTO> aggregations, EList<QueryConditionDTO> sorts, EList<QueryFilterDTO> groupBy, EList<QueryConditionDTO> calculatedExpression, EList<QueryConditionDTO> groupByColumn, ResourceSet resource, Integer offset, Integer limit, boolean withTotal, Closure rowHandler) {
         NamedParameterStatement p;
         ResultSet rs;
-        def rowData = []
+        Long total = null
         def jdbcDataset = dataset as JdbcDataset
 
-        Connection jdbcConnection = (jdbcDataset.connection as JdbcConnectionExt).connect()
+        def jdbcConnectionExt = jdbcDataset.connection as JdbcConnectionExt
+        Connection jdbcConnection = jdbcConnectionExt.connect()
+        try {
+            // some drivers (PostgreSQL) fetch rows with a cursor only outside of auto commit mode
+            jdbcConnection.autoCommit = false
+        } catch (SQLException e) {
+            logger.info("queryToDB", "auto commit can't be disabled: " + e.message)
+        }
         try {
             /*Execute query*/
             def queryColumns = []
@@ -433,15 +539,43 @@ class DatasetComponentExt extends DatasetComponentImpl {
                             "\n  FROM (${currentQuery}) t"
                 }
             }
-            if (serverSorts && !serverAggregations) {
+            def orderBy = serverSorts.select
+            if ((offset || limit != null) && !serverGroupByAggregation) {
+                orderBy = orderBy + getKeySorts(leafColumns, serverSorts)
+            }
+            if (orderBy && !serverAggregations) {
                 currentQuery = "\nSELECT *" +
                         "\n  FROM (${currentQuery}) t" +
-                        "\n ORDER BY ${serverSorts.select.join(' , ')}"
+                        "\n ORDER BY ${orderBy.join(' , ')}"
             }
             if (serverAggregations){
                 currentQuery = " \nSELECT ${serverAggregations.select.join(' , ')}" +
                         "\n  FROM (${currentQuery}) t"
             }
+            def dbAdapter = CalculatorAdapter.getDBAdapter(jdbcDataset.connection.driver.driverClassName)
+            if (withTotal) {
+                total = countRows(jdbcConnection, dbAdapter, currentQuery.toString(), parameters)
+            }
+            if (offset || limit != null) {
+                if (dbAdapter.supportsLimitQuery(jdbcConnection)) {
+                    currentQuery = dbAdapter.limitQuery(currentQuery.toString(), offset ?: 0, limit)
+                }
+                else {
+                    // the rows are still fetched from the database, but only the page is handled
+                    int skip = offset ?: 0
+                    int handled = 0
+                    def pageHandler = rowHandler
+                    rowHandler = { Map row ->
+                        if (skip > 0) {
+                            --skip
+                        }
+                        else if (limit == null || handled < limit) {
+                            ++handled
+                            pageHandler(row)
+                        }
+                    }
+                }
+            }
 
             logger.info("connectionToDB", "Starting query = " + currentQuery)
             logger.info("connectionToDB", "parameters = " + parameters)
@@ -452,6 +586,7 @@ class DatasetComponentExt extends DatasetComponentImpl {
                     p = JdbcUtils.getNamedParameterStatement(parameters, p)
                 }
                 try {
+                    p.statement.fetchSize = jdbcConnectionExt.effectiveFetchSize
                     rs = p.executeQuery();
                     def columnCount = rs.metaData.columnCount
                     if (datasetOperations.size() > 1){
@@ -473,7 +608,7 @@ class DatasetComponentExt extends DatasetComponentImpl {
                                     key = "${rs.metaData.getColumnName(index)}"
                                     map[key] = value
                                 }
-                                rowData.add(map)
+                                rowHandler(map)
                             }
                         }
                     }
@@ -494,7 +629,7 @@ class DatasetComponentExt extends DatasetComponentImpl {
                                 key = "${rs.metaData.getColumnName(i)}"
                                 map[key] = value
                             }
-                            rowData.add(map)
+                            rowHandler(map)
                         }}
                 } finally {
                     (rs) ? rs.close() : null
@@ -505,7 +640,37 @@ class DatasetComponentExt extends DatasetComponentImpl {
         } finally {
             (jdbcConnection) ? jdbcConnection.close() : null
         }
-        return rowData
+        return total
+    }
+
+    /**
+     * Counts rows of the query. Counts are cached for TOTAL_COUNT_TTL by connection, query text and parameter values,
+     * so paging through the dataset runs the count query once.
+     */
+    Long countRows(Connection jdbcConnection, CalculatorAdapter dbAdapter, String query, EList<QueryParameter> parameters) {
+        def jdbcDataset = dataset as JdbcDataset
+        def key = "${jdbcDataset.connection.url}|${query}|${parameters ? parameters.collect { "${it.parameterName}=${it.parameterValue}" }.join('&') : ''}".toString()
+        def cached = totalCountCache.get(key)
+        if (cached != null && System.currentTimeMillis() - cached.time < TOTAL_COUNT_TTL) {
+            return cached.total
+        }
+        Long total = null
+        def p = new NamedParameterStatement(jdbcConnection, dbAdapter.countQuery(query))
+        try {
+            if (parameters) {
+                p = JdbcUtils.getNamedParameterStatement(parameters, p)
+            }
+            def rs = p.executeQuery()
+            try {
+                total = rs.next() ? rs.getLong(1) : 0L
+            } finally {
+                rs.close()
+            }
+        } finally {
+            p.close()
+        }
+        totalCountCache.put(key, [total: total, time: System.currentTimeMillis()])
+        return total
     }
 
     @Override
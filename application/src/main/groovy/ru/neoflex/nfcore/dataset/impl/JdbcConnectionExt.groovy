@@ -5,6 +5,7 @@ import groovy.json.JsonOutput
 import org.slf4j.Logger
 import org.slf4j.LoggerFactory
 import ru.neoflex.nfcore.base.util.DriverShim
+import ru.neoflex.nfcore.base.util.JdbcConnectionPool
 
 import java.sql.Connection
 import java.sql.DriverManager
@@ -12,12 +13,25 @@ import java.sql.ResultSet
 
 class JdbcConnectionExt extends JdbcConnectionImpl {
     private static final Logger logger = LoggerFactory.getLogger(JdbcConnectionExt.class);
+    static final String ORIENTDB_DRIVER = 'com.orientechnologies.orient.jdbc.OrientJdbcDriver'
+    static final int DEFAULT_FETCH_SIZE = 1000
 
     Connection connect() {
-        DriverShim.registerDriver(driver.driverClassName)
-        Connection jdbcConnection = DriverManager.getConnection(url, userName, password)
-        logger.info("Connected to " + url)
-        return jdbcConnection
+        // OrientDB jdbc connections are bound to the thread local database, so they are never pooled
+        if (driver.driverClassName == ORIENTDB_DRIVER || poolMaxSize == 0) {
+            DriverShim.registerDriver(driver.driverClassName)
+            Connection jdbcConnection = DriverManager.getConnection(url, userName, password)
+            logger.info("Connected to " + url)
+            return jdbcConnection
+        }
+        def pool = JdbcConnectionPool.getPool(name ?: url, driver.driverClassName, url, userName, password,
+                poolMaxSize ?: JdbcConnectionPool.DEFAULT_MAX_SIZE,
+                validationTimeout ?: JdbcConnectionPool.DEFAULT_VALIDATION_TIMEOUT)
+        return pool.getConnection()
+    }
+
+    int getEffectiveFetchSize() {
+        return fetchSize != null ? fetchSize : DEFAULT_FETCH_SIZE
     }
 
     static List<Map<String, String>> select(Connection conn, String sql) {
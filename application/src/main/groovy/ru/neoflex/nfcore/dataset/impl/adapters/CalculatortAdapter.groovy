@@ -1,5 +1,7 @@
 package ru.neoflex.nfcore.dataset.impl.adapters
 
+import java.sql.Connection
+
 abstract class CalculatorAdapter {
     String substring(String arg1, String arg2, String arg3) {
         return "substring(${arg1},${arg2},${arg3})"
@@ -82,6 +84,28 @@ abstract class CalculatorAdapter {
         return "nullif(${arg1},${arg2})"
     }
 
+    /**
+     * Pages the query with the SQL:2008 OFFSET ... FETCH NEXT clause (Oracle 12c, SQL Server 2012 and newer)
+     */
+    String limitQuery(String query, int offset, Integer limit) {
+        def result = "${query}\n OFFSET ${offset} ROWS"
+        if (limit != null) {
+            result += "\n FETCH NEXT ${limit} ROWS ONLY"
+        }
+        return result
+    }
+
+    /**
+     * False if the database doesn't support limitQuery, then the rows are skipped and limited while they are fetched
+     */
+    boolean supportsLimitQuery(Connection connection) {
+        return true
+    }
+
+    String countQuery(String query) {
+        return "SELECT count(*) FROM (${query}) t"
+    }
+
 
     static CalculatorAdapter getDBAdapter(String driver) {
         switch (driver) {
@@ -91,6 +115,10 @@ abstract class CalculatorAdapter {
                 return OracleCalculatorAdapter.getInstance()
             case "com.orientechnologies.orient.jdbc.OrientJdbcDriver":
                 return OrientDBCalculatorAdapter.getInstance()
+            case "com.mysql.jdbc.Driver":
+            case "com.mysql.cj.jdbc.Driver":
+            case "org.mariadb.jdbc.Driver":
+                return MySQLCalculatorAdapter.getInstance()
             default:
                 return DefaultCalculatorAdapter.getInstance()
         }
@@ -101,6 +129,11 @@ class PostgreCalculatorAdapter extends CalculatorAdapter {
     private static final INSTANCE = new PostgreCalculatorAdapter()
     static getInstance() { return INSTANCE }
 
+    @Override
+    String limitQuery(String query, int offset, Integer limit) {
+        return "${query}\n LIMIT ${limit != null ? limit : 'ALL'} OFFSET ${offset}"
+    }
+
     @Override
     String substring(String arg1, String arg2, String arg3) {
         return "substring(cast(${arg1} as text),${arg2},${arg3})"
@@ -170,6 +203,14 @@ class OracleCalculatorAdapter extends CalculatorAdapter {
     private static final INSTANCE = new OracleCalculatorAdapter()
     static getInstance() { return INSTANCE }
 
+    /**
+     * OFFSET ... FETCH NEXT is supported since Oracle 12c
+     */
+    @Override
+    boolean supportsLimitQuery(Connection connection) {
+        return connection.metaData.databaseMajorVersion >= 12
+    }
+
     @Override
     String substring(String arg1, String arg2, String arg3) {
         return "substr(${arg1},${arg2},${arg3})"
@@ -338,6 +379,19 @@ class OrientDBCalculatorAdapter extends CalculatorAdapter {
     }
 }
 
+class MySQLCalculatorAdapter extends CalculatorAdapter {
+    private static final INSTANCE = new MySQLCalculatorAdapter()
+    static getInstance() { return INSTANCE }
+
+    /**
+     * MySQL and MariaDB have no OFFSET without LIMIT, the maximum row count is used instead
+     */
+    @Override
+    String limitQuery(String query, int offset, Integer limit) {
+        return "${query}\n LIMIT ${limit != null ? limit : '18446744073709551615'} OFFSET ${offset}"
+    }
+}
+
 class DefaultCalculatorAdapter extends CalculatorAdapter {
     private static final INSTANCE = new OracleCalculatorAdapter()
     static getInstance() { return INSTANCE }
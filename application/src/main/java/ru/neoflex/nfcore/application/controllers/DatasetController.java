@@ -0,0 +1,55 @@
+package ru.neoflex.nfcore.application.controllers;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.eclipse.emf.common.util.URI;
+import org.eclipse.emf.ecore.EObject;
+import org.eclipse.emf.ecore.EOperation;
+import org.eclipse.emf.ecore.resource.Resource;
+import org.eclipse.emf.ecore.util.EcoreUtil;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.web.bind.annotation.*;
+import ru.neoflex.nfcore.base.services.Context;
+import ru.neoflex.nfcore.base.services.Store;
+
+import javax.servlet.http.HttpServletResponse;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+import static ru.neoflex.nfcore.base.util.EmfJson.createEOperationArguments;
+
+@RestController()
+@RequestMapping("/dataset")
+public class DatasetController {
+    private final static Log logger = LogFactory.getLog(DatasetController.class);
+    @Autowired
+    Context context;
+    @Autowired
+    Store store;
+
+    /**
+     * Runs DatasetComponent.runQuery and writes rows to the response as they are fetched from the database.
+     * Arguments are the same as for /emf/call?method=runQuery
+     */
+    @PostMapping("/stream")
+    void stream(@RequestParam String ref, @RequestBody List<Object> args, HttpServletResponse response) throws Exception {
+        response.setContentType("application/json;charset=UTF-8");
+        OutputStream out = response.getOutputStream();
+        context.inContextWithClassLoaderInTransaction(true, () -> {
+            Resource resource = store.loadResource(ref);
+            EcoreUtil.resolveAll(resource.getResourceSet());
+            String fragment = URI.createURI(ref).fragment();
+            EObject eObject = fragment == null ?
+                    resource.getContents().get(0) : resource.getEObject(fragment);
+            EOperation eOperation = eObject.eClass().getEAllOperations().stream()
+                    .filter(op -> op.getName().equals("runQuery")).findFirst()
+                    .orElseThrow(() -> new IllegalArgumentException("stream: EOperation runQuery not found in " + ref));
+            List<Object> arguments = new ArrayList<>(createEOperationArguments(store, eOperation, args));
+            arguments.add(out);
+            logger.debug("stream " + ref);
+            return context.getGroovy().eval(eObject, "runQueryToStream", arguments);
+        });
+        out.flush();
+    }
+}
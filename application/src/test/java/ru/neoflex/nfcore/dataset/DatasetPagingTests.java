@@ -0,0 +1,51 @@
+package ru.neoflex.nfcore.dataset;
+
+import org.junit.Assert;
+import org.junit.Test;
+import ru.neoflex.nfcore.dataset.impl.DatasetComponentExt;
+import ru.neoflex.nfcore.dataset.impl.adapters.CalculatorAdapter;
+
+import java.util.*;
+
+public class DatasetPagingTests {
+    @Test
+    public void limitQueryTest() {
+        Assert.assertEquals("SELECT 1\n LIMIT 10 OFFSET 20",
+                CalculatorAdapter.getDBAdapter("org.postgresql.Driver").limitQuery("SELECT 1", 20, 10));
+        Assert.assertEquals("SELECT 1\n LIMIT ALL OFFSET 20",
+                CalculatorAdapter.getDBAdapter("org.postgresql.Driver").limitQuery("SELECT 1", 20, null));
+        Assert.assertEquals("SELECT 1\n LIMIT 10 OFFSET 20",
+                CalculatorAdapter.getDBAdapter("org.mariadb.jdbc.Driver").limitQuery("SELECT 1", 20, 10));
+        Assert.assertEquals("SELECT 1\n LIMIT 18446744073709551615 OFFSET 20",
+                CalculatorAdapter.getDBAdapter("com.mysql.cj.jdbc.Driver").limitQuery("SELECT 1", 20, null));
+        Assert.assertEquals("SELECT 1\n OFFSET 20 ROWS\n FETCH NEXT 10 ROWS ONLY",
+                CalculatorAdapter.getDBAdapter("oracle.jdbc.driver.OracleDriver").limitQuery("SELECT 1", 20, 10));
+    }
+
+    @Test
+    public void keySortsTest() {
+        RdbmsColumn id = createColumn("id", true);
+        RdbmsColumn name = createColumn("name", false);
+        List<DatasetColumnView> columns = Arrays.asList(name, id);
+        Assert.assertEquals(Collections.singletonList("t.\"id\" ASC"),
+                DatasetComponentExt.getKeySorts(columns, new ArrayList<>()));
+        Map<String, String> sort = new HashMap<>();
+        sort.put("column", "id");
+        sort.put("select", "t.\"id\" DESC");
+        Assert.assertEquals(Collections.emptyList(),
+                DatasetComponentExt.getKeySorts(columns, Collections.singletonList(sort)));
+        id.setIsPrimaryKey(false);
+        Assert.assertEquals(Collections.emptyList(),
+                DatasetComponentExt.getKeySorts(columns, new ArrayList<>()));
+    }
+
+    private static RdbmsColumn createColumn(String name, boolean primaryKey) {
+        DatasetColumn datasetColumn = DatasetFactory.eINSTANCE.createDatasetColumn();
+        datasetColumn.setName(name);
+        RdbmsColumn column = DatasetFactory.eINSTANCE.createRdbmsColumn();
+        column.setName(name);
+        column.setDatasetColumn(datasetColumn);
+        column.setIsPrimaryKey(primaryKey);
+        return column;
+    }
+}
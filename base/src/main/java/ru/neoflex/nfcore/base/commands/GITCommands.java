@@ -5,6 +5,9 @@ import com.github.fonimus.ssh.shell.commands.SshShellComponent;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.shell.standard.ShellMethod;
 import org.springframework.shell.standard.ShellOption;
+import ru.neoflex.meta.emfgit.BranchLocks;
+import ru.neoflex.meta.emfgit.GroupCommit;
+import ru.neoflex.meta.emfgit.Reindexer;
 import ru.neoflex.meta.emfgit.Transaction;
 import ru.neoflex.nfcore.base.services.Workspace;
 
@@ -13,6 +16,7 @@ import java.nio.file.FileSystem;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 import java.util.stream.Collectors;
 
@@ -45,6 +49,42 @@ public class GITCommands {
         return gitBranchInfo();
     }
 
+    @ShellMethod("Rebuild indexes of the current branch, only entities changed since the last reindex unless full")
+    public String gitReindex(@ShellOption(defaultValue="4") int threads,
+                             @ShellOption(defaultValue="5000") int batchSize,
+                             @ShellOption(defaultValue="false") boolean full) throws Exception {
+        Reindexer reindexer = new Reindexer(workspace.getDatabase(), workspace.getCurrentBranch());
+        reindexer.setThreads(threads);
+        reindexer.setBatchSize(batchSize);
+        reindexer.setFull(full);
+        long count = reindexer.run();
+        return "Reindexed " + count + " entities of " + workspace.getCurrentBranch();
+    }
+
+    @ShellMethod("Print lock statistics of the branches")
+    public List<String> gitLockInfo() {
+        BranchLocks locks = workspace.getDatabase().getLocks();
+        List<String> result = new ArrayList<>();
+        result.add("Acquired: " + locks.getAcquired());
+        result.add("Waited: " + locks.getWaited());
+        result.add("Wait time, ms: " + locks.getWaitMs());
+        result.add("Max wait time, ms: " + locks.getMaxWaitMs());
+        result.add("Timeouts: " + locks.getTimeouts());
+        result.add("Timeout, ms: " + locks.getTimeoutMs());
+        return result;
+    }
+
+    @ShellMethod("Print group commit statistics")
+    public List<String> gitCommitInfo() {
+        GroupCommit groupCommit = workspace.getDatabase().getGroupCommit();
+        if (groupCommit == null) {
+            return Collections.singletonList("Group commit is off");
+        }
+        return groupCommit.getMetrics().entrySet().stream()
+                .map(entry -> entry.getKey() + ": " + entry.getValue())
+                .collect(Collectors.toList());
+    }
+
     @ShellMethod("List (working) directory")
     public String gitLs(@ShellOption(defaultValue=ShellOption.NULL) String dir) throws Exception {
         return workspace.getDatabase().inTransaction(workspace.getCurrentBranch(), Transaction.LockType.READ, tx -> {
@@ -1,5 +1,6 @@
 package ru.neoflex.nfcore.base.commands;
 
+import com.fasterxml.jackson.databind.node.ObjectNode;
 import com.github.fonimus.ssh.shell.SshShellHelper;
 import com.github.fonimus.ssh.shell.commands.SshShellComponent;
 import com.orientechnologies.orient.etl.OETLProcessor;
@@ -7,7 +8,10 @@ import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.autoconfigure.condition.ConditionalOnBean;
 import org.springframework.shell.standard.ShellMethod;
 import org.springframework.shell.standard.ShellOption;
+import ru.neoflex.nfcore.base.services.Context;
+import ru.neoflex.nfcore.base.services.Store;
 import ru.neoflex.nfcore.base.services.providers.OrientDBStoreProvider;
+import ru.neoflex.nfcore.base.util.ParallelExporter;
 
 import java.io.File;
 import java.io.IOException;
@@ -20,6 +24,10 @@ import java.util.List;
 public class OrientDBCommands {
     @Autowired
     OrientDBStoreProvider provider;
+    @Autowired
+    Store store;
+    @Autowired
+    Context context;
     private final SshShellHelper helper;
 
     public OrientDBCommands(SshShellHelper helper) {
@@ -44,6 +52,18 @@ public class OrientDBCommands {
         return "Done.";
     }
 
+    @ShellMethod("Export all resources to a chunked archive directory, resumes an unfinished export")
+    public String odbExportArchive(File dir, @ShellOption(defaultValue="4") int threads) throws Exception {
+        ObjectNode manifest = context.inContext(() -> new ParallelExporter(store, threads).exportArchive(dir.toPath()));
+        return "Exported " + manifest.withArray(ParallelExporter.CHUNKS).size() + " chunks to " + dir.getAbsolutePath();
+    }
+
+    @ShellMethod("Import all resources from a chunked archive directory, resumes an unfinished import")
+    public String odbImportArchive(File dir, @ShellOption(defaultValue="4") int threads) throws Exception {
+        int count = context.inContext(() -> new ParallelExporter(store, threads).importArchive(dir.toPath()));
+        return "Imported " + count + " objects";
+    }
+
     @ShellMethod("List database exports")
     public List<String> odbListExports() {
         List<String> result = new ArrayList<>();
@@ -0,0 +1,31 @@
+package ru.neoflex.nfcore.base.components;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.actuate.endpoint.annotation.DeleteOperation;
+import org.springframework.boot.actuate.endpoint.annotation.Endpoint;
+import org.springframework.boot.actuate.endpoint.annotation.ReadOperation;
+import org.springframework.lang.Nullable;
+import org.springframework.stereotype.Component;
+import ru.neoflex.nfcore.base.services.TransactionRetry;
+
+import java.util.Map;
+
+/**
+ * Transaction retry statistics: /actuator/txretry?top=N, DELETE resets the counters
+ */
+@Component
+@Endpoint(id = "txretry")
+public class TransactionRetryEndpoint {
+    @Autowired
+    TransactionRetry transactionRetry;
+
+    @ReadOperation
+    public Map<String, Object> statistics(@Nullable Integer top) {
+        return transactionRetry.getStatistics(top != null ? top : 20);
+    }
+
+    @DeleteOperation
+    public void reset() {
+        transactionRetry.reset();
+    }
+}
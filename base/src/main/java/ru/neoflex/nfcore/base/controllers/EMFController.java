@@ -14,13 +14,16 @@ import org.eclipse.emf.ecore.resource.Resource;
 import org.eclipse.emf.ecore.resource.ResourceSet;
 import org.eclipse.emf.ecore.util.EcoreUtil;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpStatus;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.server.ResponseStatusException;
 import ru.neoflex.nfcore.base.auth.AuthFactory;
 import ru.neoflex.nfcore.base.auth.CurrentLock;
 import ru.neoflex.nfcore.base.auth.impl.AuditImpl;
 import ru.neoflex.nfcore.base.components.PackageRegistry;
 import ru.neoflex.nfcore.base.services.Context;
 import ru.neoflex.nfcore.base.services.Store;
+import ru.neoflex.nfcore.base.services.providers.FinderSPI;
 import ru.neoflex.nfcore.base.tag.Tag;
 import ru.neoflex.nfcore.base.tag.Tagged;
 import ru.neoflex.nfcore.base.util.DocFinder;
@@ -28,6 +31,7 @@ import ru.neoflex.nfcore.base.util.EmfJson;
 
 import javax.annotation.PostConstruct;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 import java.util.stream.Collectors;
 
@@ -46,14 +50,14 @@ public class EMFController {
 
     @PostConstruct
     void init() {
-        mapper = EmfJson.createMapper();
+        mapper = EmfJson.getMapper();
     }
 
     @GetMapping("/resource")
     JsonNode getResource(@RequestParam String ref) throws Exception {
         return store.inTransaction(true, tx -> {
             Resource resource = store.loadResource(ref);
-            EcoreUtil.resolveAll(resource);
+            store.resolveAll(resource);
             ObjectNode result = EmfJson.resourceToTree(store, resource);
             return result;
         });
@@ -64,7 +68,7 @@ public class EMFController {
         return store.inTransaction(true, tx -> {
             Resource resource = store.loadResource(ref);
             ResourceSet rs = resource.getResourceSet();
-            EcoreUtil.resolveAll(rs);
+            store.resolveAll(rs);
             ObjectNode result = EmfJson.resourceSetToTree(store, rs.getResources());
             return result;
         });
@@ -101,11 +105,42 @@ public class EMFController {
 
     @PostMapping("/find")
     JsonNode find(@RequestParam(required = false) String tags, @RequestBody ObjectNode selector) throws Exception {
+        checkSortOrders(selector.get("sort"));
         return store.inTransaction(true, tx -> {
+            ObjectNode query = selector.deepCopy();
+            List<String> fields = new ArrayList<>();
             DocFinder docFinder = DocFinder.create(store)
-                    .executionStats(true)
-                    .selector(selector)
-                    .execute();
+                    .executionStats(true);
+            JsonNode sortNode = query.remove("sort");
+            if (sortNode != null) {
+                for (JsonNode sortField: sortNode) {
+                    if (sortField.isObject()) {
+                        sortField.fields().forEachRemaining(entry ->
+                                docFinder.sort(entry.getKey(), FinderSPI.SortOrder.valueOf(entry.getValue().asText().toLowerCase())));
+                    }
+                    else {
+                        docFinder.sort(sortField.asText());
+                    }
+                }
+            }
+            JsonNode fieldsNode = query.remove("fields");
+            if (fieldsNode != null) {
+                fieldsNode.forEach(field -> fields.add(field.asText()));
+                fields.forEach(docFinder::field);
+            }
+            JsonNode limitNode = query.remove("limit");
+            if (limitNode != null) {
+                docFinder.limit(limitNode.asInt());
+            }
+            JsonNode skipNode = query.remove("skip");
+            if (skipNode != null) {
+                docFinder.skip(skipNode.asInt());
+            }
+            JsonNode bookmarkNode = query.remove("bookmark");
+            if (bookmarkNode != null && !bookmarkNode.isNull()) {
+                docFinder.bookmark(bookmarkNode.asText());
+            }
+            docFinder.selector(query).execute();
             ResourceSet resourceSet = docFinder.getResourceSet();
             int size = resourceSet.getResources().size();
             if (tags != null && !tags.equals("")) {
@@ -125,8 +160,16 @@ public class EMFController {
                 resourceSet.getResources().clear();
                 resourceSet.getResources().addAll(filtered);
             }
-            EcoreUtil.resolveAll(resourceSet);
+            store.resolveAll(resourceSet);
             ObjectNode resourceSetNode = EmfJson.resourceSetToTree(store, resourceSet.getResources());
+            if (!fields.isEmpty()) {
+                for (JsonNode resourceNode: resourceSetNode.withArray("resources")) {
+                    ArrayNode contents = (ArrayNode) resourceNode.get("contents");
+                    for (int i = 0; i < contents.size(); ++i) {
+                        contents.set(i, EmfJson.project(contents.get(i), fields));
+                    }
+                }
+            }
             resourceSetNode.set("executionStats", docFinder.getExecutionStats());
             resourceSetNode.put("warning", docFinder.getWarning());
             resourceSetNode.put("bookmark", docFinder.getBookmark());
@@ -135,6 +178,23 @@ public class EMFController {
         });
     }
 
+    private static void checkSortOrders(JsonNode sortNode) {
+        if (sortNode == null) {
+            return;
+        }
+        for (JsonNode sortField: sortNode) {
+            if (sortField.isObject()) {
+                sortField.fields().forEachRemaining(entry -> {
+                    String order = entry.getValue().asText().toLowerCase();
+                    if (Arrays.stream(FinderSPI.SortOrder.values()).noneMatch(value -> value.name().equals(order))) {
+                        throw new ResponseStatusException(HttpStatus.BAD_REQUEST,
+                                "Invalid sort order of " + entry.getKey() + ": " + entry.getValue().asText());
+                    }
+                });
+            }
+        }
+    }
+
     @PostMapping("/call")
     JsonNode call(@RequestParam String ref, @RequestParam String method, @RequestBody List<Object> args) throws Exception {
         return callImpl(true, ref, method, args);
@@ -238,7 +298,7 @@ public class EMFController {
     private JsonNode callImpl(boolean readOnly, String ref, String method, List<Object> args) throws Exception {
         return store.inTransaction(readOnly, tx -> {
             Resource resource = store.loadResource(ref);
-            EcoreUtil.resolveAll(resource.getResourceSet());
+            store.resolveAll(resource.getResourceSet());
             String fragment = URI.createURI(ref).fragment();
             EObject eObject = fragment == null ?
                     resource.getContents().get(0) : resource.getEObject(fragment);
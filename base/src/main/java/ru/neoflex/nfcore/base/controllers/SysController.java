@@ -10,6 +10,7 @@ import org.eclipse.emf.ecore.resource.Resource;
 import org.eclipse.emf.ecore.resource.ResourceSet;
 import org.eclipse.emf.ecore.util.EcoreUtil;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.core.io.InputStreamResource;
 import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
@@ -23,7 +24,9 @@ import ru.neoflex.nfcore.base.services.Store;
 import ru.neoflex.nfcore.base.services.Workspace;
 import ru.neoflex.nfcore.base.util.DocFinder;
 import ru.neoflex.nfcore.base.util.Exporter;
+import ru.neoflex.nfcore.base.util.ParallelExporter;
 
+import javax.servlet.http.HttpServletResponse;
 import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.io.PipedInputStream;
@@ -49,6 +52,8 @@ public class SysController {
     Context context;
     @Autowired
     DeploySupply deploySupply;
+    @Value("${export.threads:4}")
+    int exportThreads;
 
     @GetMapping(value = "/user", produces = "application/json; charset=utf-8")
     public Principal getUser(Principal principal) {
@@ -70,7 +75,7 @@ public class SysController {
     @PostMapping(value = "/importdb", produces = {"application/json"})
     public ObjectNode importDb(@RequestParam(value = "file") final MultipartFile file) throws Exception {
         int count = context.inContext(()->
-            new Exporter(store).unzip(file.getInputStream())
+            new ParallelExporter(store, exportThreads).unzip(file.getInputStream())
         );
         ObjectMapper mapper = new ObjectMapper();
         ObjectNode result = mapper.createObjectNode().put("count", count);
@@ -99,40 +104,31 @@ public class SysController {
         }
     }
 
+    /**
+     * Writes all resources and the workspace files to the response, the resources are read by exportThreads workers
+     */
     @GetMapping(value = "/exportdb")
-    public ResponseEntity exportDb() throws IOException {
-        PipedInputStream pipedInputStream = new PipedInputStream();
-        PipedOutputStream pipedOutputStream = new PipedOutputStream(pipedInputStream);
-        new Thread(() -> {
-            try {
-                try (ZipOutputStream zipOutputStream = new ZipOutputStream(pipedOutputStream);) {
-                    store.inTransaction(true, tx -> {
-                        List<Resource> all = DocFinder.create(store).getAllResources();
-                        new Exporter(store).zip(all, zipOutputStream);
-                        return null;
-                    });
-                    workspace.getDatabase().inTransaction(workspace.getCurrentBranch(), Transaction.LockType.READ, tx -> {
-                        for (Iterator<Path> it = Files.walk(tx.getFileSystem().getRootPath()).filter(Files::isRegularFile).iterator(); it.hasNext(); ) {
-                            Path path = it.next();
-                            logger.info("Export " + path.getFileName().toString());
-                            byte[] bytes = Files.readAllBytes(path);
-                            ZipEntry refsEntry = new ZipEntry(path.toString().substring(1));
-                            zipOutputStream.putNextEntry(refsEntry);
-                            zipOutputStream.write(bytes);
-                            zipOutputStream.closeEntry();
-                        }
-                        return null;
-                    });
+    public void exportDb(HttpServletResponse response) throws Exception {
+        response.setContentType("application/zip");
+        response.setHeader("Content-Disposition", "attachment; filename=\"database.zip\"");
+        try (ZipOutputStream zipOutputStream = new ZipOutputStream(response.getOutputStream());) {
+            context.inContext(() -> new ParallelExporter(store, exportThreads).zipAll(zipOutputStream));
+            workspace.getDatabase().inTransaction(workspace.getCurrentBranch(), Transaction.LockType.READ, tx -> {
+                for (Iterator<Path> it = Files.walk(tx.getFileSystem().getRootPath()).filter(Files::isRegularFile).iterator(); it.hasNext(); ) {
+                    Path path = it.next();
+                    logger.info("Export " + path.getFileName().toString());
+                    byte[] bytes = Files.readAllBytes(path);
+                    ZipEntry refsEntry = new ZipEntry(path.toString().substring(1));
+                    zipOutputStream.putNextEntry(refsEntry);
+                    zipOutputStream.write(bytes);
+                    zipOutputStream.closeEntry();
                 }
-            } catch (Exception e) {
-                logger.error("Export DB", e);
-            }
-
-        }).start();
-        HttpHeaders headers = new HttpHeaders();
-        headers.set("Content-Type", "application/zip");
-        headers.set("Content-Disposition", "attachment; filename=\"database.zip\"");
-        return new ResponseEntity(new InputStreamResource(pipedInputStream), headers, HttpStatus.OK);
+                return null;
+            });
+        } catch (Exception e) {
+            logger.error("Export DB", e);
+            throw e;
+        }
     }
 
     @PostMapping(value = "/exportdb", consumes = {"application/json"})
@@ -9,7 +9,9 @@ import ru.neoflex.meta.emfgit.Transaction;
 import ru.neoflex.nfcore.base.components.PackageRegistry;
 import ru.neoflex.nfcore.base.components.SpringContext;
 import ru.neoflex.nfcore.base.services.providers.GitDBStoreProvider;
+import ru.neoflex.nfcore.base.util.JdbcConnectionPool;
 
+import javax.annotation.PreDestroy;
 import java.util.concurrent.Callable;
 
 @Service("ru.neoflex.nfcore.base.services.Context")
@@ -34,6 +36,11 @@ public class Context {
         this.authorization = authorization;
     }
 
+    @PreDestroy
+    void fini() {
+        JdbcConnectionPool.closeAll();
+    }
+
     public static Context getCurrent() {
         if (tlContext.get() == null) {
             Context context = SpringContext.getBean(Context.class);
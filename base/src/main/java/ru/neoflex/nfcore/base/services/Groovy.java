@@ -3,6 +3,7 @@ package ru.neoflex.nfcore.base.services;
 import com.fasterxml.jackson.databind.JsonNode;
 import groovy.lang.Binding;
 import groovy.lang.GroovyShell;
+import groovy.lang.Script;
 import groovy.util.GroovyScriptEngine;
 import org.codehaus.groovy.runtime.InvokerHelper;
 import org.eclipse.emf.ecore.EClass;
@@ -11,15 +12,18 @@ import org.slf4j.LoggerFactory;
 import org.springframework.stereotype.Service;
 import ru.neoflex.meta.emfgit.Transaction;
 
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
 import java.lang.reflect.Method;
 import java.net.URL;
-import java.util.ArrayList;
-import java.util.List;
-import java.util.Map;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
 
 @Service
 public class Groovy {
     private static final Logger logger = LoggerFactory.getLogger(Groovy.class);
+    private final GroovyClassCache classCache = new GroovyClassCache(GroovyClassCache.DEFAULT_MAX_SIZE);
+    private final Map<DispatchKey, MethodHandle> dispatchTable = new ConcurrentHashMap<>();
 
     public Object eval(String fullClassName, String method, List args) throws Exception {
         Class scriptClass = Thread.currentThread().getContextClassLoader().loadClass(fullClassName);
@@ -32,13 +36,8 @@ public class Groovy {
     }
 
     public Object eval(Object instance, String method, List args) throws Exception {
-        Binding b = new Binding();
-        b.setVariable("instance", instance);
-        b.setVariable("method", method);
-        b.setVariable("args", args);
-        GroovyShell sh = new GroovyShell(Thread.currentThread().getContextClassLoader(), b);
         logger.info(String.format("evaluate groovy script %s;args=%s", method, args.toString()));
-        Object result =  sh.evaluate("instance.\"$method\"(*args)");
+        Object result = InvokerHelper.invokeMethod(instance, method, args.toArray());
         return result;
     }
 
@@ -47,54 +46,45 @@ public class Groovy {
         if (args != null) {
             b.setVariable("args", args);
         }
-        GroovyShell sh = new GroovyShell(Thread.currentThread().getContextClassLoader(), b);
-        logger.info(String.format("evaluate groovy script %s;args=%s", code, args.toString()));
-        Object result =  sh.evaluate(code);
+        logger.info(String.format("evaluate groovy script %s;args=%s", code, String.valueOf(args)));
+        Object result = runScript(null, code, b);
         return result;
     }
 
     public Object eval(String code, Map<String, Object> args) throws Exception {
         Binding b = new Binding(args);
-        GroovyShell sh = new GroovyShell(Thread.currentThread().getContextClassLoader(), b);
         logger.info(String.format("evaluate groovy script %s;args=%s", code, args.toString()));
-        Object result =  sh.evaluate(code);
+        Object result = runScript(null, code, b);
         return result;
     }
 
     public Object eval(String scriptName, String code, Map<String, Object> args) throws Exception {
         Binding b = new Binding(args);
-        GroovyShell sh = new GroovyShell(Thread.currentThread().getContextClassLoader(), b);
         logger.info(String.format("evaluate groovy script %s;args=%s", code, args.toString()));
-        Object result =  sh.evaluate(code, scriptName);
+        Object result = runScript(scriptName, code, b);
         return result;
     }
 
     public Object evalScript(String scriptName, List<String> args) throws Exception {
-        URL gitRootURL = Transaction.getCurrent().getFileSystem().getRootPath().toUri().toURL();
-        GroovyScriptEngine groovyScriptEngine = new GroovyScriptEngine(new URL[] {gitRootURL}, Thread.currentThread().getContextClassLoader());
+        Class scriptClass = loadScriptByName(scriptName);
         logger.info(String.format("evalScript: evaluate groovy script %s;args=%s", scriptName, args.toString()));
-        return groovyScriptEngine.run(scriptName, new Binding(args.toArray(new String[0])));
+        return InvokerHelper.createScript(scriptClass, new Binding(args.toArray(new String[0]))).run();
     }
 
     public Object evalScript(String scriptName, Map<String, Object> args) throws Exception {
-        URL gitRootURL = Transaction.getCurrent().getFileSystem().getRootPath().toUri().toURL();
-        GroovyScriptEngine groovyScriptEngine = new GroovyScriptEngine(new URL[] {gitRootURL}, Thread.currentThread().getContextClassLoader());
+        Class scriptClass = loadScriptByName(scriptName);
         logger.info(String.format("evalScript: evaluate groovy script %s;args=%s", scriptName, args.toString()));
-        return groovyScriptEngine.run(scriptName, new Binding(args));
+        return InvokerHelper.createScript(scriptClass, new Binding(args)).run();
     }
 
     public Object evalStatic(String fullClassName, String method, List args) throws Exception {
-        URL gitRootURL = Transaction.getCurrent().getFileSystem().getRootPath().toUri().toURL();
-        GroovyScriptEngine groovyScriptEngine = new GroovyScriptEngine(new URL[] {gitRootURL}, Thread.currentThread().getContextClassLoader());
-        Class scriptClass = groovyScriptEngine.loadScriptByName(fullClassName.replace(".", "/") + ".groovy");
+        Class scriptClass = loadScriptByName(fullClassName.replace(".", "/") + ".groovy");
         logger.info(String.format("evalStatic: evaluate groovy script %s;args=%s", method, args.toString()));
         return InvokerHelper.invokeMethod(scriptClass, method, args.toArray());
     }
 
     public Object evalMethod(String fullClassName, String method, List args) throws Exception {
-        URL gitRootURL = Transaction.getCurrent().getFileSystem().getRootPath().toUri().toURL();
-        GroovyScriptEngine groovyScriptEngine = new GroovyScriptEngine(new URL[] {gitRootURL}, Thread.currentThread().getContextClassLoader());
-        Class scriptClass = groovyScriptEngine.loadScriptByName(fullClassName.replace(".", "/") + ".groovy");
+        Class scriptClass = loadScriptByName(fullClassName.replace(".", "/") + ".groovy");
         logger.info(String.format("evalMethod: evaluate groovy script %s;args=%s", method, args.toString()));
         return InvokerHelper.invokeMethod(scriptClass.newInstance(), method, args.toArray());
     }
@@ -111,8 +101,86 @@ public class Groovy {
     public Object callStatic(String fullClassName, String method, List args) throws Exception {
         Class scriptClass = Thread.currentThread().getContextClassLoader().loadClass(fullClassName);
         Class[] argsClasses = (Class[]) args.stream().map((Object object) -> object.getClass()).toArray(size->new Class[size]);
-        Method declaredMethod = scriptClass.getDeclaredMethod(method, argsClasses);
-        Object result = declaredMethod.invoke(null, args.toArray());
-        return result;
+        DispatchKey key = new DispatchKey(scriptClass, method, argsClasses);
+        MethodHandle methodHandle = dispatchTable.get(key);
+        if (methodHandle == null) {
+            Method declaredMethod = scriptClass.getDeclaredMethod(method, argsClasses);
+            methodHandle = MethodHandles.lookup().unreflect(declaredMethod);
+            dispatchTable.put(key, methodHandle);
+        }
+        try {
+            return methodHandle.invokeWithArguments(args.toArray());
+        }
+        catch (Exception|Error e) {
+            throw e;
+        }
+        catch (Throwable e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    public void clearCache() {
+        classCache.clear();
+        dispatchTable.clear();
+    }
+
+    public int getCacheSize() {
+        return classCache.size();
+    }
+
+    public long getCacheHits() {
+        return classCache.getHits();
+    }
+
+    public long getCacheMisses() {
+        return classCache.getMisses();
+    }
+
+    public long getCacheInvalidations() {
+        return classCache.getInvalidations();
+    }
+
+    private Object runScript(String scriptName, String code, Binding binding) throws Exception {
+        Class scriptClass = classCache.getOrCompile("shell", scriptName, code, () -> {
+            GroovyShell sh = new GroovyShell(Thread.currentThread().getContextClassLoader());
+            Script script = scriptName != null ? sh.parse(code, scriptName) : sh.parse(code);
+            return script.getClass();
+        });
+        return InvokerHelper.createScript(scriptClass, binding).run();
+    }
+
+    private Class loadScriptByName(String scriptName) throws Exception {
+        return classCache.getOrCompile("engine", scriptName, null, () -> {
+            URL gitRootURL = Transaction.getCurrent().getFileSystem().getRootPath().toUri().toURL();
+            GroovyScriptEngine groovyScriptEngine = new GroovyScriptEngine(new URL[] {gitRootURL}, Thread.currentThread().getContextClassLoader());
+            return groovyScriptEngine.loadScriptByName(scriptName);
+        });
+    }
+
+    private static class DispatchKey {
+        private final Class scriptClass;
+        private final String method;
+        private final Class[] argsClasses;
+
+        DispatchKey(Class scriptClass, String method, Class[] argsClasses) {
+            this.scriptClass = scriptClass;
+            this.method = method;
+            this.argsClasses = argsClasses;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (!(o instanceof DispatchKey)) return false;
+            DispatchKey that = (DispatchKey) o;
+            return scriptClass == that.scriptClass &&
+                    method.equals(that.method) &&
+                    Arrays.equals(argsClasses, that.argsClasses);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(scriptClass, method) * 31 + Arrays.hashCode(argsClasses);
+        }
     }
 }
@@ -0,0 +1,185 @@
+package ru.neoflex.nfcore.base.services;
+
+import com.beijunyi.parallelgit.filesystem.GfsStatusProvider;
+import org.eclipse.jgit.revwalk.RevCommit;
+import ru.neoflex.meta.emfgit.Transaction;
+import ru.neoflex.meta.emfgit.TransactionClassLoader;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.*;
+import java.util.concurrent.Callable;
+
+/**
+ * LRU cache of compiled Groovy classes.
+ * Scripts may refer to groovy sources stored in the workspace, so a compiled class is valid only for the
+ * commit of the workspace branch it was compiled against. Entries are keyed by the class loader,
+ * the branch, the branch commit and the hash of the script text. When a branch moves to another commit
+ * all entries compiled against the previous commit of the branch are dropped.
+ * Transactions with uncommitted changes are not cached at all.
+ */
+class GroovyClassCache {
+    public static final int DEFAULT_MAX_SIZE = 1000;
+    private final LinkedHashMap<Key, Class> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private final Map<String, String> branchCommits = new HashMap<>();
+    private int maxSize;
+    private long hits = 0;
+    private long misses = 0;
+    private long invalidations = 0;
+
+    GroovyClassCache(int maxSize) {
+        this.maxSize = maxSize;
+    }
+
+    /**
+     * Returns the compiled class for the script, compiles it with the compiler if it is absent.
+     * @param kind kind of the compilation (shell script, script engine class), part of the key
+     * @param name script name, part of the key
+     * @param text script text, hashed into the key, may be null if the name identifies the source
+     */
+    Class getOrCompile(String kind, String name, String text, Callable<Class> compiler) throws Exception {
+        Key key = createKey(kind, name, text);
+        if (key == null) {
+            return compiler.call();
+        }
+        synchronized (this) {
+            moveBranch(key.branch, key.commit);
+            Class cached = entries.get(key);
+            if (cached != null) {
+                ++hits;
+                return cached;
+            }
+            ++misses;
+        }
+        Class compiled = compiler.call();
+        synchronized (this) {
+            if (Objects.equals(branchCommits.get(key.branch), key.commit)) {
+                entries.put(key, compiled);
+                evict();
+            }
+        }
+        return compiled;
+    }
+
+    synchronized void clear() {
+        entries.clear();
+        branchCommits.clear();
+    }
+
+    synchronized int size() {
+        return entries.size();
+    }
+
+    synchronized int getMaxSize() {
+        return maxSize;
+    }
+
+    synchronized void setMaxSize(int maxSize) {
+        this.maxSize = maxSize;
+        evict();
+    }
+
+    synchronized long getHits() {
+        return hits;
+    }
+
+    synchronized long getMisses() {
+        return misses;
+    }
+
+    synchronized long getInvalidations() {
+        return invalidations;
+    }
+
+    private Key createKey(String kind, String name, String text) throws IOException {
+        ClassLoader classLoader = Thread.currentThread().getContextClassLoader();
+        String branch = null;
+        String commit = null;
+        if (classLoader instanceof TransactionClassLoader) {
+            // TransactionClassLoader is created for every call, sources are resolved through the current transaction
+            classLoader = classLoader.getParent();
+        }
+        Transaction tx = Transaction.getCurrent();
+        if (tx != null) {
+            GfsStatusProvider status = tx.getFileSystem().getStatusProvider();
+            if (status.isDirty()) {
+                return null;
+            }
+            RevCommit revCommit = status.commit();
+            branch = String.valueOf(status.branch());
+            commit = revCommit != null ? revCommit.getName() : "";
+        }
+        return new Key(classLoader, kind, name, text != null ? hash(text) : null, branch, commit);
+    }
+
+    private void moveBranch(String branch, String commit) {
+        if (branch == null) {
+            return;
+        }
+        String oldCommit = branchCommits.put(branch, commit);
+        if (oldCommit != null && !oldCommit.equals(commit)) {
+            entries.keySet().removeIf(key -> branch.equals(key.branch) && oldCommit.equals(key.commit));
+            ++invalidations;
+        }
+    }
+
+    private void evict() {
+        Iterator<Key> it = entries.keySet().iterator();
+        while (entries.size() > maxSize && it.hasNext()) {
+            it.next();
+            it.remove();
+        }
+    }
+
+    private static String hash(String text) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-1");
+            byte[] bytes = digest.digest(text.getBytes(StandardCharsets.UTF_8));
+            StringBuilder sb = new StringBuilder(bytes.length * 2);
+            for (byte b: bytes) {
+                sb.append(String.format("%02x", b));
+            }
+            return sb.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    private static class Key {
+        private final ClassLoader classLoader;
+        private final String kind;
+        private final String name;
+        private final String hash;
+        private final String branch;
+        private final String commit;
+
+        Key(ClassLoader classLoader, String kind, String name, String hash, String branch, String commit) {
+            this.classLoader = classLoader;
+            this.kind = kind;
+            this.name = name;
+            this.hash = hash;
+            this.branch = branch;
+            this.commit = commit;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (!(o instanceof Key)) return false;
+            Key key = (Key) o;
+            return classLoader == key.classLoader &&
+                    Objects.equals(kind, key.kind) &&
+                    Objects.equals(name, key.name) &&
+                    Objects.equals(hash, key.hash) &&
+                    Objects.equals(branch, key.branch) &&
+                    Objects.equals(commit, key.commit);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(System.identityHashCode(classLoader), kind, name, hash, branch, commit);
+        }
+    }
+}
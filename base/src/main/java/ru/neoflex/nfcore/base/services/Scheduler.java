@@ -8,7 +8,9 @@ import org.apache.commons.lang3.StringUtils;
 import org.apache.commons.lang3.exception.ExceptionUtils;
 import org.eclipse.emf.common.util.URI;
 import org.eclipse.emf.ecore.EObject;
+import org.eclipse.emf.ecore.EStructuralFeature;
 import org.eclipse.emf.ecore.resource.Resource;
+import org.eclipse.emf.ecore.util.EcoreUtil;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
@@ -23,6 +25,7 @@ import org.springframework.security.core.context.SecurityContext;
 import org.springframework.security.core.context.SecurityContextHolder;
 import org.springframework.stereotype.Service;
 import ru.neoflex.nfcore.base.scheduler.*;
+import ru.neoflex.nfcore.base.services.providers.ResourceChange;
 import ru.neoflex.nfcore.base.util.DocFinder;
 
 import javax.annotation.PostConstruct;
@@ -39,7 +42,16 @@ public class Scheduler {
     private static final Logger logger = LoggerFactory.getLogger(Scheduler.class);
     public final static String CANCELLED = "cancelled";
     public final static String SCHEDULED = "scheduled";
+    private static final List<EStructuralFeature> RUN_STATE = Arrays.asList(
+            SchedulerPackage.Literals.SCHEDULED_TASK__LAST_SCHEDULE_TIME,
+            SchedulerPackage.Literals.SCHEDULED_TASK__LAST_RUN_TIME,
+            SchedulerPackage.Literals.SCHEDULED_TASK__LAST_RESULT,
+            SchedulerPackage.Literals.SCHEDULED_TASK__LAST_ERROR_TIME,
+            SchedulerPackage.Literals.SCHEDULED_TASK__LAST_ERROR,
+            SchedulerPackage.Literals.SCHEDULED_TASK__AUDIT
+    );
     private Map<String, ScheduledFuture> scheduledTasks = new HashMap<>();
+    private Map<String, ScheduledTask> scheduledStates = new HashMap<>();
 
     @Autowired
     private TaskScheduler taskScheduler;
@@ -61,6 +73,20 @@ public class Scheduler {
 //                logger.error("Scheduler: ", e);
 //            }
 //        }, Duration.ofSeconds(10));
+        String taskClass = EcoreUtil.getURI(SchedulerPackage.Literals.SCHEDULED_TASK).toString();
+        store.registerChange(change -> {
+            if (taskClass.equals(change.getEClass())) {
+                taskScheduler.schedule(() -> {
+                    try {
+                        if (isScheduleChanged(change)) {
+                            refreshScheduler();
+                        }
+                    } catch (Exception e) {
+                        logger.error("Scheduler: ", e);
+                    }
+                }, new Date());
+            }
+        });
     }
 
     public synchronized ObjectNode refreshScheduler() throws Exception {
@@ -75,6 +101,40 @@ public class Scheduler {
         });
     }
 
+    /**
+     * Run state saves of the scheduler itself (last run, last result, etc.) don't change the schedule
+     */
+    private synchronized boolean isScheduleChanged(ResourceChange change) throws Exception {
+        if (change.getType() == ResourceChange.Type.DELETE) {
+            return scheduledTasks.containsKey(change.getId());
+        }
+        return context.inContextWithClassLoaderInTransaction(true, () -> {
+            Resource resource = store.loadResource(change.getId());
+            ScheduledTask task = (ScheduledTask) resource.getContents().get(0);
+            ScheduledTask scheduled = scheduledStates.get(change.getId());
+            return scheduled == null ? task.isEnabled() : !isSameSchedule(scheduled, task);
+        });
+    }
+
+    private static boolean isSameSchedule(ScheduledTask scheduled, ScheduledTask task) {
+        return new EcoreUtil.EqualityHelper() {
+            @Override
+            protected boolean haveEqualFeature(EObject eObject1, EObject eObject2, EStructuralFeature feature) {
+                if (RUN_STATE.contains(feature)) {
+                    return true;
+                }
+                if (feature == SchedulerPackage.eINSTANCE.getScheduledTask_EObject()) {
+                    return Objects.equals(getObjectURI(eObject1.eGet(feature)), getObjectURI(eObject2.eGet(feature)));
+                }
+                return super.haveEqualFeature(eObject1, eObject2, feature);
+            }
+        }.equals(scheduled, task);
+    }
+
+    private static URI getObjectURI(Object eObject) {
+        return eObject == null ? null : EcoreUtil.getURI((EObject) eObject).trimQuery();
+    }
+
     public synchronized ObjectNode debugRescheduleAll() throws Exception {
         return context.inContextWithClassLoaderInTransaction(()->{
             int cancelled = 0;
@@ -84,6 +144,7 @@ public class Scheduler {
                 ++cancelled;
             }
             scheduledTasks.clear();
+            scheduledStates.clear();
             ObjectNode result = refreshSchedulerInt();
             result.put(CANCELLED, cancelled);
             String message = "debugRescheduleAll: " + new ObjectMapper().writeValueAsString(result);
@@ -100,6 +161,7 @@ public class Scheduler {
                 .put(CANCELLED, 0)
                 .put(SCHEDULED, 0);
         Map<String, ScheduledFuture> newTasks = new HashMap<>();
+        Map<String, ScheduledTask> newStates = new HashMap<>();
         List<Resource> resources = DocFinder.create(store, SchedulerPackage.Literals.SCHEDULED_TASK).execute().getResources();
         for (Resource resource: resources) {
             String id = store.getId(resource);
@@ -109,6 +171,13 @@ public class Scheduler {
                 String branch = StringUtils.isNotEmpty(task.getBranch()) ?
                         task.getBranch() : workspace.getCurrentBranch();
                 ScheduledFuture scheduledFuture = scheduledTasks.get(id);
+                ScheduledTask scheduled = scheduledStates.get(id);
+                if (scheduledFuture != null && (scheduled == null || !isSameSchedule(scheduled, task))) {
+                    scheduledFuture.cancel(false);
+                    result.put(CANCELLED, result.get(CANCELLED).intValue() + 1);
+                    scheduledTasks.remove(id);
+                    scheduledFuture = null;
+                }
                 if (scheduledFuture == null) {
                     SchedulingPolicy schedulingPolicy = task.getSchedulingPolicy();
                     scheduledFuture = schedulingPolicy.schedule(taskScheduler, new Runnable() {
@@ -144,6 +213,7 @@ public class Scheduler {
                 }
                 if (scheduledFuture != null) {
                     newTasks.put(id, scheduledFuture);
+                    newStates.put(id, scheduledFuture == scheduledTasks.get(id) ? scheduled : EcoreUtil.copy(task));
                 }
             }
         }
@@ -155,6 +225,7 @@ public class Scheduler {
             }
         }
         scheduledTasks = newTasks;
+        scheduledStates = newStates;
         return result;
     }
 
@@ -13,8 +13,8 @@ import org.eclipse.emf.ecore.EStructuralFeature;
 import org.eclipse.emf.ecore.resource.Resource;
 import org.eclipse.emf.ecore.resource.ResourceSet;
 import org.eclipse.emf.ecore.util.Diagnostician;
-import org.eclipse.emf.ecore.util.EcoreUtil;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.messaging.simp.SimpMessageSendingOperations;
 import org.springframework.security.core.Authentication;
 import org.springframework.security.core.context.SecurityContext;
@@ -29,8 +29,7 @@ import ru.neoflex.nfcore.base.util.EmfJson;
 
 import javax.annotation.PostConstruct;
 import java.io.IOException;
-import java.util.Iterator;
-import java.util.Objects;
+import java.util.*;
 import java.util.function.BiConsumer;
 import java.util.function.Consumer;
 import java.util.function.Function;
@@ -57,6 +56,8 @@ public class Store implements EventsRegistration {
 
     @Autowired
     private StoreSPI provider;
+    @Value("${store.resolveDepth:-1}")
+    private int resolveDepth;
 
     public TransactionSPI getCurrentTransaction() throws IOException {
         TransactionSPI tx = provider.getCurrentTransaction();
@@ -100,6 +101,7 @@ public class Store implements EventsRegistration {
                 }
             }
         });
+        registerChange(change -> messagingTemplate.convertAndSend("/topic/changes", change));
     }
     public void logout(Authentication old) {
         SecurityContext context = SecurityContextHolder.getContext();
@@ -129,10 +131,23 @@ public class Store implements EventsRegistration {
         return saveResource(resource);
     }
 
+    public void resolveAll(Resource resource) throws IOException {
+        provider.resolveAll(Collections.singletonList(resource), 1);
+    }
+
+    public void resolveAll(ResourceSet resourceSet) throws IOException {
+        provider.resolveAll(new ArrayList<>(resourceSet.getResources()), resolveDepth);
+    }
+
     public Resource saveResource(Resource resource) throws IOException {
-        EcoreUtil.resolveAll(resource);
+        resolveAll(resource);
+        validateResource(resource, Diagnostician.INSTANCE.createDefaultContext());
+        return provider.saveResource(resource);
+    }
+
+    private void validateResource(Resource resource, Map<Object, Object> context) {
         for (EObject eObject: resource.getContents()) {
-            Diagnostic diagnostic = Diagnostician.INSTANCE.validate(eObject);
+            Diagnostic diagnostic = Diagnostician.INSTANCE.validate(eObject, context);
             if (diagnostic.getSeverity() == Diagnostic.ERROR) {
                 String message = getDiagnosticMessage(diagnostic);
                 throw new RuntimeException(message);
@@ -143,7 +158,6 @@ public class Store implements EventsRegistration {
 //                logger.warn(getDiagnosticMessage(diagnostic));
             }
         }
-        return provider.saveResource(resource);
     }
 
     public String getDiagnosticMessage(Diagnostic diagnostic) {
@@ -239,6 +253,11 @@ public class Store implements EventsRegistration {
         provider.registerBeforeDelete(consumer);
     }
 
+    @Override
+    public void registerChange(Consumer<ResourceChange> consumer) {
+        provider.registerChange(consumer);
+    }
+
     public interface TransactionalProcedure {
         public void call(TransactionSPI tx) throws Exception;
     }
@@ -0,0 +1,146 @@
+package ru.neoflex.nfcore.base.services;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.util.*;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+/**
+ * Retry engine shared by the OrientDB, git and masterdata transactions.
+ * Conflicting transactions are repeated with decorrelated jittered backoff, the first delay grows with
+ * the recent contention of the transaction kind. Retries stop after maxAttempts or when the next attempt
+ * would start after the deadline. Conflicts are counted per transaction kind and per conflicting object
+ * (OrientDB @rid or git branch), the statistics are exposed by the txretry actuator endpoint.
+ */
+@Service
+public class TransactionRetry implements ru.neoflex.meta.emforientdb.RetryStrategy, ru.neoflex.meta.emfgit.RetryStrategy {
+    private static final Logger logger = LoggerFactory.getLogger(TransactionRetry.class);
+    public static final int MAX_CONFLICT_KEYS = 1000;
+    public static final String OTHER_KEY = "<other>";
+    @Value("${retry.maxAttempts:100}")
+    int maxAttempts = 100;
+    @Value("${retry.baseDelay:1}")
+    long baseDelay = 1;
+    @Value("${retry.maxDelay:1000}")
+    long maxDelay = 1000;
+    @Value("${retry.deadline:30000}")
+    long deadline = 30000;
+    private final Map<String, Stats> stats = new ConcurrentHashMap<>();
+    private final Map<String, LongAdder> conflicts = new ConcurrentHashMap<>();
+
+    private static class Stats {
+        final LongAdder calls = new LongAdder();
+        final LongAdder retries = new LongAdder();
+        final LongAdder exhausted = new LongAdder();
+        final LongAdder deadlineExceeded = new LongAdder();
+        volatile double contention = 0;
+
+        void update(int attemptRetries) {
+            contention = contention * 0.9 + attemptRetries * 0.1;
+        }
+    }
+
+    @Override
+    public <R> R call(String name, Callable<R> f, Function<Exception, String> conflictKey) throws Exception {
+        Stats s = stats.computeIfAbsent(name, n -> new Stats());
+        s.calls.increment();
+        long start = System.currentTimeMillis();
+        long delay = Math.min(maxDelay, (long) (baseDelay * (1 + s.contention)));
+        int attempt = 1;
+        while (true) {
+            try {
+                R result = f.call();
+                s.update(attempt - 1);
+                return result;
+            }
+            catch (Exception e) {
+                String key = conflictKey.apply(e);
+                if (key == null) {
+                    s.update(attempt - 1);
+                    throw e;
+                }
+                countConflict(name, key);
+                if (attempt >= maxAttempts) {
+                    s.exhausted.increment();
+                    s.update(attempt);
+                    logger.warn(String.format("%s: giving up after %d attempts, conflict on %s", name, attempt, key));
+                    throw e;
+                }
+                delay = nextDelay(delay);
+                if (System.currentTimeMillis() + delay - start > deadline) {
+                    s.deadlineExceeded.increment();
+                    s.update(attempt);
+                    logger.warn(String.format("%s: deadline %d ms exceeded after %d attempts, conflict on %s", name, deadline, attempt, key));
+                    throw e;
+                }
+                logger.debug(String.format("%s: %s on %s, attempt no %d, retry in %d ms", name, e.getClass().getSimpleName(), key, attempt, delay));
+                s.retries.increment();
+                ++attempt;
+                try {
+                    Thread.sleep(delay);
+                } catch (InterruptedException ex) {
+                    Thread.currentThread().interrupt();
+                    throw e;
+                }
+            }
+        }
+    }
+
+    private long nextDelay(long delay) {
+        long upper = Math.max(baseDelay + 1, delay * 3);
+        return Math.min(maxDelay, ThreadLocalRandom.current().nextLong(baseDelay, upper));
+    }
+
+    private void countConflict(String name, String key) {
+        String conflictKey = name + ":" + key;
+        LongAdder counter = conflicts.get(conflictKey);
+        if (counter == null) {
+            if (conflicts.size() >= MAX_CONFLICT_KEYS) {
+                conflictKey = name + ":" + OTHER_KEY;
+            }
+            counter = conflicts.computeIfAbsent(conflictKey, k -> new LongAdder());
+        }
+        counter.increment();
+    }
+
+    /**
+     * Per transaction kind counters and the most conflicting objects
+     */
+    public Map<String, Object> getStatistics(int top) {
+        Map<String, Object> result = new LinkedHashMap<>();
+        Map<String, Object> kinds = new TreeMap<>();
+        for (Map.Entry<String, Stats> entry: stats.entrySet()) {
+            Stats s = entry.getValue();
+            Map<String, Object> kind = new LinkedHashMap<>();
+            kind.put("calls", s.calls.sum());
+            kind.put("retries", s.retries.sum());
+            kind.put("exhausted", s.exhausted.sum());
+            kind.put("deadlineExceeded", s.deadlineExceeded.sum());
+            kind.put("contention", s.contention);
+            kinds.put(entry.getKey(), kind);
+        }
+        result.put("transactions", kinds);
+        Map<String, Long> hot = new LinkedHashMap<>();
+        conflicts.entrySet().stream()
+                .map(entry -> new AbstractMap.SimpleEntry<>(entry.getKey(), entry.getValue().sum()))
+                .sorted(Map.Entry.<String, Long>comparingByValue().reversed())
+                .limit(top)
+                .collect(Collectors.toList())
+                .forEach(entry -> hot.put(entry.getKey(), entry.getValue()));
+        result.put("conflicts", hot);
+        return result;
+    }
+
+    public void reset() {
+        stats.clear();
+        conflicts.clear();
+    }
+}
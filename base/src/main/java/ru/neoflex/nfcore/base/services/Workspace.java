@@ -38,12 +38,15 @@ public class Workspace {
     private Database database;
     @Autowired
     PackageRegistry registry;
+    @Autowired
+    TransactionRetry transactionRetry;
 
     @PostConstruct
     void init() throws GitAPIException, IOException {
         String workspaceRoot = new File(repoBase, repoName).getAbsolutePath();
         database = new Database(workspaceRoot, registry.getEPackages());
         database.setQualifiedNameDelegate(qualifiedNameDelegate);
+        database.setRetryStrategy(transactionRetry);
     }
 
     @PreDestroy
@@ -10,15 +10,15 @@ import org.eclipse.emf.ecore.EObject;
 import org.eclipse.emf.ecore.EStructuralFeature;
 import org.eclipse.emf.ecore.resource.Resource;
 import org.eclipse.emf.ecore.resource.ResourceSet;
+import org.springframework.http.HttpStatus;
+import org.springframework.web.server.ResponseStatusException;
 import ru.neoflex.nfcore.base.services.Store;
 import ru.neoflex.nfcore.base.util.EmfJson;
 
 import java.io.IOException;
 import java.math.BigDecimal;
-import java.util.ArrayList;
-import java.util.Iterator;
-import java.util.List;
-import java.util.Objects;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
 import java.util.function.Consumer;
 import java.util.function.Supplier;
 
@@ -34,6 +34,21 @@ public abstract class AbstractSimpleFinderProvider implements FinderSPI {
     protected long resLoadedMs = 0;
     protected ResourceSet resourceSet;
     protected ObjectNode selector = new ObjectMapper().createObjectNode();
+    protected Map<String, SortOrder> sort = new LinkedHashMap<>();
+    protected List<String> fields = new ArrayList<>();
+    protected String bookmark;
+    protected String nextBookmark;
+    // index of the first matched document of the requested page (skip + bookmark offset)
+    protected int offset = 0;
+    // every document returned by the backend for the current query matches the selector
+    protected boolean exact = false;
+    // set by the provider when the backend returned documents in the requested sort order
+    protected boolean sortApplied = false;
+    // set by the provider when the backend applied offset and limit (limit + 1 rows to detect the next page)
+    protected boolean pageApplied = false;
+    // index and query chosen by the provider, reported in the execution stats
+    protected String queryIndex;
+    protected String querySQL;
 
     private String getRev(URI uri) {
         String query = uri.query();
@@ -45,7 +60,7 @@ public abstract class AbstractSimpleFinderProvider implements FinderSPI {
 
     @Override
     public JsonNode getResult() throws IOException {
-        ObjectMapper mapper = EmfJson.createMapper();
+        ObjectMapper mapper = EmfJson.getMapper();
         ObjectNode root = mapper.createObjectNode();
         ArrayNode docs = root.withArray("docs");
         for (Resource resource: new ArrayList<>(getResourceSet().getResources())) {
@@ -53,7 +68,8 @@ public abstract class AbstractSimpleFinderProvider implements FinderSPI {
             URI uri = resource.getURI();
             doc.put("_id", lastTx.getStore().getId(resource));
             doc.put("_rev", getRev(uri));
-            doc.put("contents", mapper.valueToTree(resource));
+            JsonNode contents = mapper.valueToTree(resource);
+            doc.put("contents", fields.isEmpty() ? contents : EmfJson.project(contents, fields));
         }
         root.put("warning", getWarning());
         root.put("execution_stats", getExecutionStats());
@@ -82,27 +98,70 @@ public abstract class AbstractSimpleFinderProvider implements FinderSPI {
 
     @Override
     public void addSort(String field, SortOrder order) {
-
+        sort.put(field, order);
     }
 
     @Override
     public void addSort(String field) {
-
+        addSort(field, SortOrder.asc);
     }
 
     @Override
     public void addField(String field) {
-
+        fields.add(field);
     }
 
     @Override
     public void setBookmark(String key) {
+        bookmark = key;
+    }
+
+    private int queryHash() {
+        return Objects.hash(selector.toString(), sort.toString());
+    }
+
+    private String encodeBookmark(int nextOffset) {
+        String value = nextOffset + ":" + queryHash();
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(value.getBytes(StandardCharsets.UTF_8));
+    }
 
+    /**
+     * @throws ResponseStatusException BAD_REQUEST if the bookmark is malformed or made by another query
+     */
+    private int decodeBookmark(String key) {
+        if (key == null || key.isEmpty()) {
+            return 0;
+        }
+        String[] parts;
+        int offset;
+        try {
+            parts = new String(Base64.getUrlDecoder().decode(key), StandardCharsets.UTF_8).split(":");
+            offset = parts.length == 2 ? Integer.parseInt(parts[0]) : -1;
+        }
+        catch (IllegalArgumentException e) {
+            // NumberFormatException included
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "Invalid bookmark: " + key);
+        }
+        if (offset < 0 || !parts[1].equals(String.valueOf(queryHash()))) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "Bookmark does not match the query: " + key);
+        }
+        return offset;
+    }
+
+    protected boolean isExactQuery(ObjectNode query, String... allowed) {
+        List<String> allowedNames = Arrays.asList(allowed);
+        for (Iterator<String> it = query.fieldNames(); it.hasNext();) {
+            if (!allowedNames.contains(it.next())) {
+                return false;
+            }
+        }
+        return true;
     }
 
     void findResources(ObjectNode query, TransactionSPI tx, Consumer<Supplier<Resource>> consumer) throws IOException {
         if (query.has("id")) {
             String id = query.get("id").asText();
+            exact = isExactQuery(query, "id");
             findResourcesById(id, tx, consumer);
             return;
         }
@@ -121,12 +180,16 @@ public abstract class AbstractSimpleFinderProvider implements FinderSPI {
                             name = nameNode.asText();
                         }
                     }
+                    exact = isExactQuery(query, "contents") && (name != null ?
+                            !name.isEmpty() && contents.get(nameSF.getName()).isValueNode() && isExactQuery((ObjectNode) contents, "eClass", nameSF.getName()) :
+                            isExactQuery((ObjectNode) contents, "eClass"));
                     findResourcesByClass(eClass, name, tx, consumer);
                     return;
                 }
             }
         }
         warning = "No index used";
+        exact = isExactQuery(query);
         findAll(tx, consumer);
     }
 
@@ -139,32 +202,122 @@ public abstract class AbstractSimpleFinderProvider implements FinderSPI {
         idsLoaded = 0;
         skipped = 0;
         resLoaded = 0;
+        offset = (skip > 0 ? skip : 0) + decodeBookmark(bookmark);
+        nextBookmark = null;
+        exact = false;
+        sortApplied = false;
+        pageApplied = false;
+        queryIndex = null;
+        querySQL = null;
+        Comparator<Resource> comparator = createComparator();
+        // documents to be sorted in memory, keeps only the best offset + limit + 1 documents
+        PriorityQueue<Resource> sorted = new PriorityQueue<>(comparator.reversed());
+        boolean[] hasMore = {false};
         findResources(selector, tx, resourceSupplier -> {
             ++idsLoaded;
-            if (skip > 0 && skipped < skip) {
+            if (hasMore[0]) {
                 return;
             }
-            if (limit >= 0 && resLoaded >= limit) {
-                return;
-            }
-            Resource resource = resourceSupplier.get();
-            String id = tx.getStore().getId(resource);
-            String rev = getRev(resource.getURI());
-            if (match(id, rev, resource.getContents().get(0), selector)) {
-                if (skip > 0) {
-                    ++skipped;
+            if (pageApplied) {
+                if (limit >= 0 && resLoaded >= limit) {
+                    hasMore[0] = true;
                     return;
                 }
-                resourceSet.getResources().add(resource);
+                resourceSet.getResources().add(resourceSupplier.get());
                 ++resLoaded;
+                return;
+            }
+            if (!sort.isEmpty() && !sortApplied) {
+                Resource resource = resourceSupplier.get();
+                if (match(tx, resource)) {
+                    sorted.add(resource);
+                    if (limit >= 0 && sorted.size() > offset + limit + 1) {
+                        sorted.poll();
+                    }
+                }
+                return;
+            }
+            if (exact && skipped < offset) {
+                ++skipped;
+                return;
             }
+            if (exact && limit >= 0 && resLoaded >= limit) {
+                hasMore[0] = true;
+                return;
+            }
+            Resource resource = resourceSupplier.get();
+            if (!match(tx, resource)) {
+                return;
+            }
+            if (skipped < offset) {
+                ++skipped;
+                return;
+            }
+            if (limit >= 0 && resLoaded >= limit) {
+                hasMore[0] = true;
+                return;
+            }
+            resourceSet.getResources().add(resource);
+            ++resLoaded;
         });
         long idsLoadedTime = System.currentTimeMillis();
+        if (!sorted.isEmpty()) {
+            List<Resource> page = new ArrayList<>(sorted);
+            page.sort(comparator);
+            int end = limit >= 0 ? Math.min(page.size(), offset + limit) : page.size();
+            for (int i = offset; i < end; ++i) {
+                resourceSet.getResources().add(page.get(i));
+                ++resLoaded;
+            }
+            hasMore[0] = page.size() > end;
+        }
+        if (hasMore[0]) {
+            nextBookmark = encodeBookmark(offset + resLoaded);
+        }
         long resLoadedTime = System.currentTimeMillis();
         idsLoadedMs = idsLoadedTime - startTime;
         resLoadedMs = resLoadedTime - idsLoadedTime;
     }
 
+    private boolean match(TransactionSPI tx, Resource resource) {
+        String id = tx.getStore().getId(resource);
+        String rev = getRev(resource.getURI());
+        return match(id, rev, resource.getContents().get(0), selector);
+    }
+
+    private Comparator<Resource> createComparator() {
+        Comparator<Resource> comparator = null;
+        for (Map.Entry<String, SortOrder> entry: sort.entrySet()) {
+            String[] path = entry.getKey().split("\\.");
+            Comparator<Resource> fieldComparator = (r1, r2) -> compareValues(
+                    getPath(r1.getContents().get(0), path), getPath(r2.getContents().get(0), path));
+            if (entry.getValue() == SortOrder.desc) {
+                fieldComparator = fieldComparator.reversed();
+            }
+            comparator = comparator == null ? fieldComparator : comparator.thenComparing(fieldComparator);
+        }
+        Comparator<Resource> byURI = Comparator.comparing(resource -> resource.getURI().toString());
+        return comparator == null ? byURI : comparator.thenComparing(byURI);
+    }
+
+    private Object getPath(Object object, String[] path) {
+        for (String name: path) {
+            object = getField(object, name);
+        }
+        return object;
+    }
+
+    @SuppressWarnings("unchecked")
+    private int compareValues(Object o1, Object o2) {
+        if (o1 == null || o2 == null) {
+            return o1 == null ? (o2 == null ? 0 : -1) : 1;
+        }
+        if (o1 instanceof Comparable && o1.getClass().isInstance(o2)) {
+            return ((Comparable<Object>) o1).compareTo(o2);
+        }
+        return o1.toString().compareTo(o2.toString());
+    }
+
     private boolean match(String id, String rev, EObject eObject, ObjectNode query) {
         JsonNode _id = query.get("id");
         if (_id != null && !Objects.equals(_id.textValue(), id)) {
@@ -452,12 +605,16 @@ public abstract class AbstractSimpleFinderProvider implements FinderSPI {
         executionStats.put("idsLoadedMs", idsLoadedMs);
         executionStats.put("resLoaded", resLoaded);
         executionStats.put("resLoadedMs", resLoadedMs);
+        if (querySQL != null) {
+            executionStats.put("query", querySQL);
+            executionStats.put("index", queryIndex);
+        }
         return executionStats;
     }
 
     @Override
     public String getBookmark() {
-        return null;
+        return nextBookmark;
     }
 
     @Override
@@ -3,8 +3,12 @@ package ru.neoflex.nfcore.base.services.providers;
 import org.eclipse.emf.common.util.URI;
 import org.eclipse.emf.ecore.resource.Resource;
 import org.eclipse.emf.ecore.resource.ResourceSet;
+import org.eclipse.emf.ecore.util.EcoreUtil;
 
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
 
 public abstract class AbstractStoreSPI implements StoreSPI {
 
@@ -14,6 +18,29 @@ public abstract class AbstractStoreSPI implements StoreSPI {
         return resource;
     }
 
+    @Override
+    public List<Resource> saveResources(Collection<Resource> resources) throws IOException {
+        List<Resource> result = new ArrayList<>();
+        for (Resource resource: resources) {
+            result.add(saveResource(resource));
+        }
+        return result;
+    }
+
+    @Override
+    public void resolveAll(Collection<Resource> resources, int depth) throws IOException {
+        List<Resource> level = new ArrayList<>(resources);
+        for (int i = 0; !level.isEmpty() && (depth < 0 || i < depth); ++i) {
+            ResourceSet resourceSet = level.get(0).getResourceSet();
+            int size = resourceSet == null ? 0 : resourceSet.getResources().size();
+            for (Resource resource: level) {
+                EcoreUtil.resolveAll(resource);
+            }
+            level = resourceSet == null ? new ArrayList<>() :
+                    new ArrayList<>(resourceSet.getResources().subList(size, resourceSet.getResources().size()));
+        }
+    }
+
     @Override
     public Resource loadResource(URI uri, TransactionSPI tx) throws IOException {
         Resource resource = createResourceSet(tx).createResource(uri.trimFragment().trimQuery());
@@ -13,4 +13,10 @@ public interface EventsRegistration {
     void registerAfterSave(BiConsumer<Resource, Resource> consumer);
 
     void registerBeforeDelete(Consumer<Resource> consumer);
+
+    /**
+     * Committed changes of all writers of the database, not only of this application node.
+     * Called outside of the writing transaction, providers without a change feed never call the consumer.
+     */
+    void registerChange(Consumer<ResourceChange> consumer);
 }
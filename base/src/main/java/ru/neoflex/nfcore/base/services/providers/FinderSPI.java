@@ -6,8 +6,10 @@ import org.eclipse.emf.ecore.resource.Resource;
 import org.eclipse.emf.ecore.resource.ResourceSet;
 
 import java.io.IOException;
+import java.util.List;
 import java.util.function.Consumer;
 import java.util.function.Supplier;
+import java.util.stream.Stream;
 
 public interface FinderSPI {
     enum SortOrder {
@@ -53,5 +55,18 @@ public interface FinderSPI {
 
     void findAll(TransactionSPI tx, Consumer<Supplier<Resource>> consumer) throws IOException;
 
+    Stream<Resource> findAllStream(TransactionSPI tx) throws IOException;
+
+    /**
+     * Parts of the store which can be scanned in parallel, a single null part if the store is not partitioned
+     */
+    List<String> getPartitions(TransactionSPI tx) throws IOException;
+
+    /**
+     * Streams the resources of a partition in a stable order
+     * @param afterId if not null, the stream starts after the resource with this id
+     */
+    Stream<Resource> findAllStream(TransactionSPI tx, String partition, String afterId) throws IOException;
+
     public void getDependentResources(Resource resource, TransactionSPI tx, Consumer<Supplier<Resource>> consumer) throws IOException;
 }
@@ -1,17 +1,61 @@
 package ru.neoflex.nfcore.base.services.providers;
 
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import org.eclipse.emf.common.util.URI;
 import org.eclipse.emf.ecore.EClass;
+import org.eclipse.emf.ecore.EStructuralFeature;
 import org.eclipse.emf.ecore.resource.Resource;
 import org.eclipse.emf.ecore.resource.ResourceSet;
 import ru.neoflex.meta.emfgit.*;
+import ru.neoflex.nfcore.base.services.Store;
 
 import java.io.IOException;
 import java.nio.file.Files;
+import java.util.Collections;
 import java.util.List;
 import java.util.function.Consumer;
 import java.util.function.Supplier;
+import java.util.stream.Stream;
 
 public class GitDBFinderProvider extends AbstractSimpleFinderProvider {
+    @Override
+    void findResources(ObjectNode query, TransactionSPI tx, Consumer<Supplier<Resource>> consumer) throws IOException {
+        Transaction gitTx = (GitDBTransactionProvider) tx;
+        SecondaryIndex.Plan plan = getSecondaryIndexPlan(query, gitTx);
+        if (plan == null) {
+            super.findResources(query, tx, consumer);
+            return;
+        }
+        queryIndex = plan.getIndex().getName();
+        exact = false;
+        Database database = gitTx.getDatabase();
+        ResourceSet resourceSet = database.createResourceSet(gitTx);
+        for (EntityId entityId: plan.find(gitTx)) {
+            consumeResource(consumer, gitTx, database, resourceSet, entityId);
+        }
+    }
+
+    /**
+     * Secondary index for the class query without the qualified name, which is found by the type_name index
+     */
+    private SecondaryIndex.Plan getSecondaryIndexPlan(ObjectNode query, Transaction gitTx) throws IOException {
+        JsonNode contents = query.get("contents");
+        if (query.has("id") || !(contents instanceof ObjectNode) || !contents.has("eClass")) {
+            return null;
+        }
+        ResourceSet resourceSet = gitTx.getDatabase().createResourceSet(gitTx);
+        EClass eClass = (EClass) resourceSet.getEObject(URI.createURI(contents.get("eClass").asText()), false);
+        if (eClass == null) {
+            return null;
+        }
+        EStructuralFeature nameSF = Store.qualifiedNameDelegate.apply(eClass);
+        if (nameSF != null && contents.has(nameSF.getName()) && !contents.get(nameSF.getName()).asText().isEmpty()) {
+            return null;
+        }
+        return SecondaryIndex.plan(gitTx, eClass, contents);
+    }
+
     @Override
     protected void findResourcesByClass(EClass eClass, String name, TransactionSPI tx, Consumer<Supplier<Resource>> consumer) {
         Transaction gitTx = (GitDBTransactionProvider) tx;
@@ -44,7 +88,7 @@ public class GitDBFinderProvider extends AbstractSimpleFinderProvider {
             try {
                 Entity entity = gitTx.load(entityId);
                 Resource resource = resourceSet.createResource(database.createURI(entity.getId(), entity.getRev()));
-                database.loadResource(entity.getContent(), resource);
+                database.loadResource(entity, resource);
                 return resource;
             } catch (IOException e) {
                 throw new RuntimeException(e);
@@ -56,11 +100,49 @@ public class GitDBFinderProvider extends AbstractSimpleFinderProvider {
     public void findAll(TransactionSPI tx, Consumer<Supplier<Resource>> consumer) throws IOException {
         Transaction gitTx = (GitDBTransactionProvider) tx;
         for (EntityId entityId: gitTx.all()) {
-            Resource resource = gitTx.getDatabase().loadResource(entityId.getId(), gitTx);
-            consumer.accept(() -> resource);
+            consumer.accept(() -> {
+                try {
+                    return gitTx.getDatabase().loadResource(entityId.getId(), gitTx);
+                } catch (IOException e) {
+                    throw new RuntimeException(e);
+                }
+            });
         }
     }
 
+    @Override
+    public Stream<Resource> findAllStream(TransactionSPI tx) throws IOException {
+        Transaction gitTx = (GitDBTransactionProvider) tx;
+        return gitTx.all().stream().map(entityId -> {
+            try {
+                return gitTx.getDatabase().loadResource(entityId.getId(), gitTx);
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+        });
+    }
+
+    @Override
+    public List<String> getPartitions(TransactionSPI tx) {
+        return Collections.singletonList(null);
+    }
+
+    @Override
+    public Stream<Resource> findAllStream(TransactionSPI tx, String partition, String afterId) throws IOException {
+        Transaction gitTx = (GitDBTransactionProvider) tx;
+        return gitTx.all().stream()
+                .map(EntityId::getId)
+                .filter(id -> afterId == null || id.compareTo(afterId) > 0)
+                .sorted()
+                .map(id -> {
+                    try {
+                        return gitTx.getDatabase().loadResource(id, gitTx);
+                    } catch (IOException e) {
+                        throw new RuntimeException(e);
+                    }
+                });
+    }
+
     @Override
     public void getDependentResources(Resource resource, TransactionSPI tx, Consumer<Supplier<Resource>> consumer) throws IOException {
         Transaction gitTx = (GitDBTransactionProvider) tx;
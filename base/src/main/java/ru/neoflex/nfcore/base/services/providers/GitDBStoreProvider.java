@@ -121,4 +121,9 @@ public class GitDBStoreProvider extends AbstractStoreSPI {
     public void registerBeforeDelete(Consumer<Resource> consumer) {
         workspace.getDatabase().getEvents().registerBeforeDelete(consumer);
     }
+
+    @Override
+    public void registerChange(Consumer<ResourceChange> consumer) {
+        // git database has no change feed, all writes go through Events of this node
+    }
 }
@@ -1,13 +1,18 @@
 package ru.neoflex.nfcore.base.services.providers;
 
+import org.eclipse.emf.ecore.EAttribute;
 import org.eclipse.emf.ecore.EClass;
 import org.eclipse.emf.ecore.EStructuralFeature;
 import org.eclipse.emf.ecore.resource.Resource;
 import ru.neoflex.meta.emforientdb.Session;
 import ru.neoflex.nfcore.base.services.Store;
 
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
 import java.util.function.Consumer;
 import java.util.function.Supplier;
+import java.util.stream.Stream;
 
 public class OrientDBFinderProvider extends AbstractSimpleFinderProvider {
 
@@ -17,23 +22,75 @@ public class OrientDBFinderProvider extends AbstractSimpleFinderProvider {
         session.getAll(consumer);
     }
 
+    @Override
+    public Stream<Resource> findAllStream(TransactionSPI tx) {
+        Session session = ((OrientDBTransactionProvider)  tx).getSession();
+        return session.getAllStream();
+    }
+
+    @Override
+    public List<String> getPartitions(TransactionSPI tx) {
+        Session session = ((OrientDBTransactionProvider)  tx).getSession();
+        return session.getEObjectClusters();
+    }
+
+    @Override
+    public Stream<Resource> findAllStream(TransactionSPI tx, String partition, String afterId) {
+        Session session = ((OrientDBTransactionProvider)  tx).getSession();
+        return session.getAllStream(partition, afterId == null ? null : session.getFactory().getORID(afterId));
+    }
+
     private void execQuery(TransactionSPI tx, String sql, Consumer<Supplier<Resource>> consumer, Object... args) {
         Session session = ((OrientDBTransactionProvider)  tx).getSession();
         session.query(sql, consumer, args);
     }
 
+    private String orderBy(EClass eClass) {
+        List<String> orders = new ArrayList<>();
+        for (Map.Entry<String, SortOrder> entry: sort.entrySet()) {
+            EStructuralFeature sf = eClass.getEStructuralFeature(entry.getKey());
+            if (!(sf instanceof EAttribute) || sf.isMany()) {
+                return "";
+            }
+            orders.add(sf.getName() + " " + entry.getValue().name());
+        }
+        if (orders.isEmpty()) {
+            return "";
+        }
+        sortApplied = true;
+        return " order by " + String.join(", ", orders);
+    }
+
+    private String page() {
+        if (!exact || (!sort.isEmpty() && !sortApplied) || (offset <= 0 && limit < 0)) {
+            return "";
+        }
+        pageApplied = true;
+        return (offset > 0 ? " skip " + offset : "") + (limit >= 0 ? " limit " + (limit + 1) : "");
+    }
+
     @Override
     protected void findResourcesByClass(EClass eClass, String name, TransactionSPI tx, Consumer<Supplier<Resource>> consumer) {
         Session session = ((OrientDBTransactionProvider)  tx).getSession();
-        String sql = "select from " + session.getOClassName(eClass);
+        OrientDBQueryPlanner.Plan plan = new OrientDBQueryPlanner(session).plan(eClass, selector.get("contents"));
+        exact = isExactQuery(selector, "contents") && plan.exact;
+        String where = plan.where;
+        List<Object> args = new ArrayList<>(plan.args);
         if (name != null && !name.isEmpty()) {
             EStructuralFeature sf = Store.qualifiedNameDelegate.apply(eClass);
             if (sf != null) {
-                execQuery(tx, sql + " where " + sf.getName() + "=?", consumer, name);
-                return;
+                where = where.isEmpty() ? sf.getName() + " = ?" : "(" + where + ") and " + sf.getName() + " = ?";
+                args.add(name);
             }
         }
-        execQuery(tx, sql, consumer);
+        String sql = "select from " + session.getOClassName(eClass);
+        if (!where.isEmpty()) {
+            sql = sql + " where " + where;
+        }
+        sql = sql + orderBy(eClass) + page();
+        queryIndex = plan.index;
+        querySQL = sql;
+        execQuery(tx, sql, consumer, args.toArray());
     }
 
     @Override
@@ -0,0 +1,384 @@
+package ru.neoflex.nfcore.base.services.providers;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.orientechnologies.orient.core.index.OIndex;
+import com.orientechnologies.orient.core.metadata.schema.OClass;
+import org.eclipse.emf.ecore.*;
+import org.eclipse.emf.ecore.util.EcoreUtil;
+import ru.neoflex.meta.emforientdb.Session;
+
+import java.util.*;
+import java.util.stream.Collectors;
+
+/**
+ * Translates the "contents" part of a finder selector to the where clause of an OrientDB SQL query
+ * over the stored document layout: attributes are properties of the class vertex,
+ * embedded containments are embedded documents. Parts of the selector which can't be expressed in SQL
+ * are left to the in-memory match, in that case the plan is not exact.
+ * A comparison with a null field is not true in SQL, so negations are not pushed as is: $not and $nor are left
+ * to the in-memory match, $ne and $nin select the null fields too and are checked again in memory.
+ * An unset attribute is not stored, but it is matched in memory with its default value, so a condition satisfied
+ * by a non-null default selects the null fields too and is checked again in memory.
+ */
+class OrientDBQueryPlanner {
+    private static final Set<String> INDEXED_OPS = new HashSet<>(Arrays.asList("=", "in", "<", "<=", ">", ">="));
+    private final Session session;
+
+    OrientDBQueryPlanner(Session session) {
+        this.session = session;
+    }
+
+    static class Plan {
+        String where = "";
+        List<Object> args = new ArrayList<>();
+        boolean exact = true;
+        String index;
+    }
+
+    private static class Condition {
+        final String sql;
+        final boolean exact;
+
+        Condition(String sql, boolean exact) {
+            this.sql = sql;
+            this.exact = exact;
+        }
+    }
+
+    Plan plan(EClass eClass, JsonNode contents) {
+        Plan plan = new Plan();
+        if (contents == null || !contents.isObject()) {
+            return plan;
+        }
+        List<String> indexedFields = new ArrayList<>();
+        List<String> conditions = new ArrayList<>();
+        for (Iterator<Map.Entry<String, JsonNode>> it = contents.fields(); it.hasNext();) {
+            Map.Entry<String, JsonNode> entry = it.next();
+            if (entry.getKey().equals("eClass")) {
+                continue;
+            }
+            Condition condition = translateField(eClass, "", entry.getKey(), entry.getValue(), plan.args);
+            if (condition == null) {
+                plan.exact = false;
+                continue;
+            }
+            plan.exact &= condition.exact;
+            conditions.add(condition.sql);
+            EStructuralFeature sf = eClass.getEStructuralFeature(unescape(entry.getKey()));
+            if (sf instanceof EAttribute && !sf.isMany() && isIndexable(entry.getValue())) {
+                indexedFields.add(sf.getName());
+            }
+        }
+        plan.where = String.join(" and ", conditions);
+        plan.index = chooseIndex(eClass, indexedFields);
+        return plan;
+    }
+
+    private boolean isIndexable(JsonNode query) {
+        if (!query.isObject()) {
+            return !query.isNull();
+        }
+        for (Iterator<String> it = query.fieldNames(); it.hasNext();) {
+            if (INDEXED_OPS.contains(toSqlOp(it.next()))) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private String chooseIndex(EClass eClass, List<String> fields) {
+        if (fields.isEmpty()) {
+            return null;
+        }
+        OClass oClass = session.getDatabaseDocument().getClass(session.getOClassName(eClass));
+        if (oClass == null) {
+            return null;
+        }
+        List<OClass> oClasses = new ArrayList<>();
+        oClasses.add(oClass);
+        oClasses.addAll(oClass.getAllSuperClasses());
+        String chosen = null;
+        for (OClass cls: oClasses) {
+            for (OIndex oIndex: cls.getIndexes()) {
+                List<String> indexFields = oIndex.getDefinition().getFields();
+                if (!indexFields.isEmpty() && fields.contains(indexFields.get(0))) {
+                    if (oIndex.getType().startsWith(OClass.INDEX_TYPE.UNIQUE.name())) {
+                        return oIndex.getName();
+                    }
+                    if (chosen == null) {
+                        chosen = oIndex.getName();
+                    }
+                }
+            }
+        }
+        return chosen;
+    }
+
+    private Condition translateObject(EClass eClass, String prefix, JsonNode query, List<Object> args) {
+        if (!query.isObject()) {
+            return null;
+        }
+        List<String> conditions = new ArrayList<>();
+        boolean exact = true;
+        for (Iterator<Map.Entry<String, JsonNode>> it = query.fields(); it.hasNext();) {
+            Map.Entry<String, JsonNode> entry = it.next();
+            Condition condition = translateField(eClass, prefix, entry.getKey(), entry.getValue(), args);
+            if (condition == null) {
+                exact = false;
+                continue;
+            }
+            exact &= condition.exact;
+            conditions.add(condition.sql);
+        }
+        return conditions.isEmpty() ? new Condition("true", exact) : new Condition(and(conditions), exact);
+    }
+
+    private Condition translateField(EClass eClass, String prefix, String fieldName, JsonNode query, List<Object> args) {
+        if (fieldName.equals("$and") || fieldName.equals("$or")) {
+            return translateLogical(eClass, prefix, fieldName, query, args);
+        }
+        if (fieldName.startsWith("$") || fieldName.equals("eClass")) {
+            return null;
+        }
+        EStructuralFeature sf = eClass.getEStructuralFeature(unescape(fieldName));
+        if (sf == null || sf.isDerived() || sf.isTransient()) {
+            return null;
+        }
+        String path = prefix + sf.getName();
+        if (sf instanceof EAttribute) {
+            EDataType eDataType = ((EAttribute) sf).getEAttributeType();
+            return sf.isMany() ? translateMany(path, eDataType, query, args) : translateValue(path, eDataType, getDefault(sf), query, args);
+        }
+        EReference eReference = (EReference) sf;
+        if (!eReference.isContainment() || !session.isEmbedded(eReference)) {
+            return null;
+        }
+        if (!eReference.isMany()) {
+            return translateObject(eReference.getEReferenceType(), path + ".", query, args);
+        }
+        return translateList(path, eReference.getEReferenceType(), query, args);
+    }
+
+    private Condition translateLogical(EClass eClass, String prefix, String op, JsonNode query, List<Object> args) {
+        if (!query.isArray()) {
+            return null;
+        }
+        int argsSize = args.size();
+        List<String> conditions = new ArrayList<>();
+        boolean exact = true;
+        for (JsonNode node: query) {
+            Condition condition = translateObject(eClass, prefix, node, args);
+            if (condition == null || !condition.exact) {
+                if (op.equals("$and")) {
+                    exact = false;
+                    if (condition != null) {
+                        conditions.add(condition.sql);
+                    }
+                    continue;
+                }
+                // a partial disjunct would narrow the result, so the whole $or is left to the in-memory match
+                truncate(args, argsSize);
+                return null;
+            }
+            conditions.add(condition.sql);
+        }
+        if (conditions.isEmpty()) {
+            return new Condition(op.equals("$or") ? "false" : "true", exact);
+        }
+        if (op.equals("$and")) {
+            return new Condition(and(conditions), exact);
+        }
+        String or = conditions.stream().map(c -> "(" + c + ")").collect(Collectors.joining(" or "));
+        return new Condition("(" + or + ")", true);
+    }
+
+    private Condition translateList(String path, EClass elementClass, JsonNode query, List<Object> args) {
+        if (!query.isObject()) {
+            return null;
+        }
+        int argsSize = args.size();
+        List<String> conditions = new ArrayList<>();
+        for (Iterator<Map.Entry<String, JsonNode>> it = query.fields(); it.hasNext();) {
+            Map.Entry<String, JsonNode> entry = it.next();
+            if (entry.getKey().equals("$elemMatch")) {
+                Condition condition = translateObject(elementClass, "", entry.getValue(), args);
+                if (condition == null || !condition.exact) {
+                    truncate(args, argsSize);
+                    return null;
+                }
+                conditions.add(path + " contains (" + condition.sql + ")");
+            }
+            else if (entry.getKey().equals("$size") && entry.getValue().canConvertToInt()) {
+                conditions.add(path + ".size() = ?");
+                args.add(entry.getValue().asInt());
+            }
+            else {
+                truncate(args, argsSize);
+                return null;
+            }
+        }
+        return conditions.isEmpty() ? null : new Condition(and(conditions), true);
+    }
+
+    private Condition translateMany(String path, EDataType eDataType, JsonNode query, List<Object> args) {
+        if (query.isObject()) {
+            JsonNode size = query.get("$size");
+            if (query.size() == 1 && size != null && size.canConvertToInt()) {
+                args.add(size.asInt());
+                return new Condition(path + ".size() = ?", true);
+            }
+            return null;
+        }
+        return null;
+    }
+
+    /**
+     * @param defaultValue the default of the attribute converted as a stored value, null if there is no default
+     */
+    private Condition translateValue(String path, EDataType eDataType, Object defaultValue, JsonNode query, List<Object> args) {
+        if (query.isNull()) {
+            return new Condition(path + " is null", defaultValue == null);
+        }
+        if (!query.isObject()) {
+            Object value = toOObject(eDataType, query);
+            if (value == null) {
+                return null;
+            }
+            args.add(value);
+            if (defaultValue != null && matchesDefault("=", defaultValue, value)) {
+                return new Condition("(" + path + " is null or " + path + " = ?)", false);
+            }
+            return new Condition(path + " = ?", true);
+        }
+        int argsSize = args.size();
+        List<String> conditions = new ArrayList<>();
+        boolean exact = true;
+        for (Iterator<Map.Entry<String, JsonNode>> it = query.fields(); it.hasNext();) {
+            Map.Entry<String, JsonNode> entry = it.next();
+            String op = entry.getKey();
+            JsonNode operand = entry.getValue();
+            String sqlOp = toSqlOp(op);
+            String condition = null;
+            Object value = null;
+            if (op.equals("$exists")) {
+                condition = path + (operand.asBoolean() ? " is not null" : " is null");
+            }
+            else if (op.equals("$in") || op.equals("$nin")) {
+                List<Object> values = new ArrayList<>();
+                if (operand.isArray()) {
+                    for (JsonNode node: operand) {
+                        Object value = toOObject(eDataType, node);
+                        if (value == null) {
+                            values = null;
+                            break;
+                        }
+                        values.add(value);
+                    }
+                }
+                if (values != null && operand.isArray()) {
+                    condition = path + " " + sqlOp + " ?";
+                    args.add(values);
+                    value = values;
+                }
+            }
+            else if (sqlOp != null) {
+                value = op.equals("$regex") ? operand.asText() : toOObject(eDataType, operand);
+                if (value != null) {
+                    condition = path + " " + sqlOp + " ?";
+                    args.add(value);
+                }
+            }
+            if (condition == null) {
+                truncate(args, argsSize);
+                return null;
+            }
+            if (op.equals("$ne") || op.equals("$nin") ||
+                    (defaultValue != null && (op.equals("$exists") || matchesDefault(sqlOp, defaultValue, value)))) {
+                condition = "(" + path + " is null or " + condition + ")";
+                exact = false;
+            }
+            conditions.add(condition);
+        }
+        return conditions.isEmpty() ? null : new Condition(and(conditions), exact);
+    }
+
+    private Object getDefault(EStructuralFeature sf) {
+        Object defaultValue = sf.getDefaultValue();
+        try {
+            return defaultValue == null ? null : session.objectToOObject(((EAttribute) sf).getEAttributeType(), defaultValue);
+        }
+        catch (RuntimeException e) {
+            return defaultValue;
+        }
+    }
+
+    /**
+     * True if the default value satisfies the condition or it can't be decided
+     */
+    @SuppressWarnings("unchecked")
+    private static boolean matchesDefault(String sqlOp, Object defaultValue, Object value) {
+        try {
+            switch (sqlOp) {
+                case "=": return defaultValue.equals(value);
+                case "in": return ((Collection<Object>) value).contains(defaultValue);
+                case "matches": return defaultValue.toString().matches((String) value);
+            }
+            if (defaultValue instanceof Comparable && defaultValue.getClass().isInstance(value)) {
+                int result = ((Comparable<Object>) defaultValue).compareTo(value);
+                switch (sqlOp) {
+                    case "<": return result < 0;
+                    case "<=": return result <= 0;
+                    case ">": return result > 0;
+                    case ">=": return result >= 0;
+                }
+            }
+        }
+        catch (RuntimeException e) {
+            return true;
+        }
+        return true;
+    }
+
+    private static String toSqlOp(String op) {
+        switch (op) {
+            case "$eq": return "=";
+            case "$ne": return "<>";
+            case "$gt": return ">";
+            case "$gte": return ">=";
+            case "$lt": return "<";
+            case "$lte": return "<=";
+            case "$in": return "in";
+            case "$nin": return "not in";
+            case "$regex": return "matches";
+            default: return null;
+        }
+    }
+
+    private Object toOObject(EDataType eDataType, JsonNode node) {
+        if (node.isObject() || node.isArray() || node.isNull()) {
+            return null;
+        }
+        try {
+            Object value = EcoreUtil.createFromString(eDataType, node.asText());
+            return value == null ? null : session.objectToOObject(eDataType, value);
+        }
+        catch (RuntimeException e) {
+            return null;
+        }
+    }
+
+    private static String and(List<String> conditions) {
+        return conditions.size() == 1 ? conditions.get(0) :
+                conditions.stream().map(c -> "(" + c + ")").collect(Collectors.joining(" and "));
+    }
+
+    private static void truncate(List<Object> args, int size) {
+        while (args.size() > size) {
+            args.remove(args.size() - 1);
+        }
+    }
+
+    private static String unescape(String fieldName) {
+        return fieldName.replaceAll("^[\\\\]\\$", "\\$");
+    }
+}
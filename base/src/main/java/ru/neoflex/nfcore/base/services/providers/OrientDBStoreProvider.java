@@ -4,17 +4,26 @@ import com.orientechnologies.orient.etl.OETLPlugin;
 import org.eclipse.emf.common.util.URI;
 import org.eclipse.emf.ecore.resource.Resource;
 import org.eclipse.emf.ecore.resource.ResourceSet;
+import org.eclipse.emf.ecore.resource.URIHandler;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
 import org.springframework.stereotype.Service;
+import ru.neoflex.meta.emforientdb.ChangeFeed;
+import ru.neoflex.meta.emforientdb.OrientDBHandler;
+import ru.neoflex.meta.emforientdb.ResourceCache;
 import ru.neoflex.meta.emforientdb.Server;
+import ru.neoflex.meta.emforientdb.Session;
 import ru.neoflex.nfcore.base.components.PackageRegistry;
 import ru.neoflex.nfcore.base.services.Store;
+import ru.neoflex.nfcore.base.services.TransactionRetry;
 
 import javax.annotation.PostConstruct;
 import javax.annotation.PreDestroy;
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
 import java.util.function.BiConsumer;
 import java.util.function.Consumer;
 
@@ -25,8 +34,14 @@ public class OrientDBStoreProvider extends AbstractStoreSPI {
     String home;
     @Value("${orientdb.dbname:models}")
     String dbName;
+    @Value("${orientdb.resourceCacheSize:0}")
+    int resourceCacheSize;
+    @Value("${orientdb.changeFeed:false}")
+    boolean changeFeed;
     @Autowired
     PackageRegistry registry;
+    @Autowired
+    TransactionRetry transactionRetry;
 
     private Server server;
     private OETLPlugin oetlPlugin;
@@ -35,7 +50,14 @@ public class OrientDBStoreProvider extends AbstractStoreSPI {
     public void init() throws Exception {
         server = new Server(home, dbName, registry.getEPackages());
         server.setQualifiedNameDelegate(Store.qualifiedNameDelegate);
+        server.setRetryStrategy(transactionRetry);
+        if (resourceCacheSize > 0) {
+            server.setResourceCache(new ResourceCache(resourceCacheSize));
+        }
         server.open();
+        if (changeFeed) {
+            server.startChangeFeed();
+        }
         oetlPlugin = new OETLPlugin();
         oetlPlugin.config(server.getOServer(), null);
         oetlPlugin.startup();
@@ -52,6 +74,42 @@ public class OrientDBStoreProvider extends AbstractStoreSPI {
         return server.createURI(id + "?rev=" + rev);
     }
 
+    @Override
+    public List<Resource> saveResources(Collection<Resource> resources) throws IOException {
+        if (resources.isEmpty()) {
+            return new ArrayList<>();
+        }
+        Session session = getSession(resources.iterator().next().getResourceSet());
+        session.saveAll(resources);
+        for (Resource resource: resources) {
+            resource.setModified(false);
+        }
+        return new ArrayList<>(resources);
+    }
+
+    @Override
+    public void resolveAll(Collection<Resource> resources, int depth) throws IOException {
+        if (resources.isEmpty()) {
+            return;
+        }
+        getSession(resources.iterator().next().getResourceSet()).resolveAll(resources, depth);
+    }
+
+    private Session getSession(ResourceSet resourceSet) throws IOException {
+        if (resourceSet != null) {
+            for (URIHandler handler: resourceSet.getURIConverter().getURIHandlers()) {
+                if (handler instanceof OrientDBHandler) {
+                    return ((OrientDBHandler) handler).getSession();
+                }
+            }
+        }
+        OrientDBTransactionProvider tx = OrientDBTransactionProvider.getCurrent();
+        if (tx == null) {
+            throw new IOException("No current transaction found");
+        }
+        return tx.getSession();
+    }
+
     @Override
     public URI getUriByRef(String ref) {
         return server.createURI(ref);
@@ -149,4 +207,16 @@ public class OrientDBStoreProvider extends AbstractStoreSPI {
     public void registerBeforeDelete(Consumer<Resource> consumer) {
         getServer().getEvents().registerBeforeDelete(consumer);
     }
+
+    @Override
+    public void registerChange(Consumer<ResourceChange> consumer) {
+        ChangeFeed feed = getServer().getChangeFeed();
+        if (feed != null) {
+            feed.subscribe(change -> consumer.accept(new ResourceChange(
+                    ResourceChange.Type.valueOf(change.getType().name()),
+                    server.getId(change.getURI()),
+                    String.valueOf(change.getVersion()),
+                    change.getEClassURI() != null ? change.getEClassURI().toString() : null)));
+        }
+    }
 }
@@ -0,0 +1,48 @@
+package ru.neoflex.nfcore.base.services.providers;
+
+/**
+ * Committed change of a resource reported by the store change feed
+ */
+public class ResourceChange {
+    public enum Type {
+        CREATE,
+        UPDATE,
+        DELETE
+    }
+
+    private final Type type;
+    private final String id;
+    private final String rev;
+    private final String eClass;
+
+    public ResourceChange(Type type, String id, String rev, String eClass) {
+        this.type = type;
+        this.id = id;
+        this.rev = rev;
+        this.eClass = eClass;
+    }
+
+    public Type getType() {
+        return type;
+    }
+
+    public String getId() {
+        return id;
+    }
+
+    public String getRev() {
+        return rev;
+    }
+
+    /**
+     * URI of the EClass of the resource root or null if unknown
+     */
+    public String getEClass() {
+        return eClass;
+    }
+
+    @Override
+    public String toString() {
+        return type + " " + id + "?rev=" + rev;
+    }
+}
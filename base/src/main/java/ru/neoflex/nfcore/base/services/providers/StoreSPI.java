@@ -5,12 +5,18 @@ import org.eclipse.emf.ecore.resource.Resource;
 import org.eclipse.emf.ecore.resource.ResourceSet;
 
 import java.io.IOException;
+import java.util.Collection;
+import java.util.List;
 
 public interface StoreSPI extends EventsRegistration {
     URI getUriByIdAndRev(String id, String rev);
 
     Resource saveResource(Resource resource) throws IOException;
 
+    List<Resource> saveResources(Collection<Resource> resources) throws IOException;
+
+    void resolveAll(Collection<Resource> resources, int depth) throws IOException;
+
     URI getUriByRef(String ref);
 
     ResourceSet createResourceSet(TransactionSPI tx);
@@ -12,6 +12,7 @@ import ru.neoflex.nfcore.base.services.providers.TransactionSPI;
 
 import java.io.IOException;
 import java.util.*;
+import java.util.stream.Stream;
 
 public class DocFinder {
     Store store;
@@ -110,7 +111,7 @@ public class DocFinder {
     public List<Resource> getResources() throws IOException {
         ResourceSet rs = provider.getResourceSet();
         List<Resource> result = new ArrayList<>(rs.getResources());
-        EcoreUtil.resolveAll(rs);
+        store.resolveAll(rs);
         return result;
     }
 
@@ -153,6 +154,26 @@ public class DocFinder {
         return resources;
     }
 
+    /**
+     * Streams all resources of the store, every resource is loaded into its own ResourceSet.
+     * The stream must be closed.
+     */
+    public Stream<Resource> getAllResourcesStream() throws IOException {
+        return provider.findAllStream(store.getCurrentTransaction());
+    }
+
+    public List<String> getPartitions() throws IOException {
+        return provider.getPartitions(store.getCurrentTransaction());
+    }
+
+    /**
+     * Streams the resources of one partition of the store in a stable order, starting after afterId if not null.
+     * The stream must be closed.
+     */
+    public Stream<Resource> getAllResourcesStream(String partition, String afterId) throws IOException {
+        return provider.findAllStream(store.getCurrentTransaction(), partition, afterId);
+    }
+
     public List<Resource> getDependentResources(List<Resource> resources) throws IOException {
         List<Resource> result = new ArrayList<>();
         for (Resource resource: resources) {
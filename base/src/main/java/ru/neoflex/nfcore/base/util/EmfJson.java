@@ -4,6 +4,7 @@ import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.databind.cfg.ContextAttributes;
+import com.fasterxml.jackson.databind.node.ArrayNode;
 import com.fasterxml.jackson.databind.node.ObjectNode;
 import org.eclipse.emf.common.util.*;
 import org.eclipse.emf.ecore.*;
@@ -30,6 +31,8 @@ import java.util.stream.IntStream;
 import static com.fasterxml.jackson.databind.SerializationFeature.WRITE_DATES_AS_TIMESTAMPS;
 
 public class EmfJson {
+    private static volatile ObjectMapper sharedMapper;
+
     public static Resource treeToResource(ResourceSet resourceSet, URI uri, JsonNode contents) throws IOException {
         Resource resource = resourceSet.createResource(uri);
         Map<URI, Resource> map = new HashMap<>();
@@ -38,6 +41,26 @@ public class EmfJson {
         return treeToResource(contents, resource);
     }
 
+    /**
+     * Returns the mapper shared by all JSON conversions. The mapper is configured once and must not be reconfigured,
+     * use {@link #createMapper()} to get a private copy.
+     * The resource set and the package registry are passed per call through the context attributes,
+     * so one mapper serves all of them and keeps EClass property maps cached.
+     */
+    public static ObjectMapper getMapper() {
+        ObjectMapper mapper = sharedMapper;
+        if (mapper == null) {
+            synchronized (EmfJson.class) {
+                mapper = sharedMapper;
+                if (mapper == null) {
+                    mapper = createMapper();
+                    sharedMapper = mapper;
+                }
+            }
+        }
+        return mapper;
+    }
+
     public static ObjectMapper createMapper() {
         ObjectMapper mapper = new ObjectMapper();
         EMFModule emfModule = new EMFModule();
@@ -57,7 +80,7 @@ public class EmfJson {
     }
 
     public static Resource treeToResource(JsonNode contents, Resource resource) throws JsonProcessingException {
-        ObjectMapper mapper = createMapper();
+        ObjectMapper mapper = getMapper();
         JsonResource jsonResource = (JsonResource) new JsonResourceFactory(mapper).createResource(resource.getURI().trimQuery());
         ContextAttributes attributes = ContextAttributes
                 .getEmpty()
@@ -79,7 +102,7 @@ public class EmfJson {
     }
 
     public static ObjectNode resourceToTree(Store store, Resource resource) {
-        ObjectMapper mapper = createMapper();
+        ObjectMapper mapper = getMapper();
         ObjectNode result = mapper.createObjectNode();
         result.put("uri", store.getRef(resource));
         JsonResource jsonResource = (JsonResource) new JsonResourceFactory(mapper).createResource(resource.getURI());
@@ -100,8 +123,53 @@ public class EmfJson {
         return result;
     }
 
+    /**
+     * Keeps only the requested fields (and the type/identity properties) of the serialized object.
+     * Nested fields are addressed by dotted path, e.g. "column.name".
+     */
+    public static JsonNode project(JsonNode node, Collection<String> fields) {
+        if (!(node instanceof ObjectNode)) {
+            return node;
+        }
+        ObjectNode source = (ObjectNode) node;
+        ObjectNode result = source.objectNode();
+        for (String name: new String[] {"eClass", "_id"}) {
+            if (source.has(name)) {
+                result.set(name, source.get(name));
+            }
+        }
+        Map<String, List<String>> nested = new LinkedHashMap<>();
+        for (String field: fields) {
+            int index = field.indexOf('.');
+            String name = index < 0 ? field : field.substring(0, index);
+            if (index < 0) {
+                nested.put(name, null);
+            }
+            else if (!nested.containsKey(name) || nested.get(name) != null) {
+                nested.computeIfAbsent(name, key -> new ArrayList<>()).add(field.substring(index + 1));
+            }
+        }
+        for (Map.Entry<String, List<String>> entry: nested.entrySet()) {
+            JsonNode value = source.get(entry.getKey());
+            if (value == null) {
+                continue;
+            }
+            if (entry.getValue() == null) {
+                result.set(entry.getKey(), value);
+            }
+            else if (value.isArray()) {
+                ArrayNode array = result.putArray(entry.getKey());
+                value.forEach(element -> array.add(project(element, entry.getValue())));
+            }
+            else {
+                result.set(entry.getKey(), project(value, entry.getValue()));
+            }
+        }
+        return result;
+    }
+
     public static ObjectNode resourceSetToTree(Store store, List<Resource> resources) {
-        ObjectMapper mapper = createMapper();
+        ObjectMapper mapper = getMapper();
         ObjectNode result = mapper.createObjectNode();
         result.withArray("resources");
         for (Resource resource: resources) {
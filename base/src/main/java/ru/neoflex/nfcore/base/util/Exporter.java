@@ -26,6 +26,7 @@ import java.nio.file.Path;
 import java.util.*;
 import java.util.function.BiFunction;
 import java.util.function.Function;
+import java.util.stream.Stream;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipInputStream;
 import java.util.zip.ZipOutputStream;
@@ -41,6 +42,7 @@ public class Exporter {
     public static final String XMI = ".xmi";
     public static final String REFS = ".refs";
     public static final String GROOVY = ".groovy";
+    public static final int IMPORT_BATCH_SIZE = 100;
 
     Store store;
     public Exporter(Store store) {
@@ -196,37 +198,67 @@ public class Exporter {
 
     public void zipAll(OutputStream outputStream) throws Exception {
         store.inTransaction(true, tx -> {
-            List<Resource> all = DocFinder.create(store).getAllResources();
             try (ZipOutputStream zipOutputStream = new ZipOutputStream(outputStream);) {
-                zip(all, zipOutputStream);
+                try (Stream<Resource> all = DocFinder.create(store).getAllResourcesStream()) {
+                    for (Resource resource: (Iterable<Resource>) all::iterator) {
+                        zipResource(zipOutputStream, resource);
+                    }
+                }
+                try (Stream<Resource> all = DocFinder.create(store).getAllResourcesStream()) {
+                    for (Resource resource: (Iterable<Resource>) all::iterator) {
+                        zipResourceReferences(zipOutputStream, resource);
+                    }
+                }
             }
             return null;
         });
     }
 
     public void zipResourceReferences(ZipOutputStream zipOutputStream, Resource resource) throws IOException {
+        writeEntries(zipOutputStream, getResourceReferenceEntries(resource));
+    }
+
+    /**
+     * .refs zip entries of the resource by entry name
+     */
+    public Map<String, byte[]> getResourceReferenceEntries(Resource resource) throws IOException {
+        Map<String, byte[]> entries = new LinkedHashMap<>();
         for (EObject eObject: resource.getContents()) {
-            if (isInternal(eObject)) {
-                continue;
-            }
-            EClass eClass = eObject.eClass();
-            EPackage ePackage = eClass.getEPackage();
-            EStructuralFeature nameAttribute = Store.qualifiedNameDelegate.apply(eClass);
-            if (nameAttribute != null) {
-                String name = (String) eObject.eGet(nameAttribute);
-                if (name != null && name.length() > 0) {
-                    String fileName = ePackage.getName() + "_" + eClass.getName() + "_" + name.replaceAll("/", "_");
-                    byte[] refsBytes = exportExternalRefs(eObject);
-                    if (refsBytes != null) {
-                        logger.info("Export " + fileName + REFS);
-                        ZipEntry refsEntry = new ZipEntry(fileName + REFS);
-                        zipOutputStream.putNextEntry(refsEntry);
-                        zipOutputStream.write(refsBytes);
-                        zipOutputStream.closeEntry();
-                    }
+            String fileName = getFileName(eObject);
+            if (fileName != null) {
+                byte[] refsBytes = exportExternalRefs(eObject);
+                if (refsBytes != null) {
+                    logger.info("Export " + fileName + REFS);
+                    entries.put(fileName + REFS, refsBytes);
                 }
             }
         }
+        return entries;
+    }
+
+    private String getFileName(EObject eObject) {
+        if (isInternal(eObject)) {
+            return null;
+        }
+        EClass eClass = eObject.eClass();
+        EPackage ePackage = eClass.getEPackage();
+        EStructuralFeature nameAttribute = Store.qualifiedNameDelegate.apply(eClass);
+        if (nameAttribute == null) {
+            return null;
+        }
+        String name = (String) eObject.eGet(nameAttribute);
+        if (name == null || name.length() == 0) {
+            return null;
+        }
+        return ePackage.getName() + "_" + eClass.getName() + "_" + name.replaceAll("/", "_");
+    }
+
+    public static void writeEntries(ZipOutputStream zipOutputStream, Map<String, byte[]> entries) throws IOException {
+        for (Map.Entry<String, byte[]> entry: entries.entrySet()) {
+            zipOutputStream.putNextEntry(new ZipEntry(entry.getKey()));
+            zipOutputStream.write(entry.getValue());
+            zipOutputStream.closeEntry();
+        }
     }
 
     public static boolean isInternal(EObject eObject) {
@@ -237,30 +269,27 @@ public class Exporter {
     }
 
     public void zipResource(ZipOutputStream zipOutputStream, Resource resource) throws IOException {
+        writeEntries(zipOutputStream, getResourceEntries(resource));
+    }
+
+    /**
+     * .xmi zip entries of the resource by entry name
+     */
+    public Map<String, byte[]> getResourceEntries(Resource resource) throws IOException {
+        Map<String, byte[]> entries = new LinkedHashMap<>();
         for (EObject eObject: resource.getContents()) {
-            if (isInternal(eObject)) {
-                continue;
-            }
-            EClass eClass = eObject.eClass();
-            EPackage ePackage = eClass.getEPackage();
-            EStructuralFeature nameAttribute = Store.qualifiedNameDelegate.apply(eClass);
-            if (nameAttribute != null) {
-                String name = (String) eObject.eGet(nameAttribute);
-                if (name != null && name.length() > 0) {
-                    String fileName = ePackage.getName() + "_" + eClass.getName() + "_" + name.replaceAll("/", "_");
-                    logger.info("Export " + fileName + XMI);
-                    byte[] bytes = exportEObjectWithoutExternalRefs(eObject);
-                    ZipEntry zipEntry = new ZipEntry(fileName + XMI);
-                    zipOutputStream.putNextEntry(zipEntry);
-                    zipOutputStream.write(bytes);
-                    zipOutputStream.closeEntry();
-                }
+            String fileName = getFileName(eObject);
+            if (fileName != null) {
+                logger.info("Export " + fileName + XMI);
+                entries.put(fileName + XMI, exportEObjectWithoutExternalRefs(eObject));
             }
         }
+        return entries;
     }
 
     public int unzip(InputStream inputStream) throws Exception {
         int entityCount = 0;
+        List<byte[]> batch = new ArrayList<>();
         try (ZipInputStream zipInputStream = new ZipInputStream(inputStream);) {
             ZipEntry zipEntry = zipInputStream.getNextEntry();
             while (zipEntry != null) {
@@ -274,13 +303,13 @@ public class Exporter {
                     }
                     if (zipEntry.getName().endsWith(XMI)) {
                         logger.info("Import " + zipEntry.getName());
-                        store.inTransaction(false, tx -> {
-                            importEObject(outputStream.toByteArray());
-                            tx.commit("Import database: " + entryName, Authorization.getUserName(), "");
-                        });
-                        ++entityCount;
+                        batch.add(outputStream.toByteArray());
+                        if (batch.size() >= IMPORT_BATCH_SIZE) {
+                            entityCount += importBatch(batch);
+                        }
                     }
                     else if (zipEntry.getName().endsWith(REFS)) {
+                        entityCount += importBatch(batch);
                         logger.info("Import " + zipEntry.getName());
                         store.inTransaction(false, tx -> {
                             importExternalRefs(outputStream.toByteArray());
@@ -291,9 +320,22 @@ public class Exporter {
                 zipEntry = zipInputStream.getNextEntry();
             }
         }
+        entityCount += importBatch(batch);
         return entityCount;
     }
 
+    private int importBatch(List<byte[]> batch) throws Exception {
+        int count = batch.size();
+        if (count > 0) {
+            store.inTransaction(false, tx -> {
+                importEObjects(batch);
+                tx.commit("Import database: " + count + " objects", Authorization.getUserName(), "");
+            });
+            batch.clear();
+        }
+        return count;
+    }
+
     public void processZipXmi(Path zipFile) {
         processZipFile(zipFile, XMI, (path, bytes) -> {
             try {
@@ -353,10 +395,11 @@ public class Exporter {
 
     public void exportAll(Path path) throws Exception {
         store.inTransaction(true, tx -> {
-            List<Resource> all =  DocFinder.create(store).getAllResources();
-            for (Resource resource: all) {
-                for (EObject eObject: resource.getContents()) {
-                    exportEObject(eObject, path);
+            try (Stream<Resource> all = DocFinder.create(store).getAllResourcesStream()) {
+                for (Resource resource: (Iterable<Resource>) all::iterator) {
+                    for (EObject eObject: resource.getContents()) {
+                        exportEObject(eObject, path);
+                    }
                 }
             }
             return null;
@@ -364,12 +407,53 @@ public class Exporter {
     }
 
     public EObject importEObject(byte[] image) throws IOException {
+        Resource resource = createImportResource(image);
+        resource.save(null);
+        return resource.getContents().get(0);
+    }
+
+    public List<EObject> importEObjects(List<byte[]> images) throws IOException {
+        List<EObject> eObjects = new ArrayList<>();
+        for (byte[] image: images) {
+            eObjects.add(parseEObject(image));
+        }
+        return importParsedEObjects(eObjects);
+    }
+
+    /**
+     * Saves the objects parsed by {@link #parseEObject(byte[])}, existing objects with the same qualified name are replaced.
+     * The objects are saved by the provider without validation, the same as by Resource.save,
+     * because their external references are restored later from the .refs entries.
+     */
+    public List<EObject> importParsedEObjects(List<EObject> eObjects) throws IOException {
+        List<Resource> resources = new ArrayList<>();
+        for (EObject eObject: eObjects) {
+            resources.add(createImportResource(eObject));
+        }
+        List<EObject> result = new ArrayList<>();
+        for (Resource resource: store.getProvider().saveResources(resources)) {
+            result.add(resource.getContents().get(0));
+        }
+        return result;
+    }
+
+    private Resource createImportResource(byte[] image) throws IOException {
+        return createImportResource(parseEObject(image));
+    }
+
+    /**
+     * Parses an exported .xmi image, does not need a transaction
+     */
+    public EObject parseEObject(byte[] image) throws IOException {
         ResourceSet resourceSet = new ResourceSetImpl();
         resourceSet.getResourceFactoryRegistry().getExtensionToFactoryMap()
                 .put(Resource.Factory.Registry.DEFAULT_EXTENSION, new XMIResourceFactoryImpl());
         Resource resourceIn = resourceSet.createResource(URI.createURI("temp" + XMI));
         resourceIn.load(new ByteArrayInputStream(image), null);
-        EObject eObject = resourceIn.getContents().get(0);
+        return resourceIn.getContents().get(0);
+    }
+
+    private Resource createImportResource(EObject eObject) throws IOException {
         Resource resource = store.createEmptyResource();
         resource.getContents().add(eObject);
         EClass eClass = eObject.eClass();
@@ -384,8 +468,7 @@ public class Exporter {
             Resource r = existentRS.getResources().get(0);
             resource.setURI(r.getURI());
         }
-        resource.save(null);
-        return eObject;
+        return resource;
     }
 
     private static class Setting {
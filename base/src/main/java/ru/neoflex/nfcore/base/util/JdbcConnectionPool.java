@@ -0,0 +1,265 @@
+package ru.neoflex.nfcore.base.util;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.util.*;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Bounded pool of jdbc connections.
+ * Pools are registered by name, a pool is recreated when the connection settings change.
+ * Connections are handed out as proxies, closing the proxy returns the physical connection to the pool.
+ * Connections which were idle longer than the validation interval are checked with
+ * {@link Connection#isValid(int)} before they are handed out.
+ */
+public class JdbcConnectionPool implements Closeable {
+    private static final Logger logger = LoggerFactory.getLogger(JdbcConnectionPool.class);
+    public static final int DEFAULT_MAX_SIZE = 10;
+    public static final int DEFAULT_VALIDATION_TIMEOUT = 5;
+    public static final long DEFAULT_WAIT_TIMEOUT = 30000;
+    public static final long VALIDATION_INTERVAL = 30000;
+    public static final long MAX_IDLE_TIME = 600000;
+    private static final Map<String, JdbcConnectionPool> pools = new HashMap<>();
+
+    private final String driverClassName;
+    private final String url;
+    private final String userName;
+    private final String password;
+    private final int maxSize;
+    private final int validationTimeout;
+    private final Semaphore permits;
+    private final Deque<IdleConnection> idle = new ArrayDeque<>();
+    private volatile boolean closed = false;
+
+    public JdbcConnectionPool(String driverClassName, String url, String userName, String password, int maxSize, int validationTimeout) {
+        this.driverClassName = driverClassName;
+        this.url = url;
+        this.userName = userName;
+        this.password = password;
+        this.maxSize = maxSize;
+        this.validationTimeout = validationTimeout;
+        this.permits = new Semaphore(maxSize, true);
+    }
+
+    public static synchronized JdbcConnectionPool getPool(String name, String driverClassName, String url, String userName, String password, int maxSize, int validationTimeout) {
+        JdbcConnectionPool pool = pools.get(name);
+        if (pool != null && !pool.sameSettings(driverClassName, url, userName, password, maxSize, validationTimeout)) {
+            pools.remove(name);
+            pool.close();
+            pool = null;
+        }
+        if (pool == null) {
+            pool = new JdbcConnectionPool(driverClassName, url, userName, password, maxSize, validationTimeout);
+            pools.put(name, pool);
+            logger.info(String.format("Created connection pool %s for %s, max size %d", name, url, maxSize));
+        }
+        return pool;
+    }
+
+    public static synchronized void closeAll() {
+        for (JdbcConnectionPool pool: pools.values()) {
+            pool.close();
+        }
+        pools.clear();
+    }
+
+    public Connection getConnection() throws SQLException {
+        return getConnection(DEFAULT_WAIT_TIMEOUT);
+    }
+
+    public Connection getConnection(long waitTimeout) throws SQLException {
+        if (closed) {
+            throw new SQLException("Connection pool for " + url + " is closed");
+        }
+        try {
+            if (!permits.tryAcquire(waitTimeout, TimeUnit.MILLISECONDS)) {
+                throw new SQLException(String.format("Timeout waiting for a connection to %s, all %d connections are in use", url, maxSize));
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SQLException(e);
+        }
+        try {
+            Connection connection = pollIdle();
+            if (connection == null) {
+                DriverShim.registerDriver(driverClassName);
+                connection = DriverManager.getConnection(url, userName, password);
+                logger.info("Connected to " + url);
+            }
+            return wrap(connection);
+        }
+        catch (SQLException|RuntimeException e) {
+            permits.release();
+            throw e;
+        }
+    }
+
+    public synchronized int getIdleCount() {
+        return idle.size();
+    }
+
+    public int getActiveCount() {
+        return maxSize - permits.availablePermits();
+    }
+
+    public int getMaxSize() {
+        return maxSize;
+    }
+
+    @Override
+    public void close() {
+        List<IdleConnection> toClose;
+        synchronized (this) {
+            closed = true;
+            toClose = new ArrayList<>(idle);
+            idle.clear();
+        }
+        for (IdleConnection idleConnection: toClose) {
+            closeQuietly(idleConnection.connection);
+        }
+    }
+
+    private boolean sameSettings(String driverClassName, String url, String userName, String password, int maxSize, int validationTimeout) {
+        return Objects.equals(this.driverClassName, driverClassName) &&
+                Objects.equals(this.url, url) &&
+                Objects.equals(this.userName, userName) &&
+                Objects.equals(this.password, password) &&
+                this.maxSize == maxSize &&
+                this.validationTimeout == validationTimeout;
+    }
+
+    private Connection pollIdle() {
+        while (true) {
+            IdleConnection idleConnection;
+            synchronized (this) {
+                idleConnection = idle.pollFirst();
+            }
+            if (idleConnection == null) {
+                return null;
+            }
+            long idleTime = System.currentTimeMillis() - idleConnection.since;
+            if (idleTime > MAX_IDLE_TIME) {
+                closeQuietly(idleConnection.connection);
+                continue;
+            }
+            if (idleTime > VALIDATION_INTERVAL && !isValid(idleConnection.connection)) {
+                logger.info("Dropped broken connection to " + url);
+                closeQuietly(idleConnection.connection);
+                continue;
+            }
+            return idleConnection.connection;
+        }
+    }
+
+    private boolean isValid(Connection connection) {
+        try {
+            return connection.isValid(validationTimeout);
+        } catch (SQLException|AbstractMethodError e) {
+            return false;
+        }
+    }
+
+    private void release(Connection connection) {
+        try {
+            boolean reusable = !closed && !connection.isClosed();
+            if (reusable) {
+                try {
+                    if (!connection.getAutoCommit()) {
+                        connection.rollback();
+                        connection.setAutoCommit(true);
+                    }
+                    connection.clearWarnings();
+                } catch (SQLException e) {
+                    reusable = false;
+                }
+            }
+            if (reusable) {
+                synchronized (this) {
+                    if (!closed) {
+                        idle.addFirst(new IdleConnection(connection));
+                        return;
+                    }
+                }
+            }
+            closeQuietly(connection);
+        }
+        catch (SQLException e) {
+            closeQuietly(connection);
+        }
+        finally {
+            permits.release();
+        }
+    }
+
+    private Connection wrap(Connection connection) {
+        return (Connection) Proxy.newProxyInstance(Connection.class.getClassLoader(), new Class[] {Connection.class}, new PooledConnectionHandler(connection));
+    }
+
+    private static void closeQuietly(Connection connection) {
+        try {
+            connection.close();
+        } catch (SQLException e) {
+            logger.warn("Error closing connection", e);
+        }
+    }
+
+    private class PooledConnectionHandler implements InvocationHandler {
+        private Connection connection;
+
+        PooledConnectionHandler(Connection connection) {
+            this.connection = connection;
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            switch (method.getName()) {
+                case "close":
+                    synchronized (this) {
+                        if (connection != null) {
+                            Connection physical = connection;
+                            connection = null;
+                            release(physical);
+                        }
+                    }
+                    return null;
+                case "isClosed":
+                    return connection == null || connection.isClosed();
+                case "equals":
+                    return proxy == args[0];
+                case "hashCode":
+                    return System.identityHashCode(proxy);
+                case "toString":
+                    return "Pooled " + connection;
+            }
+            Connection physical = connection;
+            if (physical == null) {
+                throw new SQLException("Connection is closed");
+            }
+            try {
+                return method.invoke(physical, args);
+            } catch (InvocationTargetException e) {
+                throw e.getCause();
+            }
+        }
+    }
+
+    private static class IdleConnection {
+        final Connection connection;
+        final long since;
+
+        IdleConnection(Connection connection) {
+            this.connection = connection;
+            this.since = System.currentTimeMillis();
+        }
+    }
+}
@@ -0,0 +1,565 @@
+package ru.neoflex.nfcore.base.util;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.eclipse.emf.ecore.EObject;
+import org.eclipse.emf.ecore.resource.Resource;
+import org.springframework.security.core.context.SecurityContext;
+import org.springframework.security.core.context.SecurityContextHolder;
+import ru.neoflex.nfcore.base.services.Authorization;
+import ru.neoflex.nfcore.base.services.Context;
+import ru.neoflex.nfcore.base.services.Store;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.DigestInputStream;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * Parallel export and import of all resources of the store.
+ * The store is scanned by partitions (the clusters of OrientDB) with a bounded pool of workers.
+ * {@link #zipAll(ZipOutputStream)} writes the flat zip read by {@link #unzip(InputStream)} and {@link Exporter#unzip(InputStream)}.
+ * {@link #exportArchive(Path)} writes a directory of chunks, every chunk is a zip of at most chunkSize resources
+ * of one partition with its SHA-256 recorded in the manifest. An interrupted export is resumed after the last
+ * verified chunk of every partition, an interrupted import skips the chunks already imported.
+ * Import parses the objects in the workers and saves them in batches, all objects are saved before the references.
+ */
+public class ParallelExporter {
+    private final static Log logger = LogFactory.getLog(ParallelExporter.class);
+    public static final String MANIFEST = "manifest.json";
+    public static final String PROGRESS = "imported.txt";
+    public static final String CHUNKS = "chunks";
+    public static final String COMPLETE = "complete";
+    public static final String NAME = "name";
+    public static final String PARTITION = "partition";
+    public static final String INDEX = "index";
+    public static final String COUNT = "count";
+    public static final String LAST = "last";
+    public static final String SHA256 = "sha256";
+    public static final String ALL = "all";
+    public static final int DEFAULT_THREADS = 4;
+    public static final int DEFAULT_CHUNK_SIZE = 1000;
+
+    private final Store store;
+    private final Exporter exporter;
+    private final int threads;
+    private int chunkSize = DEFAULT_CHUNK_SIZE;
+    private int batchSize = Exporter.IMPORT_BATCH_SIZE;
+
+    public ParallelExporter(Store store) {
+        this(store, DEFAULT_THREADS);
+    }
+
+    public ParallelExporter(Store store, int threads) {
+        this.store = store;
+        this.exporter = new Exporter(store);
+        this.threads = Math.max(1, threads);
+    }
+
+    public int getChunkSize() {
+        return chunkSize;
+    }
+
+    public void setChunkSize(int chunkSize) {
+        this.chunkSize = chunkSize;
+    }
+
+    public int getBatchSize() {
+        return batchSize;
+    }
+
+    public void setBatchSize(int batchSize) {
+        this.batchSize = batchSize;
+    }
+
+    private interface ResourceProcedure {
+        void call(Resource resource) throws Exception;
+    }
+
+    /**
+     * Writes all resources to the zip, the .xmi entries of all partitions first, then the .refs entries
+     * @return number of written entries
+     */
+    public int zipAll(ZipOutputStream zipOutputStream) throws Exception {
+        List<String> partitions = getPartitions();
+        AtomicInteger count = new AtomicInteger();
+        ExecutorService executor = createExecutor();
+        try {
+            runAll(executor, partitions.stream().map(partition -> (Callable<Void>) () -> {
+                scan(partition, null, resource -> count.addAndGet(write(zipOutputStream, exporter.getResourceEntries(resource))));
+                return null;
+            }).collect(Collectors.toList()));
+            runAll(executor, partitions.stream().map(partition -> (Callable<Void>) () -> {
+                scan(partition, null, resource -> count.addAndGet(write(zipOutputStream, exporter.getResourceReferenceEntries(resource))));
+                return null;
+            }).collect(Collectors.toList()));
+        }
+        finally {
+            executor.shutdownNow();
+        }
+        return count.get();
+    }
+
+    private static int write(ZipOutputStream zipOutputStream, Map<String, byte[]> entries) throws IOException {
+        synchronized (zipOutputStream) {
+            Exporter.writeEntries(zipOutputStream, entries);
+        }
+        return entries.size();
+    }
+
+    /**
+     * Imports a flat zip, the objects are parsed and saved in parallel batches.
+     * Consecutive .xmi and .refs entries are imported in parallel, a switch between them waits for the previous entries.
+     * @return number of imported objects
+     */
+    public int unzip(InputStream inputStream) throws Exception {
+        AtomicInteger count = new AtomicInteger();
+        List<Future<?>> pending = new ArrayList<>();
+        ExecutorService executor = createExecutor();
+        try (ZipInputStream zipInputStream = new ZipInputStream(inputStream)) {
+            List<byte[]> batch = new ArrayList<>();
+            String batchType = null;
+            for (ZipEntry zipEntry = zipInputStream.getNextEntry(); zipEntry != null; zipEntry = zipInputStream.getNextEntry()) {
+                String name = zipEntry.getName();
+                String type = name.endsWith(Exporter.XMI) ? Exporter.XMI : name.endsWith(Exporter.REFS) ? Exporter.REFS : null;
+                if (zipEntry.isDirectory() || type == null) {
+                    continue;
+                }
+                if (!type.equals(batchType) || batch.size() >= batchSize) {
+                    submitBatch(executor, pending, batchType, batch, count);
+                    batch = new ArrayList<>();
+                    if (!type.equals(batchType)) {
+                        awaitAll(pending);
+                    }
+                    batchType = type;
+                }
+                logger.info("Import " + name);
+                batch.add(readEntry(zipInputStream));
+            }
+            submitBatch(executor, pending, batchType, batch, count);
+            awaitAll(pending);
+        }
+        finally {
+            executor.shutdownNow();
+        }
+        return count.get();
+    }
+
+    private void submitBatch(ExecutorService executor, List<Future<?>> pending, String type, List<byte[]> batch, AtomicInteger count) throws Exception {
+        if (batch.isEmpty()) {
+            return;
+        }
+        pending.add(executor.submit(inWorker(() -> {
+            if (Exporter.XMI.equals(type)) {
+                count.addAndGet(importObjects(batch));
+            }
+            else {
+                importReferences(batch);
+            }
+            return null;
+        })));
+        for (Iterator<Future<?>> it = pending.iterator(); it.hasNext(); ) {
+            Future<?> future = it.next();
+            if (future.isDone()) {
+                get(future);
+                it.remove();
+            }
+        }
+    }
+
+    /**
+     * Exports all resources into chunks in the directory, resumes an unfinished export in the same directory
+     * @return the manifest
+     */
+    public ObjectNode exportArchive(Path dir) throws Exception {
+        Files.createDirectories(dir);
+        ObjectNode manifest = readManifest(dir);
+        if (manifest.path(COMPLETE).asBoolean()) {
+            logger.info("Archive " + dir + " is already complete");
+            return manifest;
+        }
+        List<String> partitions = getPartitions();
+        ExecutorService executor = createExecutor();
+        try {
+            runAll(executor, partitions.stream().map(partition -> (Callable<Void>) () -> {
+                exportPartition(dir, manifest, partition);
+                return null;
+            }).collect(Collectors.toList()));
+        }
+        finally {
+            executor.shutdownNow();
+        }
+        synchronized (manifest) {
+            manifest.put(COMPLETE, true);
+            writeManifest(dir, manifest);
+        }
+        return manifest;
+    }
+
+    private void exportPartition(Path dir, ObjectNode manifest, String partition) throws Exception {
+        String key = partition == null ? ALL : partition;
+        List<ObjectNode> chunks = getVerifiedChunks(dir, manifest, key);
+        String afterId = chunks.isEmpty() ? null : chunks.get(chunks.size() - 1).get(LAST).textValue();
+        if (afterId != null) {
+            logger.info("Resume export of " + key + " after " + afterId);
+        }
+        ChunkWriter writer = new ChunkWriter(dir, manifest, key, chunks.size());
+        try {
+            scan(partition, afterId, writer::add);
+            writer.finish();
+        }
+        finally {
+            writer.abort();
+        }
+    }
+
+    private List<ObjectNode> getVerifiedChunks(Path dir, ObjectNode manifest, String key) throws IOException {
+        List<ObjectNode> chunks = new ArrayList<>();
+        synchronized (manifest) {
+            for (JsonNode chunk: manifest.withArray(CHUNKS)) {
+                if (key.equals(chunk.get(PARTITION).textValue())) {
+                    chunks.add((ObjectNode) chunk);
+                }
+            }
+        }
+        chunks.sort(Comparator.comparing(chunk -> chunk.get(INDEX).asInt()));
+        int valid = 0;
+        while (valid < chunks.size() && chunks.get(valid).get(INDEX).asInt() == valid && isValid(dir, chunks.get(valid))) {
+            ++valid;
+        }
+        List<ObjectNode> invalid = chunks.subList(valid, chunks.size());
+        if (!invalid.isEmpty()) {
+            synchronized (manifest) {
+                ArrayNode all = manifest.withArray(CHUNKS);
+                for (int i = all.size() - 1; i >= 0; --i) {
+                    if (invalid.contains(all.get(i))) {
+                        all.remove(i);
+                    }
+                }
+                writeManifest(dir, manifest);
+            }
+            for (ObjectNode chunk: invalid) {
+                logger.warn("Dropped chunk " + chunk.get(NAME).textValue());
+                Files.deleteIfExists(dir.resolve(chunk.get(NAME).textValue()));
+            }
+        }
+        return new ArrayList<>(chunks.subList(0, valid));
+    }
+
+    private static boolean isValid(Path dir, JsonNode chunk) throws IOException {
+        Path path = dir.resolve(chunk.get(NAME).textValue());
+        return Files.isRegularFile(path) && checksum(path).equals(chunk.get(SHA256).textValue());
+    }
+
+    /**
+     * Imports an archive written by {@link #exportArchive(Path)}, resumes an unfinished import of the same archive
+     * @return number of imported objects
+     */
+    public int importArchive(Path dir) throws Exception {
+        ObjectNode manifest = readManifest(dir);
+        if (!manifest.path(COMPLETE).asBoolean()) {
+            throw new IOException("Archive " + dir + " is incomplete");
+        }
+        Path progressPath = dir.resolve(PROGRESS);
+        Set<String> imported = Files.isRegularFile(progressPath) ?
+                new HashSet<>(Files.readAllLines(progressPath, StandardCharsets.UTF_8)) : new HashSet<>();
+        AtomicInteger count = new AtomicInteger();
+        ExecutorService executor = createExecutor();
+        try {
+            for (String type: Arrays.asList(Exporter.XMI, Exporter.REFS)) {
+                List<Callable<Void>> tasks = new ArrayList<>();
+                for (JsonNode chunk: manifest.withArray(CHUNKS)) {
+                    String name = chunk.get(NAME).textValue();
+                    String step = type + " " + name;
+                    if (imported.contains(step)) {
+                        continue;
+                    }
+                    tasks.add(() -> {
+                        if (!isValid(dir, chunk)) {
+                            throw new IOException("Checksum mismatch in chunk " + name);
+                        }
+                        count.addAndGet(importChunk(dir.resolve(name), type));
+                        synchronized (this) {
+                            Files.write(progressPath, Collections.singletonList(step), StandardCharsets.UTF_8,
+                                    StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+                        }
+                        return null;
+                    });
+                }
+                runAll(executor, tasks);
+            }
+        }
+        finally {
+            executor.shutdownNow();
+        }
+        Files.deleteIfExists(progressPath);
+        return count.get();
+    }
+
+    private int importChunk(Path path, String type) throws Exception {
+        logger.info("Import " + type + " of " + path.getFileName());
+        int count = 0;
+        List<byte[]> batch = new ArrayList<>();
+        try (ZipInputStream zipInputStream = new ZipInputStream(new BufferedInputStream(Files.newInputStream(path)))) {
+            for (ZipEntry zipEntry = zipInputStream.getNextEntry(); zipEntry != null; zipEntry = zipInputStream.getNextEntry()) {
+                if (zipEntry.isDirectory() || !zipEntry.getName().endsWith(type)) {
+                    continue;
+                }
+                batch.add(readEntry(zipInputStream));
+                if (batch.size() >= batchSize) {
+                    count += importBatch(type, batch);
+                    batch = new ArrayList<>();
+                }
+            }
+        }
+        count += importBatch(type, batch);
+        return count;
+    }
+
+    private int importBatch(String type, List<byte[]> batch) throws Exception {
+        if (batch.isEmpty()) {
+            return 0;
+        }
+        if (Exporter.XMI.equals(type)) {
+            return importObjects(batch);
+        }
+        importReferences(batch);
+        return 0;
+    }
+
+    private int importObjects(List<byte[]> images) throws Exception {
+        List<EObject> eObjects = new ArrayList<>();
+        for (byte[] image: images) {
+            eObjects.add(exporter.parseEObject(image));
+        }
+        store.inTransaction(false, tx -> {
+            exporter.importParsedEObjects(eObjects);
+            tx.commit("Import database: " + eObjects.size() + " objects", Authorization.getUserName(), "");
+        });
+        return eObjects.size();
+    }
+
+    private void importReferences(List<byte[]> refs) throws Exception {
+        store.inTransaction(false, tx -> {
+            for (byte[] ref: refs) {
+                exporter.importExternalRefs(ref);
+            }
+            tx.commit("Import database: " + refs.size() + " references", Authorization.getUserName(), "");
+        });
+    }
+
+    private List<String> getPartitions() throws Exception {
+        return store.inTransaction(true, tx -> {
+            return DocFinder.create(store).getPartitions();
+        });
+    }
+
+    private void scan(String partition, String afterId, ResourceProcedure f) throws Exception {
+        store.inTransaction(true, tx -> {
+            try (Stream<Resource> resources = DocFinder.create(store).getAllResourcesStream(partition, afterId)) {
+                for (Resource resource: (Iterable<Resource>) resources::iterator) {
+                    f.call(resource);
+                }
+            }
+            return null;
+        });
+    }
+
+    private ExecutorService createExecutor() {
+        return new ThreadPoolExecutor(threads, threads, 0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(threads), new ThreadPoolExecutor.CallerRunsPolicy());
+    }
+
+    /**
+     * Runs the task with the context, branch and user of the calling thread
+     */
+    private <R> Callable<R> inWorker(Callable<R> f) {
+        Context context = Context.getCurrent();
+        String branch = context.getWorkspace().getCurrentBranch();
+        SecurityContext securityContext = SecurityContextHolder.getContext();
+        return () -> {
+            SecurityContext old = SecurityContextHolder.getContext();
+            SecurityContextHolder.setContext(securityContext);
+            try {
+                return context.inContext(() -> {
+                    context.getWorkspace().setCurrentBranch(branch);
+                    return f.call();
+                });
+            }
+            finally {
+                SecurityContextHolder.setContext(old);
+            }
+        };
+    }
+
+    private void runAll(ExecutorService executor, List<Callable<Void>> tasks) throws Exception {
+        List<Future<?>> futures = new ArrayList<>();
+        for (Callable<Void> task: tasks) {
+            futures.add(executor.submit(inWorker(task)));
+        }
+        awaitAll(futures);
+    }
+
+    private static void awaitAll(List<Future<?>> futures) throws Exception {
+        try {
+            for (Future<?> future: futures) {
+                get(future);
+            }
+        }
+        finally {
+            for (Future<?> future: futures) {
+                future.cancel(true);
+            }
+            futures.clear();
+        }
+    }
+
+    private static void get(Future<?> future) throws Exception {
+        try {
+            future.get();
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            throw cause instanceof Exception ? (Exception) cause : new RuntimeException(cause);
+        }
+    }
+
+    private static byte[] readEntry(ZipInputStream zipInputStream) throws IOException {
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        byte[] buffer = new byte[4096];
+        int length;
+        while ((length = zipInputStream.read(buffer)) > 0) {
+            outputStream.write(buffer, 0, length);
+        }
+        return outputStream.toByteArray();
+    }
+
+    private static ObjectNode readManifest(Path dir) throws IOException {
+        Path path = dir.resolve(MANIFEST);
+        if (!Files.isRegularFile(path)) {
+            return new ObjectMapper().createObjectNode();
+        }
+        return (ObjectNode) new ObjectMapper().readTree(path.toFile());
+    }
+
+    private static void writeManifest(Path dir, ObjectNode manifest) throws IOException {
+        Path tmp = dir.resolve(MANIFEST + ".tmp");
+        new ObjectMapper().writerWithDefaultPrettyPrinter().writeValue(tmp.toFile(), manifest);
+        Files.move(tmp, dir.resolve(MANIFEST), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private static MessageDigest createDigest() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static String toHex(byte[] digest) {
+        StringBuilder hex = new StringBuilder();
+        for (byte b: digest) {
+            hex.append(String.format("%02x", b));
+        }
+        return hex.toString();
+    }
+
+    private static String checksum(Path path) throws IOException {
+        MessageDigest digest = createDigest();
+        try (InputStream is = new DigestInputStream(Files.newInputStream(path), digest)) {
+            byte[] buffer = new byte[65536];
+            while (is.read(buffer) >= 0) {
+            }
+        }
+        return toHex(digest.digest());
+    }
+
+    /**
+     * Writes the resources of one partition into consecutive chunks and registers every finished chunk in the manifest
+     */
+    private class ChunkWriter {
+        private final Path dir;
+        private final ObjectNode manifest;
+        private final String partition;
+        private int index;
+        private Path tmp;
+        private MessageDigest digest;
+        private ZipOutputStream zipOutputStream;
+        private int count;
+        private String last;
+
+        ChunkWriter(Path dir, ObjectNode manifest, String partition, int index) {
+            this.dir = dir;
+            this.manifest = manifest;
+            this.partition = partition;
+            this.index = index;
+        }
+
+        private String getName() {
+            return String.format("%s-%06d.zip", partition.replaceAll("[^A-Za-z0-9_.]", "_"), index);
+        }
+
+        void add(Resource resource) throws IOException {
+            if (zipOutputStream == null) {
+                tmp = dir.resolve(getName() + ".tmp");
+                digest = createDigest();
+                zipOutputStream = new ZipOutputStream(new DigestOutputStream(new BufferedOutputStream(Files.newOutputStream(tmp)), digest));
+                count = 0;
+            }
+            Exporter.writeEntries(zipOutputStream, exporter.getResourceEntries(resource));
+            Exporter.writeEntries(zipOutputStream, exporter.getResourceReferenceEntries(resource));
+            last = store.getId(resource);
+            if (++count >= chunkSize) {
+                finish();
+            }
+        }
+
+        void finish() throws IOException {
+            if (zipOutputStream == null) {
+                return;
+            }
+            zipOutputStream.close();
+            zipOutputStream = null;
+            String name = getName();
+            Files.move(tmp, dir.resolve(name), StandardCopyOption.REPLACE_EXISTING);
+            ObjectNode chunk = new ObjectMapper().createObjectNode()
+                    .put(NAME, name)
+                    .put(PARTITION, partition)
+                    .put(INDEX, index)
+                    .put(COUNT, count)
+                    .put(LAST, last)
+                    .put(SHA256, toHex(digest.digest()));
+            synchronized (manifest) {
+                manifest.withArray(CHUNKS).add(chunk);
+                writeManifest(dir, manifest);
+            }
+            logger.info("Exported chunk " + name + " with " + count + " resources");
+            ++index;
+        }
+
+        void abort() throws IOException {
+            if (zipOutputStream != null) {
+                zipOutputStream.close();
+                zipOutputStream = null;
+                Files.deleteIfExists(tmp);
+            }
+        }
+    }
+}
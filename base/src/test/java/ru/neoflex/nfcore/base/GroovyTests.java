@@ -114,6 +114,40 @@ public class GroovyTests {
         }
     }
 
+    @Test
+    public void compiledScriptCache() throws Exception {
+        String code = "args[0] * args[1]";
+        long misses = groovy.getCacheMisses();
+        long hits = groovy.getCacheHits();
+        for (int i = 0; i < 10; ++i) {
+            int x = i;
+            Object result = groovy.eval(code, new ArrayList() {{
+                add(x);
+                add(2);
+            }});
+            Assert.assertEquals(x * 2, result);
+        }
+        Assert.assertEquals(misses + 1, groovy.getCacheMisses());
+        Assert.assertEquals(hits + 9, groovy.getCacheHits());
+        try (Transaction tx = context.getWorkspace().createTransaction()) {
+            Path codePath = tx.getFileSystem().getPath("/ru/neoflex/meta/test/Mul.groovy");
+            Files.createDirectories(codePath.getParent());
+            Files.write(codePath, "package ru.neoflex.meta.test\nclass Mul {static k() {2}}".getBytes());
+            tx.commit("Created Mul.groovy");
+            String mulCode = "ru.neoflex.meta.test.Mul.k() * args[0]";
+            Object result = tx.withCurrent(() -> context.getWorkspace().withClassLoader(() -> groovy.eval(mulCode, new ArrayList() {{add(3);}})));
+            Assert.assertEquals(6, result);
+            Files.write(codePath, "package ru.neoflex.meta.test\nclass Mul {static k() {3}}".getBytes());
+            tx.commit("Updated Mul.groovy");
+            long invalidations = groovy.getCacheInvalidations();
+            result = tx.withCurrent(() -> context.getWorkspace().withClassLoader(() -> groovy.eval(mulCode, new ArrayList() {{add(3);}})));
+            Assert.assertEquals(9, result);
+            Assert.assertTrue(groovy.getCacheInvalidations() > invalidations);
+            Files.delete(codePath);
+            tx.commit("Deleted Mul.groovy");
+        }
+    }
+
     private static String getResourceContents(String name) throws IOException, URISyntaxException {
         Path resourcePath = Paths.get(Thread.currentThread().getContextClassLoader().getResource(name).toURI());
         Assert.assertTrue(Files.isRegularFile(resourcePath));
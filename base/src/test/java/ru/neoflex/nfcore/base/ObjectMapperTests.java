@@ -2,13 +2,17 @@ package ru.neoflex.nfcore.base;
 
 import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import org.eclipse.emf.ecore.resource.Resource;
 import org.junit.Assert;
 import org.junit.Test;
 import org.junit.runner.RunWith;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.context.SpringBootTest;
 import org.springframework.test.context.junit4.SpringRunner;
+import ru.neoflex.nfcore.base.auth.AuthFactory;
 import ru.neoflex.nfcore.base.auth.GrantType;
+import ru.neoflex.nfcore.base.auth.Role;
 import ru.neoflex.nfcore.base.services.Context;
 import ru.neoflex.nfcore.base.util.EmfJson;
 
@@ -16,6 +20,9 @@ import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 @RunWith(SpringRunner.class)
 @SpringBootTest(properties = {"dbtype=orientdb", "orientdb.dbname=modelstest"})
@@ -41,6 +48,34 @@ public class ObjectMapperTests {
         Assert.assertEquals(mapValue, deserMapValue);
     }
 
+    @Test
+    public void sharedMapperTest() throws Exception {
+        Assert.assertSame(EmfJson.getMapper(), EmfJson.getMapper());
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        try {
+            List<Future<String>> futures = new ArrayList<>();
+            for (int i = 0; i < 64; ++i) {
+                String name = "SharedMapperRole_" + i;
+                futures.add(executor.submit(() -> {
+                    Role role = AuthFactory.eINSTANCE.createRole();
+                    role.setName(name);
+                    Resource resource = context.getStore().createResourceSet().createResource(context.getStore().getUriByIdAndRev(null, null));
+                    resource.getContents().add(role);
+                    ObjectNode tree = EmfJson.resourceToTree(context.getStore(), resource);
+                    Resource copy = context.getStore().createResourceSet().createResource(context.getStore().getUriByIdAndRev(null, null));
+                    EmfJson.treeToResource(tree.get("contents").get(0), copy);
+                    return ((Role) copy.getContents().get(0)).getName();
+                }));
+            }
+            for (int i = 0; i < futures.size(); ++i) {
+                Assert.assertEquals("SharedMapperRole_" + i, futures.get(i).get());
+            }
+        }
+        finally {
+            executor.shutdown();
+        }
+    }
+
     @Test
     public void enumTest() throws JsonProcessingException {
         //ObjectMapper mapper = context.getMapper();
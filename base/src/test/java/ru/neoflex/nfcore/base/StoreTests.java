@@ -1,14 +1,35 @@
 package ru.neoflex.nfcore.base;
 
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
 import org.eclipse.emf.ecore.resource.Resource;
 import org.junit.Assert;
 import org.junit.Test;
 import org.junit.runner.RunWith;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.http.HttpStatus;
 import org.springframework.test.context.junit4.SpringRunner;
+import org.springframework.web.server.ResponseStatusException;
 import ru.neoflex.nfcore.base.auth.*;
+import ru.neoflex.nfcore.base.scheduler.ScheduledTask;
+import ru.neoflex.nfcore.base.scheduler.SchedulerFactory;
+import ru.neoflex.nfcore.base.scheduler.SchedulerPackage;
 import ru.neoflex.nfcore.base.services.Context;
+import ru.neoflex.nfcore.base.services.providers.FinderSPI;
+import ru.neoflex.nfcore.base.util.DocFinder;
+import ru.neoflex.nfcore.base.util.ParallelExporter;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
 
 @RunWith(SpringRunner.class)
 @SpringBootTest(properties = {"dbtype=orientdb", "orientdb.dbname=modelstest"})
@@ -33,6 +54,146 @@ public class StoreTests {
         });
     }
 
+    @Test
+    public void findSortedPages() throws Exception {
+        context.getStore().inTransaction(false, tx -> {
+            List<Resource> created = new ArrayList<>();
+            for (int i = 0; i < 5; ++i) {
+                Role role = AuthFactory.eINSTANCE.createRole();
+                role.setName("PagedRole_FORTEST_" + i);
+                created.add(context.getStore().createEObject(role));
+            }
+            List<String> names = new ArrayList<>();
+            String bookmark = null;
+            do {
+                DocFinder docFinder = DocFinder.create(context.getStore(), AuthPackage.Literals.ROLE)
+                        .sort("name", FinderSPI.SortOrder.desc)
+                        .limit(2)
+                        .bookmark(bookmark)
+                        .execute();
+                List<Resource> page = docFinder.getResources();
+                Assert.assertTrue(page.size() <= 2);
+                page.forEach(resource -> names.add(((Role) resource.getContents().get(0)).getName()));
+                bookmark = docFinder.getBookmark();
+            } while (bookmark != null);
+            List<String> expected = new ArrayList<>(names);
+            expected.sort(Comparator.reverseOrder());
+            Assert.assertEquals(expected, names);
+            for (int i = 0; i < 5; ++i) {
+                Assert.assertTrue(names.contains("PagedRole_FORTEST_" + i));
+            }
+            String wrongOffset = Base64.getUrlEncoder().encodeToString("x:0".getBytes(StandardCharsets.UTF_8));
+            for (String invalid: Arrays.asList("not base64!", wrongOffset)) {
+                try {
+                    DocFinder.create(context.getStore(), AuthPackage.Literals.ROLE).bookmark(invalid).execute();
+                    Assert.fail("Invalid bookmark accepted: " + invalid);
+                }
+                catch (ResponseStatusException e) {
+                    Assert.assertEquals(HttpStatus.BAD_REQUEST, e.getStatus());
+                }
+            }
+            for (Resource resource: created) {
+                context.getStore().deleteResource(resource.getURI());
+            }
+            return 0;
+        });
+    }
+
+    @Test
+    public void findWithQueryPlanner() throws Exception {
+        context.getStore().inTransaction(false, tx -> {
+            List<Resource> created = new ArrayList<>();
+            for (int i = 0; i < 3; ++i) {
+                Role role = AuthFactory.eINSTANCE.createRole();
+                role.setName("PlannedRole_FORTEST_" + i);
+                created.add(context.getStore().createEObject(role));
+            }
+            DocFinder docFinder = DocFinder.create(context.getStore(), AuthPackage.Literals.ROLE);
+            docFinder.selector().with("contents").withArray("$or").addObject()
+                    .put("name", "PlannedRole_FORTEST_0");
+            docFinder.selector().with("contents").withArray("$or").addObject()
+                    .with("name").put("$regex", "PlannedRole_FORTEST_[12]");
+            docFinder.execute();
+            Assert.assertEquals(3, docFinder.getResources().size());
+            Assert.assertTrue(docFinder.getExecutionStats().get("query").asText().contains(" where "));
+            for (Resource resource: created) {
+                context.getStore().deleteResource(resource.getURI());
+            }
+            return 0;
+        });
+    }
+
+    @Test
+    public void findNegationWithNullField() throws Exception {
+        context.getStore().inTransaction(false, tx -> {
+            List<Resource> created = new ArrayList<>();
+            for (int i = 0; i < 3; ++i) {
+                Role role = AuthFactory.eINSTANCE.createRole();
+                role.setName("NullDescriptionRole_FORTEST_" + i);
+                if (i == 0) {
+                    role.setDescription("described");
+                }
+                created.add(context.getStore().createEObject(role));
+            }
+            // the roles without a description match the negations, the second page must hold the last of them
+            for (String op: new String[] {"$not", "$nor"}) {
+                List<String> names = new ArrayList<>();
+                for (int skip = 0; skip < 3; ++skip) {
+                    DocFinder docFinder = DocFinder.create(context.getStore(), AuthPackage.Literals.ROLE)
+                            .sort("name", FinderSPI.SortOrder.asc)
+                            .skip(skip)
+                            .limit(1);
+                    ObjectNode contents = docFinder.selector().with("contents");
+                    contents.with("name").put("$regex", "NullDescriptionRole_FORTEST_.*");
+                    ObjectNode negated = op.equals("$not") ? contents.with("$not") : contents.withArray("$nor").addObject();
+                    negated.put("description", "described");
+                    docFinder.execute();
+                    docFinder.getResources().forEach(resource -> names.add(((Role) resource.getContents().get(0)).getName()));
+                }
+                Assert.assertEquals(op, Arrays.asList("NullDescriptionRole_FORTEST_1", "NullDescriptionRole_FORTEST_2"), names);
+            }
+            for (Resource resource: created) {
+                context.getStore().deleteResource(resource.getURI());
+            }
+            return 0;
+        });
+    }
+
+    @Test
+    public void findUnsetAttributeWithDefault() throws Exception {
+        context.getStore().inTransaction(false, tx -> {
+            List<Resource> created = new ArrayList<>();
+            for (int i = 0; i < 3; ++i) {
+                ScheduledTask task = SchedulerFactory.eINSTANCE.createScheduledTask();
+                task.setName("UnsetEnabledTask_FORTEST_" + i);
+                // the default false is not stored
+                task.setEnabled(i == 0);
+                created.add(context.getStore().createEObject(task));
+            }
+            // the unset attributes match their default value, the second page must hold the last of them
+            String[] queries = {"false", "{\"$lt\": true}", "{\"$in\": [false]}", "{\"$exists\": true, \"$lte\": false}"};
+            for (String query: queries) {
+                List<String> names = new ArrayList<>();
+                for (int skip = 0; skip < 3; ++skip) {
+                    DocFinder docFinder = DocFinder.create(context.getStore(), SchedulerPackage.Literals.SCHEDULED_TASK)
+                            .sort("name", FinderSPI.SortOrder.asc)
+                            .skip(skip)
+                            .limit(1);
+                    ObjectNode contents = docFinder.selector().with("contents");
+                    contents.with("name").put("$regex", "UnsetEnabledTask_FORTEST_.*");
+                    contents.set("enabled", new ObjectMapper().readTree(query));
+                    docFinder.execute();
+                    docFinder.getResources().forEach(resource -> names.add(((ScheduledTask) resource.getContents().get(0)).getName()));
+                }
+                Assert.assertEquals(query, Arrays.asList("UnsetEnabledTask_FORTEST_1", "UnsetEnabledTask_FORTEST_2"), names);
+            }
+            for (Resource resource: created) {
+                context.getStore().deleteResource(resource.getURI());
+            }
+            return 0;
+        });
+    }
+
     public static Role createSuperAdminRole() {
         Role superAdmin = AuthFactory.eINSTANCE.createRole();
         superAdmin.setName("SuperAdminRole_FORTEST2");
@@ -53,4 +214,46 @@ public class StoreTests {
         return superAdminUser;
     }
 
+
+    @Test
+    public void exportImportArchive() throws Exception {
+        List<Resource> created = context.getStore().inTransaction(false, tx -> {
+            List<Resource> resources = new ArrayList<>();
+            for (int i = 0; i < 5; ++i) {
+                Role role = AuthFactory.eINSTANCE.createRole();
+                role.setName("ArchivedRole_FORTEST_" + i);
+                resources.add(context.getStore().createEObject(role));
+            }
+            return resources;
+        });
+        Path dir = Files.createTempDirectory("archive");
+        ParallelExporter exporter = new ParallelExporter(context.getStore(), 2);
+        exporter.setChunkSize(2);
+        ObjectNode manifest = context.inContext(() -> exporter.exportArchive(dir));
+        Assert.assertTrue(manifest.get(ParallelExporter.COMPLETE).asBoolean());
+        int exported = 0;
+        for (JsonNode chunk: manifest.withArray(ParallelExporter.CHUNKS)) {
+            Assert.assertTrue(chunk.get(ParallelExporter.COUNT).asInt() <= 2);
+            exported += chunk.get(ParallelExporter.COUNT).asInt();
+        }
+        Assert.assertTrue(exported >= created.size());
+        int imported = context.inContext(() -> exporter.importArchive(dir));
+        Assert.assertTrue(imported >= created.size());
+        Assert.assertFalse(Files.exists(dir.resolve(ParallelExporter.PROGRESS)));
+        context.getStore().inTransaction(false, tx -> {
+            for (int i = 0; i < created.size(); ++i) {
+                String name = "ArchivedRole_FORTEST_" + i;
+                List<Resource> found = DocFinder.create(context.getStore(), AuthPackage.Literals.ROLE, new HashMap<String, String>() {{
+                    put("name", name);
+                }}).execute().getResources();
+                Assert.assertEquals(1, found.size());
+            }
+            for (Resource resource: DocFinder.create(context.getStore(), AuthPackage.Literals.ROLE).execute().getResources()) {
+                if (((Role) resource.getContents().get(0)).getName().startsWith("ArchivedRole_FORTEST_")) {
+                    context.getStore().deleteResource(resource.getURI());
+                }
+            }
+            return 0;
+        });
+    }
 }
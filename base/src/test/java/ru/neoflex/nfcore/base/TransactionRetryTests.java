@@ -0,0 +1,38 @@
+package ru.neoflex.nfcore.base;
+
+import org.junit.Assert;
+import org.junit.Test;
+import ru.neoflex.nfcore.base.services.TransactionRetry;
+
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class TransactionRetryTests {
+    @Test
+    public void retryConflictsTest() throws Exception {
+        TransactionRetry retry = new TransactionRetry();
+        AtomicInteger attempts = new AtomicInteger();
+        String result = retry.call("test", () -> {
+            if (attempts.incrementAndGet() < 3) {
+                throw new IllegalStateException("#12:1");
+            }
+            return "ok";
+        }, e -> e instanceof IllegalStateException ? e.getMessage() : null);
+        Assert.assertEquals("ok", result);
+        Assert.assertEquals(3, attempts.get());
+        Map<String, Object> statistics = retry.getStatistics(10);
+        Map<String, Object> test = (Map<String, Object>) ((Map<String, Object>) statistics.get("transactions")).get("test");
+        Assert.assertEquals(1L, test.get("calls"));
+        Assert.assertEquals(2L, test.get("retries"));
+        Assert.assertEquals(2L, ((Map<String, Object>) statistics.get("conflicts")).get("test:#12:1"));
+        try {
+            retry.call("test", () -> {
+                throw new IllegalArgumentException();
+            }, e -> e instanceof IllegalStateException ? e.getMessage() : null);
+            Assert.fail("non conflict exception should not be retried");
+        } catch (IllegalArgumentException e) {
+        }
+        retry.reset();
+        Assert.assertTrue(((Map) retry.getStatistics(10).get("conflicts")).isEmpty());
+    }
+}
@@ -0,0 +1,162 @@
+package com.beijunyi.parallelgit.filesystem;
+
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+import com.beijunyi.parallelgit.utils.io.BlobSnapshot;
+import com.beijunyi.parallelgit.utils.io.ObjectSnapshot;
+import com.beijunyi.parallelgit.utils.io.TreeSnapshot;
+import org.eclipse.jgit.lib.AnyObjectId;
+
+/**
+ * Process wide cache of loaded trees and blobs shared by all {@link GfsObjectService} instances.
+ * Git objects are immutable and addressed by content, so cached snapshots never need invalidation.
+ * The cache is split into independently locked LRU segments bounded by total weight in bytes.
+ */
+public class GfsObjectCache {
+
+  public static final long DEFAULT_MAX_WEIGHT = 128L * 1024 * 1024;
+  public static final int DEFAULT_MAX_BLOB_SIZE = 1024 * 1024;
+  private static final int SEGMENTS = 16;
+  private static final int TREE_ENTRY_WEIGHT = 128;
+
+  private static volatile GfsObjectCache defaultCache = new GfsObjectCache(DEFAULT_MAX_WEIGHT, DEFAULT_MAX_BLOB_SIZE);
+
+  private final Segment[] segments = new Segment[SEGMENTS];
+  private final int maxBlobSize;
+  private final AtomicLong hits = new AtomicLong();
+  private final AtomicLong misses = new AtomicLong();
+
+  public GfsObjectCache(long maxWeight, int maxBlobSize) {
+    this.maxBlobSize = maxBlobSize;
+    for(int i = 0; i < SEGMENTS; i++)
+      segments[i] = new Segment(maxWeight / SEGMENTS);
+  }
+
+  @Nonnull
+  public static GfsObjectCache getDefault() {
+    return defaultCache;
+  }
+
+  public static void setDefault(GfsObjectCache cache) {
+    defaultCache = cache;
+  }
+
+  @Nullable
+  public TreeSnapshot getTree(AnyObjectId id) {
+    return get(id, TreeSnapshot.class);
+  }
+
+  @Nullable
+  public BlobSnapshot getBlob(AnyObjectId id) {
+    return get(id, BlobSnapshot.class);
+  }
+
+  public void putTree(TreeSnapshot tree) throws IOException {
+    int size = tree.getData().size();
+    segmentFor(tree.getId()).put(tree, (long) size * TREE_ENTRY_WEIGHT);
+  }
+
+  public void putBlob(BlobSnapshot blob) throws IOException {
+    int size = blob.getData().length;
+    if(size <= maxBlobSize)
+      segmentFor(blob.getId()).put(blob, size);
+  }
+
+  public int getMaxBlobSize() {
+    return maxBlobSize;
+  }
+
+  public long getHits() {
+    return hits.get();
+  }
+
+  public long getMisses() {
+    return misses.get();
+  }
+
+  public long getWeight() {
+    long ret = 0;
+    for(Segment segment : segments)
+      ret += segment.getWeight();
+    return ret;
+  }
+
+  public void clear() {
+    for(Segment segment : segments)
+      segment.clear();
+  }
+
+  @Nullable
+  private <S extends ObjectSnapshot> S get(AnyObjectId id, Class<S> type) {
+    ObjectSnapshot ret = segmentFor(id).get(id);
+    if(type.isInstance(ret)) {
+      hits.incrementAndGet();
+      return type.cast(ret);
+    }
+    misses.incrementAndGet();
+    return null;
+  }
+
+  @Nonnull
+  private Segment segmentFor(AnyObjectId id) {
+    return segments[(id.hashCode() & Integer.MAX_VALUE) % SEGMENTS];
+  }
+
+  private static class Segment {
+
+    private final LinkedHashMap<AnyObjectId, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private final long maxWeight;
+    private long weight = 0;
+
+    Segment(long maxWeight) {
+      this.maxWeight = maxWeight;
+    }
+
+    @Nullable
+    synchronized ObjectSnapshot get(AnyObjectId id) {
+      Entry entry = entries.get(id);
+      return entry != null ? entry.snapshot : null;
+    }
+
+    synchronized void put(ObjectSnapshot snapshot, long entryWeight) {
+      if(entryWeight > maxWeight)
+        return;
+      Entry old = entries.put(snapshot.getId().copy(), new Entry(snapshot, entryWeight));
+      if(old != null)
+        weight -= old.weight;
+      weight += entryWeight;
+      Iterator<Map.Entry<AnyObjectId, Entry>> it = entries.entrySet().iterator();
+      while(weight > maxWeight && it.hasNext()) {
+        weight -= it.next().getValue().weight;
+        it.remove();
+      }
+    }
+
+    synchronized long getWeight() {
+      return weight;
+    }
+
+    synchronized void clear() {
+      entries.clear();
+      weight = 0;
+    }
+  }
+
+  private static class Entry {
+
+    final ObjectSnapshot snapshot;
+    final long weight;
+
+    Entry(ObjectSnapshot snapshot, long weight) {
+      this.snapshot = snapshot;
+      this.weight = weight;
+    }
+  }
+
+}
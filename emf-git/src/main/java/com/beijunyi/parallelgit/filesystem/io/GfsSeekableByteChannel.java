@@ -20,7 +20,7 @@ public class GfsSeekableByteChannel implements SeekableByteChannel {
 
   GfsSeekableByteChannel(FileNode file, Collection<? extends OpenOption> options) throws IOException {
     this.file = file;
-    buffer = ByteBuffer.wrap(options.contains(TRUNCATE_EXISTING) ? new byte[0] : file.getData());
+    buffer = ByteBuffer.wrap(options.contains(TRUNCATE_EXISTING) ? new byte[0] : file.getData().clone());
     readable = options.contains(READ);
     writable = options.contains(WRITE);
     if(options.contains(APPEND)) buffer.position(buffer.limit());
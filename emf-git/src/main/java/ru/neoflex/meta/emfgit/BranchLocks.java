@@ -0,0 +1,99 @@
+package ru.neoflex.meta.emfgit;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Read write locks of branches and of partitions of a branch, like its indexes.
+ * Every key has its own lock, so transactions of different branches never contend.
+ * Waits for the locks are measured, a lock not acquired within the timeout fails with an IOException.
+ */
+public class BranchLocks {
+    public static final long DEFAULT_TIMEOUT_MS = 10 * 60 * 1000;
+    private final ConcurrentMap<String, ReadWriteLock> locks = new ConcurrentHashMap<>();
+    private volatile long timeoutMs = DEFAULT_TIMEOUT_MS;
+    private final AtomicLong acquired = new AtomicLong();
+    private final AtomicLong waited = new AtomicLong();
+    private final AtomicLong waitNanos = new AtomicLong();
+    private final AtomicLong maxWaitNanos = new AtomicLong();
+    private final AtomicLong timeouts = new AtomicLong();
+
+    public static String getKey(String branch, String partition) {
+        return branch + "/" + partition;
+    }
+
+    public ReadWriteLock getLock(String key) {
+        return locks.computeIfAbsent(key, k -> new ReentrantReadWriteLock());
+    }
+
+    /**
+     * @param exclusive the write lock of the key if true, the read lock otherwise
+     * @return the acquired lock to be unlocked by the caller
+     */
+    public Lock lock(String key, boolean exclusive) throws IOException {
+        ReadWriteLock readWriteLock = getLock(key);
+        Lock lock = exclusive ? readWriteLock.writeLock() : readWriteLock.readLock();
+        if (lock.tryLock()) {
+            acquired.incrementAndGet();
+            return lock;
+        }
+        long start = System.nanoTime();
+        boolean locked;
+        try {
+            locked = lock.tryLock(timeoutMs, TimeUnit.MILLISECONDS);
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for the lock of " + key);
+        }
+        long wait = System.nanoTime() - start;
+        waited.incrementAndGet();
+        waitNanos.addAndGet(wait);
+        maxWaitNanos.accumulateAndGet(wait, Math::max);
+        if (!locked) {
+            timeouts.incrementAndGet();
+            throw new IOException(String.format("Timeout of %d ms waiting for the %s lock of %s",
+                    timeoutMs, exclusive ? "exclusive" : "shared", key));
+        }
+        acquired.incrementAndGet();
+        return lock;
+    }
+
+    public long getTimeoutMs() {
+        return timeoutMs;
+    }
+
+    public void setTimeoutMs(long timeoutMs) {
+        this.timeoutMs = timeoutMs;
+    }
+
+    public long getAcquired() {
+        return acquired.get();
+    }
+
+    /**
+     * Number of the locks acquired after a wait or timed out
+     */
+    public long getWaited() {
+        return waited.get();
+    }
+
+    public long getWaitMs() {
+        return TimeUnit.NANOSECONDS.toMillis(waitNanos.get());
+    }
+
+    public long getMaxWaitMs() {
+        return TimeUnit.NANOSECONDS.toMillis(maxWaitNanos.get());
+    }
+
+    public long getTimeouts() {
+        return timeouts.get();
+    }
+}
@@ -24,10 +24,9 @@ import org.slf4j.LoggerFactory;
 
 import java.io.*;
 import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
 import java.nio.file.Path;
 import java.util.*;
-import java.util.concurrent.locks.ReadWriteLock;
-import java.util.concurrent.locks.ReentrantReadWriteLock;
 import java.util.function.Function;
 import java.util.stream.Collectors;
 
@@ -47,11 +46,15 @@ public class Database implements Closeable {
     private List<EPackage> packages;
     private Map<String, Index> indexes = new HashMap<>();
     private Events events = new Events();
-    private ReadWriteLock lock = new ReentrantReadWriteLock();
+    private BranchLocks locks = new BranchLocks();
+    private GroupCommit groupCommit = new GroupCommit(this);
     private Function<EClass, EStructuralFeature> qualifiedNameDelegate;
     private Map<EClass, List<EClass>> descendants = new HashMap<>();
     private String repoName;
     private XMLParserPool xmlParserPool = new XMLParserPoolImpl();
+    private RetryStrategy retryStrategy = RetryStrategy.DEFAULT;
+    private ContentCache<Resource> contentCache = new ContentCache<>();
+    private IndexStore indexStore = new IndexStore();
 
     {
         try {
@@ -68,6 +71,7 @@ public class Database implements Closeable {
         preCalcDescendants();
         createTypeNameIndex();
         createRefIndex();
+        createSecondaryIndexes();
         registerEvents();
     }
 
@@ -184,12 +188,132 @@ public class Database implements Closeable {
         });
     }
 
+    private void createSecondaryIndexes() {
+        for (EPackage ePackage : packages) {
+            for (EClassifier eClassifier : ePackage.getEClassifiers()) {
+                if (eClassifier instanceof EClass) {
+                    EClass eClass = (EClass) eClassifier;
+                    for (EStructuralFeature feature : eClass.getEStructuralFeatures()) {
+                        if ("true".equals(EcoreUtil.getAnnotation(feature, SecondaryIndex.GITDB_SOURCE, SecondaryIndex.INDEX))) {
+                            createSecondaryIndex(eClass, feature.getName());
+                        }
+                    }
+                    String composite = EcoreUtil.getAnnotation(eClass, SecondaryIndex.GITDB_SOURCE, SecondaryIndex.INDEX);
+                    if (composite != null) {
+                        for (String featureNames : composite.split(";")) {
+                            if (!featureNames.trim().isEmpty()) {
+                                createSecondaryIndex(eClass, featureNames.trim().split("\\s*,\\s*"));
+                            }
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    public SecondaryIndex createSecondaryIndex(EClass eClass, String... featureNames) {
+        return createSecondaryIndex(null, eClass, featureNames);
+    }
+
+    /**
+     * Defines an index over the features of the eClass and its descendants,
+     * the index is used by queries after it is built by a reindex
+     * @param name index name or null for the name made of the nsPrefix, the eClass name and the feature names
+     */
+    public SecondaryIndex createSecondaryIndex(String name, EClass eClass, String... featureNames) {
+        List<EStructuralFeature> features = new ArrayList<>();
+        for (String featureName : featureNames) {
+            EStructuralFeature feature = eClass.getEStructuralFeature(featureName);
+            if (feature == null) {
+                throw new IllegalArgumentException(String.format(
+                        "Feature %s not found in eClass: %s", featureName, EcoreUtil.getURI(eClass)));
+            }
+            features.add(feature);
+        }
+        SecondaryIndex index = new SecondaryIndex(this, name != null ? name : SecondaryIndex.getDefaultName(eClass, features), eClass, features);
+        createIndex(index);
+        return index;
+    }
+
     public Resource loadResource(byte[] content, Resource resource) throws IOException {
         ((XMIResourceImpl) resource).doLoad(new ByteArrayInputStream(content), null);
         getEvents().fireAfterLoad(resource);
         return resource;
     }
 
+    public Resource loadResource(Entity entity, Resource resource) throws IOException {
+        Resource parsed = contentCache.get(entity.getRev());
+        if (parsed == null) {
+            parsed = parseEntity(entity);
+        }
+        copyContents(parsed, resource);
+        getEvents().fireAfterLoad(resource);
+        return resource;
+    }
+
+    /**
+     * Fills resource with copies of the parsed entity contents, the entity blob is read and parsed only on cache miss.
+     * @return rev of the loaded entity
+     */
+    public String readContents(Transaction tx, EntityId entityId, Resource resource) throws IOException {
+        String rev = tx.getRev(entityId);
+        Resource parsed = contentCache.get(rev);
+        if (parsed == null) {
+            Entity entity = tx.load(entityId);
+            rev = entity.getRev();
+            parsed = parseEntity(entity);
+        }
+        copyContents(parsed, resource);
+        return rev;
+    }
+
+    /**
+     * Parsed entity shared through the content cache, its objects must not be modified and its proxies
+     * must not be resolved
+     */
+    public Resource getParsedContents(Transaction tx, EntityId entityId) throws IOException {
+        Resource parsed = contentCache.get(tx.getRev(entityId));
+        if (parsed == null) {
+            parsed = parseEntity(tx.load(entityId));
+        }
+        return parsed;
+    }
+
+    private Resource parseEntity(Entity entity) throws IOException {
+        Resource parsed = createResource(createResourceSet(), entity.getId(), entity.getRev());
+        ((XMIResourceImpl) parsed).doLoad(new ByteArrayInputStream(entity.getContent()), null);
+        contentCache.put(entity.getRev(), parsed, entity.getContent().length);
+        return parsed;
+    }
+
+    private void copyContents(Resource source, Resource target) {
+        // cached objects are shared between threads, so proxies are never resolved
+        // and every copy gets its own proxy instances
+        EcoreUtil.Copier copier = new EcoreUtil.Copier(false) {
+            @Override
+            public EObject get(Object key) {
+                EObject copy = super.get(key);
+                if (copy == null && key instanceof EObject && ((EObject) key).eIsProxy()) {
+                    EObject proxy = (EObject) key;
+                    copy = EcoreUtil.create(proxy.eClass());
+                    ((InternalEObject) copy).eSetProxyURI(((InternalEObject) proxy).eProxyURI());
+                }
+                return copy;
+            }
+        };
+        Collection<EObject> copies = copier.copyAll(source.getContents());
+        copier.copyReferences();
+        target.getContents().addAll(copies);
+        if (source instanceof XMIResourceImpl && target instanceof XMIResourceImpl) {
+            for (Map.Entry<EObject, EObject> entry : copier.entrySet()) {
+                String xmiId = ((XMIResourceImpl) source).getID(entry.getKey());
+                if (xmiId != null) {
+                    ((XMIResourceImpl) target).setID(entry.getValue(), xmiId);
+                }
+            }
+        }
+    }
+
     public Resource createResource(Transaction tx, String id, String rev) {
         ResourceSet resourceSet = createResourceSet(tx);
         return createResource(resourceSet, id, rev);
@@ -404,17 +528,14 @@ public class Database implements Closeable {
     private void deleteResourceIndexes(Resource old) {
         GitHandler gitHandler = (GitHandler) old.getResourceSet().getURIConverter().getURIHandlers().get(0);
         Transaction tx = gitHandler.getTransaction();
-        GitFileSystem gfs = tx.getFileSystem();
-        for (String indexName : getIndexes().keySet()) {
-            GitPath indexPath = gfs.getPath("/", IDX_PATH, indexName);
-            for (IndexEntry entry : getIndexes().get(indexName).getEntries(old, tx)) {
-                GitPath indexValuePath = indexPath.resolve(gfs.getPath(".", entry.getPath()).normalize());
-                try {
-                    Files.delete(indexValuePath);
-                } catch (IOException e) {
-                    throw new RuntimeException(e);
-                }
+        try {
+            for (String indexName : getIndexes().keySet()) {
+                List<String[]> deleted = getIndexes().get(indexName).getEntries(old, tx).stream()
+                        .map(IndexEntry::getPath).collect(Collectors.toList());
+                indexStore.update(tx, indexName, deleted, Collections.emptyList());
             }
+        } catch (IOException e) {
+            throw new RuntimeException(e);
         }
     }
 
@@ -422,31 +543,11 @@ public class Database implements Closeable {
         try {
             GitHandler gitHandler = (GitHandler) newResource.getResourceSet().getURIConverter().getURIHandlers().get(0);
             Transaction tx = gitHandler.getTransaction();
-            GitFileSystem gfs = tx.getFileSystem();
-            Set<String> toDelete = new HashSet<>();
-            if (oldResource != null) {
-                for (String indexName : getIndexes().keySet()) {
-                    GitPath indexPath = gfs.getPath("/", IDX_PATH, indexName);
-                    for (IndexEntry entry : getIndexes().get(indexName).getEntries(oldResource, tx)) {
-                        GitPath indexValuePath = indexPath.resolve(gfs.getPath(".", entry.getPath()).normalize());
-                        toDelete.add(indexValuePath.toString());
-                    }
-                }
-            }
             for (String indexName : getIndexes().keySet()) {
-                GitPath indexPath = gfs.getPath("/", IDX_PATH, indexName);
-                for (IndexEntry entry : getIndexes().get(indexName).getEntries(newResource, tx)) {
-                    GitPath indexValuePath = indexPath.resolve(gfs.getPath(".", entry.getPath()).normalize());
-                    if (!toDelete.remove(indexValuePath.toString()) && Files.exists(indexValuePath)) {
-                        throw new IOException("Index file " + indexValuePath.toString() + " already exists");
-                    }
-                    Files.createDirectories(indexValuePath.getParent());
-                    Files.write(indexValuePath, entry.getContent());
-                }
-            }
-            for (String indexValuePathString : toDelete) {
-                GitPath indexValuePath = gfs.getPath(indexValuePathString);
-                Files.delete(indexValuePath);
+                Index index = getIndexes().get(indexName);
+                List<String[]> deleted = oldResource == null ? Collections.emptyList() :
+                        index.getEntries(oldResource, tx).stream().map(IndexEntry::getPath).collect(Collectors.toList());
+                indexStore.update(tx, indexName, deleted, index.getEntries(newResource, tx));
             }
         }
         catch (IOException e) {
@@ -458,16 +559,26 @@ public class Database implements Closeable {
         GitFileSystem gfs = tx.getFileSystem();
         GitPath indexRootPath = gfs.getPath("/", IDX_PATH);
         deleteRecursive(indexRootPath);
+        Map<String, List<IndexEntry>> entries = new HashMap<>();
+        for (String indexName : getIndexes().keySet()) {
+            entries.put(indexName, new ArrayList<>());
+        }
         for (EntityId entityId : tx.all()) {
             Entity entity = tx.load(entityId);
             Resource resource = entityToResource(tx, entity);
-            updateResourceIndexes(null, resource);
+            for (String indexName : getIndexes().keySet()) {
+                entries.get(indexName).addAll(getIndexes().get(indexName).getEntries(resource, tx));
+            }
+        }
+        for (Map.Entry<String, List<IndexEntry>> entry : entries.entrySet()) {
+            indexStore.rebuild(tx, entry.getKey(), entry.getValue());
+            indexStore.markBuilt(tx, entry.getKey());
         }
     }
 
     public Resource entityToResource(Transaction tx, Entity entity) throws IOException {
         Resource resource = createResource(tx, entity.getId(), entity.getRev());
-        loadResource(entity.getContent(), resource);
+        loadResource(entity, resource);
         return resource;
     }
 
@@ -513,24 +624,12 @@ public class Database implements Closeable {
     }
 
     public List<IndexEntry> findByIndex(Transaction tx, String indexName, String... path) {
-        GitFileSystem gfs = tx.getFileSystem();
-        GitPath indexPath = gfs.getPath("/", IDX_PATH, indexName);
-        GitPath indexValuePath = indexPath.resolve(gfs.getPath(".", path).normalize());
         try {
-            return Files.walk(indexValuePath).filter(Files::isRegularFile).map(file -> {
-                IndexEntry entry = new IndexEntry();
-                Path relPath = indexPath.relativize(file);
-                entry.setPath(relPath.toString().split("/"));
-                try {
-                    byte[] content = Files.readAllBytes(file);
-                    entry.setContent(content);
-                    return entry;
-                } catch (IOException e) {
-                    throw new RuntimeException(e);
-                }
-            }).collect(Collectors.toList());
-        } catch (Throwable e) {
+            return indexStore.find(tx, indexName, path);
+        } catch (NoSuchFileException e) {
             return Collections.emptyList();
+        } catch (IOException e) {
+            throw new RuntimeException(e);
         }
     }
 
@@ -559,30 +658,22 @@ public class Database implements Closeable {
     }
 
     public <R> R inTransaction(TxSupplier<Transaction> transactionSupplier, Transactional<R> f) throws Exception {
-        int delay = 1;
-        int maxDelay = 1000;
-        int maxAttempts = 100;
-        int attempt = 1;
-        while (true) {
+        String[] branch = {null};
+        return retryStrategy.call("gitdb", () -> {
             try (Transaction tx = transactionSupplier.get()) {
+                branch[0] = tx.getBranch();
                 return tx.withCurrent(() -> f.call(tx));
             }
-            catch (RefUpdateLockFailureException|RefUpdateRejectedException e) {
-                String message = e.getClass().getSimpleName() + ": " + e.getMessage() + " attempt no " + attempt;
-                logger.debug(message);
-                if (++attempt > maxAttempts) {
-                    throw e;
-                }
-                try {
-                    Thread.sleep(delay);
-                } catch (InterruptedException ex) {
-                }
-                if (delay < maxDelay) {
-                    delay *= 2;
-                }
-                continue;
-            }
-        }
+        }, e -> e instanceof RefUpdateLockFailureException || e instanceof RefUpdateRejectedException ?
+                branch[0] + ": " + e.getMessage() : null);
+    }
+
+    public RetryStrategy getRetryStrategy() {
+        return retryStrategy;
+    }
+
+    public void setRetryStrategy(RetryStrategy retryStrategy) {
+        this.retryStrategy = retryStrategy;
     }
 
     @Override
@@ -615,14 +706,48 @@ public class Database implements Closeable {
         getIndexes().put(index.getName(), index);
     }
 
-    public ReadWriteLock getLock() {
-        return lock;
+    /**
+     * Locks of the branches, WRITE transactions share the lock of their branch and EXCLUSIVE ones hold it alone
+     */
+    public BranchLocks getLocks() {
+        return locks;
+    }
+
+    public void setLocks(BranchLocks locks) {
+        this.locks = locks;
+    }
+
+    /**
+     * Group commit of the write transactions, null to commit every transaction on its own
+     */
+    public GroupCommit getGroupCommit() {
+        return groupCommit;
+    }
+
+    public void setGroupCommit(GroupCommit groupCommit) {
+        this.groupCommit = groupCommit;
     }
 
     public Events getEvents() {
         return events;
     }
 
+    public IndexStore getIndexStore() {
+        return indexStore;
+    }
+
+    public void setIndexStore(IndexStore indexStore) {
+        this.indexStore = indexStore;
+    }
+
+    public ContentCache<Resource> getContentCache() {
+        return contentCache;
+    }
+
+    public void setContentCache(ContentCache<Resource> contentCache) {
+        this.contentCache = contentCache;
+    }
+
     public Function<EClass, EStructuralFeature> getQualifiedNameDelegate() {
         return qualifiedNameDelegate;
     }
@@ -5,24 +5,25 @@ import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.databind.node.ObjectNode;
 import org.eclipse.emf.common.util.URI;
 import org.eclipse.emf.ecore.EClass;
-import org.eclipse.emf.ecore.EObject;
 import org.eclipse.emf.ecore.EStructuralFeature;
 import org.eclipse.emf.ecore.resource.Resource;
 import org.eclipse.emf.ecore.resource.ResourceSet;
 import org.eclipse.emf.ecore.util.EcoreUtil;
 
 import java.io.IOException;
-import java.math.BigDecimal;
 import java.nio.file.Files;
 import java.util.*;
-
-import static java.lang.Integer.min;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
 public class Finder {
     private String warning;
+    private String index;
     private int skip = 0;
     private int limit = -1;
     private int idsLoaded = 0;
+    private int scanned = 0;
     private long idsLoadedMs = 0;
     private int resLoaded = 0;
     private long resLoadedMs = 0;
@@ -59,302 +60,97 @@ public class Finder {
 
 
     public Finder execute(Transaction tx) throws IOException {
+        stream(tx).forEach(resource -> {});
+        return this;
+    }
+
+    /**
+     * Lazily matches the candidates of the selector, skip and limit apply to the matched resources and the scan
+     * stops when the limit is reached. Documents are matched on the shared parsed contents from the content cache,
+     * only the returned ones and the ones matched through references are copied to a resource set.
+     * The resources are added to the resource set of the finder.
+     */
+    public Stream<Resource> stream(Transaction tx) throws IOException {
         long startTime = System.currentTimeMillis();
         Database database = tx.getDatabase();
+        Selector compiled = Selector.compile(selector);
         List<EntityId> ids = findIds(selector, tx);
         long idsLoadedTime = System.currentTimeMillis();
         idsLoaded = ids.size();
-        resourceSet = database.createResourceSet(tx);
-        int startIndex = skip <= 0 ? 0 : min(skip, ids.size());
-        int length = limit <= 0 ? ids.size() - startIndex : min(limit, ids.size() - startIndex);
-        for (EntityId entityId: ids.subList(startIndex, startIndex + length)) {
-            Entity entity = tx.load(entityId);
-            Resource resource = database.createResourceSet(tx).createResource(database.createURI(entity.getId(), entity.getRev()));
-            database.loadResource(entity.getContent(), resource);
-            if (match(entity, resource.getContents().get(0), selector)) {
-                resourceSet.getResources().add(resource);
-            }
-        }
-        resLoaded = length;
-        long resLoadedTime = System.currentTimeMillis();
         idsLoadedMs = idsLoadedTime - startTime;
-        resLoadedMs = resLoadedTime - idsLoadedTime;
-        return this;
-    }
-
-    private boolean match(EntityId entityId, EObject object, ObjectNode query) throws IOException {
-        JsonNode _id = query.get("id");
-        if (_id != null && !Objects.equals(_id.textValue(), entityId.getId())) {
-            return false;
-        }
-        JsonNode _rev = query.get("rev");
-        if (_rev != null && !Objects.equals(_rev.textValue(), entityId.getRev())) {
-            return false;
-        }
-        JsonNode contents = query.get("contents");
-        if (contents != null) {
-            if (!matchNodes(object, contents)) {
-                return false;
-            }
-        }
-        return true;
-    }
-
-    private boolean matchOp(String op, Object object, JsonNode query) {
-        if ("$and".equals(op)) {
-            return matchAnd(object, query);
-        }
-        if ("$or".equals(op)) {
-            return matchOr(object, query);
-        }
-        if ("$not".equals(op)) {
-            return matchNot(object, query);
-        }
-        if ("$nor".equals(op)) {
-            return matchNor(object, query);
-        }
-        if ("$all".equals(op)) {
-            return matchAll(object, query);
-        }
-        if ("$elemMatch".equals(op)) {
-            return matchElemMatch(object, query);
-        }
-        if ("$allMatch".equals(op)) {
-            return matchAllMatch(object, query);
-        }
-        if ("$lt".equals(op)) {
-            return matchLt(object, query);
-        }
-        if ("$gt".equals(op)) {
-            return matchGt(object, query);
-        }
-        if ("$lte".equals(op)) {
-            return matchLe(object, query);
-        }
-        if ("$gte".equals(op)) {
-            return matchGe(object, query);
-        }
-        if ("$eq".equals(op)) {
-            return object.toString().equals(query.asText());
-        }
-        if ("$ne".equals(op)) {
-            return !object.equals(query);
-        }
-        if ("$exists".equals(op)) {
-            return query.asBoolean() == (object != null);
-        }
-        if ("$size".equals(op)) {
-            return matchSize(object, query);
-        }
-        if ("$type".equals(op)) {
-            return query.asText().equals(object.getClass().getSimpleName());
-        }
-        if ("$in".equals(op)) {
-            return matchIn(object, query);
-        }
-        if ("$nin".equals(op)) {
-            return !matchIn(object, query);
-        }
-        if ("$regex".equals(op)) {
-            return object.toString().matches(query.asText());
-        }
-        return false;
-    }
-
-    private int compare(Object object, JsonNode query) {
-        if (object instanceof Number && query.isNumber()) {
-            return new BigDecimal(object.toString()).compareTo(query.decimalValue());
-        }
-        if (object instanceof String && query.isTextual()) {
-            return ((String) object).compareTo(query.asText());
-        }
-        if (object instanceof Boolean && query.isBoolean()) {
-            return new Boolean((Boolean) object).compareTo(query.asBoolean());
-        }
-        throw new IllegalArgumentException("Can't compare values: " + object.toString() + ", " + query.toString());
-    }
-
-    private boolean matchSize(Object object, JsonNode query) {
-        return object instanceof List && ((List) object).size() == query.asInt();
-    }
-    private boolean matchLt(Object object, JsonNode query) {
-        return compare(object, query) < 0;
-    }
-
-    private boolean matchLe(Object object, JsonNode query) {
-        return compare(object, query) <= 0;
-    }
-
-    private boolean matchGt(Object object, JsonNode query) {
-        return compare(object, query) > 0;
-    }
-
-    private boolean matchGe(Object object, JsonNode query) {
-        return compare(object, query) >= 0;
-    }
-
-    private boolean matchElemMatch(Object object, JsonNode query) {
-        if (!(object instanceof List)) {
-            return false;
-        }
-        for (Object objectNode: (List) object) {
-            if (matchNodes(objectNode, query)) {
-                return true;
-            }
-        }
-        return false;
-    }
-
-    private boolean matchAllMatch(Object object, JsonNode query) {
-        if (!(object instanceof List)) {
-            return false;
-        }
-        for (Object objectNode: (List) object) {
-            if (!matchNodes(objectNode, query)) {
-                return false;
-            }
-        }
-        return true;
-    }
-
-    private boolean matchNot(Object object, JsonNode query) {
-        return !matchNodes(object, query);
-    }
-
-    private boolean matchAll(Object object, JsonNode query) {
-        if (!(object instanceof List)) {
-            return false;
-        }
-        if (!query.isArray()) {
-            return false;
-        }
-        for (JsonNode queryNode: query) {
-            boolean found = false;
-            for (Object objectNode: (List) object) {
-                if (objectNode.equals(queryNode)) {
-                    found = true;
-                    break;
-                }
-            }
-            if (!found) {
-                return false;
-            }
-        }
-        return true;
-    }
-
-    private boolean matchNor(Object object, JsonNode query) {
-        if (!query.isArray()) {
-            return false;
-        }
-        for (JsonNode node: query) {
-            if (matchNodes(object, node)) {
-                return false;
-            }
-        }
-        return true;
-    }
-
-    private boolean matchIn(Object object, JsonNode query) {
-        if (!query.isArray()) {
-            return false;
-        }
-        for (JsonNode node: query) {
-            if (object.toString().equals(node.asText())) {
-                return true;
-            }
-        }
-        return false;
-    }
-
-    private boolean matchNodes(Object object, JsonNode query) {
-        if (object == null) {
-            return query == null || query.isNull();
-        }
-        if (query == null) {
-            return true;
-        }
-        if (object instanceof EObject || object instanceof List) {
-            if (!query.isObject()) {
-                return false;
-            }
-            return matchFields(object, query);
-        }
-        return matchPlain(object, query);
-    }
-
-    private boolean matchPlain(Object object, JsonNode query) {
-        if (query.isObject()) {
-            return matchFields(object, query);
-        }
-        return object.toString().equals(query.asText());
-    }
-
-    private boolean matchAnd(Object object, JsonNode query) {
-        if (!query.isArray()) {
-            return false;
-        }
-        for (JsonNode node: query) {
-            if (!matchNodes(object, node)) {
-                return false;
-            }
-        }
-        return true;
-    }
-
-    private Object getField(Object object, String name) {
-        if (object instanceof EObject) {
-            EObject eObject = (EObject) object;
-            EClass eClass = eObject.eClass();
-            EStructuralFeature sf = eClass.getEStructuralFeature(name);
-            if (sf != null) {
-                return eObject.eGet(sf);
-            }
-        }
-        return null;
-    }
-
-    private boolean matchFields(Object object, JsonNode query) {
-        if (!query.isObject()) {
-            return false;
-        }
-        for (Iterator<String> it = query.fieldNames(); it.hasNext();) {
-            String fieldName = it.next();
-            JsonNode queryNode = query.get(fieldName);
-            if (fieldName.startsWith("$")) {
-                if (!matchOp(fieldName, object, queryNode)) {
+        scanned = 0;
+        resLoaded = 0;
+        resLoadedMs = 0;
+        resourceSet = database.createResourceSet(tx);
+        Iterator<EntityId> iterator = ids.iterator();
+        return StreamSupport.stream(new Spliterators.AbstractSpliterator<Resource>(Long.MAX_VALUE, Spliterator.ORDERED | Spliterator.NONNULL) {
+            private int skipped = 0;
+            private ResourceSet scanResourceSet;
+
+            @Override
+            public boolean tryAdvance(Consumer<? super Resource> action) {
+                try {
+                    while ((limit <= 0 || resLoaded < limit) && iterator.hasNext()) {
+                        EntityId entityId = iterator.next();
+                        if (!compiled.matchesId(entityId.getId())) {
+                            continue;
+                        }
+                        entityId = new EntityId(entityId.getId(), tx.getRev(entityId));
+                        ++scanned;
+                        Resource parsed = database.getParsedContents(tx, entityId);
+                        Resource resource = null;
+                        boolean matched;
+                        try {
+                            matched = compiled.matches(entityId, parsed.getContents().get(0), false);
+                        }
+                        catch (Selector.Unresolved e) {
+                            // references are resolved in a separate resource set, so the referenced resources
+                            // are not returned
+                            if (scanResourceSet == null) {
+                                scanResourceSet = database.createResourceSet(tx);
+                            }
+                            resource = load(database, tx, scanResourceSet, entityId);
+                            matched = compiled.matches(entityId, resource.getContents().get(0), true);
+                        }
+                        if (!matched) {
+                            if (resource != null) {
+                                scanResourceSet.getResources().remove(resource);
+                            }
+                            continue;
+                        }
+                        if (skip > 0 && skipped < skip) {
+                            ++skipped;
+                            if (resource != null) {
+                                scanResourceSet.getResources().remove(resource);
+                            }
+                            continue;
+                        }
+                        if (resource == null) {
+                            resource = load(database, tx, resourceSet, entityId);
+                        }
+                        else {
+                            resourceSet.getResources().add(resource);
+                        }
+                        ++resLoaded;
+                        resLoadedMs = System.currentTimeMillis() - idsLoadedTime;
+                        action.accept(resource);
+                        return true;
+                    }
+                    resLoadedMs = System.currentTimeMillis() - idsLoadedTime;
                     return false;
                 }
-                continue;
-            }
-            if (fieldName.equals("eClass")) {
-                if (!EcoreUtil.getURI(((EObject) object).eClass()).toString().equals(queryNode.asText())) {
-                    return false;
+                catch (IOException e) {
+                    throw new RuntimeException(e);
                 }
-                continue;
             }
-            Object objectNode = getField(object, unescape(fieldName));
-            if (!matchNodes(objectNode, queryNode)) {
-                return false;
-            }
-        }
-        return true;
+        }, false);
     }
 
-    private boolean matchOr(Object object, JsonNode query) {
-        if (!query.isArray()) {
-            return false;
-        }
-        for (JsonNode node: query) {
-            if (matchNodes(object, node)) {
-                return true;
-            }
-        }
-        return false;
-    }
-
-    private String unescape(String fieldName) {
-        return fieldName.replaceAll("^[\\\\]\\$", "\\$");
+    private static Resource load(Database database, Transaction tx, ResourceSet resourceSet, EntityId entityId) throws IOException {
+        Resource resource = database.createResource(resourceSet, entityId.getId(), entityId.getRev());
+        database.readContents(tx, entityId, resource);
+        database.getEvents().fireAfterLoad(resource);
+        return resource;
     }
 
     private List<EntityId> findIds(ObjectNode query, Transaction tx) throws IOException {
@@ -382,6 +178,14 @@ public class Finder {
                             name = nameNode.asText();
                         }
                     }
+                    if (name == null || name.isEmpty()) {
+                        SecondaryIndex.Plan plan = SecondaryIndex.plan(tx, eClass, contents);
+                        if (plan != null) {
+                            index = plan.getIndex().getName();
+                            return plan.find(tx);
+                        }
+                    }
+                    index = Database.TYPE_NAME_IDX;
                     List<IndexEntry> ieList = database.findEClassIndexEntries(eClass, name, tx);
                     List<EntityId> result = new ArrayList<>();
                     for (IndexEntry ie: ieList) {
@@ -416,8 +220,11 @@ public class Finder {
         ObjectNode executionStats = new ObjectMapper().createObjectNode();
         executionStats.put("idsLoaded", idsLoaded);
         executionStats.put("idsLoadedMs", idsLoadedMs);
+        executionStats.put("scanned", scanned);
+        executionStats.put("returned", resLoaded);
         executionStats.put("resLoaded", resLoaded);
         executionStats.put("resLoadedMs", resLoadedMs);
+        executionStats.put("index", index);
         return executionStats;
     }
 }
@@ -3,9 +3,7 @@ package ru.neoflex.meta.emfgit;
 import org.eclipse.emf.common.util.URI;
 import org.eclipse.emf.ecore.resource.Resource;
 import org.eclipse.emf.ecore.resource.URIConverter;
-import org.eclipse.emf.ecore.xmi.impl.XMIResourceImpl;
 
-import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.util.Map;
@@ -32,12 +30,10 @@ public class GitInputStream extends InputStream implements URIConverter.Loadable
         Database db = transaction.getDatabase();
         String id = db.checkAndGetId(uri);
         EntityId entityId = new EntityId(id, null);
-        Entity entity = transaction.load(entityId);
-        String rev = entity.getRev();
         if (!resource.getContents().isEmpty()) {
             resource.getContents().clear();
         }
-        ((XMIResourceImpl) resource).doLoad(new ByteArrayInputStream(entity.getContent()), options);
+        String rev = db.readContents(transaction, entityId, resource);
         URI newURI = db.createURI(id, rev);
         resource.setURI(newURI);
         db.getEvents().fireAfterLoad(resource);
@@ -0,0 +1,317 @@
+package ru.neoflex.meta.emfgit;
+
+import com.beijunyi.parallelgit.filesystem.GitFileSystem;
+import com.beijunyi.parallelgit.filesystem.GitPath;
+import com.beijunyi.parallelgit.utils.BranchUtils;
+import com.beijunyi.parallelgit.utils.CommitUtils;
+import com.beijunyi.parallelgit.utils.exceptions.RefUpdateRejectedException;
+import org.eclipse.jgit.lib.AnyObjectId;
+import org.eclipse.jgit.lib.FileMode;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.PersonIdent;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.revwalk.RevCommit;
+import org.eclipse.jgit.treewalk.TreeWalk;
+import org.eclipse.jgit.treewalk.filter.TreeFilter;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+import static ru.neoflex.meta.emfgit.Database.IDS_PATH;
+import static ru.neoflex.meta.emfgit.Database.IDX_PATH;
+import static ru.neoflex.meta.emfgit.Database.REF_IDX;
+
+/**
+ * Group commit of the write transactions of a branch.
+ * Committing transactions queue their trees, the first one to take the mutex of the branch commits all the queued
+ * trees as a fast-forward chain on top of the branch head and moves the ref once. A tree based on an older head is
+ * rebased: the changed files of the transaction are copied into the tree of the head and the logged index updates
+ * are replayed there, so the entries of the packed indexes are merged instead of the segment blobs.
+ * A file changed by both the transaction and a commit after its base is a conflict, as well as a duplicated index
+ * entry or a broken reference, the transaction gets {@link RefUpdateRejectedException} and is retried.
+ */
+public class GroupCommit {
+    public static final int DEFAULT_MAX_BATCH = 64;
+    private final Database database;
+    private final Map<String, Queue> queues = new ConcurrentHashMap<>();
+    private int maxBatch = DEFAULT_MAX_BATCH;
+    private final AtomicLong commits = new AtomicLong();
+    private final AtomicLong batches = new AtomicLong();
+    private final AtomicLong rebased = new AtomicLong();
+    private final AtomicLong conflicts = new AtomicLong();
+
+    /**
+     * Index update of a transaction, replayed when the transaction is rebased
+     */
+    public static class IndexUpdate {
+        final String indexName;
+        final Collection<String[]> deleted;
+        final Collection<IndexEntry> inserted;
+
+        public IndexUpdate(String indexName, Collection<String[]> deleted, Collection<IndexEntry> inserted) {
+            this.indexName = indexName;
+            this.deleted = deleted;
+            this.inserted = inserted;
+        }
+    }
+
+    /**
+     * Tree of a transaction to be committed
+     */
+    public static class Request {
+        final String message;
+        final PersonIdent author;
+        final PersonIdent committer;
+        final RevCommit base;
+        final ObjectId baseTree;
+        final ObjectId tree;
+        final List<IndexUpdate> indexUpdates;
+        final boolean rebaseable;
+        private boolean done;
+        private RevCommit commit;
+        private Exception error;
+
+        /**
+         * @param base the commit the transaction started from or committed last
+         * @param baseTree the tree seen by the transaction at the base, it differs from the tree of a rebased base
+         * @param indexUpdates the index updates after the base
+         * @param rebaseable false if the indexes were rewritten and the updates can't be replayed
+         */
+        public Request(String message, PersonIdent author, PersonIdent committer, RevCommit base, ObjectId baseTree,
+                       ObjectId tree, List<IndexUpdate> indexUpdates, boolean rebaseable) {
+            this.message = message;
+            this.author = author != null ? author : committer;
+            this.committer = committer;
+            this.base = base;
+            this.baseTree = baseTree;
+            this.tree = tree;
+            this.indexUpdates = indexUpdates;
+            this.rebaseable = rebaseable;
+        }
+
+        private RevCommit getCommit() throws IOException {
+            if (error instanceof IOException) {
+                throw (IOException) error;
+            }
+            if (error != null) {
+                throw (RuntimeException) error;
+            }
+            if (commit == null) {
+                throw new IOException("Group commit failed");
+            }
+            return commit;
+        }
+    }
+
+    private static class Queue {
+        final ReentrantLock mutex = new ReentrantLock();
+        final ConcurrentLinkedQueue<Request> pending = new ConcurrentLinkedQueue<>();
+    }
+
+    public GroupCommit(Database database) {
+        this.database = database;
+    }
+
+    /**
+     * Commits the tree of the request to the branch, together with the trees queued by the concurrent transactions
+     * @return the commit of the request
+     */
+    public RevCommit commit(String branch, Request request) throws IOException {
+        Queue queue = queues.computeIfAbsent(branch, key -> new Queue());
+        queue.pending.add(request);
+        queue.mutex.lock();
+        try {
+            while (!request.done) {
+                flush(branch, queue);
+            }
+        }
+        finally {
+            queue.mutex.unlock();
+        }
+        return request.getCommit();
+    }
+
+    private void flush(String branch, Queue queue) {
+        List<Request> batch = new ArrayList<>();
+        for (Request next; batch.size() < maxBatch && (next = queue.pending.poll()) != null;) {
+            batch.add(next);
+        }
+        List<Request> applied = new ArrayList<>();
+        try {
+            Repository repo = database.getRepository();
+            RevCommit head = BranchUtils.getHeadCommit(branch, repo);
+            RevCommit tip = head;
+            for (Request request: batch) {
+                try {
+                    tip = apply(request, tip);
+                    request.commit = tip;
+                    applied.add(request);
+                }
+                catch (IOException | RuntimeException e) {
+                    request.error = e;
+                }
+            }
+            if (tip != head) {
+                BranchUtils.newCommit(branch, tip, repo);
+                batches.incrementAndGet();
+                commits.addAndGet(applied.size());
+            }
+        }
+        catch (IOException | RuntimeException e) {
+            for (Request request: applied) {
+                request.error = e;
+            }
+            for (Request request: batch) {
+                if (request.error == null && request.commit == null) {
+                    request.error = e;
+                }
+            }
+        }
+        finally {
+            for (Request request: batch) {
+                request.done = true;
+            }
+        }
+    }
+
+    private RevCommit apply(Request request, RevCommit tip) throws IOException {
+        ObjectId tree;
+        if (tip.equals(request.base) && request.base.getTree().equals(request.baseTree)) {
+            tree = request.tree;
+        }
+        else {
+            try {
+                tree = rebase(request, tip);
+            }
+            catch (RefUpdateRejectedException e) {
+                conflicts.incrementAndGet();
+                throw e;
+            }
+            rebased.incrementAndGet();
+        }
+        return CommitUtils.createCommit(request.message, tree, request.author, request.committer,
+                Collections.singletonList(tip), database.getRepository());
+    }
+
+    private ObjectId rebase(Request request, RevCommit tip) throws IOException {
+        if (!request.rebaseable) {
+            throw new RefUpdateRejectedException("Rewritten indexes can't be rebased on " + tip.getName());
+        }
+        Repository repo = database.getRepository();
+        Map<String, ObjectId> changes = diff(repo, request.baseTree, request.tree);
+        Set<String> concurrent = diff(repo, request.base.getTree(), tip.getTree()).keySet();
+        try (Transaction merged = new Transaction(database, tip)) {
+            GitFileSystem gfs = merged.getFileSystem();
+            for (Map.Entry<String, ObjectId> change: changes.entrySet()) {
+                String path = change.getKey();
+                if (isIndexPath(path)) {
+                    continue;
+                }
+                if (concurrent.contains(path)) {
+                    throw new RefUpdateRejectedException("Concurrent change of " + path);
+                }
+                GitPath gitPath = gfs.getPath("/", path);
+                if (change.getValue() == null) {
+                    Files.deleteIfExists(gitPath);
+                }
+                else {
+                    Files.createDirectories(gitPath.getParent());
+                    Files.write(gitPath, repo.open(change.getValue()).getBytes());
+                }
+            }
+            IndexStore indexStore = database.getIndexStore();
+            for (IndexUpdate update: request.indexUpdates) {
+                try {
+                    indexStore.update(merged, update.indexName, update.deleted, update.inserted);
+                }
+                catch (IOException e) {
+                    throw new RefUpdateRejectedException(e.getMessage());
+                }
+            }
+            checkReferences(merged, changes, request.indexUpdates);
+            return gfs.flush();
+        }
+    }
+
+    /**
+     * Deleted entities must not be referenced and inserted references must point to existing entities
+     */
+    private void checkReferences(Transaction merged, Map<String, ObjectId> changes, List<IndexUpdate> indexUpdates) throws IOException {
+        IndexStore indexStore = database.getIndexStore();
+        String idsPrefix = IDS_PATH + "/";
+        for (Map.Entry<String, ObjectId> change: changes.entrySet()) {
+            String path = change.getKey();
+            if (change.getValue() == null && path.startsWith(idsPrefix)) {
+                String[] id = path.substring(idsPrefix.length()).split("/");
+                if (id.length == 2 && !indexStore.find(merged, REF_IDX, id).isEmpty()) {
+                    throw new RefUpdateRejectedException("Deleted object " + id[0] + id[1] + " is referenced");
+                }
+            }
+        }
+        for (IndexUpdate update: indexUpdates) {
+            if (!REF_IDX.equals(update.indexName)) {
+                continue;
+            }
+            for (IndexEntry entry: update.inserted) {
+                String[] path = entry.getPath();
+                if (!Files.exists(merged.getFileSystem().getPath("/", IDS_PATH, path[0], path[1]))) {
+                    throw new RefUpdateRejectedException("Referenced object " + path[0] + path[1] + " is deleted");
+                }
+            }
+        }
+    }
+
+    private boolean isIndexPath(String path) {
+        if (!path.startsWith(IDX_PATH + "/")) {
+            return false;
+        }
+        String rest = path.substring(IDX_PATH.length() + 1);
+        int slash = rest.indexOf('/');
+        return slash > 0 && database.getIndexes().containsKey(rest.substring(0, slash));
+    }
+
+    /**
+     * Files changed between the trees, mapped to the new blob or to null for a deleted file
+     */
+    private static Map<String, ObjectId> diff(Repository repo, AnyObjectId from, AnyObjectId to) throws IOException {
+        Map<String, ObjectId> changes = new HashMap<>();
+        if (from.equals(to)) {
+            return changes;
+        }
+        try (TreeWalk treeWalk = new TreeWalk(repo)) {
+            treeWalk.addTree(from);
+            treeWalk.addTree(to);
+            treeWalk.setRecursive(true);
+            treeWalk.setFilter(TreeFilter.ANY_DIFF);
+            while (treeWalk.next()) {
+                changes.put(treeWalk.getPathString(), treeWalk.getFileMode(1) == FileMode.MISSING ? null : treeWalk.getObjectId(1));
+            }
+        }
+        return changes;
+    }
+
+    public int getMaxBatch() {
+        return maxBatch;
+    }
+
+    public void setMaxBatch(int maxBatch) {
+        this.maxBatch = maxBatch;
+    }
+
+    /**
+     * Counters: committed transactions, ref updates, rebased transactions and conflicts
+     */
+    public Map<String, Long> getMetrics() {
+        Map<String, Long> metrics = new LinkedHashMap<>();
+        metrics.put("commits", commits.get());
+        metrics.put("batches", batches.get());
+        metrics.put("rebased", rebased.get());
+        metrics.put("conflicts", conflicts.get());
+        return metrics;
+    }
+}
@@ -0,0 +1,411 @@
+package ru.neoflex.meta.emfgit;
+
+import org.eclipse.emf.ecore.resource.Resource;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.FileMode;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.revwalk.RevCommit;
+import org.eclipse.jgit.revwalk.RevWalk;
+import org.eclipse.jgit.treewalk.TreeWalk;
+import org.eclipse.jgit.treewalk.filter.AndTreeFilter;
+import org.eclipse.jgit.treewalk.filter.PathFilter;
+import org.eclipse.jgit.treewalk.filter.TreeFilter;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Lock;
+import java.util.stream.Collectors;
+
+import static ru.neoflex.meta.emfgit.Database.IDS_PATH;
+import static ru.neoflex.meta.emfgit.Database.IDX_PATH;
+
+/**
+ * Rebuilds the indexes of a branch with entities parsed by parallel workers.
+ * The entities of the last commit of the branch are indexed in batches, each batch is a separate commit that stages
+ * the deleted and the inserted entries beside the indexes (db/idx/.reindex-del-*, db/idx/.reindex-ins-*) and records
+ * the progress in db/idx/.reindex, so an interrupted run resumes after the last committed batch.
+ * The indexes themselves are changed only by the last batch: all the staged deletes are applied before
+ * the staged inserts, so an entry moved from one entity to another is kept whatever batches they are in,
+ * and an interrupted run leaves the indexes as they were.
+ * If a previous run has completed, only the entities with other blob ids than at its commit are reindexed,
+ * otherwise all the indexes are rebuilt from the staged entries. Entities changed by concurrent transactions after
+ * the indexed commit are reindexed by the last batch from the state it commits on.
+ * A secondary index that is not built yet makes the run full.
+ * Runs of the same branch are serialized by the exclusive lock of its index partition,
+ * the batches are committed by WRITE transactions, so other writers of the branch are not blocked.
+ * Unlike {@link Database#reindex(Transaction)} the uncommitted changes of a transaction are not seen.
+ */
+public class Reindexer {
+    private static final Logger logger = LoggerFactory.getLogger(Reindexer.class);
+    public static final String STATE_PATH = IDX_PATH + "/.reindex";
+    public static final String COMMIT = "commit";
+    public static final String BASE = "base";
+    public static final String TARGET = "target";
+    public static final String DONE = "done";
+    public static final String DELETED_PREFIX = ".reindex-del-";
+    public static final String INSERTED_PREFIX = ".reindex-ins-";
+    public static final int DEFAULT_THREADS = 4;
+    public static final int DEFAULT_BATCH_SIZE = 5000;
+    private final Database database;
+    private final String branch;
+    private int threads = DEFAULT_THREADS;
+    private int batchSize = DEFAULT_BATCH_SIZE;
+    private boolean full = false;
+    private final AtomicLong total = new AtomicLong();
+    private final AtomicLong processed = new AtomicLong();
+
+    public Reindexer(Database database, String branch) {
+        this.database = database;
+        this.branch = branch;
+    }
+
+    private static class Change {
+        final String id;
+        final ObjectId oldRev;
+        final ObjectId newRev;
+        Map<String, List<IndexEntry>> oldEntries = Collections.emptyMap();
+        Map<String, List<IndexEntry>> newEntries = Collections.emptyMap();
+
+        Change(String id, ObjectId oldRev, ObjectId newRev) {
+            this.id = id;
+            this.oldRev = oldRev;
+            this.newRev = newRev;
+        }
+    }
+
+    /**
+     * @return number of the reindexed entities
+     */
+    public long run() throws Exception {
+        Lock lock = database.getLocks().lock(BranchLocks.getKey(branch, IDX_PATH), true);
+        try {
+            return doRun();
+        }
+        finally {
+            lock.unlock();
+        }
+    }
+
+    private long doRun() throws Exception {
+        total.set(0);
+        processed.set(0);
+        Properties state = readState();
+        ObjectId target;
+        if (state.getProperty(TARGET) != null) {
+            target = ObjectId.fromString(state.getProperty(TARGET));
+            ObjectId base = state.getProperty(BASE) != null ? ObjectId.fromString(state.getProperty(BASE)) : null;
+            logger.info(String.format("%s: resuming reindex to %s after %s", branch, target.getName(), state.getProperty(DONE)));
+            reindex(base, target, state.getProperty(DONE));
+        }
+        else {
+            target = getHead();
+            ObjectId base = !full && state.getProperty(COMMIT) != null && isBuilt() ?
+                    ObjectId.fromString(state.getProperty(COMMIT)) : null;
+            if (target.equals(base)) {
+                logger.info(String.format("%s: indexes are up to date", branch));
+                return 0;
+            }
+            reindex(base, target, null);
+        }
+        return processed.get();
+    }
+
+    private void reindex(ObjectId base, ObjectId target, String done) throws Exception {
+        List<Change> changes = getChanges(base, target, done);
+        if (changes.isEmpty() && base != null && done == null) {
+            return;
+        }
+        total.addAndGet(changes.size());
+        logger.info(String.format("%s: reindex of %d entities %s", branch, changes.size(),
+                base == null ? "from scratch" : "changed since " + base.getName()));
+        AtomicInteger threadNumber = new AtomicInteger();
+        ExecutorService executor = Executors.newFixedThreadPool(threads, runnable -> {
+            Thread thread = new Thread(runnable, "reindex-" + branch + "-" + threadNumber.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        try {
+            int from = 0;
+            do {
+                int to = Math.min(from + batchSize, changes.size());
+                List<Change> batch = changes.subList(from, to);
+                readEntries(executor, batch, base, target);
+                int caughtUp = commitBatch(executor, batch, base, target, to == changes.size());
+                for (Change change: batch) {
+                    // the entries of the committed batch are not needed anymore
+                    change.oldEntries = Collections.emptyMap();
+                    change.newEntries = Collections.emptyMap();
+                }
+                total.addAndGet(caughtUp);
+                processed.addAndGet(batch.size() + caughtUp);
+                logger.info(String.format("%s: reindexed %d of %d", branch, processed.get(), total.get()));
+                from = to;
+            } while (from < changes.size());
+        }
+        finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private List<Change> getChanges(ObjectId base, ObjectId target, String done) throws IOException {
+        List<Change> changes = new ArrayList<>();
+        Repository repository = database.getRepository();
+        try (RevWalk revWalk = new RevWalk(repository); TreeWalk treeWalk = new TreeWalk(repository)) {
+            if (base != null) {
+                treeWalk.addTree(revWalk.parseCommit(base).getTree());
+            }
+            treeWalk.addTree(revWalk.parseCommit(target).getTree());
+            treeWalk.setRecursive(true);
+            treeWalk.setFilter(base == null ? PathFilter.create(IDS_PATH) :
+                    AndTreeFilter.create(PathFilter.create(IDS_PATH), TreeFilter.ANY_DIFF));
+            int last = treeWalk.getTreeCount() - 1;
+            while (treeWalk.next()) {
+                String id = treeWalk.getPathString().substring(IDS_PATH.length() + 1).replace("/", "");
+                if (done != null && id.compareTo(done) <= 0) {
+                    continue;
+                }
+                ObjectId oldRev = base == null || treeWalk.getFileMode(0) == FileMode.MISSING ? null : treeWalk.getObjectId(0);
+                ObjectId newRev = treeWalk.getFileMode(last) == FileMode.MISSING ? null : treeWalk.getObjectId(last);
+                changes.add(new Change(id, oldRev, newRev));
+            }
+        }
+        changes.sort(Comparator.comparing(change -> change.id));
+        return changes;
+    }
+
+    /**
+     * Parses the old and the new versions of the changed entities, every worker reads its part of the batch
+     * through its own read only transactions over the base and the target commits
+     */
+    private void readEntries(ExecutorService executor, List<Change> batch, ObjectId base, ObjectId target) throws Exception {
+        int sliceSize = (batch.size() + threads - 1) / threads;
+        List<Future<?>> futures = new ArrayList<>();
+        for (int from = 0; from < batch.size(); from += sliceSize) {
+            List<Change> slice = batch.subList(from, Math.min(from + sliceSize, batch.size()));
+            futures.add(executor.submit(() -> {
+                try (Transaction baseTx = base == null ? null : new Transaction(database, base);
+                     Transaction targetTx = new Transaction(database, target)) {
+                    for (Change change: slice) {
+                        if (change.oldRev != null) {
+                            change.oldEntries = getEntries(baseTx, change.id);
+                        }
+                        if (change.newRev != null) {
+                            change.newEntries = getEntries(targetTx, change.id);
+                        }
+                    }
+                }
+                return null;
+            }));
+        }
+        for (Future<?> future: futures) {
+            future.get();
+        }
+    }
+
+    private Map<String, List<IndexEntry>> getEntries(Transaction tx, String id) throws IOException {
+        Entity entity = tx.load(new EntityId(id, null));
+        Resource resource = database.entityToResource(tx, entity);
+        Map<String, List<IndexEntry>> entries = new HashMap<>();
+        for (Index index: database.getIndexes().values()) {
+            entries.put(index.getName(), index.getEntries(resource, tx));
+        }
+        return entries;
+    }
+
+    /**
+     * @return number of the entities changed after the target commit and reindexed by the last batch
+     */
+    private int commitBatch(ExecutorService executor, List<Change> batch, ObjectId base, ObjectId target, boolean last) throws Exception {
+        return database.inTransaction(branch, Transaction.LockType.WRITE, tx -> {
+            IndexStore indexStore = database.getIndexStore();
+            Map<String, List<String[]>> deleted = new HashMap<>();
+            Map<String, List<IndexEntry>> inserted = new HashMap<>();
+            for (String indexName: database.getIndexes().keySet()) {
+                deleted.put(indexName, new ArrayList<>());
+                inserted.put(indexName, new ArrayList<>());
+            }
+            for (Change change: batch) {
+                addPaths(deleted, change.oldEntries);
+                addEntries(inserted, change.newEntries);
+            }
+            for (String indexName: database.getIndexes().keySet()) {
+                indexStore.merge(tx, DELETED_PREFIX + indexName, Collections.emptyList(), deleted.get(indexName).stream()
+                        .map(Reindexer::toStagedPath).collect(Collectors.toList()));
+                indexStore.merge(tx, INSERTED_PREFIX + indexName, Collections.emptyList(), inserted.get(indexName));
+            }
+            Properties state = new Properties();
+            int caughtUp = 0;
+            if (last) {
+                RevCommit current = tx.getFileSystem().getStatusProvider().commit();
+                caughtUp = applyStaged(tx, executor, base == null, target, current);
+                state.setProperty(COMMIT, current.getName());
+            }
+            else {
+                if (base != null) {
+                    state.setProperty(BASE, base.getName());
+                }
+                state.setProperty(TARGET, target.getName());
+                state.setProperty(DONE, batch.get(batch.size() - 1).id);
+            }
+            writeState(tx, state);
+            tx.commit(last ? "Reindex to " + target.getName() : "Reindex to " + target.getName() + " up to " + state.getProperty(DONE));
+            return caughtUp;
+        });
+    }
+
+    /**
+     * Replaces the indexes with the staged entries of a full run or applies the staged deletes and then the staged
+     * inserts, the entities changed after the target commit are reindexed from the current commit the same way.
+     * The indexes are complete after this and are marked as built.
+     */
+    private int applyStaged(Transaction tx, ExecutorService executor, boolean full, ObjectId target, RevCommit current) throws Exception {
+        IndexStore indexStore = database.getIndexStore();
+        List<Change> changes = target.equals(current) ? Collections.emptyList() : getChanges(target, current, null);
+        if (!changes.isEmpty()) {
+            logger.info(String.format("%s: reindex of %d entities changed since %s", branch, changes.size(), target.getName()));
+            readEntries(executor, changes, target, current);
+        }
+        Map<String, List<String[]>> deleted = new HashMap<>();
+        Map<String, List<IndexEntry>> inserted = new HashMap<>();
+        for (String indexName: database.getIndexes().keySet()) {
+            deleted.put(indexName, new ArrayList<>());
+            inserted.put(indexName, new ArrayList<>());
+        }
+        for (Change change: changes) {
+            addPaths(deleted, change.oldEntries);
+            addEntries(inserted, change.newEntries);
+        }
+        for (String indexName: database.getIndexes().keySet()) {
+            List<IndexEntry> staged = indexStore.find(tx, INSERTED_PREFIX + indexName);
+            if (full) {
+                indexStore.rebuild(tx, indexName, staged);
+            }
+            else {
+                List<String[]> stagedDeleted = indexStore.find(tx, DELETED_PREFIX + indexName).stream()
+                        .map(IndexEntry::getPath).collect(Collectors.toList());
+                indexStore.merge(tx, indexName, stagedDeleted, staged);
+            }
+            indexStore.merge(tx, indexName, deleted.get(indexName), inserted.get(indexName));
+            indexStore.markBuilt(tx, indexName);
+            deleteStaged(tx, DELETED_PREFIX + indexName);
+            deleteStaged(tx, INSERTED_PREFIX + indexName);
+        }
+        return changes.size();
+    }
+
+    private void deleteStaged(Transaction tx, String name) throws IOException {
+        Path path = tx.getFileSystem().getPath("/", IDX_PATH, name);
+        if (Files.exists(path)) {
+            database.deleteRecursive(path);
+        }
+    }
+
+    private static IndexEntry toStagedPath(String[] path) {
+        IndexEntry entry = new IndexEntry();
+        entry.setPath(path);
+        entry.setContent(new byte[0]);
+        return entry;
+    }
+
+    private static void addPaths(Map<String, List<String[]>> paths, Map<String, List<IndexEntry>> entries) {
+        for (Map.Entry<String, List<IndexEntry>> entry: entries.entrySet()) {
+            List<String[]> indexPaths = paths.get(entry.getKey());
+            if (indexPaths != null) {
+                for (IndexEntry indexEntry: entry.getValue()) {
+                    indexPaths.add(indexEntry.getPath());
+                }
+            }
+        }
+    }
+
+    private static void addEntries(Map<String, List<IndexEntry>> entries, Map<String, List<IndexEntry>> added) {
+        for (Map.Entry<String, List<IndexEntry>> entry: added.entrySet()) {
+            List<IndexEntry> indexEntries = entries.get(entry.getKey());
+            if (indexEntries != null) {
+                indexEntries.addAll(entry.getValue());
+            }
+        }
+    }
+
+    private ObjectId getHead() throws IOException {
+        ObjectId head = database.getRepository().resolve(Constants.R_HEADS + branch);
+        if (head == null) {
+            throw new IOException("Branch not found: " + branch);
+        }
+        return head;
+    }
+
+    public Properties readState() throws Exception {
+        return database.inTransaction(branch, Transaction.LockType.READ, tx -> {
+            Properties state = new Properties();
+            Path path = tx.getFileSystem().getPath("/", STATE_PATH);
+            if (Files.isRegularFile(path)) {
+                state.load(new ByteArrayInputStream(Files.readAllBytes(path)));
+            }
+            return state;
+        });
+    }
+
+    private boolean isBuilt() throws Exception {
+        return database.inTransaction(branch, Transaction.LockType.READ, tx -> {
+            for (Index index: database.getIndexes().values()) {
+                if (index instanceof SecondaryIndex && !database.getIndexStore().isBuilt(tx, index.getName())) {
+                    return false;
+                }
+            }
+            return true;
+        });
+    }
+
+    private static void writeState(Transaction tx, Properties state) throws IOException {
+        Path path = tx.getFileSystem().getPath("/", STATE_PATH);
+        ByteArrayOutputStream os = new ByteArrayOutputStream();
+        state.store(os, null);
+        Files.createDirectories(path.getParent());
+        Files.write(path, os.toByteArray());
+    }
+
+    public long getTotal() {
+        return total.get();
+    }
+
+    public long getProcessed() {
+        return processed.get();
+    }
+
+    public int getThreads() {
+        return threads;
+    }
+
+    public void setThreads(int threads) {
+        this.threads = Math.max(1, threads);
+    }
+
+    public int getBatchSize() {
+        return batchSize;
+    }
+
+    public void setBatchSize(int batchSize) {
+        this.batchSize = Math.max(1, batchSize);
+    }
+
+    public boolean isFull() {
+        return full;
+    }
+
+    public void setFull(boolean full) {
+        this.full = full;
+    }
+}
@@ -0,0 +1,55 @@
+package ru.neoflex.meta.emfgit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.concurrent.Callable;
+import java.util.function.Function;
+
+/**
+ * Repeats a transaction which failed because of a conflict with a concurrent transaction.
+ * The default strategy retries up to 100 times with exponential backoff capped at 1 second,
+ * an application may install a shared strategy to get adaptive backoff and conflict accounting.
+ */
+public interface RetryStrategy {
+    /**
+     * Calls the function and repeats the call while it fails with a retryable exception.
+     * @param name kind of the transaction, used for accounting
+     * @param conflictKey returns the key of the conflicting object for a retryable exception and null for any other exception
+     */
+    <R> R call(String name, Callable<R> f, Function<Exception, String> conflictKey) throws Exception;
+
+    RetryStrategy DEFAULT = new RetryStrategy() {
+        private final Logger logger = LoggerFactory.getLogger(RetryStrategy.class);
+
+        @Override
+        public <R> R call(String name, Callable<R> f, Function<Exception, String> conflictKey) throws Exception {
+            int delay = 1;
+            int maxDelay = 1000;
+            int maxAttempts = 100;
+            int attempt = 1;
+            while (true) {
+                try {
+                    return f.call();
+                }
+                catch (Exception e) {
+                    String key = conflictKey.apply(e);
+                    if (key == null) {
+                        throw e;
+                    }
+                    logger.debug(e.getClass().getSimpleName() + ": " + key + " attempt no " + attempt);
+                    if (++attempt > maxAttempts) {
+                        throw e;
+                    }
+                    try {
+                        Thread.sleep(delay);
+                    } catch (InterruptedException ex) {
+                    }
+                    if (delay < maxDelay) {
+                        delay *= 2;
+                    }
+                }
+            }
+        }
+    };
+}
@@ -0,0 +1,334 @@
+package ru.neoflex.meta.emfgit;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import org.eclipse.emf.ecore.EClass;
+import org.eclipse.emf.ecore.EObject;
+import org.eclipse.emf.ecore.EReference;
+import org.eclipse.emf.ecore.EStructuralFeature;
+import org.eclipse.emf.ecore.util.EcoreUtil;
+import org.eclipse.emf.ecore.util.InternalEList;
+
+import java.math.BigDecimal;
+import java.util.*;
+import java.util.regex.Pattern;
+
+/**
+ * Selector of {@link Finder} compiled into a tree of predicates. Regular expressions, $in sets and the operands
+ * of comparisons are prepared once per query instead of once per matched document.
+ * Objects shared by the content cache are matched without resolving proxies, a predicate reaching a proxy
+ * throws {@link Unresolved}, so the caller matches a resolved copy of the document instead.
+ */
+public class Selector {
+    private static final Predicate FALSE = (object, resolve) -> false;
+    private final JsonNode id;
+    private final JsonNode rev;
+    private final Predicate contents;
+
+    interface Predicate {
+        boolean test(Object object, boolean resolve);
+    }
+
+    /**
+     * Thrown when a predicate needs the target of a proxy of an object matched without resolving
+     */
+    public static class Unresolved extends RuntimeException {
+        private static final Unresolved INSTANCE = new Unresolved();
+
+        private Unresolved() {
+            super("Unresolved proxy", null, false, false);
+        }
+    }
+
+    private Selector(JsonNode id, JsonNode rev, Predicate contents) {
+        this.id = id;
+        this.rev = rev;
+        this.contents = contents;
+    }
+
+    public static Selector compile(JsonNode query) {
+        JsonNode contents = query.get("contents");
+        return new Selector(query.get("id"), query.get("rev"), contents == null ? null : compileNode(contents));
+    }
+
+    /**
+     * Checks the entity id before the contents is loaded
+     */
+    public boolean matchesId(String entityId) {
+        return id == null || Objects.equals(id.textValue(), entityId);
+    }
+
+    /**
+     * @param resolve false for shared objects, which proxies must not be resolved
+     * @throws Unresolved if the object can't be matched without resolving
+     */
+    public boolean matches(EntityId entityId, EObject object, boolean resolve) {
+        if (!matchesId(entityId.getId()) || (rev != null && !Objects.equals(rev.textValue(), entityId.getRev()))) {
+            return false;
+        }
+        return contents == null || contents.test(object, resolve);
+    }
+
+    private static Predicate compileNode(JsonNode query) {
+        if (query.isObject()) {
+            Predicate fields = compileFields(query);
+            return (object, resolve) -> object != null && fields.test(object, resolve);
+        }
+        boolean isNull = query.isNull();
+        String text = query.asText();
+        return (object, resolve) -> {
+            if (object == null) {
+                return isNull;
+            }
+            return !(object instanceof EObject) && !(object instanceof List) && object.toString().equals(text);
+        };
+    }
+
+    private static Predicate compileFields(JsonNode query) {
+        List<Predicate> predicates = new ArrayList<>();
+        for (Iterator<Map.Entry<String, JsonNode>> it = query.fields(); it.hasNext();) {
+            Map.Entry<String, JsonNode> field = it.next();
+            String fieldName = field.getKey();
+            JsonNode queryNode = field.getValue();
+            if (fieldName.startsWith("$")) {
+                predicates.add(compileOp(fieldName, queryNode));
+            }
+            else if (fieldName.equals("eClass")) {
+                String classURI = queryNode.asText();
+                predicates.add((object, resolve) -> object instanceof EObject &&
+                        EcoreUtil.getURI(((EObject) object).eClass()).toString().equals(classURI));
+            }
+            else {
+                String name = unescape(fieldName);
+                Predicate predicate = compileNode(queryNode);
+                predicates.add((object, resolve) -> predicate.test(getField(object, name, resolve), resolve));
+            }
+        }
+        return all(predicates);
+    }
+
+    private static Predicate compileOp(String op, JsonNode query) {
+        switch (op) {
+            case "$and":
+                return query.isArray() ? all(compileNodes(query)) : FALSE;
+            case "$or":
+                return query.isArray() ? any(compileNodes(query)) : FALSE;
+            case "$nor": {
+                if (!query.isArray()) {
+                    return FALSE;
+                }
+                Predicate predicate = any(compileNodes(query));
+                return (object, resolve) -> !predicate.test(object, resolve);
+            }
+            case "$not": {
+                Predicate predicate = compileNode(query);
+                return (object, resolve) -> !predicate.test(object, resolve);
+            }
+            case "$all":
+                return (object, resolve) -> matchAll(object, query);
+            case "$elemMatch": {
+                Predicate predicate = compileNode(query);
+                return (object, resolve) -> {
+                    if (!(object instanceof List)) {
+                        return false;
+                    }
+                    for (Object element: (List) object) {
+                        if (predicate.test(element, resolve)) {
+                            return true;
+                        }
+                    }
+                    return false;
+                };
+            }
+            case "$allMatch": {
+                Predicate predicate = compileNode(query);
+                return (object, resolve) -> {
+                    if (!(object instanceof List)) {
+                        return false;
+                    }
+                    for (Object element: (List) object) {
+                        if (!predicate.test(element, resolve)) {
+                            return false;
+                        }
+                    }
+                    return true;
+                };
+            }
+            case "$lt": {
+                Object value = getOperand(query);
+                return (object, resolve) -> compare(object, value) < 0;
+            }
+            case "$gt": {
+                Object value = getOperand(query);
+                return (object, resolve) -> compare(object, value) > 0;
+            }
+            case "$lte": {
+                Object value = getOperand(query);
+                return (object, resolve) -> compare(object, value) <= 0;
+            }
+            case "$gte": {
+                Object value = getOperand(query);
+                return (object, resolve) -> compare(object, value) >= 0;
+            }
+            case "$eq": {
+                String text = query.asText();
+                return (object, resolve) -> object.toString().equals(text);
+            }
+            case "$ne":
+                return (object, resolve) -> !object.equals(query);
+            case "$exists": {
+                boolean exists = query.asBoolean();
+                return (object, resolve) -> exists == (object != null);
+            }
+            case "$size": {
+                int size = query.asInt();
+                return (object, resolve) -> object instanceof List && ((List) object).size() == size;
+            }
+            case "$type": {
+                String type = query.asText();
+                return (object, resolve) -> type.equals(object.getClass().getSimpleName());
+            }
+            case "$in": {
+                Set<String> texts = getTexts(query);
+                return (object, resolve) -> texts != null && texts.contains(object.toString());
+            }
+            case "$nin": {
+                Set<String> texts = getTexts(query);
+                return (object, resolve) -> texts == null || !texts.contains(object.toString());
+            }
+            case "$regex": {
+                Pattern pattern = Pattern.compile(query.asText());
+                return (object, resolve) -> pattern.matcher(object.toString()).matches();
+            }
+            default:
+                return FALSE;
+        }
+    }
+
+    private static List<Predicate> compileNodes(JsonNode query) {
+        List<Predicate> predicates = new ArrayList<>();
+        for (JsonNode node: query) {
+            predicates.add(compileNode(node));
+        }
+        return predicates;
+    }
+
+    private static Predicate all(List<Predicate> predicates) {
+        Predicate[] array = predicates.toArray(new Predicate[0]);
+        return (object, resolve) -> {
+            for (Predicate predicate: array) {
+                if (!predicate.test(object, resolve)) {
+                    return false;
+                }
+            }
+            return true;
+        };
+    }
+
+    private static Predicate any(List<Predicate> predicates) {
+        Predicate[] array = predicates.toArray(new Predicate[0]);
+        return (object, resolve) -> {
+            for (Predicate predicate: array) {
+                if (predicate.test(object, resolve)) {
+                    return true;
+                }
+            }
+            return false;
+        };
+    }
+
+    private static boolean matchAll(Object object, JsonNode query) {
+        if (!(object instanceof List) || !query.isArray()) {
+            return false;
+        }
+        for (JsonNode queryNode: query) {
+            if (!((List) object).contains(queryNode)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static Set<String> getTexts(JsonNode query) {
+        if (!query.isArray()) {
+            return null;
+        }
+        Set<String> texts = new HashSet<>();
+        for (JsonNode node: query) {
+            texts.add(node.asText());
+        }
+        return texts;
+    }
+
+    /**
+     * Typed operand of a comparison: BigDecimal, String or Boolean
+     */
+    private static Object getOperand(JsonNode query) {
+        if (query.isNumber()) {
+            return query.decimalValue();
+        }
+        if (query.isTextual()) {
+            return query.asText();
+        }
+        if (query.isBoolean()) {
+            return query.asBoolean();
+        }
+        return query;
+    }
+
+    static int compare(Object object, Object value) {
+        if (object instanceof Number && value instanceof BigDecimal) {
+            return toDecimal((Number) object).compareTo((BigDecimal) value);
+        }
+        if (object instanceof String && value instanceof String) {
+            return ((String) object).compareTo((String) value);
+        }
+        if (object instanceof Boolean && value instanceof Boolean) {
+            return ((Boolean) object).compareTo((Boolean) value);
+        }
+        throw new IllegalArgumentException("Can't compare values: " + object + ", " + value);
+    }
+
+    private static BigDecimal toDecimal(Number number) {
+        if (number instanceof BigDecimal) {
+            return (BigDecimal) number;
+        }
+        if (number instanceof Integer || number instanceof Long || number instanceof Short || number instanceof Byte) {
+            return BigDecimal.valueOf(number.longValue());
+        }
+        return new BigDecimal(number.toString());
+    }
+
+    private static Object getField(Object object, String name, boolean resolve) {
+        if (!(object instanceof EObject)) {
+            return null;
+        }
+        EObject eObject = (EObject) object;
+        EClass eClass = eObject.eClass();
+        EStructuralFeature sf = eClass.getEStructuralFeature(name);
+        if (sf == null) {
+            return null;
+        }
+        if (resolve) {
+            return eObject.eGet(sf);
+        }
+        Object value = eObject.eGet(sf, false);
+        if (sf instanceof EReference && !((EReference) sf).isContainment()) {
+            if (value instanceof InternalEList) {
+                value = ((InternalEList<?>) value).basicList();
+                for (Object element: (List<?>) value) {
+                    if (((EObject) element).eIsProxy()) {
+                        throw Unresolved.INSTANCE;
+                    }
+                }
+            }
+            else if (value instanceof EObject && ((EObject) value).eIsProxy()) {
+                throw Unresolved.INSTANCE;
+            }
+        }
+        return value;
+    }
+
+    private static String unescape(String fieldName) {
+        return fieldName.replaceAll("^[\\\\]\\$", "\\$");
+    }
+}
@@ -0,0 +1,56 @@
+package com.beijunyi.parallelgit.filesystem;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.eclipse.jgit.internal.storage.dfs.DfsRepositoryDescription;
+import org.eclipse.jgit.internal.storage.dfs.InMemoryRepository;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.ObjectInserter;
+import org.junit.Assert;
+import org.junit.Test;
+
+import static org.eclipse.jgit.lib.Constants.OBJ_BLOB;
+
+public class GfsObjectServiceTests {
+
+  @Test
+  public void readBlobTest() throws Exception {
+    InMemoryRepository repo = new InMemoryRepository(new DfsRepositoryDescription("blobs"));
+    byte[] small = "small".getBytes(StandardCharsets.UTF_8);
+    byte[] large = new byte[1024];
+    Arrays.fill(large, (byte) 'x');
+    ObjectId smallId;
+    ObjectId largeId;
+    try(ObjectInserter inserter = repo.newObjectInserter()) {
+      smallId = inserter.insert(OBJ_BLOB, small);
+      largeId = inserter.insert(OBJ_BLOB, large);
+      inserter.flush();
+    }
+    GfsObjectCache cache = new GfsObjectCache(1024 * 1024, 16);
+    ExecutorService executor = Executors.newFixedThreadPool(4 * GfsObjectService.MAX_IDLE_READERS);
+    try(GfsObjectService objService = new GfsObjectService(repo, cache)) {
+      List<Future<?>> futures = new ArrayList<>();
+      for(int i = 0; i < 1000; i++) {
+        futures.add(executor.submit(() -> {
+          Assert.assertArrayEquals(large, objService.readBlob(largeId).getData());
+          Assert.assertArrayEquals(small, objService.readBlob(smallId).getData());
+          return null;
+        }));
+      }
+      for(Future<?> future : futures)
+        future.get();
+      // large blobs are read by pooled readers and never cached
+      Assert.assertNull(cache.getBlob(largeId));
+      Assert.assertNotNull(cache.getBlob(smallId));
+      Assert.assertTrue(objService.getReaderCount() <= GfsObjectService.MAX_IDLE_READERS);
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+}
@@ -1,5 +1,6 @@
 package ru.neoflex.meta.emfgit;
 
+import com.beijunyi.parallelgit.utils.exceptions.RefUpdateRejectedException;
 import org.eclipse.emf.ecore.resource.Resource;
 import org.eclipse.emf.ecore.resource.ResourceSet;
 import org.eclipse.jgit.api.errors.GitAPIException;
@@ -8,6 +9,7 @@ import org.junit.Before;
 import org.junit.Test;
 import ru.neoflex.meta.test.Group;
 import ru.neoflex.meta.test.TestFactory;
+import ru.neoflex.meta.test.TestPackage;
 import ru.neoflex.meta.test.User;
 
 import java.io.IOException;
@@ -15,7 +17,19 @@ import java.net.URI;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 import static ru.neoflex.meta.emfgit.Database.TYPE_NAME_IDX;
 import static ru.neoflex.meta.emfgit.Database.IDX_PATH;
@@ -119,6 +133,383 @@ public class DatabaseTests extends TestBase {
         }
     }
 
+    @Test
+    public void contentCacheTest() throws IOException {
+        String userId;
+        try (Transaction tx = database.createTransaction("users")) {
+            ResourceSet resourceSet = database.createResourceSet(tx);
+            Group group = TestFactory.eINSTANCE.createGroup();
+            group.setName("cached");
+            Resource groupResource = resourceSet.createResource(database.createURI(null, null));
+            groupResource.getContents().add(group);
+            groupResource.save(null);
+            User user = TestFactory.eINSTANCE.createUser();
+            user.setName("Cached");
+            user.setGroup(group);
+            Resource userResource = resourceSet.createResource(database.createURI(null, null));
+            userResource.getContents().add(user);
+            userResource.save(null);
+            tx.commit("User Cached created");
+            userId = database.getResourceId(userResource);
+        }
+        database.getContentCache().clear();
+        User first;
+        try (Transaction tx = database.createTransaction("users")) {
+            first = (User) database.loadResource(userId, tx).getContents().get(0);
+            Assert.assertEquals("cached", first.getGroup().getName());
+        }
+        long hits = database.getContentCache().getHits();
+        try (Transaction tx = database.createTransaction("users")) {
+            User second = (User) database.loadResource(userId, tx).getContents().get(0);
+            Assert.assertEquals(hits + 1, database.getContentCache().getHits());
+            Assert.assertNotSame(first, second);
+            Assert.assertNotSame(first.getGroup(), second.getGroup());
+            Assert.assertEquals("cached", second.getGroup().getName());
+            second.setName("Modified");
+            second.eResource().save(null);
+            tx.commit("User Cached modified");
+        }
+        Assert.assertEquals("Cached", first.getName());
+        try (Transaction tx = database.createTransaction("users")) {
+            User third = (User) database.loadResource(userId, tx).getContents().get(0);
+            Assert.assertEquals("Modified", third.getName());
+        }
+    }
+
+    @Test
+    public void indexSegmentsTest() throws IOException {
+        database.getIndexStore().setMaxDeltaEntries(2);
+        database.getIndexStore().setMaxSegments(2);
+        Group group = TestFactory.eINSTANCE.createGroup();
+        try (Transaction tx = database.createTransaction("users")) {
+            Path legacyPath = tx.getFileSystem().getPath("/", IDX_PATH, TYPE_NAME_IDX, "legacy", "Group", "old");
+            Files.createDirectories(legacyPath.getParent());
+            Files.write(legacyPath, "oldId".getBytes());
+            tx.commit("Legacy index entry");
+        }
+        try (Transaction tx = database.createTransaction("users")) {
+            Assert.assertEquals(1, database.findByIndex(tx, TYPE_NAME_IDX, "legacy").size());
+            Assert.assertTrue(database.findByIndex(tx, "missing_idx", "legacy").isEmpty());
+            ResourceSet resourceSet = database.createResourceSet(tx);
+            group.setName("group");
+            Resource groupResource = resourceSet.createResource(database.createURI(null, null));
+            groupResource.getContents().add(group);
+            groupResource.save(null);
+            for (int i = 0; i < 20; ++i) {
+                User user = TestFactory.eINSTANCE.createUser();
+                user.setName("user" + i);
+                user.setGroup(group);
+                Resource userResource = resourceSet.createResource(database.createURI(null, null));
+                userResource.getContents().add(user);
+                userResource.save(null);
+            }
+            tx.commit("Users created");
+        }
+        try (Transaction tx = database.createTransaction("users")) {
+            Path path = tx.getFileSystem().getPath("/", IDX_PATH, TYPE_NAME_IDX);
+            Assert.assertFalse(Files.exists(path.resolve("legacy")));
+            Assert.assertEquals(1, database.findByIndex(tx, TYPE_NAME_IDX, "legacy").size());
+            Assert.assertTrue(countFiles(path) <= 3);
+            Assert.assertEquals(20, database.findByEClass(TestPackage.Literals.USER, null, tx).getResources().size());
+            Assert.assertEquals(1, database.findByEClass(TestPackage.Literals.USER, "user1", tx).getResources().size());
+            Assert.assertEquals(20, database.getDependentResources(database.getResourceId(group.eResource()), tx).size());
+            for (Resource resource: new ArrayList<>(database.findByEClass(TestPackage.Literals.USER, null, tx).getResources())) {
+                User user = (User) resource.getContents().get(0);
+                if (user.getName().endsWith("0")) {
+                    resource.delete(null);
+                }
+                else {
+                    user.setName(user.getName() + "_renamed");
+                    resource.save(null);
+                }
+            }
+            tx.commit("Users renamed");
+        }
+        try (Transaction tx = database.createTransaction("users")) {
+            Assert.assertEquals(18, database.findByEClass(TestPackage.Literals.USER, null, tx).getResources().size());
+            Assert.assertEquals(0, database.findByEClass(TestPackage.Literals.USER, "user1", tx).getResources().size());
+            Assert.assertEquals(1, database.findByEClass(TestPackage.Literals.USER, "user1_renamed", tx).getResources().size());
+            Assert.assertEquals(18, database.getDependentResources(database.getResourceId(group.eResource()), tx).size());
+            database.getIndexStore().compact(tx, TYPE_NAME_IDX);
+            Path path = tx.getFileSystem().getPath("/", IDX_PATH, TYPE_NAME_IDX);
+            Assert.assertEquals(1, countFiles(path));
+            Assert.assertEquals(18, database.findByEClass(TestPackage.Literals.USER, null, tx).getResources().size());
+        }
+    }
+
+    private static long countFiles(Path path) throws IOException {
+        try (Stream<Path> stream = Files.list(path)) {
+            return stream.count();
+        }
+    }
+
+    @Test
+    public void reindexerTest() throws Exception {
+        List<String> ids = new ArrayList<>();
+        try (Transaction tx = database.createTransaction("users")) {
+            ResourceSet resourceSet = database.createResourceSet(tx);
+            Group group = TestFactory.eINSTANCE.createGroup();
+            group.setName("group");
+            Resource groupResource = resourceSet.createResource(database.createURI(null, null));
+            groupResource.getContents().add(group);
+            groupResource.save(null);
+            ids.add(database.getResourceId(groupResource));
+            for (int i = 0; i < 4; ++i) {
+                User user = TestFactory.eINSTANCE.createUser();
+                user.setName("user" + i);
+                user.setGroup(group);
+                Resource userResource = resourceSet.createResource(database.createURI(null, null));
+                userResource.getContents().add(user);
+                userResource.save(null);
+                ids.add(database.getResourceId(userResource));
+            }
+            database.deleteRecursive(tx.getFileSystem().getPath("/", IDX_PATH));
+            tx.commit("Users created, indexes dropped");
+        }
+        Reindexer reindexer = new Reindexer(database, "users");
+        reindexer.setThreads(2);
+        reindexer.setBatchSize(2);
+        Assert.assertEquals(5, reindexer.run());
+        try (Transaction tx = database.createTransaction("users")) {
+            Assert.assertTrue(database.getIndexStore().isBuilt(tx, TYPE_NAME_IDX));
+            Assert.assertEquals(4, database.findByEClass(TestPackage.Literals.USER, null, tx).getResources().size());
+            Assert.assertEquals(4, database.getDependentResources(ids.get(0), tx).size());
+            Resource userResource = database.loadResource(ids.get(1), tx);
+            ((User) userResource.getContents().get(0)).setName("renamed");
+            userResource.save(null);
+            tx.commit("User renamed");
+        }
+        Assert.assertEquals(1, reindexer.run());
+        try (Transaction tx = database.createTransaction("users")) {
+            Resource userResource = database.loadResource(ids.get(2), tx);
+            database.getIndexStore().update(tx, TYPE_NAME_IDX,
+                    database.getIndexes().get(TYPE_NAME_IDX).getEntries(userResource, tx).stream()
+                            .map(IndexEntry::getPath).collect(Collectors.toList()), Collections.emptyList());
+            tx.commit("Index entry lost");
+        }
+        try (Transaction tx = database.createTransaction("users")) {
+            Assert.assertEquals(3, database.findByEClass(TestPackage.Literals.USER, null, tx).getResources().size());
+        }
+        reindexer.setFull(true);
+        Assert.assertEquals(5, reindexer.run());
+        try (Transaction tx = database.createTransaction("users")) {
+            Assert.assertEquals(4, database.findByEClass(TestPackage.Literals.USER, null, tx).getResources().size());
+            Assert.assertEquals(1, database.findByEClass(TestPackage.Literals.USER, "renamed", tx).getResources().size());
+            Assert.assertEquals(0, database.findByEClass(TestPackage.Literals.USER, "user0", tx).getResources().size());
+            Resource userResource = database.loadResource(ids.get(3), tx);
+            ((User) userResource.getContents().get(0)).setName("renamed2");
+            userResource.save(null);
+            tx.commit("User renamed again");
+        }
+        reindexer.setFull(false);
+        Assert.assertEquals(1, reindexer.run());
+        Properties state = reindexer.readState();
+        Assert.assertNotNull(state.getProperty(Reindexer.COMMIT));
+        Assert.assertNull(state.getProperty(Reindexer.TARGET));
+        reindexer.setFull(true);
+        int[] calls = {0};
+        database.setRetryStrategy(new RetryStrategy() {
+            @Override
+            public <R> R call(String name, Callable<R> f, Function<Exception, String> conflictKey) throws Exception {
+                // the state is read, the first batch is committed and the second one fails
+                if (++calls[0] == 3) {
+                    throw new IOException("Reindex interrupted");
+                }
+                return f.call();
+            }
+        });
+        try {
+            reindexer.run();
+            Assert.fail("Reindex must be interrupted");
+        }
+        catch (IOException e) {
+        }
+        finally {
+            database.setRetryStrategy(RetryStrategy.DEFAULT);
+        }
+        Collections.sort(ids);
+        state = reindexer.readState();
+        Assert.assertEquals(ids.get(1), state.getProperty(Reindexer.DONE));
+        try (Transaction tx = database.createTransaction("users")) {
+            // the indexes are not touched before the last batch
+            Assert.assertEquals(4, database.findByEClass(TestPackage.Literals.USER, null, tx).getResources().size());
+            Assert.assertEquals(1, database.findByEClass(TestPackage.Literals.USER, "renamed2", tx).getResources().size());
+        }
+        Assert.assertEquals(3, reindexer.run());
+        try (Transaction tx = database.createTransaction("users")) {
+            Assert.assertEquals(4, database.findByEClass(TestPackage.Literals.USER, null, tx).getResources().size());
+            Assert.assertEquals(1, database.findByEClass(TestPackage.Literals.USER, "renamed2", tx).getResources().size());
+        }
+    }
+
+    @Test
+    public void reindexerSwapTest() throws Exception {
+        List<String> ids = new ArrayList<>();
+        try (Transaction tx = database.createTransaction("users")) {
+            ResourceSet resourceSet = database.createResourceSet(tx);
+            Group group = TestFactory.eINSTANCE.createGroup();
+            group.setName("group");
+            Resource groupResource = resourceSet.createResource(database.createURI(null, null));
+            groupResource.getContents().add(group);
+            groupResource.save(null);
+            for (int i = 0; i < 2; ++i) {
+                User user = TestFactory.eINSTANCE.createUser();
+                user.setName("user" + i);
+                user.setGroup(group);
+                Resource userResource = resourceSet.createResource(database.createURI(null, null));
+                userResource.getContents().add(user);
+                userResource.save(null);
+                ids.add(database.getResourceId(userResource));
+            }
+            tx.commit("Users created");
+        }
+        Reindexer reindexer = new Reindexer(database, "users");
+        reindexer.setBatchSize(1);
+        Assert.assertEquals(3, reindexer.run());
+        // each user takes the name freed by the other one, the users are reindexed in separate batches
+        renameUser(ids.get(0), "user_tmp");
+        renameUser(ids.get(1), "user0");
+        renameUser(ids.get(0), "user1");
+        Assert.assertEquals(2, reindexer.run());
+        try (Transaction tx = database.createTransaction("users")) {
+            List<Resource> user0 = database.findByEClass(TestPackage.Literals.USER, "user0", tx).getResources();
+            Assert.assertEquals(1, user0.size());
+            Assert.assertEquals(ids.get(1), database.getResourceId(user0.get(0)));
+            List<Resource> user1 = database.findByEClass(TestPackage.Literals.USER, "user1", tx).getResources();
+            Assert.assertEquals(1, user1.size());
+            Assert.assertEquals(ids.get(0), database.getResourceId(user1.get(0)));
+            Assert.assertEquals(0, database.findByEClass(TestPackage.Literals.USER, "user_tmp", tx).getResources().size());
+        }
+    }
+
+    private void renameUser(String id, String name) throws IOException {
+        try (Transaction tx = database.createTransaction("users")) {
+            Resource userResource = database.loadResource(id, tx);
+            ((User) userResource.getContents().get(0)).setName(name);
+            userResource.save(null);
+            tx.commit("User renamed to " + name);
+        }
+    }
+
+    @Test
+    public void branchLocksTest() throws Exception {
+        database.getLocks().setTimeoutMs(200);
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try (Transaction tx = database.createTransaction("master", Transaction.LockType.EXCLUSIVE)) {
+            // other branches are not blocked by the exclusive transaction
+            executor.submit(() -> {
+                try (Transaction usersTx = database.createTransaction("users")) {
+                    return null;
+                }
+            }).get();
+            try {
+                executor.submit(() -> {
+                    try (Transaction masterTx = database.createTransaction("master")) {
+                        return null;
+                    }
+                }).get();
+                Assert.fail("Lock of the master branch acquired");
+            }
+            catch (ExecutionException e) {
+                Assert.assertTrue(e.getCause() instanceof IOException);
+            }
+        }
+        finally {
+            executor.shutdown();
+        }
+        Assert.assertEquals(1, database.getLocks().getTimeouts());
+        Assert.assertTrue(database.getLocks().getMaxWaitMs() >= 200);
+        try (Transaction tx = database.createTransaction("master")) {
+            Assert.assertEquals("master", tx.getBranch());
+        }
+    }
+
+    @Test
+    public void groupCommitTest() throws Exception {
+        String groupId;
+        try (Transaction tx = database.createTransaction("users")) {
+            Group group = TestFactory.eINSTANCE.createGroup();
+            group.setName("writers");
+            Resource groupResource = database.createResource(tx, null, null);
+            groupResource.getContents().add(group);
+            groupResource.save(null);
+            tx.commit("Group writers created");
+            groupId = database.getResourceId(groupResource);
+        }
+        // a conflicting change is rejected, a change of another entity is rebased on the new head
+        try (Transaction tx1 = database.createTransaction("users");
+             Transaction tx2 = database.createTransaction("users");
+             Transaction tx3 = database.createTransaction("users")) {
+            Resource groupResource1 = database.loadResource(groupId, tx1);
+            ((Group) groupResource1.getContents().get(0)).setName("writers1");
+            groupResource1.save(null);
+            Resource groupResource2 = database.loadResource(groupId, tx2);
+            ((Group) groupResource2.getContents().get(0)).setName("writers2");
+            groupResource2.save(null);
+            Resource groupResource3 = database.loadResource(groupId, tx3);
+            User user = TestFactory.eINSTANCE.createUser();
+            user.setName("rebased");
+            user.setGroup((Group) groupResource3.getContents().get(0));
+            Resource userResource = database.createResource(tx3, null, null);
+            userResource.getContents().add(user);
+            userResource.save(null);
+            tx1.commit("Group renamed to writers1");
+            try {
+                tx2.commit("Group renamed to writers2");
+                Assert.fail("Conflicting commit succeeded");
+            }
+            catch (RefUpdateRejectedException e) {
+                Assert.assertTrue(e.getMessage().contains(groupId.substring(2)));
+            }
+            tx3.commit("User rebased created");
+        }
+        Assert.assertEquals(1, (long) database.getGroupCommit().getMetrics().get("conflicts"));
+        int nThreads = 32;
+        int nUsers = 10;
+        ExecutorService executor = Executors.newFixedThreadPool(nThreads);
+        long start = System.currentTimeMillis();
+        try {
+            List<Future<?>> futures = new ArrayList<>();
+            for (int i = 0; i < nThreads; ++i) {
+                int thread = i;
+                futures.add(executor.submit(() -> {
+                    for (int j = 0; j < nUsers; ++j) {
+                        String name = "user_" + thread + "_" + j;
+                        database.inTransaction("users", Transaction.LockType.WRITE, tx -> {
+                            Group group = (Group) database.loadResource(groupId, tx).getContents().get(0);
+                            User user = TestFactory.eINSTANCE.createUser();
+                            user.setName(name);
+                            user.setGroup(group);
+                            Resource userResource = database.createResource(tx, null, null);
+                            userResource.getContents().add(user);
+                            userResource.save(null);
+                            tx.commit("User " + name + " created");
+                            return null;
+                        });
+                    }
+                    return null;
+                }));
+            }
+            for (Future<?> future: futures) {
+                future.get();
+            }
+        }
+        finally {
+            executor.shutdown();
+        }
+        long time = System.currentTimeMillis() - start;
+        Map<String, Long> metrics = database.getGroupCommit().getMetrics();
+        System.out.println("Created " + nThreads * nUsers + " users in " + nThreads + " threads in " + time + " ms, " + metrics);
+        try (Transaction tx = database.createTransaction("users", Transaction.LockType.READ)) {
+            Assert.assertEquals("writers1", ((Group) database.loadResource(groupId, tx).getContents().get(0)).getName());
+            Assert.assertEquals(nThreads * nUsers + 1, database.findByEClass(TestPackage.Literals.USER, null, tx).getResources().size());
+            Assert.assertEquals(nThreads * nUsers + 1, database.getDependentResources(groupId, tx).size());
+            Assert.assertEquals(1, database.findByEClass(TestPackage.Literals.USER, "user_0_0", tx).getResources().size());
+        }
+        Assert.assertEquals(nThreads * nUsers + 3, (long) metrics.get("commits"));
+        Assert.assertTrue(metrics.get("batches") <= metrics.get("commits"));
+    }
+
     @Test
     public void testClassLoader() throws Exception {
         String content = "test content";
@@ -10,8 +10,11 @@ import ru.neoflex.meta.test.TestFactory;
 import ru.neoflex.meta.test.TestPackage;
 import ru.neoflex.meta.test.User;
 
+import java.util.Arrays;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.stream.Collectors;
 
 public class FinderTests extends TestBase {
     User user;
@@ -70,4 +73,112 @@ public class FinderTests extends TestBase {
             Assert.assertEquals(1, finder.getResourceSet().getResources().size());
         }
     }
+
+    @Test
+    public void secondaryIndexFind() throws Exception {
+        SecondaryIndex nameIndex = database.createSecondaryIndex(TestPackage.eINSTANCE.getUser(), "name");
+        SecondaryIndex groupIndex = database.createSecondaryIndex(TestPackage.eINSTANCE.getUser(), "group");
+        try (Transaction tx = database.createTransaction("users")) {
+            Finder finder = Finder.create(TestPackage.eINSTANCE.getUser());
+            finder.selector().with("contents").with("name").put("$regex", "Sim.*");
+            finder.execute(tx);
+            Assert.assertEquals(1, finder.getResourceSet().getResources().size());
+            Assert.assertEquals(Database.TYPE_NAME_IDX, finder.getExecutionStats().get("index").asText());
+            database.reindex(tx);
+            tx.commit("Reindex");
+        }
+        try (Transaction tx = database.createTransaction("users")) {
+            User user = TestFactory.eINSTANCE.createUser();
+            user.setName("Sidorov");
+            Resource userResource = database.createResource(tx, null, null);
+            userResource.getContents().add(user);
+            userResource.save(null);
+            tx.commit("User Sidorov created");
+        }
+        try (Transaction tx = database.createTransaction("users")) {
+            Finder finder = Finder.create(TestPackage.eINSTANCE.getUser());
+            finder.selector().with("contents").with("name").put("$regex", "Si.*");
+            finder.execute(tx);
+            Assert.assertEquals(2, finder.getResourceSet().getResources().size());
+            Assert.assertEquals(nameIndex.getName(), finder.getExecutionStats().get("index").asText());
+            finder = Finder.create(TestPackage.eINSTANCE.getUser());
+            finder.selector().with("contents").with("name").put("$gte", "O").put("$lt", "S");
+            finder.execute(tx);
+            Assert.assertEquals(1, finder.getResourceSet().getResources().size());
+            Assert.assertEquals(1, finder.getExecutionStats().get("idsLoaded").asInt());
+            finder = Finder.create(TestPackage.eINSTANCE.getUser());
+            finder.selector().with("contents").with("group").put("name", "masters");
+            finder.execute(tx);
+            Assert.assertEquals(2, finder.getResourceSet().getResources().size());
+            Assert.assertEquals(groupIndex.getName(), finder.getExecutionStats().get("index").asText());
+            finder = Finder.create(TestPackage.eINSTANCE.getUser());
+            finder.selector().with("contents").with("group").put("name", "unknown");
+            finder.execute(tx);
+            Assert.assertEquals(0, finder.getResourceSet().getResources().size());
+        }
+    }
+
+    @Test
+    public void compositeIndexFind() throws Exception {
+        SecondaryIndex nameGroupIndex = database.createSecondaryIndex(TestPackage.eINSTANCE.getUser(), "name", "group");
+        try (Transaction tx = database.createTransaction("users")) {
+            database.reindex(tx);
+            tx.commit("Reindex");
+        }
+        try (Transaction tx = database.createTransaction("users")) {
+            User user = TestFactory.eINSTANCE.createUser();
+            user.setName("Sidorov");
+            Resource userResource = database.createResource(tx, null, null);
+            userResource.getContents().add(user);
+            userResource.save(null);
+            tx.commit("User Sidorov without group created");
+        }
+        try (Transaction tx = database.createTransaction("users")) {
+            Finder finder = Finder.create(TestPackage.eINSTANCE.getUser());
+            finder.selector().with("contents").with("name").put("$regex", "Si.*");
+            finder.execute(tx);
+            Assert.assertEquals(2, finder.getResourceSet().getResources().size());
+            Assert.assertEquals(nameGroupIndex.getName(), finder.getExecutionStats().get("index").asText());
+            finder = Finder.create(TestPackage.eINSTANCE.getUser());
+            finder.selector().with("contents").put("name", "Sidorov");
+            finder.execute(tx);
+            Assert.assertEquals(1, finder.getResourceSet().getResources().size());
+            Assert.assertEquals(nameGroupIndex.getName(), finder.getExecutionStats().get("index").asText());
+            finder = Finder.create(TestPackage.eINSTANCE.getUser());
+            finder.selector().with("contents").put("name", "Simanihin").with("group").put("name", "masters");
+            finder.execute(tx);
+            Assert.assertEquals(1, finder.getResourceSet().getResources().size());
+            Assert.assertEquals(1, finder.getExecutionStats().get("idsLoaded").asInt());
+        }
+    }
+
+    @Test
+    public void pagingFind() throws Exception {
+        try (Transaction tx = database.createTransaction("users")) {
+            ResourceSet resourceSet = database.createResourceSet(tx);
+            for (int i = 0; i < 5; ++i) {
+                User user = TestFactory.eINSTANCE.createUser();
+                user.setName("U" + i);
+                Resource userResource = database.createResource(resourceSet, null, null);
+                userResource.getContents().add(user);
+                userResource.save(null);
+            }
+            tx.commit("Users U0-U4 created");
+        }
+        try (Transaction tx = database.createTransaction("users")) {
+            Finder finder = Finder.create(TestPackage.eINSTANCE.getUser()).skip(1).limit(2);
+            finder.selector().with("contents").with("name").put("$regex", "U.*");
+            List<String> names = finder.stream(tx)
+                    .map(resource -> ((User) resource.getContents().get(0)).getName())
+                    .collect(Collectors.toList());
+            Assert.assertEquals(Arrays.asList("U1", "U2"), names);
+            Assert.assertEquals(7, finder.getExecutionStats().get("idsLoaded").asInt());
+            Assert.assertEquals(5, finder.getExecutionStats().get("scanned").asInt());
+            Assert.assertEquals(2, finder.getExecutionStats().get("returned").asInt());
+            finder = Finder.create(TestPackage.eINSTANCE.getUser());
+            finder.selector().with("contents").with("group").put("name", "masters");
+            finder.execute(tx);
+            Assert.assertEquals(2, finder.getResourceSet().getResources().size());
+        }
+    }
 }
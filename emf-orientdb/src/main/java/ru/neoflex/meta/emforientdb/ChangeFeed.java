@@ -0,0 +1,249 @@
+package ru.neoflex.meta.emforientdb;
+
+import com.orientechnologies.common.exception.OException;
+import com.orientechnologies.orient.core.db.ODatabaseDocumentInternal;
+import com.orientechnologies.orient.core.db.ODatabaseRecordThreadLocal;
+import com.orientechnologies.orient.core.db.OLiveQueryMonitor;
+import com.orientechnologies.orient.core.db.OLiveQueryResultListener;
+import com.orientechnologies.orient.core.db.document.ODatabaseDocument;
+import com.orientechnologies.orient.core.db.record.OIdentifiable;
+import com.orientechnologies.orient.core.db.record.ridbag.ORidBag;
+import com.orientechnologies.orient.core.id.ORID;
+import com.orientechnologies.orient.core.sql.executor.OResult;
+import com.orientechnologies.orient.core.sql.executor.OResultSet;
+import org.eclipse.emf.common.util.URI;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.Consumer;
+
+/**
+ * Resource level change notifications built on an OrientDB live query over all EObject vertices.
+ * Unlike {@link Events}, which fire in the writing JVM only, the feed receives every committed change
+ * of the database, including writes of other nodes connected to the same server and out of band writes.
+ * A change of a contained vertex is reported as an update of the top level element of its resource,
+ * creation and deletion of contained vertices are covered by the update of their container.
+ * Listeners are called on the live query thread and should hand long work off to their own executor.
+ */
+public class ChangeFeed implements Closeable {
+    private static final Logger logger = LoggerFactory.getLogger(ChangeFeed.class);
+
+    public enum Type {
+        CREATE,
+        UPDATE,
+        DELETE
+    }
+
+    public static class Change {
+        private final Type type;
+        private final ORID orid;
+        private final int version;
+        private final String className;
+        private final URI uri;
+        private final URI eClassURI;
+
+        Change(Type type, ORID orid, int version, String className, URI uri, URI eClassURI) {
+            this.type = type;
+            this.orid = orid;
+            this.version = version;
+            this.className = className;
+            this.uri = uri;
+            this.eClassURI = eClassURI;
+        }
+
+        public Type getType() {
+            return type;
+        }
+
+        public ORID getORID() {
+            return orid;
+        }
+
+        public int getVersion() {
+            return version;
+        }
+
+        /**
+         * OrientDB class of the top level element
+         */
+        public String getClassName() {
+            return className;
+        }
+
+        /**
+         * Resource URI with the rev of the change
+         */
+        public URI getURI() {
+            return uri;
+        }
+
+        /**
+         * URI of the EClass of the top level element or null if the class is not mapped
+         */
+        public URI getEClassURI() {
+            return eClassURI;
+        }
+
+        @Override
+        public String toString() {
+            return type + " " + className + " " + uri;
+        }
+    }
+
+    private final SessionFactory factory;
+    private final List<Consumer<Change>> listeners = new CopyOnWriteArrayList<>();
+    private ODatabaseDocument db;
+    private OLiveQueryMonitor monitor;
+
+    public ChangeFeed(SessionFactory factory) {
+        this.factory = factory;
+    }
+
+    public synchronized void start() {
+        if (monitor != null) {
+            return;
+        }
+        ODatabaseDocumentInternal currentDB = ODatabaseRecordThreadLocal.instance().getIfDefined();
+        try {
+            db = factory.createDatabaseDocument();
+            monitor = db.live("select from " + Session.EOBJECT, new Listener());
+            logger.info("Change feed of " + factory.getDbName() + " started");
+        }
+        finally {
+            restore(currentDB);
+        }
+    }
+
+    @Override
+    public synchronized void close() {
+        if (monitor == null) {
+            return;
+        }
+        ODatabaseDocumentInternal currentDB = ODatabaseRecordThreadLocal.instance().getIfDefined();
+        try {
+            db.activateOnCurrentThread();
+            monitor.unSubscribe();
+            db.close();
+            logger.info("Change feed of " + factory.getDbName() + " stopped");
+        }
+        finally {
+            monitor = null;
+            db = null;
+            restore(currentDB);
+        }
+    }
+
+    public synchronized boolean isStarted() {
+        return monitor != null;
+    }
+
+    public void subscribe(Consumer<Change> listener) {
+        listeners.add(listener);
+    }
+
+    public void unsubscribe(Consumer<Change> listener) {
+        listeners.remove(listener);
+    }
+
+    private static void restore(ODatabaseDocumentInternal currentDB) {
+        if (currentDB != null) {
+            ODatabaseRecordThreadLocal.instance().set(currentDB);
+        }
+        else {
+            ODatabaseRecordThreadLocal.instance().remove();
+        }
+    }
+
+    private void publish(ODatabaseDocument database, Type type, OResult data) {
+        String className = data.getProperty("@class");
+        if (Session.EPROXY.equals(className)) {
+            return;
+        }
+        ORID orid = getORID(data);
+        Integer version = data.getProperty("@version");
+        if (isContained(data)) {
+            if (type != Type.UPDATE) {
+                return;
+            }
+            OResult top = getTop(database, orid);
+            if (top == null) {
+                return;
+            }
+            orid = getORID(top);
+            version = top.getProperty("@version");
+            className = top.getProperty("@class");
+        }
+        if (orid == null) {
+            return;
+        }
+        int rev = version != null ? version : -1;
+        URI uri = factory.createURI(factory.getId(orid) + "?rev=" + rev);
+        Change change = new Change(type, orid, rev, className, uri, factory.oClassToUriMap.get(className));
+        logger.debug(change.toString());
+        for (Consumer<Change> listener: listeners) {
+            try {
+                listener.accept(change);
+            }
+            catch (Throwable e) {
+                logger.error("Change feed listener", e);
+            }
+        }
+    }
+
+    private static ORID getORID(OResult data) {
+        if (data.getIdentity().isPresent()) {
+            return data.getIdentity().get().getIdentity();
+        }
+        Object rid = data.getProperty("@rid");
+        return rid instanceof OIdentifiable ? ((OIdentifiable) rid).getIdentity() : null;
+    }
+
+    private static boolean isContained(OResult data) {
+        Object in = data.getProperty("in_" + Session.ECONTAINS);
+        if (in instanceof ORidBag) {
+            return !((ORidBag) in).isEmpty();
+        }
+        if (in instanceof Collection) {
+            return !((Collection) in).isEmpty();
+        }
+        return in != null;
+    }
+
+    private static OResult getTop(ODatabaseDocument database, ORID orid) {
+        database.activateOnCurrentThread();
+        try (OResultSet rs = database.query("select @rid, @version, @class from (traverse in('EContains') from ?) where in('EContains').size() == 0", orid)) {
+            return rs.hasNext() ? rs.next() : null;
+        }
+    }
+
+    private class Listener implements OLiveQueryResultListener {
+        @Override
+        public void onCreate(ODatabaseDocument database, OResult data) {
+            publish(database, Type.CREATE, data);
+        }
+
+        @Override
+        public void onUpdate(ODatabaseDocument database, OResult before, OResult after) {
+            publish(database, Type.UPDATE, after);
+        }
+
+        @Override
+        public void onDelete(ODatabaseDocument database, OResult data) {
+            publish(database, Type.DELETE, data);
+        }
+
+        @Override
+        public void onError(ODatabaseDocument database, OException exception) {
+            logger.error("Change feed of " + factory.getDbName(), exception);
+        }
+
+        @Override
+        public void onEnd(ODatabaseDocument database) {
+            logger.debug("Change feed of " + factory.getDbName() + " ended");
+        }
+    }
+}
@@ -28,6 +28,7 @@ public class Database extends SessionFactory implements Closeable {
 
     @Override
     public void close() {
+        stopChangeFeed();
         pool.close();
         orientDB.close();
     }
@@ -0,0 +1,119 @@
+package ru.neoflex.meta.emforientdb;
+
+import com.orientechnologies.orient.core.metadata.schema.OType;
+import org.eclipse.emf.ecore.*;
+import org.eclipse.emf.ecore.util.EcoreUtil;
+
+import java.sql.Timestamp;
+import java.util.*;
+
+/**
+ * Mapping plan of an EClass to the OrientDB document layout.
+ * The plan is compiled once per EClass by the {@link Session} and cached in the {@link SessionFactory},
+ * load and save iterate the precomputed feature list instead of walking the EClass reflectively
+ * and resolving annotations and OType conversions for every object.
+ */
+class EClassMapping {
+    enum Kind {
+        ATTRIBUTE,
+        EMBEDDED_CONTAINMENT,
+        VERTEX_CONTAINMENT,
+        EMBEDDED_REFERENCE,
+        EDGE_REFERENCE,
+        CONTAINER
+    }
+
+    final EClass eClass;
+    final String oClassName;
+    /** persistent (not derived and not transient) features in the order of getEAllStructuralFeatures */
+    final List<FeatureMapping> features;
+    /** transient attributes, their properties are removed on save */
+    final List<String> transientAttributes;
+
+    EClassMapping(EClass eClass, String oClassName, List<FeatureMapping> features, List<String> transientAttributes) {
+        this.eClass = eClass;
+        this.oClassName = oClassName;
+        this.features = Collections.unmodifiableList(features);
+        this.transientAttributes = Collections.unmodifiableList(transientAttributes);
+    }
+
+    static class FeatureMapping {
+        final EStructuralFeature sf;
+        final String name;
+        final Kind kind;
+        final boolean many;
+        final ValueMapping value;
+
+        FeatureMapping(EStructuralFeature sf, Kind kind, ValueMapping value) {
+            this.sf = sf;
+            this.name = sf.getName();
+            this.kind = kind;
+            this.many = sf.isMany();
+            this.value = value;
+        }
+
+        EReference getEReference() {
+            return (EReference) sf;
+        }
+
+        boolean isContainment() {
+            return kind == Kind.EMBEDDED_CONTAINMENT || kind == Kind.VERTEX_CONTAINMENT;
+        }
+
+        boolean isEmbedded() {
+            return kind == Kind.EMBEDDED_CONTAINMENT || kind == Kind.EMBEDDED_REFERENCE;
+        }
+    }
+
+    /**
+     * Conversion of the values of an EDataType between EMF and OrientDB representations.
+     */
+    static class ValueMapping {
+        final EDataType eDataType;
+        final OType oType;
+        private final boolean asString;
+        private final boolean timestamp;
+
+        ValueMapping(EDataType eDataType) {
+            Class instanceClass = eDataType.getInstanceClass();
+            OType oType = instanceClass != null ? OType.getTypeByClass(instanceClass) : null;
+            this.eDataType = eDataType;
+            this.oType = oType != null ? oType : OType.STRING;
+            this.asString = this.oType == OType.STRING;
+            this.timestamp = !asString && instanceClass.isAssignableFrom(Timestamp.class);
+        }
+
+        Object toOObject(Object value) {
+            if (asString) {
+                return EcoreUtil.convertToString(eDataType, value);
+            }
+            return value;
+        }
+
+        Object toObject(Object value) {
+            if (asString) {
+                return EcoreUtil.createFromString(eDataType, value.toString());
+            }
+            if (timestamp) {
+                return new Timestamp(((Date) value).getTime());
+            }
+            return value;
+        }
+
+        List<Object> toOObjects(List values) {
+            List<Object> result = new ArrayList<>(values.size());
+            for (Object value: values) {
+                result.add(toOObject(value));
+            }
+            return result;
+        }
+
+        List<Object> toObjects(List values) {
+            List<Object> result = new ArrayList<>(values.size());
+            for (Object value: values) {
+                result.add(toObject(value));
+            }
+            return result;
+        }
+    }
+}
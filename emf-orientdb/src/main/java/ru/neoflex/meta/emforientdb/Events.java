@@ -17,6 +17,9 @@ public class Events {
     public void registerAfterLoad(Consumer<Resource> consumer) {
         afterLoadList.add(consumer);
     }
+    public void unregisterAfterLoad(Consumer<Resource> consumer) {
+        afterLoadList.remove(consumer);
+    }
 
     private List<BiConsumer<Resource, Resource>> beforeSaveList = new ArrayList<>();
     public void fireBeforeSave(Resource old, Resource resource) {
@@ -26,6 +26,6 @@ public class OrientDBInputStream extends InputStream implements URIConverter.Loa
 
     @Override
     public void loadResource(Resource resource) throws IOException {
-        session.load(resource);
+        session.load(resource, options);
     }
 }
@@ -0,0 +1,205 @@
+package ru.neoflex.meta.emforientdb;
+
+import org.eclipse.emf.common.util.EList;
+import org.eclipse.emf.ecore.EObject;
+import org.eclipse.emf.ecore.EReference;
+import org.eclipse.emf.ecore.InternalEObject;
+import org.eclipse.emf.ecore.resource.Resource;
+import org.eclipse.emf.ecore.util.EcoreUtil;
+import org.eclipse.emf.ecore.util.InternalEList;
+import org.eclipse.emf.ecore.xmi.XMLResource;
+
+import java.util.*;
+
+/**
+ * Second level cache of loaded resources shared by all sessions of a {@link SessionFactory}.
+ * Entries are keyed by the @rid list of the resource and hold a detached copy of the resource contents
+ * together with the versions of the top level elements (the rev part of the resource URI).
+ * A cached copy is used only if the versions match the database, every hit gets its own copy,
+ * so the cached snapshots are never modified. Entries are invalidated on save and delete through {@link Events}
+ * or by the {@link ChangeFeed}, an entry is invalidated by the id of any of its top level elements.
+ */
+public class ResourceCache {
+    public static final int DEFAULT_MAX_SIZE = 1000;
+    private final LinkedHashMap<String, Snapshot> entries = new LinkedHashMap<>(16, 0.75f, true);
+    /** entry id by the id of each of its elements */
+    private final Map<String, String> entryIds = new HashMap<>();
+    private int maxSize;
+    private long hits = 0;
+    private long misses = 0;
+    private long evictions = 0;
+    private long invalidations = 0;
+
+    public ResourceCache() {
+        this(DEFAULT_MAX_SIZE);
+    }
+
+    public ResourceCache(int maxSize) {
+        this.maxSize = maxSize;
+    }
+
+    /**
+     * Fills the resource with a copy of the cached contents.
+     * @return false if there is no entry for the id with the same rev
+     */
+    boolean restore(Resource resource, String id, String rev) {
+        Snapshot snapshot;
+        synchronized (this) {
+            snapshot = entries.get(id);
+            if (snapshot == null || !snapshot.rev.equals(rev)) {
+                ++misses;
+                return false;
+            }
+            ++hits;
+        }
+        snapshot.copyTo(resource);
+        return true;
+    }
+
+    void put(String id, String rev, Resource resource) {
+        Snapshot snapshot = new Snapshot(rev, resource);
+        synchronized (this) {
+            remove(id);
+            entries.put(id, snapshot);
+            for (String elementId: id.split(",")) {
+                String old = entryIds.put(elementId, id);
+                if (old != null && !old.equals(id)) {
+                    remove(old);
+                    entryIds.put(elementId, id);
+                }
+            }
+            evict();
+        }
+    }
+
+    /**
+     * Removes the entries containing any of the comma separated element ids
+     */
+    public synchronized void invalidate(String id) {
+        for (String elementId: id.split(",")) {
+            String entryId = entryIds.get(elementId);
+            if (entryId != null && remove(entryId)) {
+                ++invalidations;
+            }
+        }
+    }
+
+    public synchronized void clear() {
+        entries.clear();
+        entryIds.clear();
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    public synchronized int getMaxSize() {
+        return maxSize;
+    }
+
+    public synchronized void setMaxSize(int maxSize) {
+        this.maxSize = maxSize;
+        evict();
+    }
+
+    public synchronized long getHits() {
+        return hits;
+    }
+
+    public synchronized long getMisses() {
+        return misses;
+    }
+
+    public synchronized long getEvictions() {
+        return evictions;
+    }
+
+    public synchronized long getInvalidations() {
+        return invalidations;
+    }
+
+    private boolean remove(String id) {
+        if (entries.remove(id) == null) {
+            return false;
+        }
+        for (String elementId: id.split(",")) {
+            entryIds.remove(elementId, id);
+        }
+        return true;
+    }
+
+    private void evict() {
+        while (entries.size() > maxSize && !entries.isEmpty()) {
+            remove(entries.keySet().iterator().next());
+            ++evictions;
+        }
+    }
+
+    private static class Snapshot {
+        final String rev;
+        final List<EObject> contents;
+        final Map<EObject, String> ids;
+
+        Snapshot(String rev, Resource resource) {
+            this.rev = rev;
+            this.ids = new HashMap<>();
+            this.contents = copy(resource.getContents(), (XMLResource) resource, ids);
+        }
+
+        void copyTo(Resource resource) {
+            Map<EObject, String> copyIds = new HashMap<>();
+            List<EObject> copies = copy(contents, null, copyIds);
+            resource.getContents().addAll(copies);
+            for (Map.Entry<EObject, String> entry: copyIds.entrySet()) {
+                ((XMLResource) resource).setID(entry.getKey(), entry.getValue());
+            }
+        }
+
+        /**
+         * Copies the objects without resolving proxies, the copies refer to their own proxy objects.
+         * The ids of the copies are taken from the resource or from the snapshot if the resource is null.
+         */
+        private List<EObject> copy(List<EObject> eObjects, XMLResource resource, Map<EObject, String> copyIds) {
+            EcoreUtil.Copier copier = new EcoreUtil.Copier(false, true);
+            List<EObject> copies = new ArrayList<>(copier.copyAll(eObjects));
+            copier.copyReferences();
+            for (Map.Entry<EObject, EObject> entry: copier.entrySet()) {
+                String id = resource != null ? resource.getID(entry.getKey()) : ids.get(entry.getKey());
+                if (id != null) {
+                    copyIds.put(entry.getValue(), id);
+                }
+                copyProxies(entry.getValue());
+            }
+            return copies;
+        }
+
+        private static void copyProxies(EObject eObject) {
+            for (EReference eReference: eObject.eClass().getEAllReferences()) {
+                if (eReference.isContainment() || eReference.isContainer() || eReference.isDerived() ||
+                        eReference.isTransient() || !eReference.isChangeable() || !eObject.eIsSet(eReference)) {
+                    continue;
+                }
+                if (eReference.isMany()) {
+                    EList<EObject> values = (EList<EObject>) eObject.eGet(eReference, false);
+                    for (int i = 0; i < values.size(); ++i) {
+                        EObject value = ((InternalEList<EObject>) values).basicGet(i);
+                        if (value.eIsProxy()) {
+                            values.set(i, copyProxy(value));
+                        }
+                    }
+                } else {
+                    EObject value = (EObject) eObject.eGet(eReference, false);
+                    if (value != null && value.eIsProxy()) {
+                        eObject.eSet(eReference, copyProxy(value));
+                    }
+                }
+            }
+        }
+
+        private static EObject copyProxy(EObject proxy) {
+            EObject copy = EcoreUtil.create(proxy.eClass());
+            ((InternalEObject) copy).eSetProxyURI(((InternalEObject) proxy).eProxyURI());
+            return copy;
+        }
+    }
+}
@@ -128,6 +128,7 @@ public class Server extends SessionFactory implements Closeable {
 
     @Override
     public void close() {
+        stopChangeFeed();
         getOServer().shutdown();
     }
 
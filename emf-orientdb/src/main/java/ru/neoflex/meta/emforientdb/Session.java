@@ -4,6 +4,7 @@ import com.orientechnologies.lucene.OLuceneIndexFactory;
 import com.orientechnologies.orient.core.db.ODatabaseDocumentInternal;
 import com.orientechnologies.orient.core.db.ODatabaseRecordThreadLocal;
 import com.orientechnologies.orient.core.db.document.ODatabaseDocument;
+import com.orientechnologies.orient.core.db.record.OIdentifiable;
 import com.orientechnologies.orient.core.id.ORID;
 import com.orientechnologies.orient.core.metadata.schema.OClass;
 import com.orientechnologies.orient.core.metadata.schema.OProperty;
@@ -19,9 +20,10 @@ import org.eclipse.emf.ecore.*;
 import org.eclipse.emf.ecore.resource.Resource;
 import org.eclipse.emf.ecore.resource.ResourceSet;
 import org.eclipse.emf.ecore.util.EcoreUtil;
+import org.eclipse.emf.ecore.util.InternalEList;
 
 import java.io.Closeable;
-import java.sql.Timestamp;
+import java.io.IOException;
 import java.util.*;
 import java.util.function.Consumer;
 import java.util.function.Supplier;
@@ -37,7 +39,10 @@ public class Session implements Closeable {
     public static final String EPROXY = "EProxy";
     public static final String ORIENTDB_SOURCE = "http://orientdb.com/meta";
     public static final String ANN_O_CLASS_NAME = "oClassName";
+    public static final String OPTION_PRELOADED_ELEMENTS = "orientdb.preloadedElements";
     final Map<Resource, List<OVertex>> savedResourcesMap = new HashMap<>();
+    /** URIs of the resources saved or deleted in the transaction, their cache entries are invalidated after commit */
+    final List<URI> invalidatedURIs = new ArrayList<>();
     private final SessionFactory factory;
     private final ODatabaseDocument db;
     private final ODatabaseDocumentInternal currentDB;
@@ -124,8 +129,40 @@ public class Session implements Closeable {
     }
 
     private OType convertEDataType(EDataType eDataType) {
-        OType oType = OType.getTypeByClass(eDataType.getInstanceClass());
-        return oType != null ? oType : OType.STRING;
+        return getValueMapping(eDataType).oType;
+    }
+
+    EClassMapping.ValueMapping getValueMapping(EDataType eDataType) {
+        return factory.valueMappings.computeIfAbsent(eDataType, EClassMapping.ValueMapping::new);
+    }
+
+    EClassMapping getMapping(EClass eClass) {
+        return factory.eClassMappings.computeIfAbsent(eClass, this::compileMapping);
+    }
+
+    private EClassMapping compileMapping(EClass eClass) {
+        List<EClassMapping.FeatureMapping> features = new ArrayList<>();
+        List<String> transientAttributes = new ArrayList<>();
+        for (EStructuralFeature sf : eClass.getEAllStructuralFeatures()) {
+            if (sf.isDerived() || sf.isTransient()) {
+                if (sf instanceof EAttribute) {
+                    transientAttributes.add(sf.getName());
+                }
+                continue;
+            }
+            if (sf instanceof EAttribute) {
+                features.add(new EClassMapping.FeatureMapping(sf, EClassMapping.Kind.ATTRIBUTE,
+                        getValueMapping(((EAttribute) sf).getEAttributeType())));
+                continue;
+            }
+            EReference eReference = (EReference) sf;
+            EClassMapping.Kind kind = eReference.isContainer() ? EClassMapping.Kind.CONTAINER :
+                    eReference.isContainment() ?
+                            (isEmbedded(eReference) ? EClassMapping.Kind.EMBEDDED_CONTAINMENT : EClassMapping.Kind.VERTEX_CONTAINMENT) :
+                            (isEmbedded(eReference) ? EClassMapping.Kind.EMBEDDED_REFERENCE : EClassMapping.Kind.EDGE_REFERENCE);
+            features.add(new EClassMapping.FeatureMapping(sf, kind, null));
+        }
+        return new EClassMapping(eClass, getOClassName(eClass), features, transientAttributes);
     }
 
     private void createProperty(OClass oClass, EStructuralFeature sf) {
@@ -215,7 +252,7 @@ public class Session implements Closeable {
         return false;
     }
 
-    private boolean isEmbedded(EReference eReference) {
+    public boolean isEmbedded(EReference eReference) {
         return isAnnotated(eReference, "embedded", "false", "true") ||
                 isEmbedded(eReference.getEReferenceType());
     }
@@ -307,23 +344,12 @@ public class Session implements Closeable {
         return db.load(orid);
     }
 
-    private Object objectToOObject(EDataType eDataType, Object value) {
-        OType oType = convertEDataType(eDataType);
-        if (oType == OType.STRING) {
-            return EcoreUtil.convertToString(eDataType, value);
-        }
-        return value;
+    public Object objectToOObject(EDataType eDataType, Object value) {
+        return getValueMapping(eDataType).toOObject(value);
     }
 
     private Object oObjectToObject(EDataType eDataType, Object value) {
-        OType oType = convertEDataType(eDataType);
-        if (oType == OType.STRING) {
-            return EcoreUtil.createFromString(eDataType, value.toString());
-        }
-        if (eDataType.getInstanceClass().isAssignableFrom(Timestamp.class)) {
-            return new Timestamp(((Date) value).getTime());
-        }
-        return value;
+        return getValueMapping(eDataType).toObject(value);
     }
 
     private void clearContents(OVertex oElement) {
@@ -353,74 +379,70 @@ public class Session implements Closeable {
         Set<OEdge> references = (oElement instanceof OVertex) ?
                 StreamSupport.stream(((OVertex) oElement).getEdges(ODirection.OUT, ECONTAINS).spliterator(), false).collect(Collectors.toSet())
                 : Collections.EMPTY_SET;
-        EClass eClass = eObject.eClass();
-        for (EStructuralFeature sf : eClass.getEAllStructuralFeatures()) {
-            if (!sf.isDerived() && !sf.isTransient()) {
-                if (eObject.eIsSet(sf)) {
-                    Object value = eObject.eGet(sf);
-                    if (sf instanceof EReference && ((EReference) sf).isContainment()) {
-                        List<EObject> eObjects = sf.isMany() ? (List<EObject>) value : Collections.singletonList((EObject) value);
-                        List<OElement> embedded = new ArrayList<>();
-                        for (int index = 0; index < eObjects.size(); ++index) {
-                            EObject cObject = eObjects.get(index);
-                            OElement cElement = loadElement(cObject);
-                            if (cElement == null) {
-                                if (isEmbedded((EReference) sf)) {
-                                    cElement = createOElement(cObject);
-                                    embedded.add(cElement);
-                                } else {
-                                    cElement = createOVertex(cObject);
-                                }
+        EClassMapping mapping = getMapping(eObject.eClass());
+        for (EClassMapping.FeatureMapping fm : mapping.features) {
+            EStructuralFeature sf = fm.sf;
+            if (eObject.eIsSet(sf)) {
+                Object value = eObject.eGet(sf);
+                if (fm.isContainment()) {
+                    List<EObject> eObjects = fm.many ? (List<EObject>) value : Collections.singletonList((EObject) value);
+                    List<OElement> embedded = new ArrayList<>();
+                    for (int index = 0; index < eObjects.size(); ++index) {
+                        EObject cObject = eObjects.get(index);
+                        OElement cElement = loadElement(cObject);
+                        if (cElement == null) {
+                            if (fm.isEmbedded()) {
+                                cElement = createOElement(cObject);
+                                embedded.add(cElement);
+                            } else {
+                                cElement = createOVertex(cObject);
                             }
-                            populateOElementContainment(cObject, cElement);
-                            if (cElement instanceof OVertex) {
-                                OVertex to = (OVertex) cElement;
-                                Optional<OEdge> optEdge = references.stream().filter(
-                                        e->e.getProperty("feature").equals(sf.getName())
-                                        && e.getTo().equals(to)
-                                ).findFirst();
-                                if (optEdge.isPresent()) {
-                                    if (!optEdge.get().getProperty("index").equals(index)) {
-                                        optEdge.get().setProperty("index", index);
-                                        optEdge.get().save();
-                                    }
-                                    references.remove(optEdge.get());
+                        }
+                        populateOElementContainment(cObject, cElement);
+                        if (cElement instanceof OVertex) {
+                            OVertex to = (OVertex) cElement;
+                            Optional<OEdge> optEdge = references.stream().filter(
+                                    e->e.getProperty("feature").equals(fm.name)
+                                    && e.getTo().equals(to)
+                            ).findFirst();
+                            if (optEdge.isPresent()) {
+                                if (!optEdge.get().getProperty("index").equals(index)) {
+                                    optEdge.get().setProperty("index", index);
+                                    optEdge.get().save();
                                 }
-                                else {
-                                    if (!(oElement instanceof OVertex)) {
-                                        throw new IllegalArgumentException("Can't reference from embedded element " +
-                                                oElement + " with edge");
-                                    }
-                                    OEdge oEdge = ((OVertex) oElement).addEdge((OVertex) cElement, ECONTAINS);
-                                    oEdge.setProperty("feature", sf.getName());
-                                    oEdge.setProperty("index", index);
-                                    oEdge.save();
+                                references.remove(optEdge.get());
+                            }
+                            else {
+                                if (!(oElement instanceof OVertex)) {
+                                    throw new IllegalArgumentException("Can't reference from embedded element " +
+                                            oElement + " with edge");
                                 }
-                                ((OrientDBResource) cObject.eResource()).setID(cObject, factory.getId(cElement.getIdentity()));
-                                cElement.save();
+                                OEdge oEdge = ((OVertex) oElement).addEdge((OVertex) cElement, ECONTAINS);
+                                oEdge.setProperty("feature", fm.name);
+                                oEdge.setProperty("index", index);
+                                oEdge.save();
                             }
-                        }
-                        if (isEmbedded((EReference) sf)) {
-                            oElement.setProperty(sf.getName(), sf.isMany() ? embedded : embedded.get(0), sf.isMany() ? OType.EMBEDDEDLIST : OType.EMBEDDED);
-                        }
-                    } else if (sf instanceof EAttribute) {
-                        if (sf.isMany()) {
-                            List eList = (List) value;
-                            Stream<Object> oStream = eList.stream().
-                                    map(e -> objectToOObject(((EAttribute) sf).getEAttributeType(), e));
-                            List<Object> oList = oStream.collect(Collectors.toList());
-                            oElement.setProperty(sf.getName(), oList);
-                        } else {
-                            oElement.setProperty(sf.getName(), objectToOObject(((EAttribute) sf).getEAttributeType(), value));
+                            ((OrientDBResource) cObject.eResource()).setID(cObject, factory.getId(cElement.getIdentity()));
+                            cElement.save();
                         }
                     }
-                } else {
-                    oElement.removeProperty(sf.getName());
+                    if (fm.isEmbedded()) {
+                        oElement.setProperty(fm.name, fm.many ? embedded : embedded.get(0), fm.many ? OType.EMBEDDEDLIST : OType.EMBEDDED);
+                    }
+                } else if (fm.kind == EClassMapping.Kind.ATTRIBUTE) {
+                    if (fm.many) {
+                        oElement.setProperty(fm.name, fm.value.toOObjects((List) value));
+                    } else {
+                        oElement.setProperty(fm.name, fm.value.toOObject(value));
+                    }
                 }
-            } else if (sf instanceof EAttribute) {
-                oElement.removeProperty(sf.getName());
+            } else {
+                oElement.removeProperty(fm.name);
             }
         }
+        for (String name : mapping.transientAttributes) {
+            oElement.removeProperty(name);
+        }
         for (OEdge oEdge : references) {
             OVertex to = oEdge.getTo();
             oEdge.delete();
@@ -434,74 +456,72 @@ public class Session implements Closeable {
         Set<OEdge> references = (oElement instanceof OVertex) ?
                 StreamSupport.stream(((OVertex) oElement).getEdges(ODirection.OUT, EREFERS).spliterator(), false).collect(Collectors.toSet())
                 : Collections.EMPTY_SET;
-        EClass eClass = eObject.eClass();
-        for (EStructuralFeature sf : eClass.getEAllStructuralFeatures()) {
-            if (!sf.isDerived() && !sf.isTransient() && eObject.eIsSet(sf)) {
+        for (EClassMapping.FeatureMapping fm : getMapping(eObject.eClass()).features) {
+            EStructuralFeature sf = fm.sf;
+            if (fm.kind != EClassMapping.Kind.ATTRIBUTE && fm.kind != EClassMapping.Kind.CONTAINER && eObject.eIsSet(sf)) {
                 Object value = eObject.eGet(sf);
-                if (sf instanceof EReference && !((EReference) sf).isContainer()) {
-                    List<EObject> eObjects = sf.isMany() ? (List<EObject>) value : Collections.singletonList((EObject) value);
-                    if (((EReference) sf).isContainment()) {
-                        for (int i = 0; i < eObjects.size(); ++i) {
-                            EObject cObject = eObjects.get(i);
-                            if (!isEmbedded((EReference) sf)) {
-                                URI uri = EcoreUtil.getURI(cObject);
-                                ORID orid = factory.getORID(uri);
-                                OElement oElement1 = db.load(orid);
-                                populateOElementCross(cObject, oElement1);
-                            } else {
-                                OElement cElement = sf.isMany() ?
-                                        ((List<OElement>) oElement.getProperty(sf.getName())).get(i) :
-                                        oElement.getProperty(sf.getName());
-                                populateOElementCross(cObject, cElement);
-                            }
+                List<EObject> eObjects = fm.many ? (List<EObject>) value : Collections.singletonList((EObject) value);
+                if (fm.isContainment()) {
+                    for (int i = 0; i < eObjects.size(); ++i) {
+                        EObject cObject = eObjects.get(i);
+                        if (!fm.isEmbedded()) {
+                            URI uri = EcoreUtil.getURI(cObject);
+                            ORID orid = factory.getORID(uri);
+                            OElement oElement1 = db.load(orid);
+                            populateOElementCross(cObject, oElement1);
+                        } else {
+                            OElement cElement = fm.many ?
+                                    ((List<OElement>) oElement.getProperty(fm.name)).get(i) :
+                                    oElement.getProperty(fm.name);
+                            populateOElementCross(cObject, cElement);
                         }
-                    } else {
-                        List<ORID> embedded = new ArrayList<>();
-                        for (int i = 0; i < eObjects.size(); ++i) {
-                            EObject crObject = eObjects.get(i);
-                            URI crURI = EcoreUtil.getURI(crObject);
-                            ORID orid = factory.getORID(crURI);
-                            if (!isEmbedded((EReference) sf)) {
-                                if (!(oElement instanceof OVertex)) {
-                                    throw new IllegalArgumentException("References from embedded element can only be embedded: " + oElement);
+                    }
+                } else {
+                    List<ORID> embedded = new ArrayList<>();
+                    for (int i = 0; i < eObjects.size(); ++i) {
+                        EObject crObject = eObjects.get(i);
+                        URI crURI = EcoreUtil.getURI(crObject);
+                        ORID orid = factory.getORID(crURI);
+                        if (!fm.isEmbedded()) {
+                            if (!(oElement instanceof OVertex)) {
+                                throw new IllegalArgumentException("References from embedded element can only be embedded: " + oElement);
+                            }
+                            OVertex crVertex;
+                            if (orid == null) {
+                                crVertex = createProxyOElement(crObject.eClass(), crURI);
+                                crVertex.save();
+                                OEdge oEdge = ((OVertex) oElement).addEdge(crVertex, EREFERS);
+                                oEdge.setProperty("feature", fm.name);
+                                oEdge.setProperty("index", i);
+                                oEdge.save();
+                            }
+                            else {
+                                crVertex = db.load(orid);
+                                if (crVertex == null) {
+                                    throw new IllegalArgumentException(String.format("Can't refer to element with @rid %s (element not found)", orid.toString()));
                                 }
-                                OVertex crVertex;
-                                if (orid == null) {
-                                    crVertex = createProxyOElement(crObject.eClass(), crURI);
-                                    crVertex.save();
-                                    OEdge oEdge = ((OVertex) oElement).addEdge(crVertex, EREFERS);
-                                    oEdge.setProperty("feature", sf.getName());
-                                    oEdge.setProperty("index", i);
-                                    oEdge.save();
+                                int index = i;
+                                Optional<OEdge> oEdgeOpt = references.stream().filter(e ->
+                                        e.getProperty("feature").equals(fm.name)
+                                        && e.getProperty("index").equals(index)
+                                        && e.getTo().equals(crVertex)
+                                ).findFirst();
+                                if (oEdgeOpt.isPresent()) {
+                                    references.remove(oEdgeOpt.get());
                                 }
                                 else {
-                                    crVertex = db.load(orid);
-                                    if (crVertex == null) {
-                                        throw new IllegalArgumentException(String.format("Can't refer to element with @rid %s (element not found)", orid.toString()));
-                                    }
-                                    int index = i;
-                                    Optional<OEdge> oEdgeOpt = references.stream().filter(e ->
-                                            e.getProperty("feature").equals(sf.getName())
-                                            && e.getProperty("index").equals(index)
-                                            && e.getTo().equals(crVertex)
-                                    ).findFirst();
-                                    if (oEdgeOpt.isPresent()) {
-                                        references.remove(oEdgeOpt.get());
-                                    }
-                                    else {
-                                        OEdge oEdge = ((OVertex) oElement).addEdge(crVertex, EREFERS);
-                                        oEdge.setProperty("feature", sf.getName());
-                                        oEdge.setProperty("index", index);
-                                        oEdge.save();
-                                    }
+                                    OEdge oEdge = ((OVertex) oElement).addEdge(crVertex, EREFERS);
+                                    oEdge.setProperty("feature", fm.name);
+                                    oEdge.setProperty("index", index);
+                                    oEdge.save();
                                 }
-                            } else {
-                                embedded.add(orid);
                             }
+                        } else {
+                            embedded.add(orid);
                         }
-                        if (isEmbedded((EReference) sf)) {
-                            oElement.setProperty(sf.getName(), sf.isMany() ? embedded : embedded.get(0));
-                        }
+                    }
+                    if (fm.isEmbedded()) {
+                        oElement.setProperty(fm.name, fm.many ? embedded : embedded.get(0));
                     }
                 }
             }
@@ -522,15 +542,11 @@ public class Session implements Closeable {
     }
 
     private OElement createOElement(EObject eObject) {
-        EClass eClass = eObject.eClass();
-        String oClassName = getOClassName(eClass);
-        return db.newElement(oClassName);
+        return db.newElement(getMapping(eObject.eClass()).oClassName);
     }
 
     private OVertex createOVertex(EObject eObject) {
-        EClass eClass = eObject.eClass();
-        String oClassName = getOClassName(eClass);
-        return db.newVertex(oClassName);
+        return db.newVertex(getMapping(eObject.eClass()).oClassName);
     }
 
     public void delete(URI uri) {
@@ -557,6 +573,9 @@ public class Session implements Closeable {
             resource.getContents().add(eObject);
             populateEObject(resource.getResourceSet(), oVertex, eObject);
         }
+        if (db.getTransaction().isActive()) {
+            invalidatedURIs.add(resource.getURI());
+        }
         getFactory().getEvents().fireBeforeDelete(resource);
         for (OVertex oVertex: vertices) {
             deleteRecursive(oVertex);
@@ -564,41 +583,104 @@ public class Session implements Closeable {
     }
 
     public void save(Resource resource) {
+        saveAll(Collections.singletonList(resource));
+    }
+
+    public void saveAll(Collection<Resource> resources) {
         ResourceSet rs = createResourceSet();
-        Resource oldResource = rs.createResource(resource.getURI());
-        List<Integer> versions = factory.getVersions(resource.getURI()).collect(Collectors.toList());
-        List<ORID> orids = factory.getORIDs(resource.getURI()).collect(Collectors.toList());
-        List<OVertex> vertexes = new ArrayList<>();
-        for (int i = 0; i < resource.getContents().size(); ++i) {
-            EObject eObject = resource.getContents().get(i);
-            OVertex oVertex;
-            if (i >= orids.size() || orids.get(i) == null) {
-                oVertex = createOVertex(eObject);
-            } else {
-                oVertex = db.load(orids.get(i));
-                checkVersion(versions.get(i), oVertex);
-                EObject oldObject = createEObject(rs, oVertex);
-                oldResource.getContents().add(oldObject);
-                populateEObject(rs, oVertex, oldObject);
+        Map<ORID, Integer> versions = new HashMap<>();
+        for (Resource resource : resources) {
+            List<Integer> resourceVersions = factory.getVersions(resource.getURI()).collect(Collectors.toList());
+            List<ORID> resourceORIDs = factory.getORIDs(resource.getURI()).collect(Collectors.toList());
+            for (int i = 0; i < resourceORIDs.size(); ++i) {
+                if (resourceORIDs.get(i) != null) {
+                    versions.put(resourceORIDs.get(i), i < resourceVersions.size() ? resourceVersions.get(i) : null);
+                }
             }
-            vertexes.add(oVertex);
         }
-        getFactory().getEvents().fireBeforeSave(oldResource, resource);
-        for (int i = 0; i < resource.getContents().size(); ++i) {
-            EObject eObject = resource.getContents().get(i);
-            OVertex oVertex = vertexes.get(i);
-            populateOElementContainment(eObject, oVertex);
-            OVertex oRecord = oVertex.save();
-            vertexes.set(i, oRecord);
+        checkVersions(versions);
+        List<Resource> oldResources = new ArrayList<>();
+        List<List<OVertex>> batchVertexes = new ArrayList<>();
+        for (Resource resource : resources) {
+            Resource oldResource = rs.createResource(resource.getURI());
+            List<ORID> orids = factory.getORIDs(resource.getURI()).collect(Collectors.toList());
+            List<OVertex> vertexes = new ArrayList<>();
+            for (int i = 0; i < resource.getContents().size(); ++i) {
+                EObject eObject = resource.getContents().get(i);
+                OVertex oVertex;
+                if (i >= orids.size() || orids.get(i) == null) {
+                    oVertex = createOVertex(eObject);
+                } else {
+                    oVertex = db.load(orids.get(i));
+                    EObject oldObject = createEObject(rs, oVertex);
+                    oldResource.getContents().add(oldObject);
+                    populateEObject(rs, oVertex, oldObject);
+                }
+                vertexes.add(oVertex);
+            }
+            oldResources.add(oldResource);
+            batchVertexes.add(vertexes);
         }
-        resource.setURI(factory.createResourceURI(vertexes));
-        for (int i = 0; i < resource.getContents().size(); ++i) {
-            EObject eObject = resource.getContents().get(i);
-            OVertex oVertex = vertexes.get(i);
-            populateOElementCross(eObject, oVertex);
+        int index = 0;
+        for (Resource resource : resources) {
+            getFactory().getEvents().fireBeforeSave(oldResources.get(index++), resource);
+        }
+        // containment first, so that every resource of the batch gets its @rid before cross references are stored
+        index = 0;
+        for (Resource resource : resources) {
+            List<OVertex> vertexes = batchVertexes.get(index++);
+            for (int i = 0; i < resource.getContents().size(); ++i) {
+                EObject eObject = resource.getContents().get(i);
+                OVertex oVertex = vertexes.get(i);
+                populateOElementContainment(eObject, oVertex);
+                OVertex oRecord = oVertex.save();
+                vertexes.set(i, oRecord);
+            }
+            resource.setURI(factory.createResourceURI(vertexes));
+        }
+        index = 0;
+        for (Resource resource : resources) {
+            List<OVertex> vertexes = batchVertexes.get(index++);
+            for (int i = 0; i < resource.getContents().size(); ++i) {
+                populateOElementCross(resource.getContents().get(i), vertexes.get(i));
+            }
+        }
+        index = 0;
+        for (Resource resource : resources) {
+            List<OVertex> vertexes = batchVertexes.get(index);
+            if (db.getTransaction().isActive()) {
+                invalidatedURIs.add(oldResources.get(index).getURI());
+            }
+            getFactory().getEvents().fireAfterSave(oldResources.get(index++), resource);
+            savedResourcesMap.put(resource, vertexes);
+        }
+    }
+
+    public void checkVersions(Map<ORID, Integer> versions) {
+        if (versions.isEmpty()) {
+            return;
+        }
+        String oset = "[" + versions.keySet().stream().map(Object::toString).collect(Collectors.joining(",")) + "]";
+        Map<ORID, Integer> dbVersions = new HashMap<>();
+        try (OResultSet oResultSet = db.query("select @rid as rid, @version as version from " + oset)) {
+            while (oResultSet.hasNext()) {
+                OResult oResult = oResultSet.next();
+                OIdentifiable rid = oResult.getProperty("rid");
+                dbVersions.put(rid.getIdentity(), oResult.getProperty("version"));
+            }
+        }
+        for (Map.Entry<ORID, Integer> entry : versions.entrySet()) {
+            Integer dbVersion = dbVersions.get(entry.getKey());
+            if (dbVersion == null) {
+                throw new IllegalArgumentException(String.format("Can't save element with @rid %s (element not found)", entry.getKey().toString()));
+            }
+            // a resource without a version is not checked for concurrent modification
+            if (entry.getValue() != null && !dbVersion.equals(entry.getValue())) {
+                throw new ConcurrentModificationException("OElement " + entry.getKey() +
+                        " has modified.\nDatabase version is " + dbVersion + ", record version is " +
+                        entry.getValue());
+            }
         }
-        getFactory().getEvents().fireAfterSave(oldResource, resource);
-        savedResourcesMap.put(resource, vertexes);
     }
 
     public void checkVersion(int version, OVertex oElement) {
@@ -610,18 +692,208 @@ public class Session implements Closeable {
     }
 
     public void load(Resource resource) {
+        load(resource, null);
+    }
+
+    public void load(Resource resource, Map<?, ?> options) {
+        Map<ORID, OElement> preloaded = options == null ? null : (Map<ORID, OElement>) options.get(OPTION_PRELOADED_ELEMENTS);
         resource.getContents().clear();
-        List<OElement> elements = factory.getORIDs(resource.getURI())
-                .map(orid -> (OElement) db.load(orid)).collect(Collectors.toList());
+        List<ORID> orids = factory.getORIDs(resource.getURI()).collect(Collectors.toList());
+        ResourceCache cache = getResourceCache();
+        String cacheId = null;
+        String rev = null;
+        if (cache != null && !orids.isEmpty() && !orids.contains(null)) {
+            cacheId = factory.getCacheId(orids);
+            rev = getRev(orids, preloaded);
+            if (rev != null && cache.restore(resource, cacheId, rev)) {
+                resource.setURI(factory.createURI(cacheId + "?rev=" + rev));
+                getFactory().getEvents().fireAfterLoad(resource);
+                return;
+            }
+        }
+        List<OElement> elements = orids.stream()
+                .map(orid -> preloaded != null && preloaded.containsKey(orid) ? preloaded.get(orid) : (OElement) db.load(orid))
+                .collect(Collectors.toList());
         resource.setURI(factory.createResourceURI(elements));
         elements.forEach(oElement -> {
             EObject eObject = createEObject(resource.getResourceSet(), oElement);
             resource.getContents().add(eObject);
             populateEObject(resource.getResourceSet(), (OVertex) oElement, eObject);
         });
+        if (rev != null) {
+            cache.put(cacheId, rev, resource);
+        }
         getFactory().getEvents().fireAfterLoad(resource);
     }
 
+    /**
+     * Current versions of the elements in the rev format of the resource URI,
+     * one light query for the elements which are not preloaded
+     */
+    private String getRev(List<ORID> orids, Map<ORID, OElement> preloaded) {
+        Map<ORID, Integer> versions = new HashMap<>();
+        List<ORID> query = new ArrayList<>();
+        for (ORID orid: orids) {
+            if (preloaded != null && preloaded.containsKey(orid)) {
+                versions.put(orid, preloaded.get(orid).getVersion());
+            }
+            else {
+                query.add(orid);
+            }
+        }
+        if (!query.isEmpty()) {
+            String oset = "[" + query.stream().map(Object::toString).collect(Collectors.joining(",")) + "]";
+            try (OResultSet oResultSet = db.query("select @rid as rid, @version as version from " + oset)) {
+                while (oResultSet.hasNext()) {
+                    OResult oResult = oResultSet.next();
+                    OIdentifiable rid = oResult.getProperty("rid");
+                    versions.put(rid.getIdentity(), oResult.getProperty("version"));
+                }
+            }
+        }
+        List<String> revs = new ArrayList<>();
+        for (ORID orid: orids) {
+            Integer version = versions.get(orid);
+            if (version == null) {
+                return null;
+            }
+            revs.add(String.valueOf(version));
+        }
+        return String.join(",", revs);
+    }
+
+    /**
+     * Loads the resources referenced by unresolved proxies of the given resources, level by level.
+     * All resources of a level are fetched with a single query. Proxies which point to loaded resources
+     * are resolved, proxies beyond maxDepth or to deleted elements are left unresolved.
+     * @param maxDepth number of levels to load, negative value means no limit
+     * @return number of loaded resources
+     */
+    public int resolveAll(Collection<Resource> resources, int maxDepth) {
+        if (resources.isEmpty()) {
+            return 0;
+        }
+        ResourceSet rs = resources.iterator().next().getResourceSet();
+        List<Resource> scanned = new ArrayList<>();
+        List<Resource> level = new ArrayList<>(resources);
+        int loaded = 0;
+        for (int depth = 0; !level.isEmpty() && (maxDepth < 0 || depth < maxDepth); ++depth) {
+            Map<String, Resource> byId = new HashMap<>();
+            for (Resource resource: rs.getResources()) {
+                String id = factory.getId(resource.getURI());
+                if (id != null && resource.isLoaded()) {
+                    byId.put(id, resource);
+                }
+            }
+            Map<String, URI> pending = new LinkedHashMap<>();
+            for (Resource resource: level) {
+                collectProxyURIs(resource, uri -> {
+                    URI resourceURI = uri.trimFragment();
+                    String id = factory.getId(resourceURI);
+                    if (id != null && SessionFactory.ORIENTDB.equals(uri.scheme()) && !byId.containsKey(id)) {
+                        pending.putIfAbsent(id, resourceURI);
+                    }
+                });
+            }
+            scanned.addAll(level);
+            level = new ArrayList<>();
+            if (pending.isEmpty()) {
+                break;
+            }
+            Map<ORID, OElement> elements = loadElements(pending.keySet().stream()
+                    .flatMap(factory::getORIDs).filter(Objects::nonNull).distinct().collect(Collectors.toList()));
+            Map<String, Object> options = Collections.singletonMap(OPTION_PRELOADED_ELEMENTS, elements);
+            for (Map.Entry<String, URI> entry: pending.entrySet()) {
+                if (!factory.getORIDs(entry.getKey()).allMatch(elements::containsKey)) {
+                    // dangling proxy of a deleted element, left unresolved
+                    continue;
+                }
+                URI uri = entry.getValue();
+                Resource resource = rs.getResource(uri, false);
+                if (resource == null) {
+                    resource = rs.createResource(uri);
+                }
+                try {
+                    resource.load(options);
+                } catch (IOException e) {
+                    throw new RuntimeException(e);
+                }
+                level.add(resource);
+                ++loaded;
+            }
+        }
+        scanned.addAll(level);
+        for (Resource resource: scanned) {
+            resolveLoadedProxies(resource);
+        }
+        return loaded;
+    }
+
+    private Map<ORID, OElement> loadElements(List<ORID> orids) {
+        Map<ORID, OElement> elements = new HashMap<>();
+        if (orids.isEmpty()) {
+            return elements;
+        }
+        String oset = "[" + orids.stream().map(Object::toString).collect(Collectors.joining(",")) + "]";
+        try (OResultSet oResultSet = db.query("select from " + oset)) {
+            while (oResultSet.hasNext()) {
+                oResultSet.next().getElement().ifPresent(oElement -> elements.put(oElement.getIdentity(), oElement));
+            }
+        }
+        return elements;
+    }
+
+    private static void collectProxyURIs(Resource resource, Consumer<URI> consumer) {
+        for (Iterator<EObject> it = resource.getAllContents(); it.hasNext();) {
+            EObject eObject = it.next();
+            for (EReference eReference: eObject.eClass().getEAllReferences()) {
+                if (eReference.isDerived() || eReference.isTransient() || eReference.isContainer() || !eObject.eIsSet(eReference)) {
+                    continue;
+                }
+                Object value = eObject.eGet(eReference, false);
+                Collection<?> values = eReference.isMany() ? ((InternalEList<?>) value).basicList() : Collections.singletonList(value);
+                for (Object object: values) {
+                    if (object instanceof EObject && ((EObject) object).eIsProxy()) {
+                        consumer.accept(((InternalEObject) object).eProxyURI());
+                    }
+                }
+            }
+        }
+    }
+
+    private static void resolveLoadedProxies(Resource resource) {
+        ResourceSet rs = resource.getResourceSet();
+        for (Iterator<EObject> it = resource.getAllContents(); it.hasNext();) {
+            EObject eObject = it.next();
+            for (EReference eReference: eObject.eClass().getEAllReferences()) {
+                if (eReference.isDerived() || eReference.isTransient() || eReference.isContainer() ||
+                        !eReference.isResolveProxies() || !eObject.eIsSet(eReference)) {
+                    continue;
+                }
+                if (eReference.isMany()) {
+                    InternalEList<?> list = (InternalEList<?>) eObject.eGet(eReference, false);
+                    List<?> basicList = list.basicList();
+                    for (int i = 0; i < basicList.size(); ++i) {
+                        if (isLoadedProxy(rs, basicList.get(i))) {
+                            list.get(i);
+                        }
+                    }
+                }
+                else if (isLoadedProxy(rs, eObject.eGet(eReference, false))) {
+                    eObject.eGet(eReference, true);
+                }
+            }
+        }
+    }
+
+    private static boolean isLoadedProxy(ResourceSet rs, Object object) {
+        if (!(object instanceof EObject) || !((EObject) object).eIsProxy()) {
+            return false;
+        }
+        Resource resource = rs.getResource(((InternalEObject) object).eProxyURI().trimFragment(), false);
+        return resource != null && resource.isLoaded();
+    }
+
     public EObject createEObject(ResourceSet rs, OElement oElement) {
         OClass oClass = oElement.getSchemaType().get();
         if (oClass.isSubClassOf(EPROXY)) {
@@ -668,10 +940,18 @@ public class Session implements Closeable {
                 setNonContainedReference(rs, eObject, sf, crVertex);
             }
         }
-        for (EReference eReference : eObject.eClass().getEAllReferences()) {
-            if (!eReference.isContainer() && isEmbedded(eReference) && oElement.getPropertyNames().contains(eReference.getName())) {
-                Object value = oElement.getProperty(eReference.getName());
-                if (eReference.isContainment()) {
+        Set<String> propertyNames = null;
+        for (EClassMapping.FeatureMapping fm : getMapping(eObject.eClass()).features) {
+            if (!fm.isEmbedded()) {
+                continue;
+            }
+            if (propertyNames == null) {
+                propertyNames = oElement.getPropertyNames();
+            }
+            if (propertyNames.contains(fm.name)) {
+                EReference eReference = fm.getEReference();
+                Object value = oElement.getProperty(fm.name);
+                if (fm.kind == EClassMapping.Kind.EMBEDDED_CONTAINMENT) {
                     if (eReference.isMany()) {
                         List<OElement> valueList = (List<OElement>) value;
                         List<EObject> objectList = (List<EObject>) eObject.eGet(eReference);
@@ -713,6 +993,9 @@ public class Session implements Closeable {
     }
 
     private OElement getTopElement(OElement crVertex) {
+        if (crVertex instanceof OVertex && !((OVertex) crVertex).getEdges(ODirection.IN, ECONTAINS).iterator().hasNext()) {
+            return crVertex;
+        }
         return queryElement("select * from (traverse in('EContains') from ?) where in('EContains').size() == 0",
                 crVertex.getIdentity());
     }
@@ -738,38 +1021,30 @@ public class Session implements Closeable {
         if (orid.isValid()) {
             ((OrientDBResource) eObject.eResource()).setID(eObject, factory.getId(orid));
         }
-        EClass eClass = eObject.eClass();
         Set<String> propertyNames = oElement.getPropertyNames();
-        for (EStructuralFeature sf : eClass.getEAllStructuralFeatures()) {
-            if (!sf.isDerived() && !sf.isTransient()) {
-                if (!propertyNames.contains(sf.getName())) {
-                    if (!(sf instanceof EReference) || !((EReference) sf).isContainer()) {
-                        eObject.eUnset(sf);
-                    }
-                    continue;
+        for (EClassMapping.FeatureMapping fm : getMapping(eObject.eClass()).features) {
+            EStructuralFeature sf = fm.sf;
+            if (!propertyNames.contains(fm.name)) {
+                if (fm.kind != EClassMapping.Kind.CONTAINER) {
+                    eObject.eUnset(sf);
                 }
-                Object value = oElement.getProperty(sf.getName());
-                if (sf instanceof EAttribute) {
-                    EDataType eDataType = ((EAttribute) sf).getEAttributeType();
-                    if (sf.isMany()) {
-                        List oObjects = (List) value;
-                        Stream<Object> objectStream = oObjects.stream().map(o -> oObjectToObject(eDataType, o));
-                        List eObjects = objectStream.collect(Collectors.toList());
-                        eObject.eSet(sf, eObjects);
-                    } else {
-                        eObject.eSet(sf, oObjectToObject(eDataType, value));
-                    }
-                } else if (sf instanceof EReference) {
-                    EReference eReference = (EReference) sf;
-                    if (eReference.isContainment() && isEmbedded(eReference)) {
-                        if (sf.isMany()) {
-                            for (OElement crVertex : (List<OElement>) value) {
-                                setContainmentReference(rs, eObject, eReference, crVertex);
-                            }
-                        } else {
-                            setContainmentReference(rs, eObject, eReference, (OElement) value);
-                        }
+                continue;
+            }
+            if (fm.kind == EClassMapping.Kind.ATTRIBUTE) {
+                Object value = oElement.getProperty(fm.name);
+                if (fm.many) {
+                    eObject.eSet(sf, fm.value.toObjects((List) value));
+                } else {
+                    eObject.eSet(sf, fm.value.toObject(value));
+                }
+            } else if (fm.kind == EClassMapping.Kind.EMBEDDED_CONTAINMENT) {
+                Object value = oElement.getProperty(fm.name);
+                if (fm.many) {
+                    for (OElement crVertex : (List<OElement>) value) {
+                        setContainmentReference(rs, eObject, fm.getEReference(), crVertex);
                     }
+                } else {
+                    setContainmentReference(rs, eObject, fm.getEReference(), (OElement) value);
                 }
             }
         }
@@ -830,18 +1105,69 @@ public class Session implements Closeable {
             Optional<OElement> oElementOpt = oResult.getElement();
             if (oElementOpt.isPresent()) {
                 OElement oElement = oElementOpt.get();
-                consumer.accept(() -> {
-                    EObject eObject = createEObject(rs, oElement);
-                    Resource resource = rs.createResource(factory.createResourceURI(oElement));
-                    resource.getContents().add(eObject);
-                    populateEObject(rs, oElement, eObject);
-                    getFactory().getEvents().fireAfterLoad(resource);
-                    return resource;
-                });
+                consumer.accept(() -> loadResource(rs, oElement));
             }
         }
     }
 
+    /**
+     * The cache is bypassed inside a transaction: the resources changed by the transaction are invalidated
+     * before the commit and again after it, so the cache holds committed snapshots only
+     */
+    private ResourceCache getResourceCache() {
+        return db.getTransaction().isActive() ? null : factory.getResourceCache();
+    }
+
+    private Resource loadResource(ResourceSet rs, OElement oElement) {
+        Resource resource = rs.createResource(factory.createResourceURI(oElement));
+        ResourceCache cache = getResourceCache();
+        String cacheId = factory.getId(oElement.getIdentity());
+        String rev = String.valueOf(oElement.getVersion());
+        if (cache == null || !cache.restore(resource, cacheId, rev)) {
+            EObject eObject = createEObject(rs, oElement);
+            resource.getContents().add(eObject);
+            populateEObject(rs, oElement, eObject);
+            if (cache != null) {
+                cache.put(cacheId, rev, resource);
+            }
+        }
+        getFactory().getEvents().fireAfterLoad(resource);
+        return resource;
+    }
+
+    /**
+     * Streams the resources of the query as the rows are fetched from the database.
+     * Every resource is loaded into its own ResourceSet, so the resources which are not retained by the caller
+     * can be garbage collected and the stream can be consumed with constant memory.
+     * The stream holds the database cursor and must be closed, preferably with try-with-resources.
+     */
+    public Stream<Resource> queryStream(String sql, Object... args) {
+        OResultSet oResultSet = db.query(sql, args);
+        Iterator<Resource> iterator = new Iterator<Resource>() {
+            private OElement next = null;
+
+            @Override
+            public boolean hasNext() {
+                while (next == null && oResultSet.hasNext()) {
+                    next = oResultSet.next().getElement().orElse(null);
+                }
+                return next != null;
+            }
+
+            @Override
+            public Resource next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                OElement oElement = next;
+                next = null;
+                return loadResource(createResourceSet(), oElement);
+            }
+        };
+        return StreamSupport.stream(Spliterators.spliteratorUnknownSize(iterator, Spliterator.ORDERED | Spliterator.NONNULL), false)
+                .onClose(oResultSet::close);
+    }
+
     public List<Resource> query(String sql, Object... args) {
         List<Resource> result = new ArrayList<>();
         query(sql, resourceSupplier -> {
@@ -910,6 +1236,32 @@ public class Session implements Closeable {
         query("select from EObject where in('EContains').size() == 0", consumer);
     }
 
+    public Stream<Resource> getAllStream() {
+        return queryStream("select from EObject where in('EContains').size() == 0");
+    }
+
+    /**
+     * Names of the clusters of all EObject classes, the clusters can be scanned independently
+     */
+    public List<String> getEObjectClusters() {
+        List<String> clusters = new ArrayList<>();
+        for (int clusterId: db.getClass(EOBJECT).getPolymorphicClusterIds()) {
+            clusters.add(db.getClusterNameById(clusterId));
+        }
+        return clusters;
+    }
+
+    /**
+     * Streams the resources of a cluster in @rid order
+     * @param after if not null, the scan starts after this record
+     */
+    public Stream<Resource> getAllStream(String cluster, ORID after) {
+        if (after == null) {
+            return queryStream("select from cluster:`" + cluster + "` where in('EContains').size() == 0 order by @rid");
+        }
+        return queryStream("select from cluster:`" + cluster + "` where @rid > ? and in('EContains').size() == 0 order by @rid", after);
+    }
+
     public List<Resource> getAll() {
         List<Resource> resources = new ArrayList<>();
         getAll(resourceSupplier -> {
@@ -18,6 +18,7 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.function.Function;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
@@ -31,11 +32,18 @@ public abstract class SessionFactory {
     private final String dbName;
     protected final List<EPackage> packages;
     Map<String, URI> oClassToUriMap = new HashMap<>();
+    final Map<EClass, EClassMapping> eClassMappings = new ConcurrentHashMap<>();
+    final Map<EDataType, EClassMapping.ValueMapping> valueMappings = new ConcurrentHashMap<>();
     private Events events = new Events();
+    private volatile ResourceCache resourceCache;
+    private RetryStrategy retryStrategy = RetryStrategy.DEFAULT;
+    private ChangeFeed changeFeed;
 
     public SessionFactory(String dbName, List<EPackage> packages) {
         this.dbName = dbName;
         this.packages = packages;
+        events.registerAfterSave((old, resource) -> invalidateCached(old.getURI()));
+        events.registerBeforeDelete(resource -> invalidateCached(resource.getURI()));
     }
     public abstract ODatabaseDocument createDatabaseDocument();
 
@@ -198,6 +206,65 @@ public abstract class SessionFactory {
         this.qualifiedNameDelegate = qualifiedNameDelegate;
     }
 
+    public RetryStrategy getRetryStrategy() {
+        return retryStrategy;
+    }
+
+    public void setRetryStrategy(RetryStrategy retryStrategy) {
+        this.retryStrategy = retryStrategy;
+    }
+
+    public ResourceCache getResourceCache() {
+        return resourceCache;
+    }
+
+    /**
+     * Enables the second level cache of loaded resources, null disables it
+     */
+    public void setResourceCache(ResourceCache resourceCache) {
+        this.resourceCache = resourceCache;
+    }
+
+    /**
+     * Starts the live query change feed, the resource cache is invalidated by the feed from now on,
+     * so the writes of other nodes are seen as well
+     */
+    public synchronized ChangeFeed startChangeFeed() {
+        if (changeFeed == null) {
+            changeFeed = new ChangeFeed(this);
+            changeFeed.subscribe(change -> invalidateCached(change.getURI()));
+        }
+        changeFeed.start();
+        return changeFeed;
+    }
+
+    public synchronized void stopChangeFeed() {
+        if (changeFeed != null) {
+            changeFeed.close();
+        }
+    }
+
+    /**
+     * @return the change feed or null if it was never started
+     */
+    public synchronized ChangeFeed getChangeFeed() {
+        return changeFeed;
+    }
+
+    String getCacheId(List<ORID> orids) {
+        return orids.stream().map(this::getId).collect(Collectors.joining(","));
+    }
+
+    private void invalidateCached(URI uri) {
+        ResourceCache cache = resourceCache;
+        if (cache != null) {
+            List<ORID> orids = getORIDs(uri).filter(Objects::nonNull).collect(Collectors.toList());
+            if (!orids.isEmpty()) {
+                cache.invalidate(getCacheId(orids));
+            }
+        }
+    }
+
     public String getDbName() {
         return dbName;
     }
@@ -228,46 +295,32 @@ public abstract class SessionFactory {
     }
 
     public <R> R inTransaction(SessionFunction<R> f) throws Exception {
-        int delay = 1;
-        int maxDelay = 1000;
-        int maxAttempts = 100;
-        int attempt = 1;
-        while (true) {
+        return retryStrategy.call(ORIENTDB, () -> withSession(session -> {
+            session.getSavedResources().clear();
+            session.invalidatedURIs.clear();
+            session.getDatabaseDocument().begin(OTransaction.TXTYPE.OPTIMISTIC);
             try {
-                return withSession(session -> {
-                    session.getSavedResources().clear();
-                    session.getDatabaseDocument().begin(OTransaction.TXTYPE.OPTIMISTIC);
-                    try {
-                        return f.call(session);
-                    }
-                    catch (Throwable tx) {
-                        session.getDatabaseDocument().rollback();
-                        throw tx;
-                    }
-                    finally {
-                        session.getDatabaseDocument().commit(true);
-                        for (Resource resource: session.savedResourcesMap.keySet()) {
-                            resource.setURI(createResourceURI(session.savedResourcesMap.get(resource)));
-                        }
-                    }
-                });
+                return f.call(session);
             }
-            catch (OConcurrentModificationException e) {
-                String message = e.getClass().getSimpleName() + ": " + e.getMessage() + " attempt no " + attempt;
-                logger.debug(message);
-                if (++attempt > maxAttempts) {
-                    throw e;
-                }
-                try {
-                    Thread.sleep(delay);
-                } catch (InterruptedException ex) {
-                }
-                if (delay < maxDelay) {
-                    delay *= 2;
+            catch (Throwable tx) {
+                session.getDatabaseDocument().rollback();
+                throw tx;
+            }
+            finally {
+                session.getDatabaseDocument().commit(true);
+                session.invalidatedURIs.forEach(this::invalidateCached);
+                for (Resource resource: session.savedResourcesMap.keySet()) {
+                    resource.setURI(createResourceURI(session.savedResourcesMap.get(resource)));
                 }
-                continue;
             }
+        }), SessionFactory::getConflictKey);
+    }
+
+    public static String getConflictKey(Exception e) {
+        if (e instanceof OConcurrentModificationException) {
+            return String.valueOf(((OConcurrentModificationException) e).getRid());
         }
+        return null;
     }
 
     public void inTransaction(SessionProcedure f) throws Exception {
@@ -1,5 +1,6 @@
 package ru.neoflex.meta.emforientdb;
 
+import org.eclipse.emf.common.util.URI;
 import org.eclipse.emf.ecore.EcorePackage;
 import org.eclipse.emf.ecore.resource.Resource;
 import org.eclipse.emf.ecore.resource.ResourceSet;
@@ -10,8 +11,13 @@ import org.junit.BeforeClass;
 import org.junit.Test;
 import ru.neoflex.meta.test.*;
 
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
 
 public class DbTests extends TestBase {
 
@@ -175,6 +181,187 @@ public class DbTests extends TestBase {
 //        sleepForever();
     }
 
+    @Test
+    public void saveAllTest() throws Exception {
+        server.inTransaction(session -> {
+            ResourceSet rs = session.createResourceSet();
+            List<Resource> resources = new ArrayList<>();
+            Group group = TestFactory.eINSTANCE.createGroup();
+            group.setQName("BATCH_GROUP");
+            Resource groupResource = rs.createResource(server.createURI());
+            groupResource.getContents().add(group);
+            resources.add(groupResource);
+            for (int i = 0; i < 10; ++i) {
+                User user = TestFactory.eINSTANCE.createUser();
+                user.setQName("BATCH_USER_" + i);
+                user.setGroup(group);
+                Resource userResource = rs.createResource(server.createURI());
+                userResource.getContents().add(user);
+                resources.add(userResource);
+            }
+            session.saveAll(resources);
+        });
+        server.withSession(session -> {
+            Assert.assertEquals(10, session.query("select from test_User where qName like 'BATCH_USER_%'").size());
+            Resource groupResource = session.query("select from test_Group where qName=?", "BATCH_GROUP").get(0);
+            Assert.assertEquals(10, session.getDependentResources(groupResource).size());
+            Assert.assertEquals(0, session.query("select from EProxy").size());
+        });
+        server.inTransaction(session -> {
+            List<Resource> users = session.query("select from test_User where qName like 'BATCH_USER_%'");
+            for (Resource userResource: users) {
+                User user = (User) userResource.getContents().get(0);
+                user.setQName(user.getQName() + "_UPDATED");
+            }
+            session.saveAll(users);
+        });
+        server.withSession(session -> {
+            Assert.assertEquals(10, session.query("select from test_User where qName like 'BATCH_USER_%_UPDATED'").size());
+        });
+    }
+
+    @Test
+    public void resolveAllTest() throws Exception {
+        server.inTransaction(session -> {
+            ResourceSet rs = session.createResourceSet();
+            List<Resource> resources = new ArrayList<>();
+            for (int i = 0; i < 5; ++i) {
+                Group group = TestFactory.eINSTANCE.createGroup();
+                group.setQName("RESOLVE_GROUP_" + i);
+                Resource groupResource = rs.createResource(server.createURI());
+                groupResource.getContents().add(group);
+                resources.add(groupResource);
+                User user = TestFactory.eINSTANCE.createUser();
+                user.setQName("RESOLVE_USER_" + i);
+                user.setGroup(group);
+                Resource userResource = rs.createResource(server.createURI());
+                userResource.getContents().add(user);
+                resources.add(userResource);
+            }
+            session.saveAll(resources);
+        });
+        server.withSession(session -> {
+            List<Resource> users = session.query("select from test_User where qName like 'RESOLVE_USER_%'");
+            Assert.assertEquals(5, users.size());
+            ResourceSet rs = users.get(0).getResourceSet();
+            Assert.assertEquals(0, session.resolveAll(users, 0));
+            Assert.assertEquals(5, rs.getResources().size());
+            Assert.assertEquals(5, session.resolveAll(users, 1));
+            Assert.assertEquals(10, rs.getResources().size());
+            for (Resource userResource: users) {
+                Group group = (Group) ((User) userResource.getContents().get(0)).eGet(TestPackage.Literals.USER__GROUP, false);
+                Assert.assertFalse(group.eIsProxy());
+                Assert.assertTrue(group.getQName().startsWith("RESOLVE_GROUP_"));
+            }
+            Assert.assertEquals(0, session.resolveAll(users, -1));
+        });
+    }
+
+    @Test
+    public void resourceCacheTest() throws Exception {
+        ResourceCache cache = new ResourceCache(10);
+        server.setResourceCache(cache);
+        try {
+            server.inTransaction(session -> {
+                ResourceSet rs = session.createResourceSet();
+                Group group = TestFactory.eINSTANCE.createGroup();
+                group.setQName("CACHE_GROUP");
+                Resource groupResource = rs.createResource(server.createURI());
+                groupResource.getContents().add(group);
+                groupResource.save(null);
+                User user = TestFactory.eINSTANCE.createUser();
+                user.setQName("CACHE_USER");
+                user.setGroup(group);
+                Resource userResource = rs.createResource(server.createURI());
+                userResource.getContents().add(user);
+                userResource.save(null);
+            });
+            String id = server.withSession(session ->
+                    server.getId(session.query("select from test_User where qName=?", "CACHE_USER").get(0).getURI()));
+            Assert.assertEquals(1, cache.size());
+            User cached = server.withSession(session -> {
+                ResourceSet rs = session.createResourceSet();
+                Resource resource = rs.getResource(server.createURI(id), true);
+                Assert.assertEquals(1, cache.getHits());
+                User user = (User) resource.getContents().get(0);
+                Assert.assertEquals(id, server.getId(EcoreUtil.getURI(user)));
+                Assert.assertTrue(((Group) user.eGet(TestPackage.Literals.USER__GROUP, false)).eIsProxy());
+                Assert.assertEquals("CACHE_GROUP", user.getGroup().getQName());
+                user.setQName("CACHE_USER_CHANGED");
+                return user;
+            });
+            server.withSession(session -> {
+                User user = (User) session.createResourceSet().getResource(server.createURI(id), true).getContents().get(0);
+                Assert.assertEquals(2, cache.getHits());
+                Assert.assertNotSame(cached, user);
+                Assert.assertEquals("CACHE_USER", user.getQName());
+            });
+            server.inTransaction(session -> {
+                Resource resource = session.createResourceSet().getResource(server.createURI(id), true);
+                ((User) resource.getContents().get(0)).setQName("CACHE_USER_SAVED");
+                resource.save(null);
+            });
+            Assert.assertEquals(1, cache.getInvalidations());
+            server.withSession(session -> {
+                long misses = cache.getMisses();
+                User user = (User) session.createResourceSet().getResource(server.createURI(id), true).getContents().get(0);
+                Assert.assertEquals(misses + 1, cache.getMisses());
+                Assert.assertEquals("CACHE_USER_SAVED", user.getQName());
+            });
+        }
+        finally {
+            server.setResourceCache(null);
+        }
+    }
+
+    @Test
+    public void changeFeedTest() throws Exception {
+        BlockingQueue<ChangeFeed.Change> changes = new LinkedBlockingQueue<>();
+        ChangeFeed changeFeed = server.startChangeFeed();
+        Consumer<ChangeFeed.Change> listener = change -> {
+            if ("test_Group".equals(change.getClassName())) {
+                changes.add(change);
+            }
+        };
+        changeFeed.subscribe(listener);
+        try {
+            Resource groupResource = server.inTransaction(session -> {
+                Group group = TestFactory.eINSTANCE.createGroup();
+                group.setQName("FEED_GROUP");
+                Resource resource = session.createResourceSet().createResource(server.createURI());
+                resource.getContents().add(group);
+                resource.save(null);
+                return resource;
+            });
+            URI uri = groupResource.getURI();
+            ChangeFeed.Change created = changes.poll(10, TimeUnit.SECONDS);
+            Assert.assertNotNull(created);
+            Assert.assertEquals(ChangeFeed.Type.CREATE, created.getType());
+            Assert.assertEquals(server.getId(uri), server.getId(created.getURI()));
+            Assert.assertEquals(EcoreUtil.getURI(TestPackage.Literals.GROUP), created.getEClassURI());
+            server.inTransaction(session -> {
+                Resource resource = session.createResourceSet().getResource(uri, true);
+                ((Group) resource.getContents().get(0)).setQName("FEED_GROUP_CHANGED");
+                resource.save(null);
+            });
+            ChangeFeed.Change updated = changes.poll(10, TimeUnit.SECONDS);
+            Assert.assertNotNull(updated);
+            Assert.assertEquals(ChangeFeed.Type.UPDATE, updated.getType());
+            Assert.assertTrue(updated.getVersion() > created.getVersion());
+            server.inTransaction(session -> {
+                session.createResourceSet().getResource(uri, true).delete(null);
+            });
+            ChangeFeed.Change deleted = changes.poll(10, TimeUnit.SECONDS);
+            Assert.assertNotNull(deleted);
+            Assert.assertEquals(ChangeFeed.Type.DELETE, deleted.getType());
+            Assert.assertEquals(created.getORID(), deleted.getORID());
+        }
+        finally {
+            changeFeed.unsubscribe(listener);
+            server.stopChangeFeed();
+        }
+    }
+
     //@Test
     public void testImportExport() throws Exception {
         server.vacuum();
@@ -1,16 +1,23 @@
 package ru.neoflex.meta.emforientdb;
 
+import com.orientechnologies.orient.core.metadata.schema.OType;
+import com.orientechnologies.orient.core.record.OVertex;
+import org.eclipse.emf.ecore.*;
 import org.eclipse.emf.ecore.resource.Resource;
 import org.eclipse.emf.ecore.resource.ResourceSet;
+import org.eclipse.emf.ecore.util.EcoreUtil;
 import org.junit.*;
-import ru.neoflex.meta.test.Group;
-import ru.neoflex.meta.test.TestFactory;
-import ru.neoflex.meta.test.User;
+import ru.neoflex.meta.test.*;
 
+import java.lang.management.ManagementFactory;
+import java.lang.ref.WeakReference;
+import java.lang.management.ThreadMXBean;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Random;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
 
 public class PerfTests extends TestBase {
     int nGroups = 5;
@@ -119,4 +126,193 @@ public class PerfTests extends TestBase {
         Assert.assertEquals(0, eCount.get());
 //        sleepForever();
     }
+
+    /**
+     * Iterates 200k resources with queryStream, each row is loaded on demand into its own ResourceSet,
+     * so the stream doesn't retain the loaded resources.
+     */
+    @Test
+    public void queryStreamTest() throws Exception {
+        int nObjects = 200000;
+        int batchSize = 10000;
+        for (int i = 0; i < nObjects; i += batchSize) {
+            int start = i;
+            server.inTransaction(session -> {
+                for (int j = start; j < start + batchSize; ++j) {
+                    OVertex oVertex = session.getDatabaseDocument().newVertex("test_Group");
+                    oVertex.setProperty("qName", "STREAM_" + j);
+                    oVertex.save();
+                }
+            });
+        }
+        AtomicInteger loaded = new AtomicInteger();
+        Consumer<Resource> afterLoad = resource -> loaded.incrementAndGet();
+        server.getEvents().registerAfterLoad(afterLoad);
+        int count;
+        try {
+            count = server.withSession(session -> {
+                int n = 0;
+                ResourceSet previous = null;
+                WeakReference<ResourceSet> first = null;
+                try (Stream<Resource> stream = session.queryStream("select from test_Group where qName like 'STREAM_%'")) {
+                    Assert.assertEquals(0, loaded.get());
+                    for (Resource resource: (Iterable<Resource>) stream::iterator) {
+                        Assert.assertEquals(++n, loaded.get());
+                        Assert.assertNotSame(previous, resource.getResourceSet());
+                        Assert.assertEquals(1, resource.getResourceSet().getResources().size());
+                        Assert.assertTrue(((Group) resource.getContents().get(0)).getQName().startsWith("STREAM_"));
+                        previous = resource.getResourceSet();
+                        if (n == 1) {
+                            first = new WeakReference<>(previous);
+                        }
+                        else if (n == batchSize) {
+                            // the stream must not hold the resources already consumed
+                            for (int i = 0; i < 10 && first.get() != null; ++i) {
+                                System.gc();
+                                Thread.sleep(100);
+                            }
+                            Assert.assertNull(first.get());
+                        }
+                    }
+                }
+                return n;
+            });
+        }
+        finally {
+            server.getEvents().unregisterAfterLoad(afterLoad);
+        }
+        System.out.println("Streamed " + count + " resources");
+        Assert.assertEquals(nObjects, count);
+    }
+
+    @Test
+    public void mappingBenchmark() throws Exception {
+        int nTables = 20;
+        int nColumns = 200;
+        int nObjects = nTables * (nColumns + 1);
+        List<String> tableIds = new ArrayList<>();
+        Meter save = new Meter();
+        for (int i = 0; i < nTables; ++i) {
+            String name = "BENCH_" + i;
+            server.inTransaction(session -> {
+                DBTable table = TestFactory.eINSTANCE.createDBTable();
+                table.setQName(name);
+                for (int j = 0; j < nColumns; ++j) {
+                    Column column = TestFactory.eINSTANCE.createColumn();
+                    column.setName("COLUMN_" + j);
+                    column.setDbType("VARCHAR");
+                    table.getColumns().add(column);
+                }
+                Resource resource = session.createResourceSet().createResource(server.createURI());
+                resource.getContents().add(table);
+                save.start();
+                resource.save(null);
+                save.stop();
+            });
+        }
+        server.withSession(session -> {
+            session.query("select from test_DBTable where qName like 'BENCH_%'").forEach(resource -> {
+                tableIds.add(server.getId(resource.getURI()));
+            });
+        });
+        Meter load = new Meter();
+        List<EObject> loaded = new ArrayList<>();
+        server.withSession(session -> {
+            for (String id: tableIds) {
+                load.start();
+                Resource resource = session.createResourceSet().getResource(server.createURI(id), true);
+                load.stop();
+                loaded.add(resource.getContents().get(0));
+            }
+        });
+        Assert.assertEquals(nColumns, ((DBTable) loaded.get(0)).getColumns().size());
+        save.print("save", nObjects);
+        load.print("load", nObjects);
+
+        // the conversion step alone: compiled plans against the reflective walk of every object
+        List<EObject> objects = new ArrayList<>();
+        loaded.forEach(eObject -> eObject.eAllContents().forEachRemaining(objects::add));
+        server.withSession(session -> {
+            List<Object> sink = new ArrayList<>();
+            for (int warmup = 0; warmup < 3; ++warmup) {
+                sink.clear();
+                objects.forEach(eObject -> reflectiveToOObjects(session, eObject, sink));
+                sink.clear();
+                objects.forEach(eObject -> plannedToOObjects(session, eObject, sink));
+            }
+            Meter reflective = new Meter();
+            sink.clear();
+            reflective.start();
+            objects.forEach(eObject -> reflectiveToOObjects(session, eObject, sink));
+            reflective.stop();
+            int reflectiveSize = sink.size();
+            Meter planned = new Meter();
+            sink.clear();
+            planned.start();
+            objects.forEach(eObject -> plannedToOObjects(session, eObject, sink));
+            planned.stop();
+            Assert.assertEquals(reflectiveSize, sink.size());
+            reflective.print("reflective mapping", objects.size());
+            planned.print("planned mapping", objects.size());
+        });
+    }
+
+    private static void reflectiveToOObjects(Session session, EObject eObject, List<Object> sink) {
+        for (EStructuralFeature sf: eObject.eClass().getEAllStructuralFeatures()) {
+            if (!sf.isDerived() && !sf.isTransient() && eObject.eIsSet(sf)) {
+                if (sf instanceof EAttribute) {
+                    EDataType eDataType = ((EAttribute) sf).getEAttributeType();
+                    OType oType = OType.getTypeByClass(eDataType.getInstanceClass());
+                    Object value = eObject.eGet(sf);
+                    sink.add(oType == null || oType == OType.STRING ? EcoreUtil.convertToString(eDataType, value) : value);
+                }
+                else if (session.isEmbedded((EReference) sf)) {
+                    sink.add(sf.getName());
+                }
+            }
+        }
+    }
+
+    private static void plannedToOObjects(Session session, EObject eObject, List<Object> sink) {
+        for (EClassMapping.FeatureMapping fm: session.getMapping(eObject.eClass()).features) {
+            if (eObject.eIsSet(fm.sf)) {
+                if (fm.kind == EClassMapping.Kind.ATTRIBUTE) {
+                    sink.add(fm.value.toOObject(eObject.eGet(fm.sf)));
+                }
+                else if (fm.isEmbedded()) {
+                    sink.add(fm.name);
+                }
+            }
+        }
+    }
+
+    private static class Meter {
+        private static final ThreadMXBean threadMXBean = ManagementFactory.getThreadMXBean();
+        long cpu = 0;
+        long allocated = 0;
+        private long cpuStart;
+        private long allocatedStart;
+
+        void start() {
+            cpuStart = threadMXBean.getCurrentThreadCpuTime();
+            allocatedStart = allocatedBytes();
+        }
+
+        void stop() {
+            cpu += threadMXBean.getCurrentThreadCpuTime() - cpuStart;
+            allocated += allocatedBytes() - allocatedStart;
+        }
+
+        void print(String name, int nObjects) {
+            System.out.println(String.format("%s: %d objects, %d ns cpu/object, %d bytes allocated/object",
+                    name, nObjects, cpu / nObjects, allocated / nObjects));
+        }
+
+        private static long allocatedBytes() {
+            if (threadMXBean instanceof com.sun.management.ThreadMXBean) {
+                return ((com.sun.management.ThreadMXBean) threadMXBean).getThreadAllocatedBytes(Thread.currentThread().getId());
+            }
+            return 0;
+        }
+    }
 }
@@ -0,0 +1,150 @@
+package ru.neoflex.meta.emforientdb;
+
+import com.orientechnologies.orient.core.record.ODirection;
+import com.orientechnologies.orient.core.record.OEdge;
+import com.orientechnologies.orient.core.record.OVertex;
+
+import java.util.*;
+import java.util.function.Supplier;
+
+import static ru.neoflex.meta.emforientdb.Session.EPROXY;
+import static ru.neoflex.meta.emforientdb.Session.EREFERENCE;
+
+/**
+ * Computes insert/update/delete diff between the EReference edges already stored for a vertex
+ * and the cross references of the object being saved.
+ * Existing edges are hashed by (fromFragment, feature, index), so every reference is matched in O(1).
+ */
+class EdgeReconciler {
+    private final OVertex from;
+    private final Map<EdgeKey, OEdge> existing = new HashMap<>();
+    private final List<OEdge> duplicates = new ArrayList<>();
+    private int inserted = 0;
+    private int updated = 0;
+    private int unchanged = 0;
+    private int deleted = 0;
+
+    EdgeReconciler(OVertex from) {
+        this.from = from;
+        for (OEdge oEdge : from.getEdges(ODirection.OUT, EREFERENCE)) {
+            EdgeKey key = new EdgeKey(oEdge.getProperty("fromFragment"), oEdge.getProperty("feature"), oEdge.getProperty("index"));
+            if (existing.putIfAbsent(key, oEdge) != null) {
+                duplicates.add(oEdge);
+            }
+        }
+    }
+
+    /**
+     * Reconciles one cross reference.
+     * @param target vertex of the referenced resource, or null if the reference is external and has to be stored as EProxy
+     * @param proxyURI URI of the referenced object, used when target is null
+     * @param proxySupplier creates a new EProxy vertex, called only if no matching edge exists
+     */
+    void reconcile(String fromFragment, String feature, int index, String toFragment, String eClass,
+                   OVertex target, String proxyURI, Supplier<OVertex> proxySupplier) {
+        EdgeKey key = new EdgeKey(fromFragment, feature, index);
+        OEdge oEdge = existing.remove(key);
+        if (oEdge != null) {
+            OVertex to = oEdge.getTo();
+            if (sameTarget(to, target, proxyURI)) {
+                if (Objects.equals(oEdge.getProperty("toFragment"), toFragment) &&
+                        Objects.equals(oEdge.getProperty("eClass"), eClass)) {
+                    ++unchanged;
+                }
+                else {
+                    oEdge.setProperty("toFragment", toFragment);
+                    oEdge.setProperty("eClass", eClass);
+                    oEdge.save();
+                    ++updated;
+                }
+                return;
+            }
+            delete(oEdge);
+        }
+        OEdge newEdge = from.addEdge(target != null ? target : proxySupplier.get(), EREFERENCE);
+        newEdge.setProperty("fromFragment", fromFragment);
+        newEdge.setProperty("feature", feature);
+        newEdge.setProperty("toFragment", toFragment);
+        newEdge.setProperty("index", index);
+        newEdge.setProperty("eClass", eClass);
+        newEdge.save();
+        ++inserted;
+    }
+
+    /**
+     * Deletes all edges which were not matched by {@link #reconcile}.
+     */
+    void finish() {
+        for (OEdge oEdge : existing.values()) {
+            delete(oEdge);
+        }
+        existing.clear();
+        for (OEdge oEdge : duplicates) {
+            delete(oEdge);
+        }
+        duplicates.clear();
+    }
+
+    private void delete(OEdge oEdge) {
+        OVertex to = oEdge.getTo();
+        if (isProxy(to)) {
+            to.delete();
+        }
+        oEdge.delete();
+        ++deleted;
+    }
+
+    private static boolean isProxy(OVertex oVertex) {
+        return oVertex.getSchemaType().get().isSubClassOf(EPROXY);
+    }
+
+    private static boolean sameTarget(OVertex to, OVertex target, String proxyURI) {
+        if (target != null) {
+            return to.equals(target);
+        }
+        return isProxy(to) && Objects.equals(String.valueOf((Object) to.getProperty("uri")), proxyURI);
+    }
+
+    int getInserted() {
+        return inserted;
+    }
+
+    int getUpdated() {
+        return updated;
+    }
+
+    int getUnchanged() {
+        return unchanged;
+    }
+
+    int getDeleted() {
+        return deleted;
+    }
+
+    private static class EdgeKey {
+        private final String fromFragment;
+        private final String feature;
+        private final Integer index;
+
+        EdgeKey(String fromFragment, String feature, Integer index) {
+            this.fromFragment = fromFragment;
+            this.feature = feature;
+            this.index = index;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (!(o instanceof EdgeKey)) return false;
+            EdgeKey edgeKey = (EdgeKey) o;
+            return Objects.equals(fromFragment, edgeKey.fromFragment) &&
+                    Objects.equals(feature, edgeKey.feature) &&
+                    Objects.equals(index, edgeKey.index);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(fromFragment, feature, index);
+        }
+    }
+}
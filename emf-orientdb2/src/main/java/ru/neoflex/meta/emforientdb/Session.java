@@ -4,6 +4,7 @@ import com.orientechnologies.lucene.OLuceneIndexFactory;
 import com.orientechnologies.orient.core.db.ODatabaseDocumentInternal;
 import com.orientechnologies.orient.core.db.ODatabaseRecordThreadLocal;
 import com.orientechnologies.orient.core.db.document.ODatabaseDocument;
+import com.orientechnologies.orient.core.db.record.OIdentifiable;
 import com.orientechnologies.orient.core.id.ORID;
 import com.orientechnologies.orient.core.metadata.schema.OClass;
 import com.orientechnologies.orient.core.metadata.schema.OProperty;
@@ -27,6 +28,9 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.Closeable;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.sql.Timestamp;
 import java.util.*;
 import java.util.function.Consumer;
@@ -35,12 +39,12 @@ import java.util.stream.Collectors;
 import java.util.stream.Stream;
 import java.util.stream.StreamSupport;
 
-import static org.eclipse.emf.ecore.util.EcoreUtil.isAncestor;
-
 public class Session implements Closeable {
     public static final String EREFERENCE = "EReference";
     public static final String EOBJECT = "EObject";
     public static final String EPROXY = "EProxy";
+    public static final String ESCHEMA = "ESchema";
+    public static final String SCHEMA_VERSION = "1";
     public static final String ORIENTDB_SOURCE = "http://orientdb.com/meta";
     public static final String ANN_O_CLASS_NAME = "oClassName";
     private static final Logger logger = LoggerFactory.getLogger(Session.class);
@@ -200,50 +204,220 @@ public class Session implements Closeable {
     }
 
     public void createSchema() {
+        createSchema(false);
+    }
+
+    /**
+     * Synchronizes the OrientDB schema with the registered EPackages.
+     * A fingerprint of every synchronized package is stored in the database, packages with an unchanged
+     * fingerprint are skipped, so only new classes, properties and indexes are created.
+     * @param deferIndexes do not create the non unique indexes, return them instead
+     * @return per package the features whose indexes are left to {@link #createIndexes(Map)}
+     */
+    public Map<EPackage, List<EStructuralFeature>> createSchema(boolean deferIndexes) {
         ((ODatabaseDocumentInternal) db).setUseLightweightEdges(false);
         getOrCreateEProxyClass();
         getOrCreateEReferenceEdge();
-        for (EClass eClass : factory.getEClasses()) {
-            OClass oClass = getOrCreateOClass(eClass);
+        getOrCreateESchemaClass();
+        Map<String, String> fingerprints = getSchemaFingerprints();
+        Map<EPackage, List<EStructuralFeature>> deferred = new LinkedHashMap<>();
+        for (EPackage ePackage: factory.getPackages()) {
+            String fingerprint = getSchemaFingerprint(ePackage);
+            if (fingerprint.equals(fingerprints.get(ePackage.getNsURI())) && isSchemaCreated(ePackage)) {
+                for (EClass eClass: getEClasses(ePackage)) {
+                    factory.oClassToUriMap.put(getOClassName(eClass), EcoreUtil.getURI(eClass));
+                }
+                logger.debug("Schema of " + ePackage.getNsURI() + " is up to date");
+                continue;
+            }
+            logger.info("Synchronizing schema of " + ePackage.getNsURI());
+            List<EStructuralFeature> indexes = new ArrayList<>();
+            for (EClass eClass: getEClasses(ePackage)) {
+                createSchema(eClass, deferIndexes ? indexes : null);
+            }
+            if (indexes.isEmpty()) {
+                putSchemaFingerprint(ePackage.getNsURI(), fingerprint);
+            }
+            else {
+                deferred.put(ePackage, indexes);
+            }
+        }
+        return deferred;
+    }
+
+    /**
+     * Creates the indexes deferred by {@link #createSchema(boolean)} and stores the fingerprints of their packages
+     */
+    public void createIndexes(Map<EPackage, List<EStructuralFeature>> deferred) {
+        for (Map.Entry<EPackage, List<EStructuralFeature>> entry: deferred.entrySet()) {
+            for (EStructuralFeature sf: entry.getValue()) {
+                OClass oClass = db.getClass(getOClassName(sf.getEContainingClass()));
+                logger.info("Creating index for " + oClass.getName() + "." + sf.getName());
+                createIndexIfRequired(oClass, sf);
+            }
+            putSchemaFingerprint(entry.getKey().getNsURI(), getSchemaFingerprint(entry.getKey()));
+        }
+    }
+
+    private void createSchema(EClass eClass, List<EStructuralFeature> deferredIndexes) {
+        OClass oClass = getOrCreateOClass(eClass);
 //            OProperty idProperty = oClass.getProperty("_id");
 //            if (idProperty == null) {
 //                oClass.createProperty("_id", OType.STRING);
 //            }
-            EAttribute id = null;
-            for (EStructuralFeature sf : eClass.getEStructuralFeatures()) {
-                if (!sf.isDerived() && !sf.isTransient()) {
-                    if (sf instanceof EReference && !((EReference) sf).isContainment()) {
-                        continue;
+        EAttribute id = null;
+        for (EStructuralFeature sf : eClass.getEStructuralFeatures()) {
+            if (!sf.isDerived() && !sf.isTransient()) {
+                if (sf instanceof EReference && !((EReference) sf).isContainment()) {
+                    continue;
+                }
+                OProperty oProperty = oClass.getProperty(sf.getName());
+                if (oProperty == null) {
+                    createProperty(oClass, sf);
+                }
+                if (sf instanceof EAttribute) {
+                    EAttribute eAttribute = (EAttribute) sf;
+                    if (eAttribute.isID()) {
+                        id = eAttribute;
                     }
-                    OProperty oProperty = oClass.getProperty(sf.getName());
-                    if (oProperty == null) {
-                        createProperty(oClass, sf);
+                    if (deferredIndexes != null && isIndexRequired(oClass, sf)) {
+                        deferredIndexes.add(sf);
                     }
-                    if (sf instanceof EAttribute) {
-                        EAttribute eAttribute = (EAttribute) sf;
-                        if (eAttribute.isID()) {
-                            id = eAttribute;
-                        }
+                    else {
                         createIndexIfRequired(oClass, sf);
                     }
                 }
             }
-            if (id != null) {
-                String name = oClass.getName() + "_" + id.getName() + "_pk";
-                if (oClass.getClassIndex(name) == null) {
-                    logger.info("Creating unique index " + name);
-                    oClass.createIndex(name, OClass.INDEX_TYPE.UNIQUE, id.getName());
+        }
+        if (id != null) {
+            String name = oClass.getName() + "_" + id.getName() + "_pk";
+            if (oClass.getClassIndex(name) == null) {
+                logger.info("Creating unique index " + name);
+                oClass.createIndex(name, OClass.INDEX_TYPE.UNIQUE, id.getName());
+            }
+        }
+        EStructuralFeature qNameFeature = factory.getQNameFeature(eClass);
+        if (qNameFeature != null && qNameFeature.getEContainingClass().equals(eClass) && qNameFeature != id) {
+            String name = oClass.getName() + "_" + qNameFeature.getName() + "_ak";
+            if (oClass.getClassIndex(name) == null) {
+                logger.info("Creating unique index " + name);
+                oClass.createIndex(name, OClass.INDEX_TYPE.UNIQUE, qNameFeature.getName());
+            }
+        }
+    }
+
+    private List<EClass> getEClasses(EPackage ePackage) {
+        return ePackage.getEClassifiers().stream()
+                .filter(eClassifier -> eClassifier instanceof EClass)
+                .map(eClassifier -> (EClass) eClassifier)
+                .collect(Collectors.toList());
+    }
+
+    private boolean isSchemaCreated(EPackage ePackage) {
+        for (EClass eClass: getEClasses(ePackage)) {
+            if (db.getClass(getOClassName(eClass)) == null) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    public OClass getOrCreateESchemaClass() {
+        OClass oClass = db.getClass(ESCHEMA);
+        if (oClass == null) {
+            oClass = db.createClass(ESCHEMA);
+            oClass.createProperty("nsURI", OType.STRING);
+            oClass.createProperty("fingerprint", OType.STRING);
+            oClass.createIndex(ESCHEMA + "_nsURI_ak", OClass.INDEX_TYPE.UNIQUE, "nsURI");
+        }
+        return oClass;
+    }
+
+    /**
+     * Fingerprints of the synchronized packages stored in the database by nsURI
+     */
+    public Map<String, String> getSchemaFingerprints() {
+        Map<String, String> result = new HashMap<>();
+        try (OResultSet rs = db.query("select nsURI, fingerprint from " + ESCHEMA)) {
+            while (rs.hasNext()) {
+                OResult oResult = rs.next();
+                result.put(oResult.getProperty("nsURI"), oResult.getProperty("fingerprint"));
+            }
+        }
+        return result;
+    }
+
+    public void putSchemaFingerprint(String nsURI, String fingerprint) {
+        ODocument oDocument;
+        try (OResultSet rs = db.query("select from " + ESCHEMA + " where nsURI=?", nsURI)) {
+            oDocument = rs.hasNext() ? (ODocument) rs.next().getElement().get() : new ODocument(ESCHEMA);
+        }
+        oDocument.field("nsURI", nsURI);
+        oDocument.field("fingerprint", fingerprint);
+        db.save(oDocument);
+    }
+
+    /**
+     * Hash of everything createSchema derives from the package: classes, supertypes, persistent features,
+     * their types and OrientDB annotations and the qualified name features.
+     */
+    public String getSchemaFingerprint(EPackage ePackage) {
+        StringBuilder sb = new StringBuilder(SCHEMA_VERSION).append(';').append(ePackage.getNsURI());
+        for (EClass eClass: getEClasses(ePackage)) {
+            sb.append("\nclass ").append(getOClassName(eClass))
+                    .append(eClass.isAbstract() || isAbstract(eClass) ? " abstract" : "");
+            for (EClass eSuperType: eClass.getESuperTypes()) {
+                sb.append(" ").append(getOClassName(eSuperType));
+            }
+            appendAnnotations(sb, eClass);
+            for (EStructuralFeature sf: eClass.getEStructuralFeatures()) {
+                if (sf.isDerived() || sf.isTransient()) {
+                    continue;
                 }
+                sb.append("\n ").append(sf.getName()).append(sf.isMany() ? "*" : "");
+                if (sf instanceof EReference) {
+                    EReference eReference = (EReference) sf;
+                    sb.append(eReference.isContainment() ? " contains " : " refers ")
+                            .append(getOClassName(eReference.getEReferenceType()));
+                }
+                else {
+                    EAttribute eAttribute = (EAttribute) sf;
+                    sb.append(" ").append(convertEDataType(eAttribute.getEAttributeType()))
+                            .append(eAttribute.isID() ? " id" : "");
+                }
+                appendAnnotations(sb, sf);
             }
             EStructuralFeature qNameFeature = factory.getQNameFeature(eClass);
-            if (qNameFeature != null && qNameFeature.getEContainingClass().equals(eClass) && qNameFeature != id) {
-                String name = oClass.getName() + "_" + qNameFeature.getName() + "_ak";
-                if (oClass.getClassIndex(name) == null) {
-                    logger.info("Creating unique index " + name);
-                    oClass.createIndex(name, OClass.INDEX_TYPE.UNIQUE, qNameFeature.getName());
-                }
+            if (qNameFeature != null) {
+                sb.append("\n qName ").append(qNameFeature.getEContainingClass().getName()).append(".").append(qNameFeature.getName());
             }
         }
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-256").digest(sb.toString().getBytes(StandardCharsets.UTF_8));
+            StringBuilder hex = new StringBuilder();
+            for (byte b: digest) {
+                hex.append(String.format("%02x", b));
+            }
+            return hex.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static void appendAnnotations(StringBuilder sb, EModelElement element) {
+        EAnnotation eAnnotation = element.getEAnnotation(ORIENTDB_SOURCE);
+        if (eAnnotation != null) {
+            new TreeMap<>(eAnnotation.getDetails().map()).forEach((key, value) -> sb.append(" @").append(key).append("=").append(value));
+        }
+    }
+
+    /**
+     * Unique indexes are never deferred, they enforce constraints from the first write
+     */
+    private boolean isIndexRequired(OClass oClass, EStructuralFeature sf) {
+        String indexType = getAnnotation(sf, "indexType", null);
+        return indexType != null && !indexType.startsWith("UNIQUE") &&
+                oClass.getClassIndex(oClass.getName() + "_" + sf.getName() + "_ie") == null;
     }
 
     public void createIndexIfRequired(OClass oClass, EStructuralFeature sf) {
@@ -331,59 +505,61 @@ public class Session implements Closeable {
     }
 
     private void populateOElementCross(EObject eObject, OVertex oElement) {
-        Set<OEdge> edges = StreamSupport.stream(oElement.getEdges(ODirection.OUT, EREFERENCE).spliterator(), false).collect(Collectors.toSet());
-        new EcoreUtil.CrossReferencer(Collections.singleton(eObject)) {
-            {
-                crossReference();
-            }
-
-            protected void add(InternalEObject internalEObject, EReference eReference, EObject crossReferencedEObject) {
-                if (!eReference.isDerived() && !eReference.isTransient() && !eReference.isContainer() && internalEObject.eIsSet(eReference)) {
-                    String fromFragment = EcoreUtil.getRelativeURIFragmentPath(eObject, internalEObject);
-                    String feature = eReference.getName();
+        EdgeReconciler reconciler = new EdgeReconciler(oElement);
+        Map<EObject, String> toFragments = new HashMap<>();
+        Map<EClass, String> eClassURIs = new HashMap<>();
+        Map<Resource, List<ORID>> resourceORIDs = new HashMap<>();
+        Map<ORID, OVertex> vertices = new HashMap<>();
+        Iterator<EObject> it = EcoreUtil.getAllContents(Collections.singleton(eObject), true);
+        while (it.hasNext()) {
+            EObject internalEObject = it.next();
+            String fromFragment = EcoreUtil.getRelativeURIFragmentPath(eObject, internalEObject);
+            for (EReference eReference : internalEObject.eClass().getEAllReferences()) {
+                if (eReference.isContainment() || eReference.isContainer() || eReference.isDerived() ||
+                        eReference.isTransient() || !internalEObject.eIsSet(eReference)) {
+                    continue;
+                }
+                Object value = internalEObject.eGet(eReference);
+                List<EObject> crossReferenced = eReference.isMany() ? (List<EObject>) value : Collections.singletonList((EObject) value);
+                for (int i = 0; i < crossReferenced.size(); ++i) {
+                    EObject crossReferencedEObject = crossReferenced.get(i);
+                    if (crossReferencedEObject == null) {
+                        continue;
+                    }
+                    int index = !eReference.isMany() ? -1 : i;
                     EObject crossReferencedRoot = EcoreUtil.getRootContainer(crossReferencedEObject);
-                    String toFragment = EcoreUtil.getRelativeURIFragmentPath(crossReferencedRoot, crossReferencedEObject);
-                    int index = !eReference.isMany() ? -1 : ((EList) internalEObject.eGet(eReference)).indexOf(crossReferencedEObject);
+                    String toFragment = toFragments.computeIfAbsent(crossReferencedEObject,
+                            cr -> EcoreUtil.getRelativeURIFragmentPath(crossReferencedRoot, cr));
+                    String eClassUri = eClassURIs.computeIfAbsent(crossReferencedEObject.eClass(),
+                            eClass -> EcoreUtil.getURI(eClass).toString());
                     OVertex crVertex = null;
-                    if (!isAncestor(emfObjects, crossReferencedEObject)) { // external reference
-                        URI crURI = EcoreUtil.getURI(crossReferencedEObject);
-                        List<ORID> orids = factory.getORIDs(crURI).collect(Collectors.toList());
-                        int oridIndex = crossReferencedRoot.eResource().getContents().indexOf(crossReferencedRoot);
-                        crVertex = oridIndex >= 0 && orids.size() > oridIndex && orids.get(oridIndex) != null ?
-                                db.load(orids.get(oridIndex)) : createProxyOElement(crURI);
+                    String crURI = null;
+                    if (crossReferencedRoot != eObject) { // external reference
+                        Resource crResource = crossReferencedRoot.eResource();
+                        List<ORID> orids = crResource == null ? Collections.emptyList() :
+                                resourceORIDs.computeIfAbsent(crResource,
+                                        r -> factory.getORIDs(r.getURI()).collect(Collectors.toList()));
+                        int oridIndex = crResource == null ? -1 : crResource.getContents().indexOf(crossReferencedRoot);
+                        if (oridIndex >= 0 && orids.size() > oridIndex && orids.get(oridIndex) != null) {
+                            crVertex = vertices.computeIfAbsent(orids.get(oridIndex), orid -> db.load(orid));
+                        }
+                        else {
+                            crURI = EcoreUtil.getURI(crossReferencedEObject).toString();
+                        }
                     } else { // internal reference
                         crVertex = oElement;
                     }
-                    String eClassUri = EcoreUtil.getURI(crossReferencedEObject.eClass()).toString();
-                    OVertex toVertex = crVertex;
-                    Optional<OEdge> oEdgeOpt = edges.stream().filter(e ->
-                            e.getProperty("fromFragment").equals(fromFragment)
-                            && e.getProperty("feature").equals(feature)
-                            && e.getProperty("toFragment").equals(toFragment)
-                            && e.getProperty("index").equals(index)
-                            && e.getProperty("eClass").equals(eClassUri)
-                            && e.getTo().equals(toVertex)
-                    ).findFirst();
-                    if (oEdgeOpt.isPresent()) {
-                        edges.remove(oEdgeOpt.get());
-                    }
-                    else {
-                        OEdge oEdge = oElement.addEdge(crVertex, EREFERENCE);
-                        oEdge.setProperty("fromFragment", fromFragment);
-                        oEdge.setProperty("feature", feature);
-                        oEdge.setProperty("toFragment", toFragment);
-                        oEdge.setProperty("index", index);
-                        oEdge.setProperty("eClass", eClassUri);
-                        oEdge.save();
-                    }
+                    String proxyURI = crURI;
+                    reconciler.reconcile(fromFragment, eReference.getName(), index, toFragment, eClassUri,
+                            crVertex, proxyURI, () -> createProxyOElement(URI.createURI(proxyURI)));
                 }
             }
-        };
-        for (OEdge oEdge : edges) {
-            if (oEdge.getTo().getSchemaType().get().isSubClassOf(EPROXY)) {
-                oEdge.getTo().delete();
-            }
-            oEdge.delete();
+        }
+        reconciler.finish();
+        if (logger.isDebugEnabled()) {
+            logger.debug(String.format("EReference edges of %s: %d inserted, %d updated, %d unchanged, %d deleted",
+                    oElement.getIdentity(), reconciler.getInserted(), reconciler.getUpdated(),
+                    reconciler.getUnchanged(), reconciler.getDeleted()));
         }
     }
 
@@ -410,6 +586,7 @@ public class Session implements Closeable {
         ResourceSet rs = createResourceSet();
         List<Integer> versions = factory.getVersions(uri).collect(Collectors.toList());
         List<ORID> orids = factory.getORIDs(uri).collect(Collectors.toList());
+        checkDependencies(orids);
         for (int i = 0; i < orids.size(); ++i) {
             ORID orid = orids.get(i);
             Integer version = versions.get(i);
@@ -418,7 +595,6 @@ public class Session implements Closeable {
                 throw new IllegalArgumentException(String.format("Can't delete element with @rid %s", orid.toString()));
             }
             checkVersion(version, oVertex);
-            checkDependencies(oVertex);
             Resource resource = rs.createResource(uri);
             EObject eObject = createEObject(rs, oVertex);
             resource.getContents().add(eObject);
@@ -431,18 +607,30 @@ public class Session implements Closeable {
         ;
     }
 
-    private void checkDependencies(OVertex oVertex) {
-        Set<String> dependent = StreamSupport.stream(oVertex.getEdges(ODirection.IN).spliterator(), false)
-                .filter(oEdge -> !oEdge.getFrom().equals(oVertex))
-                .map(oEdge -> edgeLabel(oEdge))
-                .collect(Collectors.toSet());
+    private void checkDependencies(List<ORID> orids) {
+        if (orids.isEmpty()) {
+            return;
+        }
+        String oset = toOSet(orids);
+        Map<ORID, Set<String>> dependent = new LinkedHashMap<>();
+        try (OResultSet oResultSet = db.query("select from (select expand(inE()) from " + oset + ") where out not in " + oset)) {
+            while (oResultSet.hasNext()) {
+                oResultSet.next().getEdge().ifPresent(oEdge ->
+                        dependent.computeIfAbsent(oEdge.getTo().getIdentity(), orid -> new TreeSet<>()).add(edgeLabel(oEdge)));
+            }
+        }
         if (dependent.size() > 0) {
-            String ids = dependent.stream().collect(Collectors.joining(", "));
+            Map.Entry<ORID, Set<String>> entry = dependent.entrySet().iterator().next();
+            String ids = entry.getValue().stream().collect(Collectors.joining(", "));
             throw new IllegalArgumentException(String.format("Can't delete element %s with references [%s]",
-                    elementLabel(oVertex), ids));
+                    elementLabel(db.load(entry.getKey())), ids));
         }
     }
 
+    private static String toOSet(Collection<ORID> orids) {
+        return "[" + orids.stream().map(Object::toString).collect(Collectors.joining(",")) + "]";
+    }
+
     public void save(Resource resource) {
         ResourceSet rs = createResourceSet();
         Resource oldResource = rs.createResource(resource.getURI());
@@ -718,10 +906,18 @@ public class Session implements Closeable {
     }
 
     public void getDependentResources(ORID orid, Consumer<Supplier<Resource>> consumer) {
+        getDependentResources(Collections.singletonList(orid), consumer);
+    }
+
+    public void getDependentResources(Collection<ORID> orids, Consumer<Supplier<Resource>> consumer) {
+        if (orids.isEmpty()) {
+            return;
+        }
+        String oset = toOSet(orids);
         query("select distinct * from (\n" +
-                "    select expand(in('EReference')) from ?\n" +
+                "    select expand(in('EReference')) from " + oset + "\n" +
                 ")\n" +
-                "where @rid != ?", consumer, orid, orid);
+                "where @rid not in " + oset, consumer);
     }
 
     public void getDependentResources(Resource resource, Consumer<Supplier<Resource>> consumer) {
@@ -729,21 +925,47 @@ public class Session implements Closeable {
     }
 
     public void getDependentResources(URI uri, Consumer<Supplier<Resource>> consumer) {
-        factory.getORIDs(uri).forEach(orid -> {
-            getDependentResources(orid, consumer);
-        });
+        getDependentResources(factory.getORIDs(uri).filter(Objects::nonNull).collect(Collectors.toList()), consumer);
     }
 
     public List<Resource> getDependentResources(Stream<ORID> orids) {
         List<Resource> resources = new ArrayList<>();
-        orids.forEach(orid -> {
-            getDependentResources(orid, resourceSupplier -> {
-                resources.add(resourceSupplier.get());
-            });
+        getDependentResources(orids.filter(Objects::nonNull).collect(Collectors.toList()), resourceSupplier -> {
+            resources.add(resourceSupplier.get());
         });
         return resources;
     }
 
+    /**
+     * Finds the resources referring to any of the elements with one traversal over the incoming EReference edges.
+     * Resources are not loaded, the result contains URIs with the current versions.
+     * @param depth 1 for direct dependents, greater value for the transitive closure up to depth, negative value for unlimited closure
+     */
+    public List<URI> getDependentURIs(Collection<ORID> orids, int depth) {
+        List<URI> result = new ArrayList<>();
+        if (orids.isEmpty() || depth == 0) {
+            return result;
+        }
+        String oset = toOSet(orids);
+        String sql = "select @rid as rid, @version as version from (\n" +
+                "    traverse in('EReference') from " + oset + (depth > 0 ? " maxdepth " + depth : "") + "\n" +
+                ")\n" +
+                "where @rid not in " + oset + " and @class <> '" + EPROXY + "'";
+        try (OResultSet oResultSet = db.query(sql)) {
+            while (oResultSet.hasNext()) {
+                OResult oResult = oResultSet.next();
+                ORID rid = ((OIdentifiable) oResult.getProperty("rid")).getIdentity();
+                Integer version = oResult.getProperty("version");
+                result.add(factory.createURI(factory.getId(rid) + "?rev=" + version));
+            }
+        }
+        return result;
+    }
+
+    public List<URI> getDependentURIs(URI uri, int depth) {
+        return getDependentURIs(factory.getORIDs(uri).filter(Objects::nonNull).collect(Collectors.toList()), depth);
+    }
+
     public List<Resource> getDependentResources(Resource resource) {
         return getDependentResources(factory.getORIDs(resource.getURI()));
     }
@@ -16,6 +16,7 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
 import java.util.function.Function;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
@@ -30,6 +31,8 @@ public abstract class SessionFactory {
     protected final List<EPackage> packages;
     Map<String, URI> oClassToUriMap = new HashMap<>();
     private Events events = new Events();
+    private boolean backgroundIndexing = false;
+    private volatile CompletableFuture<Void> indexBuild = CompletableFuture.completedFuture(null);
 
     public SessionFactory(String dbName, List<EPackage> packages) {
         this.dbName = dbName;
@@ -58,10 +61,44 @@ public abstract class SessionFactory {
         return eClasses;
     }
 
+    /**
+     * Synchronizes the schema of the changed packages.
+     * If background indexing is on, the new non unique indexes are built in a separate thread,
+     * {@link #getIndexBuild()} completes when they are ready.
+     */
     public void createSchema() {
+        Map<EPackage, List<EStructuralFeature>> deferred;
         try (Session session = createSession()) {
-            session.createSchema();
+            deferred = session.createSchema(backgroundIndexing);
         }
+        if (deferred.isEmpty()) {
+            return;
+        }
+        indexBuild = CompletableFuture.runAsync(() -> {
+            try (Session session = createSession()) {
+                session.createIndexes(deferred);
+            }
+        }, runnable -> {
+            Thread thread = new Thread(runnable, dbName + "-indexes");
+            thread.setDaemon(true);
+            thread.start();
+        }).whenComplete((result, e) -> {
+            if (e != null) {
+                logger.error("Building indexes of " + dbName, e);
+            }
+        });
+    }
+
+    public boolean isBackgroundIndexing() {
+        return backgroundIndexing;
+    }
+
+    public void setBackgroundIndexing(boolean backgroundIndexing) {
+        this.backgroundIndexing = backgroundIndexing;
+    }
+
+    public CompletableFuture<Void> getIndexBuild() {
+        return indexBuild;
     }
 
     public URI createURI() {
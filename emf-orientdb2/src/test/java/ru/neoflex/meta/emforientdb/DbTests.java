@@ -1,5 +1,9 @@
 package ru.neoflex.meta.emforientdb;
 
+import com.orientechnologies.orient.core.id.ORID;
+import org.eclipse.emf.common.util.URI;
+import org.eclipse.emf.ecore.EPackage;
+import org.eclipse.emf.ecore.EStructuralFeature;
 import org.eclipse.emf.ecore.EcorePackage;
 import org.eclipse.emf.ecore.resource.Resource;
 import org.eclipse.emf.ecore.resource.ResourceSet;
@@ -12,6 +16,9 @@ import ru.neoflex.meta.test.*;
 
 import java.util.Collections;
 import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 public class DbTests extends TestBase {
 
@@ -172,6 +179,21 @@ public class DbTests extends TestBase {
             List<Resource> refs = session.getDependentResources(userRes);
             Assert.assertEquals(1, refs.size());
         });
+        server.withSession(session -> {
+            URI userURI = session.query("select from test_DBTable where qName=?", "USER").get(0).getURI();
+            URI groupURI = session.query("select from test_DBTable where qName=?", "GROUP").get(0).getURI();
+            URI viewURI = session.query("select from test_DBView").get(0).getURI();
+            List<ORID> orids = Stream.concat(
+                    session.getFactory().getORIDs(userURI),
+                    session.getFactory().getORIDs(groupURI)
+            ).collect(Collectors.toList());
+            List<URI> direct = session.getDependentURIs(orids, 1);
+            Assert.assertEquals(1, direct.size());
+            Assert.assertEquals(viewURI.trimQuery(), direct.get(0).trimQuery());
+            Assert.assertEquals(2, session.getDependentURIs(groupURI, 1).size());
+            Assert.assertEquals(2, session.getDependentURIs(groupURI, -1).size());
+            Assert.assertEquals(0, session.getDependentURIs(viewURI, -1).size());
+        });
 //        sleepForever();
     }
 
@@ -210,4 +232,48 @@ public class DbTests extends TestBase {
             });
         }
     }
+
+    @Test
+    public void schemaFingerprintTest() throws Exception {
+        String nsURI = TestPackage.eINSTANCE.getNsURI();
+        server.withSession(session -> {
+            String fingerprint = session.getSchemaFingerprint(TestPackage.eINSTANCE);
+            Assert.assertEquals(fingerprint, session.getSchemaFingerprints().get(nsURI));
+            Assert.assertTrue(session.createSchema(false).isEmpty());
+            session.putSchemaFingerprint(nsURI, "changed");
+            Assert.assertEquals("changed", session.getSchemaFingerprints().get(nsURI));
+        });
+        server.createSchema();
+        server.getIndexBuild().get();
+        server.withSession(session -> {
+            Assert.assertEquals(session.getSchemaFingerprint(TestPackage.eINSTANCE), session.getSchemaFingerprints().get(nsURI));
+            Assert.assertEquals(1, session.getSchemaFingerprints().size());
+        });
+    }
+
+    @Test
+    public void backgroundIndexingTest() throws Exception {
+        String nsURI = TestPackage.eINSTANCE.getNsURI();
+        String indexName = "test_DBView_isMaterialized_ie";
+        server.withSession(session -> {
+            session.getDatabaseDocument().command("DROP INDEX " + indexName).close();
+            session.putSchemaFingerprint(nsURI, "changed");
+            Map<EPackage, List<EStructuralFeature>> deferred = session.createSchema(true);
+            Assert.assertEquals(Collections.singletonList(TestPackage.eINSTANCE.getDBView_IsMaterialized()),
+                    deferred.get(TestPackage.eINSTANCE));
+            Assert.assertEquals("changed", session.getSchemaFingerprints().get(nsURI));
+        });
+        server.setBackgroundIndexing(true);
+        try {
+            server.createSchema();
+            server.getIndexBuild().get();
+        }
+        finally {
+            server.setBackgroundIndexing(false);
+        }
+        server.withSession(session -> {
+            Assert.assertNotNull(session.getDatabaseDocument().getClass("test_DBView").getClassIndex(indexName));
+            Assert.assertEquals(session.getSchemaFingerprint(TestPackage.eINSTANCE), session.getSchemaFingerprints().get(nsURI));
+        });
+    }
 }
@@ -3,9 +3,7 @@ package ru.neoflex.meta.emforientdb;
 import org.eclipse.emf.ecore.resource.Resource;
 import org.eclipse.emf.ecore.resource.ResourceSet;
 import org.junit.*;
-import ru.neoflex.meta.test.Group;
-import ru.neoflex.meta.test.TestFactory;
-import ru.neoflex.meta.test.User;
+import ru.neoflex.meta.test.*;
 
 import java.util.ArrayList;
 import java.util.List;
@@ -119,4 +117,56 @@ public class PerfTests extends TestBase {
         Assert.assertEquals(0, eCount.get());
 //        sleepForever();
     }
+
+    @Test
+    public void crossReferencesTest() throws Exception {
+        for (int nColumns: new int[] {1000, 5000}) {
+            String tableName = "TABLE_" + nColumns;
+            String viewName = "VIEW_" + nColumns;
+            server.inTransaction(session -> {
+                ResourceSet rs = session.createResourceSet();
+                DBTable table = TestFactory.eINSTANCE.createDBTable();
+                table.setQName(tableName);
+                for (int i = 0; i < nColumns; ++i) {
+                    Column column = TestFactory.eINSTANCE.createColumn();
+                    column.setName("COLUMN_" + i);
+                    column.setDbType("STRING");
+                    table.getColumns().add(column);
+                }
+                Resource tableResource = rs.createResource(server.createURI());
+                tableResource.getContents().add(table);
+                tableResource.save(null);
+            });
+            long start = System.currentTimeMillis();
+            server.inTransaction(session -> {
+                ResourceSet rs = session.createResourceSet();
+                Resource tableResource = session.query("select from test_DBTable where qName=?", tableName).get(0);
+                DBTable table = (DBTable) tableResource.getContents().get(0);
+                DBView view = TestFactory.eINSTANCE.createDBView();
+                view.setQName(viewName);
+                view.getColumns().addAll(table.getColumns());
+                Resource viewResource = rs.createResource(server.createURI());
+                viewResource.getContents().add(view);
+                viewResource.save(null);
+            });
+            long created = System.currentTimeMillis();
+            server.inTransaction(session -> {
+                Resource viewResource = session.query("select from test_DBView where qName=?", viewName).get(0);
+                DBView view = (DBView) viewResource.getContents().get(0);
+                view.setIsMaterialized(true);
+                view.getColumns().move(0, nColumns - 1);
+                viewResource.save(null);
+            });
+            long updated = System.currentTimeMillis();
+            server.withSession(session -> {
+                Resource viewResource = session.query("select from test_DBView where qName=?", viewName).get(0);
+                DBView view = (DBView) viewResource.getContents().get(0);
+                Assert.assertEquals(nColumns, view.getColumns().size());
+                Assert.assertEquals("COLUMN_" + (nColumns - 1), view.getColumns().get(0).getName());
+                Assert.assertEquals("COLUMN_0", view.getColumns().get(1).getName());
+            });
+            System.out.println("Saved view with " + nColumns + " references in " + (created - start) + " ms");
+            System.out.println("Updated view with " + nColumns + " references in " + (updated - created) + " ms");
+        }
+    }
 }
@@ -36,11 +36,7 @@ public class EMFDeserializers extends Deserializers.Base {
 	private final EObjectPropertyMap.Builder builder;
 
 	public EMFDeserializers(EMFModule module) {
-		this.builder = new EObjectPropertyMap.Builder(
-				module.getIdentityInfo(),
-				module.getTypeInfo(),
-				module.getReferenceInfo(),
-				module.getFeatures());
+		this.builder = module.getPropertyMapBuilder();
 		this._resourceDeserializer = new ResourceDeserializer(module.getUriHandler());
 		this._referenceDeserializer = module.getReferenceDeserializer();
 		this._mapDeserializer = new EMapDeserializer();
@@ -30,7 +30,8 @@ public class EObjectPropertyMap {
 
 	public static class Builder {
 
-		private final Map<EClass, EObjectPropertyMap> cache = new WeakHashMap<>();
+		private final Map<EClass, EObjectPropertyMap> cache = Collections.synchronizedMap(new WeakHashMap<>());
+		private final Set<EPackage> cachedPackages = Collections.newSetFromMap(Collections.synchronizedMap(new WeakHashMap<>()));
 
 		private final EcoreIdentityInfo identityInfo;
 		private final EcoreTypeInfo typeInfo;
@@ -67,13 +68,15 @@ public class EObjectPropertyMap {
 		private void buildCache(DatabindContext ctxt) {
 			ResourceSet resourceSet = EMFContext.getResourceSet(ctxt);
 
+			// packages are scanned once, property maps of their classes are kept for the builder lifetime
 			Set<EClass> types = resourceSet.getPackageRegistry().values().stream()
+					.filter(model -> model instanceof EPackage && cachedPackages.add((EPackage) model))
 					.flatMap(model -> stream(spliteratorUnknownSize(((EPackage) model).eAllContents(), ORDERED), false))
 					.filter(e -> e instanceof EClass)
 					.map(e -> (EClass) e)
 					.collect(Collectors.toSet());
 
-			types.forEach(type -> cache.put(type, construct(ctxt, type)));
+			types.forEach(type -> construct(ctxt, type));
 		}
 
 		private EObjectPropertyMap createPropertyMap(DatabindContext ctxt, EClass type) {
@@ -40,7 +40,7 @@ public class EMFSerializers extends Serializers.Base {
 	private final JsonSerializer<?> _enumeratorSerializer = new EnumeratorSerializer();
 
 	public EMFSerializers(EMFModule module) {
-		this.propertiesBuilder = EObjectPropertyMap.Builder.from(module, module.getFeatures());
+		this.propertiesBuilder = module.getPropertyMapBuilder();
 		this._referenceSerializer = module.getReferenceSerializer();
 	}
 
@@ -25,6 +25,7 @@ import org.emfjson.jackson.annotations.EcoreTypeInfo;
 import org.emfjson.jackson.databind.deser.EMFDeserializers;
 import org.emfjson.jackson.databind.deser.EcoreReferenceDeserializer;
 import org.emfjson.jackson.databind.deser.ReferenceEntry;
+import org.emfjson.jackson.databind.property.EObjectPropertyMap;
 import org.emfjson.jackson.databind.ser.EMFSerializers;
 import org.emfjson.jackson.databind.ser.EcoreReferenceSerializer;
 import org.emfjson.jackson.handlers.BaseURIHandler;
@@ -49,16 +50,21 @@ public class EMFModule extends SimpleModule {
 	private JsonSerializer<EObject> referenceSerializer;
 	private JsonDeserializer<ReferenceEntry> referenceDeserializer;
 
+	private transient EObjectPropertyMap.Builder propertyMapBuilder;
+
 	public void setTypeInfo(EcoreTypeInfo info) {
 		this.typeInfo = info;
+		this.propertyMapBuilder = null;
 	}
 
 	public void setIdentityInfo(EcoreIdentityInfo identityInfo) {
 		this.identityInfo = identityInfo;
+		this.propertyMapBuilder = null;
 	}
 
 	public void setReferenceInfo(EcoreReferenceInfo referenceInfo) {
 		this.referenceInfo = referenceInfo;
+		this.propertyMapBuilder = null;
 	}
 
 	public void setReferenceSerializer(JsonSerializer<EObject> serializer) {
@@ -202,6 +208,10 @@ public class EMFModule extends SimpleModule {
 			referenceDeserializer = new EcoreReferenceDeserializer(referenceInfo, typeInfo);
 		}
 
+		if (propertyMapBuilder == null) {
+			propertyMapBuilder = EObjectPropertyMap.Builder.from(this, getFeatures());
+		}
+
 		EMFDeserializers deserializers = new EMFDeserializers(this);
 		EMFSerializers serializers = new EMFSerializers(this);
 
@@ -223,11 +233,13 @@ public class EMFModule extends SimpleModule {
 
 	private EMFModule enable(Feature f) {
 		_moduleFeatures |= f.getMask();
+		propertyMapBuilder = null;
 		return this;
 	}
 
 	private EMFModule disable(Feature f) {
 		_moduleFeatures &= ~f.getMask();
+		propertyMapBuilder = null;
 		return this;
 	}
 
@@ -293,4 +305,17 @@ public class EMFModule extends SimpleModule {
 		return referenceInfo;
 	}
 
+	/**
+	 * Returns the property map builder shared by the serializers and deserializers of this module,
+	 * so that property maps are computed once per EClass for all mappers using the module.
+	 *
+	 * @return builder
+	 */
+	public EObjectPropertyMap.Builder getPropertyMapBuilder() {
+		if (propertyMapBuilder == null) {
+			propertyMapBuilder = EObjectPropertyMap.Builder.from(this, getFeatures());
+		}
+		return propertyMapBuilder;
+	}
+
 }
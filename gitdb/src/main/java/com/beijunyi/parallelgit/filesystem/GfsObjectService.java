@@ -3,6 +3,9 @@ package com.beijunyi.parallelgit.filesystem;
 import java.io.Closeable;
 import java.io.IOException;
 import java.nio.file.ClosedFileSystemException;
+import java.util.Queue;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentLinkedQueue;
 import javax.annotation.Nonnull;
 
 import com.beijunyi.parallelgit.utils.BlobUtils;
@@ -13,16 +16,27 @@ import static org.eclipse.jgit.lib.Constants.*;
 
 public class GfsObjectService implements Closeable {
 
+  /** readers above the limit are closed when released */
+  static final int MAX_IDLE_READERS = Math.max(4, Runtime.getRuntime().availableProcessors());
+
   private final Repository repo;
   private final ObjectReader reader;
   private final ObjectInserter inserter;
+  private final GfsObjectCache cache;
+  private final Queue<ObjectReader> idleReaders = new ArrayBlockingQueue<>(MAX_IDLE_READERS);
+  private final Queue<ObjectReader> allReaders = new ConcurrentLinkedQueue<>();
 
   private volatile boolean closed = false;
 
   GfsObjectService(final Repository repo) {
+    this(repo, GfsObjectCache.getDefault());
+  }
+
+  GfsObjectService(final Repository repo, GfsObjectCache cache) {
     this.repo = repo;
     this.reader = repo.newObjectReader();
     this.inserter = repo.newObjectInserter();
+    this.cache = cache;
   }
 
   @Nonnull
@@ -30,6 +44,11 @@ public class GfsObjectService implements Closeable {
     return repo;
   }
 
+  @Nonnull
+  public GfsObjectCache getCache() {
+    return cache;
+  }
+
   @Nonnull
   public ObjectLoader open(AnyObjectId objectId) throws IOException {
     checkClosed();
@@ -40,8 +59,11 @@ public class GfsObjectService implements Closeable {
 
   public boolean hasObject(AnyObjectId objectId) throws IOException {
     checkClosed();
-    synchronized(reader) {
-      return reader.has(objectId);
+    ObjectReader r = acquireReader();
+    try {
+      return r.has(objectId);
+    } finally {
+      releaseReader(r);
     }
   }
 
@@ -57,24 +79,48 @@ public class GfsObjectService implements Closeable {
   @Nonnull
   public BlobSnapshot readBlob(ObjectId id) throws IOException {
     checkClosed();
-    synchronized(reader) {
-      return BlobUtils.readBlob(id, reader);
+    BlobSnapshot ret = cache.getBlob(id);
+    if(ret != null)
+      return ret;
+    ObjectReader r = acquireReader();
+    try {
+      if(BlobUtils.getBlobSize(id, r) > cache.getMaxBlobSize())
+        return BlobUtils.readBlob(id, r);
+      ret = BlobSnapshot.loaded(id.copy(), r.open(id, OBJ_BLOB).getCachedBytes());
+    } finally {
+      releaseReader(r);
     }
+    cache.putBlob(ret);
+    return ret;
   }
 
   public long getBlobSize(ObjectId id) throws IOException {
     checkClosed();
-    synchronized(reader) {
-      return BlobUtils.getBlobSize(id, reader);
+    BlobSnapshot blob = cache.getBlob(id);
+    if(blob != null)
+      return blob.getData().length;
+    ObjectReader r = acquireReader();
+    try {
+      return BlobUtils.getBlobSize(id, r);
+    } finally {
+      releaseReader(r);
     }
   }
 
   @Nonnull
   public TreeSnapshot readTree(ObjectId id) throws IOException {
     checkClosed();
-    synchronized(reader) {
-      return TreeSnapshot.load(id, reader);
+    TreeSnapshot ret = cache.getTree(id);
+    if(ret != null)
+      return ret;
+    ObjectReader r = acquireReader();
+    try {
+      ret = TreeSnapshot.load(id, r);
+    } finally {
+      releaseReader(r);
     }
+    cache.putTree(ret);
+    return ret;
   }
 
   @Nonnull
@@ -116,6 +162,10 @@ public class GfsObjectService implements Closeable {
       closed = true;
       reader.close();
       inserter.close();
+      for(ObjectReader r : allReaders)
+        r.close();
+      allReaders.clear();
+      idleReaders.clear();
       //repo.close();
     }
   }
@@ -131,6 +181,27 @@ public class GfsObjectService implements Closeable {
     write(sourceObjService.readBlob(id));
   }
 
+  @Nonnull
+  private ObjectReader acquireReader() {
+    ObjectReader ret = idleReaders.poll();
+    if(ret == null) {
+      ret = repo.newObjectReader();
+      allReaders.add(ret);
+    }
+    return ret;
+  }
+
+  private void releaseReader(ObjectReader r) {
+    if(closed || !idleReaders.offer(r)) {
+      allReaders.remove(r);
+      r.close();
+    }
+  }
+
+  int getReaderCount() {
+    return allReaders.size();
+  }
+
   private void checkClosed() {
     if(closed) throw new ClosedFileSystemException();
   }
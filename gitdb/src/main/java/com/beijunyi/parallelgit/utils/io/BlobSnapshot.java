@@ -1,5 +1,6 @@
 package com.beijunyi.parallelgit.utils.io;
 
+import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
@@ -29,6 +30,11 @@ public class BlobSnapshot extends ObjectSnapshot<byte[]> {
     reader = null;
   }
 
+  private BlobSnapshot(byte[] data, ObjectId id) {
+    super(data, id);
+    reader = null;
+  }
+
   @Nonnull
   @Override
   public byte[] getData() throws IOException {
@@ -69,6 +75,11 @@ public class BlobSnapshot extends ObjectSnapshot<byte[]> {
     }
   }
 
+  @Nonnull
+  public static BlobSnapshot loaded(ObjectId id, byte[] bytes) {
+    return new BlobSnapshot(bytes, id);
+  }
+
   @Nonnull
   public static BlobSnapshot capture(byte[] bytes) {
     return new BlobSnapshot(bytes);
@@ -92,6 +103,9 @@ public class BlobSnapshot extends ObjectSnapshot<byte[]> {
   }
 
   public InputStream getInputStream() throws IOException {
+    if (data != null) {
+      return new ByteArrayInputStream(data);
+    }
     synchronized (reader) {
       return reader.open(id).openStream();
     }
@@ -0,0 +1,119 @@
+package ru.neoflex.meta.gitdb;
+
+import java.lang.ref.SoftReference;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * LRU cache of parsed entity content keyed by git blob id (entity rev).
+ * Blob id is a content hash, so cached values never become stale and no invalidation is required.
+ * Cache is bounded by total weight (size of the source blobs), values are softly referenced
+ * and may be reclaimed by GC under memory pressure.
+ * Cached values are shared between transactions and must be treated as read-only.
+ */
+public class ContentCache<V> {
+    public static final long DEFAULT_MAX_WEIGHT = 64L * 1024 * 1024;
+    private final LinkedHashMap<String, CacheEntry<V>> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private long maxWeight;
+    private long weight = 0;
+    private long hits = 0;
+    private long misses = 0;
+    private long evictions = 0;
+
+    public ContentCache() {
+        this(DEFAULT_MAX_WEIGHT);
+    }
+
+    public ContentCache(long maxWeight) {
+        this.maxWeight = maxWeight;
+    }
+
+    public synchronized V get(String rev) {
+        if (rev == null) {
+            return null;
+        }
+        CacheEntry<V> entry = entries.get(rev);
+        V value = entry == null ? null : entry.value.get();
+        if (value == null) {
+            if (entry != null) {
+                remove(rev);
+            }
+            ++misses;
+            return null;
+        }
+        ++hits;
+        return value;
+    }
+
+    public synchronized void put(String rev, V value, long valueWeight) {
+        if (rev == null || value == null || valueWeight > maxWeight) {
+            return;
+        }
+        remove(rev);
+        entries.put(rev, new CacheEntry<>(value, valueWeight));
+        weight += valueWeight;
+        evict();
+    }
+
+    public synchronized void clear() {
+        entries.clear();
+        weight = 0;
+    }
+
+    public synchronized long getMaxWeight() {
+        return maxWeight;
+    }
+
+    public synchronized void setMaxWeight(long maxWeight) {
+        this.maxWeight = maxWeight;
+        evict();
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    public synchronized long getWeight() {
+        return weight;
+    }
+
+    public synchronized long getHits() {
+        return hits;
+    }
+
+    public synchronized long getMisses() {
+        return misses;
+    }
+
+    public synchronized long getEvictions() {
+        return evictions;
+    }
+
+    private void remove(String rev) {
+        CacheEntry<V> old = entries.remove(rev);
+        if (old != null) {
+            weight -= old.weight;
+        }
+    }
+
+    private void evict() {
+        Iterator<Map.Entry<String, CacheEntry<V>>> it = entries.entrySet().iterator();
+        while (weight > maxWeight && it.hasNext()) {
+            CacheEntry<V> entry = it.next().getValue();
+            it.remove();
+            weight -= entry.weight;
+            ++evictions;
+        }
+    }
+
+    private static class CacheEntry<V> {
+        final SoftReference<V> value;
+        final long weight;
+
+        CacheEntry(V value, long weight) {
+            this.value = new SoftReference<>(value);
+            this.weight = weight;
+        }
+    }
+}
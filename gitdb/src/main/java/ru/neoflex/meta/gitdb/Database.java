@@ -36,8 +36,6 @@ import java.nio.file.Files;
 import java.nio.file.NoSuchFileException;
 import java.nio.file.Path;
 import java.util.*;
-import java.util.concurrent.locks.ReadWriteLock;
-import java.util.concurrent.locks.ReentrantReadWriteLock;
 import java.util.function.Function;
 import java.util.stream.Collectors;
 
@@ -58,10 +56,13 @@ public class Database implements Closeable {
     private List<EPackage> packages;
     private Map<String, Index> indexes = new HashMap<>();
     private Events events = new Events();
-    private ReadWriteLock lock = new ReentrantReadWriteLock();
+    private BranchLocks locks = new BranchLocks();
+    private GroupCommit groupCommit = new GroupCommit(this);
     private Function<EClass, EStructuralFeature> qualifiedNameDelegate;
     private Map<EClass, List<EClass>> descendants = new HashMap<>();
     private String repoName;
+    private ContentCache<JsonNode> contentCache = new ContentCache<>();
+    private IndexStore indexStore = new IndexStore();
 
     {
         try {
@@ -79,6 +80,7 @@ public class Database implements Closeable {
         preCalcDescendants();
         createTypeNameIndex();
         createRefIndex();
+        createSecondaryIndexes();
         registerEvents();
     }
 
@@ -191,11 +193,92 @@ public class Database implements Closeable {
         });
     }
 
+    private void createSecondaryIndexes() {
+        for (EPackage ePackage : packages) {
+            for (EClassifier eClassifier : ePackage.getEClassifiers()) {
+                if (eClassifier instanceof EClass) {
+                    EClass eClass = (EClass) eClassifier;
+                    for (EStructuralFeature feature : eClass.getEStructuralFeatures()) {
+                        if ("true".equals(EcoreUtil.getAnnotation(feature, SecondaryIndex.GITDB_SOURCE, SecondaryIndex.INDEX))) {
+                            createSecondaryIndex(eClass, feature.getName());
+                        }
+                    }
+                    String composite = EcoreUtil.getAnnotation(eClass, SecondaryIndex.GITDB_SOURCE, SecondaryIndex.INDEX);
+                    if (composite != null) {
+                        for (String featureNames : composite.split(";")) {
+                            if (!featureNames.trim().isEmpty()) {
+                                createSecondaryIndex(eClass, featureNames.trim().split("\\s*,\\s*"));
+                            }
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    public SecondaryIndex createSecondaryIndex(EClass eClass, String... featureNames) {
+        return createSecondaryIndex(null, eClass, featureNames);
+    }
+
+    /**
+     * Defines an index over the features of the eClass and its descendants,
+     * the index is used by queries after it is built by a reindex
+     * @param name index name or null for the name made of the nsPrefix, the eClass name and the feature names
+     */
+    public SecondaryIndex createSecondaryIndex(String name, EClass eClass, String... featureNames) {
+        List<EStructuralFeature> features = new ArrayList<>();
+        for (String featureName : featureNames) {
+            EStructuralFeature feature = eClass.getEStructuralFeature(featureName);
+            if (feature == null) {
+                throw new IllegalArgumentException(String.format(
+                        "Feature %s not found in eClass: %s", featureName, EcoreUtil.getURI(eClass)));
+            }
+            features.add(feature);
+        }
+        SecondaryIndex index = new SecondaryIndex(this, name != null ? name : SecondaryIndex.getDefaultName(eClass, features), eClass, features);
+        createIndex(index);
+        return index;
+    }
+
     public Resource loadResource(byte[] content, Resource resource) throws IOException {
         JsonNode node = mapper.readTree(content);
         return loadResource(node, resource);
     }
 
+    public Resource loadResource(Entity entity, Resource resource) throws IOException {
+        return loadResource(readContentNode(entity), resource);
+    }
+
+    /**
+     * Returns parsed entity content, the blob is parsed only on cache miss.
+     * Returned node is shared and must not be modified.
+     */
+    public JsonNode readContentNode(Entity entity) throws IOException {
+        JsonNode node = contentCache.get(entity.getRev());
+        if (node == null) {
+            node = mapper.readTree(entity.getContent());
+            contentCache.put(entity.getRev(), node, entity.getContent().length);
+        }
+        return node;
+    }
+
+    /**
+     * Returns parsed entity content, the blob is read only on cache miss.
+     * Current rev of the entity is stored to entityId.
+     * Returned node is shared and must not be modified.
+     */
+    public JsonNode readContentNode(Transaction tx, EntityId entityId) throws IOException {
+        String rev = tx.getRev(entityId);
+        JsonNode node = contentCache.get(rev);
+        if (node == null) {
+            Entity entity = tx.load(entityId);
+            rev = entity.getRev();
+            node = readContentNode(entity);
+        }
+        entityId.setRev(rev);
+        return node;
+    }
+
     public Resource loadResource(JsonNode node, Resource resource) throws IOException {
         ContextAttributes attributes = ContextAttributes
                 .getEmpty()
@@ -432,42 +515,23 @@ public class Database implements Closeable {
     }
 
     private void deleteResourceIndexes(Resource old, Transaction tx) throws IOException {
-        GitFileSystem gfs = tx.getFileSystem();
         for (String indexName : getIndexes().keySet()) {
-            GitPath indexPath = gfs.getPath("/", IDX_PATH, indexName);
-            for (IndexEntry entry : getIndexes().get(indexName).getEntries(old, tx)) {
-                GitPath indexValuePath = indexPath.resolve(gfs.getPath(".", entry.getPath()).normalize());
-                Files.delete(indexValuePath);
-            }
+            List<String[]> deleted = getIndexes().get(indexName).getEntries(old, tx).stream()
+                    .map(IndexEntry::getPath).collect(Collectors.toList());
+            indexStore.update(tx, indexName, deleted, Collections.emptyList());
         }
     }
 
     private void updateResourceIndexes(Resource oldResource, Resource newResource, Transaction tx) throws IOException {
-        GitFileSystem gfs = tx.getFileSystem();
-        Set<String> toDelete = new HashSet<>();
-        if (oldResource != null) {
-            for (String indexName : getIndexes().keySet()) {
-                GitPath indexPath = gfs.getPath("/", IDX_PATH, indexName);
-                for (IndexEntry entry : getIndexes().get(indexName).getEntries(oldResource, tx)) {
-                    GitPath indexValuePath = indexPath.resolve(gfs.getPath(".", entry.getPath()).normalize());
-                    toDelete.add(indexValuePath.toString());
-                }
-            }
-        }
         for (String indexName : getIndexes().keySet()) {
-            GitPath indexPath = gfs.getPath("/", IDX_PATH, indexName);
-            for (IndexEntry entry : getIndexes().get(indexName).getEntries(newResource, tx)) {
-                GitPath indexValuePath = indexPath.resolve(gfs.getPath(".", entry.getPath()).normalize());
-                if (!toDelete.remove(indexValuePath.toString()) && Files.exists(indexValuePath)) {
-                    throw new IOException("Index file " + indexValuePath.toString() + " already exists");
+            Index index = getIndexes().get(indexName);
+            List<String[]> deleted = new ArrayList<>();
+            if (oldResource != null) {
+                for (IndexEntry entry : index.getEntries(oldResource, tx)) {
+                    deleted.add(entry.getPath());
                 }
-                Files.createDirectories(indexValuePath.getParent());
-                Files.write(indexValuePath, entry.getContent());
             }
-        }
-        for (String indexValuePathString : toDelete) {
-            GitPath indexValuePath = gfs.getPath(indexValuePathString);
-            Files.delete(indexValuePath);
+            indexStore.update(tx, indexName, deleted, index.getEntries(newResource, tx));
         }
     }
 
@@ -475,16 +539,26 @@ public class Database implements Closeable {
         GitFileSystem gfs = tx.getFileSystem();
         GitPath indexRootPath = gfs.getPath("/", IDX_PATH);
         deleteRecursive(indexRootPath);
+        Map<String, List<IndexEntry>> entries = new HashMap<>();
+        for (String indexName : getIndexes().keySet()) {
+            entries.put(indexName, new ArrayList<>());
+        }
         for (EntityId entityId : tx.all()) {
             Entity entity = tx.load(entityId);
             Resource resource = entityToResource(tx, entity);
-            updateResourceIndexes(null, resource, tx);
+            for (String indexName : getIndexes().keySet()) {
+                entries.get(indexName).addAll(getIndexes().get(indexName).getEntries(resource, tx));
+            }
+        }
+        for (Map.Entry<String, List<IndexEntry>> entry : entries.entrySet()) {
+            indexStore.rebuild(tx, entry.getKey(), entry.getValue());
+            indexStore.markBuilt(tx, entry.getKey());
         }
     }
 
     public Resource entityToResource(Transaction tx, Entity entity) throws IOException {
         Resource resource = createResource(tx, entity.getId(), entity.getRev());
-        loadResource(entity.getContent(), resource);
+        loadResource(entity, resource);
         return resource;
     }
 
@@ -526,22 +600,8 @@ public class Database implements Closeable {
     }
 
     public List<IndexEntry> findByIndex(Transaction tx, String indexName, String... path) throws IOException {
-        GitFileSystem gfs = tx.getFileSystem();
-        GitPath indexPath = gfs.getPath("/", IDX_PATH, indexName);
-        GitPath indexValuePath = indexPath.resolve(gfs.getPath(".", path).normalize());
         try {
-            return Files.walk(indexValuePath).filter(Files::isRegularFile).map(file -> {
-                IndexEntry entry = new IndexEntry();
-                Path relPath = indexPath.relativize(file);
-                entry.setPath(relPath.toString().split("/"));
-                try {
-                    byte[] content = Files.readAllBytes(file);
-                    entry.setContent(content);
-                    return entry;
-                } catch (IOException e) {
-                    throw new RuntimeException(e);
-                }
-            }).collect(Collectors.toList());
+            return indexStore.find(tx, indexName, path);
         } catch (NoSuchFileException e) {
             return new ArrayList<>();
         }
@@ -628,14 +688,48 @@ public class Database implements Closeable {
         getIndexes().put(index.getName(), index);
     }
 
-    public ReadWriteLock getLock() {
-        return lock;
+    /**
+     * Locks of the branches, WRITE transactions share the lock of their branch and EXCLUSIVE ones hold it alone
+     */
+    public BranchLocks getLocks() {
+        return locks;
+    }
+
+    public void setLocks(BranchLocks locks) {
+        this.locks = locks;
+    }
+
+    /**
+     * Group commit of the write transactions, null to commit every transaction on its own
+     */
+    public GroupCommit getGroupCommit() {
+        return groupCommit;
+    }
+
+    public void setGroupCommit(GroupCommit groupCommit) {
+        this.groupCommit = groupCommit;
     }
 
     public Events getEvents() {
         return events;
     }
 
+    public IndexStore getIndexStore() {
+        return indexStore;
+    }
+
+    public void setIndexStore(IndexStore indexStore) {
+        this.indexStore = indexStore;
+    }
+
+    public ContentCache<JsonNode> getContentCache() {
+        return contentCache;
+    }
+
+    public void setContentCache(ContentCache<JsonNode> contentCache) {
+        this.contentCache = contentCache;
+    }
+
     public Function<EClass, EStructuralFeature> getQualifiedNameDelegate() {
         return qualifiedNameDelegate;
     }
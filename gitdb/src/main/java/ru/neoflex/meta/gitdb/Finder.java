@@ -18,6 +18,7 @@ import static java.lang.Integer.min;
 
 public class Finder {
     private String warning;
+    private String index;
     private int skip = 0;
     private int limit = -1;
     private int idsLoaded = 0;
@@ -63,14 +64,12 @@ public class Finder {
         long idsLoadedTime = System.currentTimeMillis();
         idsLoaded = ids.size();
         resourceSet = database.createResourceSet(tx);
-        ObjectMapper mapper = new ObjectMapper();
         int startIndex = skip <= 0 ? 0 : min(skip, ids.size());
         int length = limit <= 0 ? ids.size() - startIndex : min(limit, ids.size() - startIndex);
         for (EntityId entityId: ids.subList(startIndex, startIndex + length)) {
-            Entity entity = tx.load(entityId);
-            ObjectNode object = (ObjectNode) mapper.readTree(entity.getContent());
-            if (match(entity, object, selector)) {
-                Resource resource = resourceSet.createResource(database.createURI(entity.getId(), entity.getRev()));
+            ObjectNode object = (ObjectNode) database.readContentNode(tx, entityId);
+            if (match(entityId, object, selector)) {
+                Resource resource = resourceSet.createResource(database.createURI(entityId.getId(), entityId.getRev()));
                 database.loadResource(object, resource);
             }
         }
@@ -363,6 +362,14 @@ public class Finder {
                             name = nameNode.asText();
                         }
                     }
+                    if (name == null || name.isEmpty()) {
+                        SecondaryIndex.Plan plan = SecondaryIndex.plan(tx, eClass, contents);
+                        if (plan != null) {
+                            index = plan.getIndex().getName();
+                            return plan.find(tx);
+                        }
+                    }
+                    index = Database.TYPE_NAME_IDX;
                     List<IndexEntry> ieList = database.findEClassIndexEntries(eClass, name, tx);
                     List<EntityId> result = new ArrayList<>();
                     for (IndexEntry ie: ieList) {
@@ -399,6 +406,7 @@ public class Finder {
         executionStats.put("idsLoadedMs", idsLoadedMs);
         executionStats.put("resLoaded", resLoaded);
         executionStats.put("resLoadedMs", resLoadedMs);
+        executionStats.put("index", index);
         return executionStats;
     }
 }
@@ -1,5 +1,6 @@
 package ru.neoflex.meta.gitdb;
 
+import com.fasterxml.jackson.databind.JsonNode;
 import org.eclipse.emf.common.util.URI;
 import org.eclipse.emf.ecore.resource.Resource;
 import org.eclipse.emf.ecore.resource.URIConverter;
@@ -30,13 +31,12 @@ public class GitInputStream extends InputStream implements URIConverter.Loadable
         Database db = transaction.getDatabase();
         String id = db.checkAndGetId(uri);
         EntityId entityId = new EntityId(id, null);
-        Entity entity = transaction.load(entityId);
-        String rev = entity.getRev();
+        JsonNode node = db.readContentNode(transaction, entityId);
         if (!resource.getContents().isEmpty()) {
             resource.getContents().clear();
         }
-        db.loadResource(entity.getContent(), resource);
-        URI newURI = db.createURI(id, rev);
+        db.loadResource(node, resource);
+        URI newURI = db.createURI(id, entityId.getRev());
         resource.setURI(newURI);
         db.getEvents().fireAfterLoad(resource, transaction);
     }
@@ -0,0 +1,497 @@
+package ru.neoflex.meta.gitdb;
+
+import com.beijunyi.parallelgit.filesystem.GitPath;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static ru.neoflex.meta.gitdb.Database.IDX_PATH;
+
+/**
+ * Index entries packed into sorted segment blobs.
+ * The directory of an index holds a few immutable sorted segments (seg-00000001, ...) and a small sorted
+ * delta segment rewritten by every save. Entries are found by binary search of the path prefix in each segment,
+ * newer segments shadow older ones and deleted entries are kept as tombstones until compaction.
+ * The delta is sealed as a new segment when it has more than maxDeltaEntries entries and all segments are merged
+ * into one when there are more than maxSegments, so a commit touches a bounded number of tree nodes whatever
+ * the size of the index is. Parsed segments are cached by blob id.
+ * An index in the old file per entry layout is read as the oldest segment and is converted on the first update.
+ * An index is marked as built when a reindex completes, so indexes defined after the entities were stored are not used
+ * before a reindex.
+ * Unique updates are logged in the transaction to be replayed by {@link GroupCommit}, merged, compacted or rebuilt
+ * indexes make the transaction not rebaseable.
+ */
+public class IndexStore {
+    public static final String DELTA = "delta";
+    public static final String SEGMENT_PREFIX = "seg-";
+    public static final String BUILT = "built";
+    public static final int DEFAULT_MAX_DELTA_ENTRIES = 1024;
+    public static final int DEFAULT_MAX_SEGMENTS = 8;
+    private static final int MAGIC = 0x49445831;
+    private static final char SEPARATOR = '\u0000';
+    private int maxDeltaEntries = DEFAULT_MAX_DELTA_ENTRIES;
+    private int maxSegments = DEFAULT_MAX_SEGMENTS;
+    private ContentCache<Segment> segmentCache = new ContentCache<>(16L * 1024 * 1024);
+
+    /**
+     * Entries of the index with the path starting with the given path elements
+     */
+    public List<IndexEntry> find(Transaction tx, String indexName, String... path) throws IOException {
+        String prefix = toKey(path);
+        Map<String, byte[]> found = new HashMap<>();
+        for (Segment segment: open(tx, indexName).segments) {
+            segment.find(prefix, found);
+        }
+        return toEntries(found);
+    }
+
+    /**
+     * Entries of the index with the path starting with the prefix elements and the next path element
+     * between low and high, a null bound is unlimited
+     */
+    public List<IndexEntry> find(Transaction tx, String indexName, String[] prefix,
+                                 String low, boolean lowInclusive, String high, boolean highInclusive) throws IOException {
+        String start = toKey(prefix);
+        Map<String, byte[]> found = new HashMap<>();
+        for (Segment segment: open(tx, indexName).segments) {
+            segment.find(start, low, lowInclusive, high, highInclusive, found);
+        }
+        return toEntries(found);
+    }
+
+    private static List<IndexEntry> toEntries(Map<String, byte[]> found) {
+        return found.entrySet().stream()
+                .filter(entry -> entry.getValue() != null)
+                .sorted(Map.Entry.comparingByKey())
+                .map(entry -> toEntry(entry.getKey(), entry.getValue()))
+                .collect(Collectors.toList());
+    }
+
+    public boolean isBuilt(Transaction tx, String indexName) {
+        return Files.exists(tx.getFileSystem().getPath("/", IDX_PATH, indexName, BUILT));
+    }
+
+    /**
+     * Marks the index as holding the entries of all the entities, called when a reindex completes
+     */
+    public void markBuilt(Transaction tx, String indexName) throws IOException {
+        tx.indexRewritten();
+        GitPath dir = tx.getFileSystem().getPath("/", IDX_PATH, indexName);
+        Files.createDirectories(dir);
+        Files.write(dir.resolve(BUILT), new byte[0]);
+    }
+
+    /**
+     * Removes the deleted paths and adds the inserted entries of the index.
+     * An inserted path may replace a deleted one, other inserted paths must not exist.
+     */
+    public void update(Transaction tx, String indexName, Collection<String[]> deleted, Collection<IndexEntry> inserted) throws IOException {
+        update(tx, indexName, deleted, inserted, true);
+        tx.logIndexUpdate(indexName, deleted, inserted);
+    }
+
+    /**
+     * Removes the deleted paths and adds or replaces the inserted entries of the index
+     */
+    public void merge(Transaction tx, String indexName, Collection<String[]> deleted, Collection<IndexEntry> inserted) throws IOException {
+        update(tx, indexName, deleted, inserted, false);
+        tx.indexRewritten();
+    }
+
+    private void update(Transaction tx, String indexName, Collection<String[]> deleted, Collection<IndexEntry> inserted, boolean unique) throws IOException {
+        if (deleted.isEmpty() && inserted.isEmpty()) {
+            return;
+        }
+        State state = open(tx, indexName);
+        TreeMap<String, byte[]> delta = state.delta.toMap();
+        Set<String> removed = new HashSet<>();
+        for (String[] path: deleted) {
+            removed.add(toKey(path));
+        }
+        boolean changed = false;
+        for (IndexEntry entry: inserted) {
+            String key = toKey(entry.getPath());
+            byte[] current = get(state, delta, key);
+            boolean replaced = removed.remove(key);
+            if ((replaced || !unique) && current != null && Arrays.equals(current, entry.getContent())) {
+                continue;
+            }
+            if (!replaced && unique && current != null) {
+                throw new IOException("Index entry " + String.join("/", entry.getPath()) + " of " + indexName + " already exists");
+            }
+            delta.put(key, entry.getContent());
+            changed = true;
+        }
+        for (String key: removed) {
+            if (get(state, delta, key) == null) {
+                continue;
+            }
+            if (state.hasOlder()) {
+                delta.put(key, null);
+            }
+            else {
+                delta.remove(key);
+            }
+            changed = true;
+        }
+        if (!changed) {
+            return;
+        }
+        if (state.legacy != null || (delta.size() > maxDeltaEntries && state.segmentNames.size() >= maxSegments)) {
+            compact(state, delta);
+        }
+        else if (delta.size() > maxDeltaEntries) {
+            write(state.dir.resolve(segmentName(state.nextSeq())), delta, !state.hasOlder());
+            Files.deleteIfExists(state.dir.resolve(DELTA));
+        }
+        else if (delta.isEmpty()) {
+            Files.deleteIfExists(state.dir.resolve(DELTA));
+        }
+        else {
+            write(state.dir.resolve(DELTA), delta, false);
+        }
+    }
+
+    /**
+     * Merges all the segments of the index into one, tombstones are dropped
+     */
+    public void compact(Transaction tx, String indexName) throws IOException {
+        tx.indexRewritten();
+        State state = open(tx, indexName);
+        compact(state, state.delta.toMap());
+    }
+
+    /**
+     * Replaces the index with a single segment of the entries, the built mark is kept as is
+     */
+    public void rebuild(Transaction tx, String indexName, Collection<IndexEntry> entries) throws IOException {
+        tx.indexRewritten();
+        TreeMap<String, byte[]> records = new TreeMap<>();
+        for (IndexEntry entry: entries) {
+            if (records.put(toKey(entry.getPath()), entry.getContent()) != null) {
+                throw new IOException("Index entry " + String.join("/", entry.getPath()) + " of " + indexName + " already exists");
+            }
+        }
+        State state = open(tx, indexName);
+        clear(state);
+        if (!records.isEmpty()) {
+            write(state.dir.resolve(segmentName(1)), records, true);
+        }
+    }
+
+    private void compact(State state, TreeMap<String, byte[]> delta) throws IOException {
+        TreeMap<String, byte[]> merged = new TreeMap<>();
+        // segments are ordered from the newest to the oldest, the delta is the first one
+        for (int i = state.segments.size() - 1; i > 0; --i) {
+            state.segments.get(i).mergeTo(merged);
+        }
+        for (Map.Entry<String, byte[]> entry: delta.entrySet()) {
+            if (entry.getValue() == null) {
+                merged.remove(entry.getKey());
+            }
+            else {
+                merged.put(entry.getKey(), entry.getValue());
+            }
+        }
+        int seq = state.nextSeq();
+        clear(state);
+        if (!merged.isEmpty()) {
+            write(state.dir.resolve(segmentName(seq)), merged, true);
+        }
+    }
+
+    private void clear(State state) throws IOException {
+        if (!Files.isDirectory(state.dir)) {
+            return;
+        }
+        List<Path> children;
+        try (Stream<Path> stream = Files.list(state.dir)) {
+            children = stream.collect(Collectors.toList());
+        }
+        for (Path child: children) {
+            if (child.getFileName().toString().equals(BUILT)) {
+                continue;
+            }
+            List<Path> paths;
+            try (Stream<Path> stream = Files.walk(child)) {
+                paths = stream.sorted(Comparator.reverseOrder()).collect(Collectors.toList());
+            }
+            for (Path path: paths) {
+                Files.deleteIfExists(path);
+            }
+        }
+    }
+
+    private static byte[] get(State state, Map<String, byte[]> delta, String key) {
+        if (delta.containsKey(key)) {
+            return delta.get(key);
+        }
+        for (int i = 1; i < state.segments.size(); ++i) {
+            Segment segment = state.segments.get(i);
+            int index = Arrays.binarySearch(segment.keys, key);
+            if (index >= 0) {
+                return segment.values[index];
+            }
+        }
+        return null;
+    }
+
+    private State open(Transaction tx, String indexName) throws IOException {
+        GitPath dir = tx.getFileSystem().getPath("/", IDX_PATH, indexName);
+        State state = new State(dir);
+        if (!Files.isDirectory(dir)) {
+            state.segments.add(state.delta);
+            return state;
+        }
+        boolean legacy = false;
+        List<Path> children;
+        try (Stream<Path> stream = Files.list(dir)) {
+            children = stream.collect(Collectors.toList());
+        }
+        for (Path child: children) {
+            String name = child.getFileName().toString();
+            if (Files.isDirectory(child)) {
+                legacy = true;
+            }
+            else if (name.equals(DELTA)) {
+                state.delta = read((GitPath) child);
+            }
+            else if (name.startsWith(SEGMENT_PREFIX)) {
+                state.segmentNames.add(name);
+            }
+        }
+        state.segmentNames.sort(Comparator.reverseOrder());
+        state.segments.add(state.delta);
+        for (String name: state.segmentNames) {
+            state.segments.add(read(dir.resolve(name)));
+        }
+        if (legacy) {
+            state.legacy = readLegacy(dir);
+            state.segments.add(state.legacy);
+        }
+        return state;
+    }
+
+    private Segment read(GitPath path) throws IOException {
+        String rev = Transaction.getObjectId(path).getName();
+        Segment segment = segmentCache.get(rev);
+        if (segment == null) {
+            byte[] content = Files.readAllBytes(path);
+            segment = Segment.parse(content);
+            segmentCache.put(rev, segment, content.length);
+        }
+        return segment;
+    }
+
+    private static Segment readLegacy(GitPath dir) throws IOException {
+        TreeMap<String, byte[]> records = new TreeMap<>();
+        List<Path> files;
+        try (Stream<Path> stream = Files.walk(dir)) {
+            files = stream.filter(Files::isRegularFile).filter(file -> !file.getParent().equals(dir)).collect(Collectors.toList());
+        }
+        for (Path file: files) {
+            records.put(toKey(dir.relativize(file).toString().split("/")), Files.readAllBytes(file));
+        }
+        return new Segment(records);
+    }
+
+    private static void write(GitPath path, TreeMap<String, byte[]> records, boolean dropTombstones) throws IOException {
+        ByteArrayOutputStream os = new ByteArrayOutputStream();
+        try (DataOutputStream out = new DataOutputStream(os)) {
+            List<Map.Entry<String, byte[]>> entries = records.entrySet().stream()
+                    .filter(entry -> !dropTombstones || entry.getValue() != null)
+                    .collect(Collectors.toList());
+            out.writeInt(MAGIC);
+            out.writeInt(entries.size());
+            for (Map.Entry<String, byte[]> entry: entries) {
+                byte[] key = entry.getKey().getBytes(StandardCharsets.UTF_8);
+                out.writeInt(key.length);
+                out.write(key);
+                byte[] value = entry.getValue();
+                out.writeInt(value == null ? -1 : value.length);
+                if (value != null) {
+                    out.write(value);
+                }
+            }
+        }
+        Files.createDirectories(path.getParent());
+        Files.write(path, os.toByteArray());
+    }
+
+    private static String segmentName(int seq) {
+        return SEGMENT_PREFIX + String.format("%08d", seq);
+    }
+
+    private static String toKey(String[] path) {
+        StringBuilder sb = new StringBuilder();
+        for (String element: path) {
+            if (sb.length() > 0) {
+                sb.append(SEPARATOR);
+            }
+            sb.append(element);
+        }
+        return sb.toString();
+    }
+
+    private static IndexEntry toEntry(String key, byte[] content) {
+        IndexEntry entry = new IndexEntry();
+        entry.setPath(key.split(String.valueOf(SEPARATOR), -1));
+        entry.setContent(content);
+        return entry;
+    }
+
+    public int getMaxDeltaEntries() {
+        return maxDeltaEntries;
+    }
+
+    public void setMaxDeltaEntries(int maxDeltaEntries) {
+        this.maxDeltaEntries = maxDeltaEntries;
+    }
+
+    public int getMaxSegments() {
+        return maxSegments;
+    }
+
+    public void setMaxSegments(int maxSegments) {
+        this.maxSegments = maxSegments;
+    }
+
+    public ContentCache<Segment> getSegmentCache() {
+        return segmentCache;
+    }
+
+    private static class State {
+        final GitPath dir;
+        Segment delta = new Segment(new TreeMap<>());
+        final List<String> segmentNames = new ArrayList<>();
+        /** the delta, then sealed segments from the newest to the oldest, then the legacy entries */
+        final List<Segment> segments = new ArrayList<>();
+        Segment legacy;
+
+        State(GitPath dir) {
+            this.dir = dir;
+        }
+
+        boolean hasOlder() {
+            return segments.size() > 1;
+        }
+
+        int nextSeq() {
+            return segmentNames.isEmpty() ? 1 : Integer.parseInt(segmentNames.get(0).substring(SEGMENT_PREFIX.length())) + 1;
+        }
+    }
+
+    /**
+     * Immutable sorted entries, a null value is a tombstone
+     */
+    public static class Segment {
+        private final String[] keys;
+        private final byte[][] values;
+
+        Segment(TreeMap<String, byte[]> records) {
+            keys = records.keySet().toArray(new String[0]);
+            values = records.values().toArray(new byte[0][]);
+        }
+
+        private Segment(String[] keys, byte[][] values) {
+            this.keys = keys;
+            this.values = values;
+        }
+
+        static Segment parse(byte[] content) throws IOException {
+            DataInputStream in = new DataInputStream(new ByteArrayInputStream(content));
+            if (in.readInt() != MAGIC) {
+                throw new IOException("Not an index segment");
+            }
+            int count = in.readInt();
+            String[] keys = new String[count];
+            byte[][] values = new byte[count][];
+            for (int i = 0; i < count; ++i) {
+                byte[] key = new byte[in.readInt()];
+                in.readFully(key);
+                keys[i] = new String(key, StandardCharsets.UTF_8);
+                int length = in.readInt();
+                if (length >= 0) {
+                    values[i] = new byte[length];
+                    in.readFully(values[i]);
+                }
+            }
+            return new Segment(keys, values);
+        }
+
+        public int size() {
+            return keys.length;
+        }
+
+        /**
+         * Adds the entries of the path prefix not found in the newer segments
+         */
+        void find(String prefix, Map<String, byte[]> found) {
+            int index = Arrays.binarySearch(keys, prefix);
+            if (index < 0) {
+                index = -index - 1;
+            }
+            for (; index < keys.length && matches(keys[index], prefix); ++index) {
+                if (!found.containsKey(keys[index])) {
+                    found.put(keys[index], values[index]);
+                }
+            }
+        }
+
+        /**
+         * Adds the entries with the next path element after the prefix between the bounds
+         */
+        void find(String prefix, String low, boolean lowInclusive, String high, boolean highInclusive, Map<String, byte[]> found) {
+            String base = prefix.isEmpty() ? prefix : prefix + SEPARATOR;
+            int index = Arrays.binarySearch(keys, low == null ? base : base + low);
+            if (index < 0) {
+                index = -index - 1;
+            }
+            for (; index < keys.length && keys[index].startsWith(base); ++index) {
+                int end = keys[index].indexOf(SEPARATOR, base.length());
+                String element = end < 0 ? keys[index].substring(base.length()) : keys[index].substring(base.length(), end);
+                if (low != null && !lowInclusive && element.equals(low)) {
+                    continue;
+                }
+                if (high != null) {
+                    int c = element.compareTo(high);
+                    if (c > 0 || (c == 0 && !highInclusive)) {
+                        break;
+                    }
+                }
+                if (!found.containsKey(keys[index])) {
+                    found.put(keys[index], values[index]);
+                }
+            }
+        }
+
+        void mergeTo(TreeMap<String, byte[]> merged) {
+            for (int i = 0; i < keys.length; ++i) {
+                if (values[i] == null) {
+                    merged.remove(keys[i]);
+                }
+                else {
+                    merged.put(keys[i], values[i]);
+                }
+            }
+        }
+
+        TreeMap<String, byte[]> toMap() {
+            TreeMap<String, byte[]> map = new TreeMap<>();
+            for (int i = 0; i < keys.length; ++i) {
+                map.put(keys[i], values[i]);
+            }
+            return map;
+        }
+
+        private static boolean matches(String key, String prefix) {
+            return key.startsWith(prefix) && (prefix.isEmpty() ||
+                    key.length() == prefix.length() || key.charAt(prefix.length()) == SEPARATOR);
+        }
+    }
+}
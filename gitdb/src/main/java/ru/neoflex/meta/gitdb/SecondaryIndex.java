@@ -0,0 +1,440 @@
+package ru.neoflex.meta.gitdb;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import org.eclipse.emf.ecore.*;
+import org.eclipse.emf.ecore.resource.Resource;
+import org.eclipse.emf.ecore.util.EcoreUtil;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+
+import static ru.neoflex.meta.gitdb.Database.TYPE_NAME_IDX;
+
+/**
+ * Index over single valued features of the top level objects of a class and its descendants.
+ * The entry path is the nsURI and the name of the object class, the encoded feature values and the object id,
+ * a null value is indexed by the empty key, which sorts before the other keys, so a query on the leading
+ * features of a composite index finds the objects with null values of the rest of the features.
+ * Integral and floating point values are encoded as order preserving fixed length hex, references by the id
+ * of the resource of the referenced object and other values by their string form.
+ * An index is declared with the annotation {@link #GITDB_SOURCE} "index"="true" on a feature,
+ * with "index"="f1,f2;f3" on a class for composite indexes or by {@link Database#createSecondaryIndex}.
+ * Queries use an index only after it is built by {@link Database#reindex} or by {@link Reindexer}.
+ */
+public class SecondaryIndex implements Index {
+    public static final String GITDB_SOURCE = "http://www.neoflex.ru/gitdb";
+    public static final String INDEX = "index";
+    /** maximum number of the key combinations of a plan */
+    public static final int MAX_KEYS = 1024;
+    private static final String REGEX_SPECIAL = "\\^$.|?*+()[]{}";
+    private static final String NULL_KEY = "";
+    private final Database database;
+    private final String name;
+    private final EClass eClass;
+    private final List<EStructuralFeature> features;
+
+    public SecondaryIndex(Database database, String name, EClass eClass, List<EStructuralFeature> features) {
+        if (features.isEmpty()) {
+            throw new IllegalArgumentException("No features of index " + name);
+        }
+        for (EStructuralFeature feature: features) {
+            if (!eClass.getEAllStructuralFeatures().contains(feature)) {
+                throw new IllegalArgumentException(String.format(
+                        "Feature %s not found in eClass: %s", feature.getName(), EcoreUtil.getURI(eClass)));
+            }
+            if (feature.isMany() || (feature instanceof EReference && ((EReference) feature).isContainment())) {
+                throw new IllegalArgumentException(String.format(
+                        "Feature %s of eClass %s can't be indexed", feature.getName(), EcoreUtil.getURI(eClass)));
+            }
+        }
+        this.database = database;
+        this.name = name;
+        this.eClass = eClass;
+        this.features = Collections.unmodifiableList(new ArrayList<>(features));
+    }
+
+    public static String getDefaultName(EClass eClass, List<EStructuralFeature> features) {
+        StringBuilder name = new StringBuilder(eClass.getEPackage().getNsPrefix()).append("_").append(eClass.getName());
+        for (EStructuralFeature feature: features) {
+            name.append("_").append(feature.getName());
+        }
+        return name.toString();
+    }
+
+    @Override
+    public String getName() {
+        return name;
+    }
+
+    public EClass getEClass() {
+        return eClass;
+    }
+
+    public List<EStructuralFeature> getFeatures() {
+        return features;
+    }
+
+    @Override
+    public List<IndexEntry> getEntries(Resource resource, Transaction transaction) {
+        if (resource.getContents().isEmpty()) {
+            return Collections.emptyList();
+        }
+        EObject eObject = resource.getContents().get(0);
+        EClass objectClass = eObject.eClass();
+        if (!eClass.isSuperTypeOf(objectClass)) {
+            return Collections.emptyList();
+        }
+        String id = database.getResourceId(resource);
+        if (id == null) {
+            return Collections.emptyList();
+        }
+        String[] path = new String[features.size() + 3];
+        path[0] = objectClass.getEPackage().getNsURI();
+        path[1] = objectClass.getName();
+        for (int i = 0; i < features.size(); ++i) {
+            String key = getKey(eObject, features.get(i));
+            path[i + 2] = key == null ? NULL_KEY : key;
+        }
+        path[path.length - 1] = id;
+        IndexEntry entry = new IndexEntry();
+        entry.setPath(path);
+        entry.setContent(id.getBytes(StandardCharsets.UTF_8));
+        return Collections.singletonList(entry);
+    }
+
+    private String getKey(EObject eObject, EStructuralFeature feature) {
+        Object value = eObject.eGet(feature, false);
+        if (value == null) {
+            return null;
+        }
+        if (value instanceof EObject) {
+            EObject target = (EObject) value;
+            if (target.eIsProxy()) {
+                return database.getId(((InternalEObject) target).eProxyURI());
+            }
+            Resource targetResource = target.eResource();
+            return targetResource == null ? null : database.getResourceId(targetResource);
+        }
+        return getKey(feature, value.toString());
+    }
+
+    /**
+     * @return the key of the value with the string form or null if it is not a value of the feature type
+     */
+    static String getKey(EStructuralFeature feature, String text) {
+        Class<?> type = feature.getEType().getInstanceClass();
+        try {
+            if (isIntegral(type)) {
+                return encodeLong(Long.parseLong(text));
+            }
+            if (isFloating(type)) {
+                return encodeDouble(Double.parseDouble(text));
+            }
+        }
+        catch (NumberFormatException e) {
+            return null;
+        }
+        return text;
+    }
+
+    static String encodeLong(long value) {
+        return String.format("%016x", value ^ Long.MIN_VALUE);
+    }
+
+    static String encodeDouble(double value) {
+        // -0.0 and 0.0 are equal for the comparison of the query values
+        long bits = Double.doubleToLongBits(value == 0.0 ? 0.0 : value);
+        return String.format("%016x", bits < 0 ? ~bits : bits ^ Long.MIN_VALUE);
+    }
+
+    private static boolean isIntegral(Class<?> type) {
+        return type == int.class || type == Integer.class || type == long.class || type == Long.class ||
+                type == short.class || type == Short.class || type == byte.class || type == Byte.class;
+    }
+
+    private static boolean isFloating(Class<?> type) {
+        return type == double.class || type == Double.class || type == float.class || type == Float.class;
+    }
+
+    /**
+     * Literal prefix of the strings matched by the regular expression or null if there is none
+     */
+    static String getRegexPrefix(String regex) {
+        if (regex.indexOf('|') >= 0) {
+            return null;
+        }
+        StringBuilder prefix = new StringBuilder();
+        for (int i = regex.startsWith("^") ? 1 : 0; i < regex.length(); ++i) {
+            char c = regex.charAt(i);
+            if (REGEX_SPECIAL.indexOf(c) >= 0) {
+                if ((c == '?' || c == '*' || c == '{') && prefix.length() > 0) {
+                    prefix.setLength(prefix.length() - 1);
+                }
+                break;
+            }
+            prefix.append(c);
+        }
+        return prefix.length() > 0 ? prefix.toString() : null;
+    }
+
+    /**
+     * Chooses the built secondary index with most of the leading features selected by the query contents,
+     * equality ($eq, $in or a plain value) selects a feature, a range ($gt, $gte, $lt, $lte) or a regex prefix
+     * of the next feature narrows the scan. The found objects are a superset of the matching ones.
+     * @return null if no index is applicable
+     */
+    public static Plan plan(Transaction tx, EClass eClass, JsonNode contents) throws IOException {
+        Database database = tx.getDatabase();
+        Plan best = null;
+        for (Index index: database.getIndexes().values()) {
+            if (!(index instanceof SecondaryIndex)) {
+                continue;
+            }
+            SecondaryIndex secondaryIndex = (SecondaryIndex) index;
+            if (!secondaryIndex.eClass.isSuperTypeOf(eClass) || !database.getIndexStore().isBuilt(tx, index.getName())) {
+                continue;
+            }
+            Plan plan = secondaryIndex.createPlan(tx, eClass, contents);
+            if (plan != null && (best == null || plan.getScore() > best.getScore())) {
+                best = plan;
+            }
+        }
+        return best;
+    }
+
+    private Plan createPlan(Transaction tx, EClass queryClass, JsonNode contents) throws IOException {
+        Plan plan = new Plan(this, database.getConcreteDescendants(queryClass));
+        int combinations = 1;
+        for (EStructuralFeature feature: features) {
+            JsonNode node = contents.get(feature.getName());
+            if (node == null) {
+                break;
+            }
+            List<String> keys = getEqualKeys(tx, feature, node);
+            if (keys != null) {
+                combinations *= Math.max(1, keys.size());
+                if (combinations > MAX_KEYS) {
+                    break;
+                }
+                plan.keys.add(keys);
+                continue;
+            }
+            plan.setRange(feature, node);
+            break;
+        }
+        return plan.keys.isEmpty() && !plan.range ? null : plan;
+    }
+
+    private List<String> getEqualKeys(Transaction tx, EStructuralFeature feature, JsonNode node) throws IOException {
+        if (feature instanceof EReference) {
+            return getReferenceKeys(tx, (EReference) feature, node);
+        }
+        List<String> values = getEqualValues(node);
+        if (values == null) {
+            return null;
+        }
+        List<String> keys = new ArrayList<>();
+        for (String value: values) {
+            // values of other types never match
+            String key = getKey(feature, value);
+            if (key != null && !keys.contains(key)) {
+                keys.add(key);
+            }
+        }
+        return keys;
+    }
+
+    private static List<String> getEqualValues(JsonNode node) {
+        if (node.isValueNode() && !node.isNull()) {
+            return Collections.singletonList(node.asText());
+        }
+        if (!node.isObject()) {
+            return null;
+        }
+        JsonNode eq = node.get("$eq");
+        if (eq != null && eq.isValueNode() && !eq.isNull()) {
+            return Collections.singletonList(eq.asText());
+        }
+        JsonNode in = node.get("$in");
+        if (in != null && in.isArray()) {
+            List<String> values = new ArrayList<>();
+            for (JsonNode value: in) {
+                if (!value.isValueNode() || value.isNull()) {
+                    return null;
+                }
+                values.add(value.asText());
+            }
+            return values;
+        }
+        return null;
+    }
+
+    /**
+     * Ids of the top level objects selected by the qualified name in the query of a reference.
+     * Objects of the referenced class may be contained in other objects, which are not in the type_name index,
+     * so such references are not selected by the index.
+     */
+    private List<String> getReferenceKeys(Transaction tx, EReference reference, JsonNode node) throws IOException {
+        EClass referenceType = reference.getEReferenceType();
+        EStructuralFeature nameSF = database.getQNameFeature(referenceType);
+        if (!node.isObject() || nameSF == null || node.get(nameSF.getName()) == null || isContainable(referenceType)) {
+            return null;
+        }
+        List<String> names = getEqualValues(node.get(nameSF.getName()));
+        if (names == null) {
+            return null;
+        }
+        List<String> keys = new ArrayList<>();
+        for (EClass descendant: database.getConcreteDescendants(referenceType)) {
+            for (String qName: names) {
+                for (IndexEntry entry: database.findByIndex(tx, TYPE_NAME_IDX,
+                        descendant.getEPackage().getNsURI(), descendant.getName(), qName)) {
+                    keys.add(new String(entry.getContent(), StandardCharsets.UTF_8));
+                }
+            }
+        }
+        return keys;
+    }
+
+    private boolean isContainable(EClass referenceType) {
+        for (EPackage ePackage: database.getPackages()) {
+            for (EClassifier eClassifier: ePackage.getEClassifiers()) {
+                if (!(eClassifier instanceof EClass)) {
+                    continue;
+                }
+                for (EReference eReference: ((EClass) eClassifier).getEReferences()) {
+                    EClass containedType = eReference.getEReferenceType();
+                    if (eReference.isContainment() &&
+                            (containedType.isSuperTypeOf(referenceType) || referenceType.isSuperTypeOf(containedType))) {
+                        return true;
+                    }
+                }
+            }
+        }
+        return false;
+    }
+
+    public static class Plan {
+        private final SecondaryIndex index;
+        private final List<EClass> eClasses;
+        private final List<List<String>> keys = new ArrayList<>();
+        private boolean range = false;
+        private String low;
+        private boolean lowInclusive = true;
+        private String high;
+        private boolean highInclusive = true;
+
+        Plan(SecondaryIndex index, List<EClass> eClasses) {
+            this.index = index;
+            this.eClasses = eClasses;
+        }
+
+        /**
+         * Numeric bounds are widened to the inclusive keys, the comparison of the query decides on the bound values
+         */
+        void setRange(EStructuralFeature feature, JsonNode node) {
+            if (!(feature instanceof EAttribute) || !node.isObject()) {
+                return;
+            }
+            Class<?> type = feature.getEType().getInstanceClass();
+            if (type == String.class) {
+                JsonNode regex = node.get("$regex");
+                String prefix = regex != null && regex.isTextual() ? getRegexPrefix(regex.asText()) : null;
+                if (prefix != null) {
+                    setBounds(prefix, true, prefix + Character.MAX_VALUE, true);
+                    return;
+                }
+                if (isText(node, "$gt") || isText(node, "$gte") || isText(node, "$lt") || isText(node, "$lte")) {
+                    setBounds(
+                            isText(node, "$gt") ? node.get("$gt").asText() : isText(node, "$gte") ? node.get("$gte").asText() : null,
+                            !isText(node, "$gt"),
+                            isText(node, "$lt") ? node.get("$lt").asText() : isText(node, "$lte") ? node.get("$lte").asText() : null,
+                            !isText(node, "$lt"));
+                }
+                return;
+            }
+            boolean integral = isIntegral(type);
+            if (!integral && type != double.class && type != Double.class) {
+                return;
+            }
+            BigDecimal lowValue = isNumber(node, "$gt") ? node.get("$gt").decimalValue() :
+                    isNumber(node, "$gte") ? node.get("$gte").decimalValue() : null;
+            BigDecimal highValue = isNumber(node, "$lt") ? node.get("$lt").decimalValue() :
+                    isNumber(node, "$lte") ? node.get("$lte").decimalValue() : null;
+            if (lowValue == null && highValue == null) {
+                return;
+            }
+            if (!integral) {
+                setBounds(lowValue == null ? null : encodeDouble(lowValue.doubleValue()), true,
+                        highValue == null ? null : encodeDouble(highValue.doubleValue()), true);
+                return;
+            }
+            try {
+                setBounds(lowValue == null ? null : encodeLong(lowValue.setScale(0, RoundingMode.CEILING).longValueExact()), true,
+                        highValue == null ? null : encodeLong(highValue.setScale(0, RoundingMode.FLOOR).longValueExact()), true);
+            }
+            catch (ArithmeticException e) {
+                // a bound out of the long range is checked by the query only
+            }
+        }
+
+        private void setBounds(String low, boolean lowInclusive, String high, boolean highInclusive) {
+            this.range = true;
+            this.low = low;
+            this.lowInclusive = lowInclusive;
+            this.high = high;
+            this.highInclusive = highInclusive;
+        }
+
+        private static boolean isText(JsonNode node, String op) {
+            return node.has(op) && node.get(op).isTextual();
+        }
+
+        private static boolean isNumber(JsonNode node, String op) {
+            return node.has(op) && node.get(op).isNumber();
+        }
+
+        public SecondaryIndex getIndex() {
+            return index;
+        }
+
+        /**
+         * Two points for every selected feature and one for the range
+         */
+        public int getScore() {
+            return keys.size() * 2 + (range ? 1 : 0);
+        }
+
+        public List<EntityId> find(Transaction tx) throws IOException {
+            IndexStore indexStore = tx.getDatabase().getIndexStore();
+            List<EntityId> result = new ArrayList<>();
+            for (EClass eClass: eClasses) {
+                List<String[]> prefixes = new ArrayList<>();
+                prefixes.add(new String[]{eClass.getEPackage().getNsURI(), eClass.getName()});
+                for (List<String> featureKeys: keys) {
+                    List<String[]> next = new ArrayList<>();
+                    for (String[] prefix: prefixes) {
+                        for (String key: featureKeys) {
+                            String[] path = Arrays.copyOf(prefix, prefix.length + 1);
+                            path[prefix.length] = key;
+                            next.add(path);
+                        }
+                    }
+                    prefixes = next;
+                }
+                for (String[] prefix: prefixes) {
+                    List<IndexEntry> entries = range ?
+                            indexStore.find(tx, index.getName(), prefix, low, lowInclusive, high, highInclusive) :
+                            indexStore.find(tx, index.getName(), prefix);
+                    for (IndexEntry entry: entries) {
+                        result.add(new EntityId(new String(entry.getContent(), StandardCharsets.UTF_8), null));
+                    }
+                }
+            }
+            return result;
+        }
+    }
+}
@@ -1,13 +1,15 @@
 package ru.neoflex.meta.gitdb;
 
 import com.beijunyi.parallelgit.filesystem.Gfs;
+import com.beijunyi.parallelgit.filesystem.GfsStatusProvider;
 import com.beijunyi.parallelgit.filesystem.GitFileSystem;
 import com.beijunyi.parallelgit.filesystem.GitPath;
-import com.beijunyi.parallelgit.filesystem.commands.GfsCommit;
+import com.beijunyi.parallelgit.filesystem.exceptions.NoHeadCommitException;
 import com.beijunyi.parallelgit.filesystem.io.DirectoryNode;
 import com.beijunyi.parallelgit.filesystem.io.Node;
 import com.github.marschall.pathclassloader.PathClassLoader;
 import org.eclipse.emf.ecore.util.EcoreUtil;
+import org.eclipse.jgit.lib.AnyObjectId;
 import org.eclipse.jgit.lib.ObjectId;
 import org.eclipse.jgit.lib.PersonIdent;
 import org.eclipse.jgit.revwalk.RevCommit;
@@ -20,6 +22,7 @@ import java.nio.file.Files;
 import java.nio.file.Path;
 import java.util.*;
 import java.util.concurrent.Callable;
+import java.util.concurrent.locks.Lock;
 import java.util.stream.Collectors;
 
 import static ru.neoflex.meta.gitdb.Database.IDS_PATH;
@@ -30,6 +33,10 @@ public class Transaction implements Closeable {
     private GitFileSystem gfs;
     public enum LockType {READ, WRITE, EXCLUSIVE}
     private LockType lockType;
+    private Lock lock;
+    private ObjectId baseTree;
+    private List<GroupCommit.IndexUpdate> indexUpdates = new ArrayList<>();
+    private boolean rebaseable = true;
     private static final ThreadLocal<Transaction> tlTransaction = new ThreadLocal<>();
 
     public static void setCurrent(Transaction tx) {
@@ -44,27 +51,45 @@ public class Transaction implements Closeable {
         this.database = database;
         this.branch = branch;
         this.lockType = lockType;
-        if (lockType == LockType.EXCLUSIVE) {
-            database.getLock().writeLock().lock();
+        if (lockType != LockType.READ) {
+            this.lock = database.getLocks().lock(branch, lockType == LockType.EXCLUSIVE);
         }
-        else if (lockType == LockType.WRITE) {
-            database.getLock().readLock().lock();
+        try {
+            this.gfs = Gfs.newFileSystem(branch, database.getRepository());
+        }
+        catch (IOException | RuntimeException e) {
+            unlock();
+            throw e;
         }
-        this.gfs =  Gfs.newFileSystem(branch, database.getRepository());
     }
 
     public Transaction(Database database, String branch) throws IOException {
         this(database, branch, LockType.WRITE);
     }
 
+    /**
+     * Read only transaction over the tree of the commit
+     */
+    public Transaction(Database database, AnyObjectId commit) throws IOException {
+        this.database = database;
+        this.lockType = LockType.READ;
+        this.gfs = Gfs.newFileSystem(commit, database.getRepository());
+    }
+
     @Override
     public void close() throws IOException {
-        gfs.close();
-        if (lockType == LockType.EXCLUSIVE) {
-            database.getLock().writeLock().unlock();
+        try {
+            gfs.close();
         }
-        if (lockType == LockType.WRITE) {
-            database.getLock().readLock().unlock();
+        finally {
+            unlock();
+        }
+    }
+
+    private void unlock() {
+        if (lock != null) {
+            lock.unlock();
+            lock = null;
         }
     }
 
@@ -88,22 +113,66 @@ public class Transaction implements Closeable {
         }
     }
 
+    /**
+     * Commits the changes through the group commit of the database, the changes are rebased on the head of the branch
+     * if it was moved by a concurrent transaction
+     */
     public void commit(String message, String author, String email) throws IOException {
         if (lockType == LockType.READ) {
             throw new IOException("Can't commit readonly transaction");
         }
-        GfsCommit commit = Gfs.commit(gfs).message(message);
-        if (author != null && email != null) {
-            PersonIdent authorId = new PersonIdent(author, email);
-            commit.author(authorId);
+        PersonIdent authorId = author != null && email != null ? new PersonIdent(author, email) : null;
+        GfsStatusProvider status = gfs.getStatusProvider();
+        GroupCommit groupCommit = database.getGroupCommit();
+        if (groupCommit == null || !status.isAttached() || status.mergeNote() != null) {
+            Gfs.commit(gfs).message(message).author(authorId).execute();
+            return;
+        }
+        try (GfsStatusProvider.Update update = status.prepareUpdate()) {
+            RevCommit base;
+            try {
+                base = status.commit();
+            }
+            catch (NoHeadCommitException e) {
+                Gfs.commit(gfs).message(message).author(authorId).execute();
+                return;
+            }
+            ObjectId tree = gfs.flush();
+            gfs.updateOrigin(tree);
+            ObjectId viewTree = baseTree != null ? baseTree : base.getTree();
+            if (tree.equals(viewTree)) {
+                return;
+            }
+            RevCommit newCommit = groupCommit.commit(status.branch(), new GroupCommit.Request(message, authorId,
+                    new PersonIdent(gfs.getRepository()), base, viewTree, tree, indexUpdates, rebaseable));
+            update.commit(newCommit);
+            baseTree = tree;
+            indexUpdates = new ArrayList<>();
+            rebaseable = true;
         }
-        commit.execute();
     }
 
     public void commit(String message) throws IOException {
         commit(message, null, null);
     }
 
+    /**
+     * Logs an index update to be replayed if the transaction is rebased by the group commit
+     */
+    void logIndexUpdate(String indexName, Collection<String[]> deleted, Collection<IndexEntry> inserted) {
+        if (deleted.isEmpty() && inserted.isEmpty()) {
+            return;
+        }
+        indexUpdates.add(new GroupCommit.IndexUpdate(indexName, deleted, inserted));
+    }
+
+    /**
+     * Marks the transaction as not rebaseable, its index changes can't be replayed
+     */
+    void indexRewritten() {
+        rebaseable = false;
+    }
+
     public GitPath getIdPath(EntityId entityId) {
         String idStr = entityId.getId();
         String idDir = idStr.substring(0, 2);
@@ -163,6 +232,14 @@ public class Transaction implements Closeable {
         return entity;
     }
 
+    public String getRev(EntityId entityId) throws IOException {
+        ObjectId objectId = getObjectId(getIdPath(entityId));
+        if (objectId == null) {
+            throw new IOException("Entity not found: " + entityId.getId());
+        }
+        return objectId.getName();
+    }
+
     public Entity load(EntityId entityId) throws IOException {
         GitPath path = getIdPath(entityId);
         ObjectId objectId = getObjectId(path);
@@ -12,7 +12,6 @@ import com.orientechnologies.orient.core.db.ODatabaseType;
 import com.orientechnologies.orient.core.db.OrientDBConfig;
 import com.orientechnologies.orient.core.db.document.ODatabaseDocument;
 import com.orientechnologies.orient.core.db.record.OIdentifiable;
-import com.orientechnologies.orient.core.exception.OConcurrentModificationException;
 import com.orientechnologies.orient.core.id.ORecordId;
 import com.orientechnologies.orient.core.index.OIndex;
 import com.orientechnologies.orient.core.index.OSimpleKeyIndexDefinition;
@@ -33,9 +32,11 @@ import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.boot.autoconfigure.condition.ConditionalOnBean;
 import org.springframework.stereotype.Service;
+import ru.neoflex.meta.emforientdb.SessionFactory;
 import ru.neoflex.nfcore.base.services.Authorization;
 import ru.neoflex.nfcore.base.services.Context;
 import ru.neoflex.nfcore.base.services.Store;
+import ru.neoflex.nfcore.base.services.TransactionRetry;
 import ru.neoflex.nfcore.base.services.providers.OrientDBStoreProvider;
 import ru.neoflex.nfcore.base.util.DocFinder;
 import ru.neoflex.nfcore.masterdata.*;
@@ -60,6 +61,8 @@ public class MasterdataProvider {
     Store store;
     @Autowired
     Context context;
+    @Autowired
+    TransactionRetry transactionRetry;
     @Value("${masterdata.dbname:masterdata}")
     String masterdataDbName;
 
@@ -440,41 +443,26 @@ public class MasterdataProvider {
     }
 
     public <R> R inTransaction(Function<ODatabaseDocument, R> f) {
-        int delay = 1;
-        int maxDelay = 1000;
-        int maxAttempts = 100;
-        int attempt = 1;
-        while (true) {
-            try {
-                return withDatabase(database -> {
-                    database.begin(OTransaction.TXTYPE.OPTIMISTIC);
-                    try {
-                        return f.apply(database);
-                    }
-                    catch (Throwable tx) {
-                        database.rollback();
-                        throw tx;
-                    }
-                    finally {
-                        database.commit(true);
-                    }
-                });
-            }
-            catch (OConcurrentModificationException e) {
-                String message = e.getClass().getSimpleName() + ": " + e.getMessage() + " attempt no " + attempt;
-                logger.debug(message);
-                if (++attempt > maxAttempts) {
-                    throw e;
-                }
+        try {
+            return transactionRetry.call("masterdata", () -> withDatabase(database -> {
+                database.begin(OTransaction.TXTYPE.OPTIMISTIC);
                 try {
-                    Thread.sleep(delay);
-                } catch (InterruptedException ex) {
+                    return f.apply(database);
                 }
-                if (delay < maxDelay) {
-                    delay *= 2;
+                catch (Throwable tx) {
+                    database.rollback();
+                    throw tx;
                 }
-                continue;
-            }
+                finally {
+                    database.commit(true);
+                }
+            }), SessionFactory::getConflictKey);
+        }
+        catch (RuntimeException e) {
+            throw e;
+        }
+        catch (Exception e) {
+            throw new RuntimeException(e);
         }
     }
 